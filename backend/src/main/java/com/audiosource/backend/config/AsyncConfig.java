@@ -1,5 +1,6 @@
 package com.audiosource.backend.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
@@ -7,6 +8,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -23,6 +25,67 @@ public class AsyncConfig implements AsyncConfigurer {
         return executor;
     }
 
+    /* Bounded pool used to separate the segments of long tracks concurrently (see DemucsProcessingService). When the
+     * queue is full the job thread separates the segment itself instead of failing the job. */
+    @Bean(name = "segmentExecutor")
+    public Executor segmentExecutor(@Value("${demucs.segmentation.parallelism:4}") int parallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setQueueCapacity(100);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setThreadNamePrefix("Segment-");
+        executor.initialize();
+        return executor;
+    }
+
+    /* Pool of the ranged GETs of mid-size S3 downloads (see S3DownloadService). The queue is unbounded since every
+     * download submits all its parts at once. */
+    @Bean(name = "s3DownloadExecutor")
+    public Executor s3DownloadExecutor(@Value("${aws.s3.download.parallelism:8}") int parallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setThreadNamePrefix("S3Download-");
+        executor.initialize();
+        return executor;
+    }
+
+    /* Pool of the parts of the ZIP files streamed to S3 (see S3MultipartUploadStream), every upload keeps at most
+     * maxInFlightParts parts in it. */
+    @Bean(name = "s3UploadExecutor")
+    public Executor s3UploadExecutor(@Value("${aws.s3.upload.maxInFlightParts:4}") int maxInFlightParts) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxInFlightParts);
+        executor.setMaxPoolSize(maxInFlightParts);
+        executor.setThreadNamePrefix("S3Upload-");
+        executor.initialize();
+        return executor;
+    }
+
+    /* Pool compressing the files of the results concurrently (see ParallelZipWriter), one task per file. */
+    @Bean(name = "zipExecutor")
+    public Executor zipExecutor(@Value("${aws.s3.upload.zipParallelism:4}") int parallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setThreadNamePrefix("Zip-");
+        executor.initialize();
+        return executor;
+    }
+
+    /* Pool zipping the results uploaded asynchronously (see S3UploadService.uploadDirectoryAsZipAsync). The uploads
+     * themselves run in the transfer manager, and RabbitMQ delivers at most maxInFlightUploads results at a time. */
+    @Bean(name = "resultUploadExecutor")
+    public Executor resultUploadExecutor(@Value("${processedFiles.queue.maxInFlightUploads:4}") int maxInFlightUploads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxInFlightUploads);
+        executor.setMaxPoolSize(maxInFlightUploads);
+        executor.setThreadNamePrefix("ResultUpload-");
+        executor.initialize();
+        return executor;
+    }
+
     @Override
     public Executor getAsyncExecutor() {
         return taskExecutor();
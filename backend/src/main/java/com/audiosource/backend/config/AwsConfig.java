@@ -16,6 +16,8 @@ import static software.amazon.awssdk.transfer.s3.SizeConstant.MB;
 
 @Configuration
 public class AwsConfig {
+    /* Part size of the CRT client used by the S3TransferManager */
+    private static final long TRANSFER_PART_SIZE = 8 * MB;
 
     private final Dotenv dotenv;
 
@@ -53,19 +55,20 @@ public class AwsConfig {
                 .build();
     }
 
-    @Bean
+    @Bean(destroyMethod = "close")
     public S3AsyncClient s3AsyncClient() {
         return S3AsyncClient.crtBuilder()
                 .region(awsRegion())
                 .credentialsProvider(StaticCredentialsProvider.create(awsCredentials()))
                 .targetThroughputInGbps(20.0)
-                .minimumPartSizeInBytes(8 * MB)
+                .minimumPartSizeInBytes(TRANSFER_PART_SIZE)
                 .build();
     }
 
-    @Bean
-    public S3TransferManager transferManager() {
-        S3AsyncClient s3AsyncClient = s3AsyncClient();
+    /* The transfer manager and its CRT client keep their connection pools for the whole life of the application,
+     * they are shared by every transfer and only closed when the context shuts down. */
+    @Bean(destroyMethod = "close")
+    public S3TransferManager transferManager(S3AsyncClient s3AsyncClient) {
         return S3TransferManager.builder()
                 .s3Client(s3AsyncClient)
                 .build();
@@ -0,0 +1,10 @@
+package com.audiosource.backend.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    // This class enables the @Scheduled background tasks (e.g. Demucs worker health checks).
+}
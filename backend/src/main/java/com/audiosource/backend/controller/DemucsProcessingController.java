@@ -1,24 +1,43 @@
 package com.audiosource.backend.controller;
 
+import com.audiosource.backend.dto.ProcessingProgress;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.demucs.DemucsCpuScheduler;
+import com.audiosource.backend.service.demucs.DemucsMemoryAdmissionController;
 import com.audiosource.backend.service.demucs.DemucsProcessingService;
+import com.audiosource.backend.service.demucs.DemucsProgressTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/demucs")
 public class DemucsProcessingController {
     private static final Logger LOGGER = LoggerFactory.getLogger(DemucsProcessingController.class);
     private final DemucsProcessingService demucsProcessingService;
+    private final DemucsCpuScheduler demucsCpuScheduler;
+    private final DemucsMemoryAdmissionController demucsMemoryAdmissionController;
+    private final DemucsProgressTracker demucsProgressTracker;
+    private final InputCacheService inputCacheService;
 
     @Autowired
-    public DemucsProcessingController(DemucsProcessingService demucsProcessingService) {
+    public DemucsProcessingController(DemucsProcessingService demucsProcessingService, DemucsCpuScheduler demucsCpuScheduler,
+                                      DemucsMemoryAdmissionController demucsMemoryAdmissionController,
+                                      DemucsProgressTracker demucsProgressTracker, InputCacheService inputCacheService) {
         this.demucsProcessingService = demucsProcessingService;
+        this.demucsCpuScheduler = demucsCpuScheduler;
+        this.demucsMemoryAdmissionController = demucsMemoryAdmissionController;
+        this.demucsProgressTracker = demucsProgressTracker;
+        this.inputCacheService = inputCacheService;
     }
 
     @GetMapping("/status")
@@ -37,4 +56,48 @@ public class DemucsProcessingController {
                     .body("An error occurred while checking the service status");
         }
     }
+
+    /* Current usage of the Demucs CPU slots, to see how busy the node is and how many jobs are queued. */
+    @GetMapping("/slots")
+    public ResponseEntity<Map<String, Integer>> getSlotUsage() {
+        Map<String, Integer> slotUsage = new LinkedHashMap<>();
+        slotUsage.put("coreBudget", demucsCpuScheduler.getCoreBudget());
+        slotUsage.put("threadsPerJob", demucsCpuScheduler.getThreadsPerJob());
+        slotUsage.put("totalSlots", demucsCpuScheduler.getTotalSlots());
+        slotUsage.put("slotsInUse", demucsCpuScheduler.getSlotsInUse());
+        slotUsage.put("queuedJobs", demucsCpuScheduler.getQueuedJobs());
+        return ResponseEntity.ok(slotUsage);
+    }
+
+    /* Memory reserved by the running Demucs jobs and the calibrated cost used to predict new ones. */
+    @GetMapping("/memory")
+    public ResponseEntity<Map<String, Long>> getMemoryUsage() {
+        Map<String, Long> memoryUsage = new LinkedHashMap<>();
+        memoryUsage.put("budgetBytes", demucsMemoryAdmissionController.getBudgetBytes());
+        memoryUsage.put("reservedBytes", demucsMemoryAdmissionController.getReservedBytes());
+        memoryUsage.put("bytesPerSecondOfAudio", demucsMemoryAdmissionController.getBytesPerSecond());
+        memoryUsage.put("queuedJobs", (long) demucsMemoryAdmissionController.getQueuedJobs());
+        return ResponseEntity.ok(memoryUsage);
+    }
+
+    /* Counters and usage of the node-local cache of downloaded originals. */
+    @GetMapping("/input-cache")
+    public ResponseEntity<Map<String, Long>> getInputCacheStats() {
+        Map<String, Long> inputCacheStats = new LinkedHashMap<>();
+        inputCacheStats.put("hits", inputCacheService.getHits());
+        inputCacheStats.put("misses", inputCacheService.getMisses());
+        inputCacheStats.put("evictions", inputCacheService.getEvictions());
+        inputCacheStats.put("entries", (long) inputCacheService.getEntryCount());
+        inputCacheStats.put("usedBytes", inputCacheService.getUsedBytes());
+        inputCacheStats.put("maxBytes", inputCacheService.getMaxBytes());
+        return ResponseEntity.ok(inputCacheStats);
+    }
+
+    /* Latest Demucs progress of a job processed by this node. */
+    @GetMapping("/progress/{correlationId}")
+    public ResponseEntity<ProcessingProgress> getProgress(@PathVariable String correlationId) {
+        return demucsProgressTracker.getProgress(correlationId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 }
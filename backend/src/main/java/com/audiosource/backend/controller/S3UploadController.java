@@ -2,9 +2,12 @@ package com.audiosource.backend.controller;
 
 import com.audiosource.backend.dto.AudioFileMessage;
 import com.audiosource.backend.dto.ClientUploadRequest;
+import com.audiosource.backend.dto.MultipartUploadInitiation;
+import com.audiosource.backend.dto.MultipartUploadRequest;
 import com.audiosource.backend.exception.S3UploadException;
 import com.audiosource.backend.messaging.producer.AudioFilesProducerService;
 import com.audiosource.backend.service.metadata.FileMetadataService;
+import com.audiosource.backend.service.s3.S3MultipartUploadService;
 import com.audiosource.backend.service.s3.S3UploadService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,20 +24,24 @@ import java.util.Map;
 
 /**
  * REST controller for handling S3 file upload operations.
- * Provides endpoints to upload files to S3 and generate pre-signed URLs.
+ * Provides endpoints to upload files to S3 and generate pre-signed URLs,
+ * either for a single PUT or for the parts of a multipart upload.
  */
 @RestController
 @RequestMapping("/s3/upload")
 public class S3UploadController {
     private final S3UploadService s3UploadService;
+    private final S3MultipartUploadService s3MultipartUploadService;
     private final AudioFilesProducerService audioFilesProducerService;
     private final FileMetadataService fileMetadataService;
     private static final Logger LOGGER = LoggerFactory.getLogger(S3UploadController.class);
 
     @Autowired
-    public S3UploadController(AudioFilesProducerService audioFilesProducerService, S3UploadService s3UploadService, FileMetadataService fileMetadataService) {
+    public S3UploadController(AudioFilesProducerService audioFilesProducerService, S3UploadService s3UploadService,
+                              S3MultipartUploadService s3MultipartUploadService, FileMetadataService fileMetadataService) {
         this.audioFilesProducerService = audioFilesProducerService;
         this.s3UploadService = s3UploadService;
+        this.s3MultipartUploadService = s3MultipartUploadService;
         this.fileMetadataService = fileMetadataService;
     }
 
@@ -74,6 +81,99 @@ public class S3UploadController {
         }
     }
 
+    /**
+     * Starts a multipart upload for large files, so that the client can upload the parts in parallel
+     * and retry only the parts that failed instead of the whole file.
+     *
+     * @param request The key, contentType and fileSize of the file to upload.
+     * @return ResponseEntity with the uploadId, partSize and partCount, or an error message if the upload cannot start.
+     */
+    @PostMapping("/multipart/initiate")
+    public ResponseEntity<?> initiateMultipartUpload(@RequestBody MultipartUploadRequest request) {
+        try {
+            MultipartUploadInitiation initiation = s3MultipartUploadService.initiateUpload(
+                    request.getKey(), request.getContentType(), request.getFileSize());
+            return ResponseEntity.ok(initiation);
+
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid request: {}", request, e);
+            return ResponseEntity.badRequest().body("Invalid input: " + e.getMessage());
+        } catch (S3UploadException e) {
+            LOGGER.error("Error initiating multipart upload for key: {}", request.getKey(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to initiate multipart upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the pre-signed PUT URLs of a batch of parts of a multipart upload.
+     * A part can be signed again to retry it.
+     *
+     * @param request The key, uploadId and partNumbers to sign.
+     * @return ResponseEntity with the pre-signed URLs by part number, or an error message if signing fails.
+     */
+    @PostMapping("/multipart/presign-parts")
+    public ResponseEntity<?> presignMultipartUploadParts(@RequestBody MultipartUploadRequest request) {
+        try {
+            Map<Integer, String> partUrls = s3MultipartUploadService.presignParts(
+                    request.getKey(), request.getUploadId(), request.getPartNumbers());
+            return ResponseEntity.ok(partUrls);
+
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid request: {}", request, e);
+            return ResponseEntity.badRequest().body("Invalid input: " + e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.error("Error pre-signing parts of upload {} for key: {}", request.getUploadId(), request.getKey(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to generate pre-signed part URLs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Completes a multipart upload once the client uploaded every part.
+     * The client then notifies the upload through /notify-client-upload as for single PUT uploads.
+     *
+     * @param request The key, uploadId and the partNumber and etag of every part.
+     * @return ResponseEntity with a success message, or an error message if S3 refuses to complete the upload.
+     */
+    @PostMapping("/multipart/complete")
+    public ResponseEntity<String> completeMultipartUpload(@RequestBody MultipartUploadRequest request) {
+        try {
+            s3MultipartUploadService.completeUpload(request.getKey(), request.getUploadId(), request.getParts());
+            return ResponseEntity.ok("Multipart upload completed successfully");
+
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid request: {}", request, e);
+            return ResponseEntity.badRequest().body("Invalid input: " + e.getMessage());
+        } catch (S3UploadException e) {
+            LOGGER.error("Error completing multipart upload {} for key: {}", request.getUploadId(), request.getKey(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to complete multipart upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Aborts a multipart upload, so that S3 deletes the parts already uploaded.
+     *
+     * @param request The key and uploadId of the upload.
+     * @return ResponseEntity with a success message, or an error message if the upload cannot be aborted.
+     */
+    @PostMapping("/multipart/abort")
+    public ResponseEntity<String> abortMultipartUpload(@RequestBody MultipartUploadRequest request) {
+        try {
+            s3MultipartUploadService.abortUpload(request.getKey(), request.getUploadId());
+            return ResponseEntity.ok("Multipart upload aborted successfully");
+
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Invalid request: {}", request, e);
+            return ResponseEntity.badRequest().body("Invalid input: " + e.getMessage());
+        } catch (S3UploadException e) {
+            LOGGER.error("Error aborting multipart upload {} for key: {}", request.getUploadId(), request.getKey(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to abort multipart upload: " + e.getMessage());
+        }
+    }
+
     /**
      * Notifies the backend when a file upload is successfully completed to S3.
      * This endpoint will be called by the frontend after a successful file upload to S3.
@@ -94,8 +194,8 @@ public class S3UploadController {
             // Generate a unique correlation ID
             String correlationId = java.util.UUID.randomUUID().toString();
 
-            // Save User email, correlation ID, original key name and notification status to the database.
-            fileMetadataService.saveInitialMetadata(correlationId, request.getUserEmail(), request.getKeyName(), "PENDING");
+            // Save User email, correlation ID, original key name, notification status and delivery mode to the database.
+            fileMetadataService.saveInitialMetadata(correlationId, request.getUserEmail(), request.getKeyName(), "PENDING", request.getDeliveryMode());
 
             // Create a new AudioFileMessage object DTO
             AudioFileMessage audioFileMessage = new AudioFileMessage(
@@ -105,6 +205,7 @@ public class S3UploadController {
                     request.getSeparationType(),
                     request.getOutputFormat()
             );
+            audioFileMessage.setProfile(request.getProfile());
 
             // Publish the message to RabbitMQ
             audioFilesProducerService.publishClientUploadNotification(audioFileMessage);
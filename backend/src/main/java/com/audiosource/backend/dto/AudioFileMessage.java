@@ -1,6 +1,7 @@
 package com.audiosource.backend.dto;
 
 import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
 import com.audiosource.backend.enums.SeparationType;
 
 /* This class has all the necessary metadata to be consumed by the S3DownloadService & the DemucsProcessingService*/
@@ -10,6 +11,10 @@ public class AudioFileMessage {
     private long fileSize;
     private SeparationType separationType;
     private OutputFormat outputFormat;
+    private ProcessingProfile profile;
+
+    public AudioFileMessage() {
+    }
 
     public AudioFileMessage(String correlationId, String keyName, long fileSize, SeparationType separationType, OutputFormat outputFormat) {
         this.correlationId = correlationId;
@@ -59,6 +64,14 @@ public class AudioFileMessage {
         this.outputFormat = outputFormat;
     }
 
+    public ProcessingProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(ProcessingProfile profile) {
+        this.profile = profile;
+    }
+
     @Override
     public String toString() {
         return "AudioFileMessage {" +
@@ -67,6 +80,7 @@ public class AudioFileMessage {
                 ", fileSize=" + fileSize +
                 ", separationType='" + separationType + '\'' +
                 ", outputFormat='" + outputFormat + '\'' +
+                ", profile='" + profile + '\'' +
                 '}';
     }
 }
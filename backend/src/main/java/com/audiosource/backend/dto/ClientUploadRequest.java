@@ -1,6 +1,8 @@
 package com.audiosource.backend.dto;
 
+import com.audiosource.backend.enums.DeliveryMode;
 import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
 import com.audiosource.backend.enums.SeparationType;
 
 /* This DTO represents the exact structure of the incoming JSON from the client
@@ -11,6 +13,8 @@ public class ClientUploadRequest {
     private SeparationType separationType;
     private OutputFormat outputFormat;
     private String userEmail;
+    private ProcessingProfile profile; // Optional, BALANCED when missing
+    private DeliveryMode deliveryMode; // Optional, ZIP when missing
 
     public ClientUploadRequest() {
     }
@@ -62,4 +66,20 @@ public class ClientUploadRequest {
     public void setUserEmail(String userEmail) {
         this.userEmail = userEmail;
     }
+
+    public ProcessingProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(ProcessingProfile profile) {
+        this.profile = profile;
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    public void setDeliveryMode(DeliveryMode deliveryMode) {
+        this.deliveryMode = deliveryMode;
+    }
 }
@@ -0,0 +1,43 @@
+package com.audiosource.backend.dto;
+
+/* Returned to the client when a multipart upload starts: the client splits the file in partCount parts of partSize
+bytes (the last one may be smaller) and asks for their pre-signed URLs with the uploadId.*/
+public class MultipartUploadInitiation {
+    private final String key;
+    private final String uploadId;
+    private final long partSize;
+    private final int partCount;
+
+    public MultipartUploadInitiation(String key, String uploadId, long partSize, int partCount) {
+        this.key = key;
+        this.uploadId = uploadId;
+        this.partSize = partSize;
+        this.partCount = partCount;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MultipartUploadInitiation{" +
+                "key='" + key + '\'' +
+                ", uploadId='" + uploadId + '\'' +
+                ", partSize=" + partSize +
+                ", partCount=" + partCount +
+                '}';
+    }
+}
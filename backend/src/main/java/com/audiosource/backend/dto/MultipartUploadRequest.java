@@ -0,0 +1,108 @@
+package com.audiosource.backend.dto;
+
+import java.util.List;
+
+/* The JSON sent by the client to the multipart upload endpoints. Each endpoint reads only the fields it needs:
+initiate the key, contentType and fileSize, presign-parts the key, uploadId and partNumbers, complete the key, uploadId
+and parts, abort the key and uploadId.*/
+public class MultipartUploadRequest {
+    private String key;
+    private String contentType;
+    private long fileSize;
+    private String uploadId;
+    private List<Integer> partNumbers;
+    private List<Part> parts;
+
+    public MultipartUploadRequest() {
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public List<Integer> getPartNumbers() {
+        return partNumbers;
+    }
+
+    public void setPartNumbers(List<Integer> partNumbers) {
+        this.partNumbers = partNumbers;
+    }
+
+    public List<Part> getParts() {
+        return parts;
+    }
+
+    public void setParts(List<Part> parts) {
+        this.parts = parts;
+    }
+
+    @Override
+    public String toString() {
+        return "MultipartUploadRequest{" +
+                "key='" + key + '\'' +
+                ", contentType='" + contentType + '\'' +
+                ", fileSize=" + fileSize +
+                ", uploadId='" + uploadId + '\'' +
+                ", partNumbers=" + partNumbers +
+                ", parts=" + (parts == null ? null : parts.size()) +
+                '}';
+    }
+
+    /* A part uploaded by the client, with the ETag header S3 returned for it. */
+    public static class Part {
+        private int partNumber;
+        private String etag;
+
+        public Part() {
+        }
+
+        public Part(int partNumber, String etag) {
+            this.partNumber = partNumber;
+            this.etag = etag;
+        }
+
+        public int getPartNumber() {
+            return partNumber;
+        }
+
+        public void setPartNumber(int partNumber) {
+            this.partNumber = partNumber;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public void setEtag(String etag) {
+            this.etag = etag;
+        }
+    }
+}
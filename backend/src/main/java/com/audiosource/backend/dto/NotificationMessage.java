@@ -1,9 +1,12 @@
 package com.audiosource.backend.dto;
 
+import java.util.Map;
+
 public class NotificationMessage {
 
     private final String correlationId;
     private final String downloadUrl;
+    private Map<String, String> stemDownloadUrls; // Stem name to pre-signed URL, set in the STEMS delivery mode
 
     public NotificationMessage(String correlationId, String downloadUrl) {
         this.correlationId = correlationId;
@@ -18,11 +21,20 @@ public class NotificationMessage {
         return downloadUrl;
     }
 
+    public Map<String, String> getStemDownloadUrls() {
+        return stemDownloadUrls;
+    }
+
+    public void setStemDownloadUrls(Map<String, String> stemDownloadUrls) {
+        this.stemDownloadUrls = stemDownloadUrls;
+    }
+
     @Override
     public String toString() {
         return "NotificationMessage {" +
                 "correlationId='" + correlationId + '\'' +
                 ", downloadUrl='" + downloadUrl + '\'' +
+                ", stemDownloadUrls=" + stemDownloadUrls +
                 '}';
     }
 }
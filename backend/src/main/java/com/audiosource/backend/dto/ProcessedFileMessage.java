@@ -4,12 +4,22 @@ public class ProcessedFileMessage {
 
     private String correlationId;
     private String processedAudioFilePath;
+    private String resultKeyName; // S3 key of an already uploaded result, set when the result cache is hit
+
+    public ProcessedFileMessage() {
+    }
 
     public ProcessedFileMessage(String correlationId, String processedAudioFilePath) {
         this.correlationId = correlationId;
         this.processedAudioFilePath = processedAudioFilePath;
     }
 
+    public ProcessedFileMessage(String correlationId, String processedAudioFilePath, String resultKeyName) {
+        this.correlationId = correlationId;
+        this.processedAudioFilePath = processedAudioFilePath;
+        this.resultKeyName = resultKeyName;
+    }
+
     public String getCorrelationId() {
         return correlationId;
     }
@@ -26,11 +36,20 @@ public class ProcessedFileMessage {
         this.processedAudioFilePath = processedAudioFilePath;
     }
 
+    public String getResultKeyName() {
+        return resultKeyName;
+    }
+
+    public void setResultKeyName(String resultKeyName) {
+        this.resultKeyName = resultKeyName;
+    }
+
     @Override
     public String toString() {
         return "ProcessedFileMessage {" +
                 "correlationId='" + correlationId + '\'' +
                 ", processedAudioFilePath='" + processedAudioFilePath + '\'' +
+                ", resultKeyName='" + resultKeyName + '\'' +
                 '}';
     }
 }
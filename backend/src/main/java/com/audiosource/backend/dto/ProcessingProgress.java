@@ -0,0 +1,73 @@
+package com.audiosource.backend.dto;
+
+import java.util.Date;
+
+/* Snapshot of the Demucs progress of a job, built from the tqdm output of the Demucs processes. */
+public class ProcessingProgress {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private final String correlationId;
+    private final String status;
+    private final double percent;
+    private final double processedSeconds;
+    private final double totalSeconds;
+    private final Long etaSeconds;
+    private final Date startedAt;
+    private final Date lastOutputAt;
+
+    public ProcessingProgress(String correlationId, String status, double percent, double processedSeconds,
+                              double totalSeconds, Long etaSeconds, Date startedAt, Date lastOutputAt) {
+        this.correlationId = correlationId;
+        this.status = status;
+        this.percent = percent;
+        this.processedSeconds = processedSeconds;
+        this.totalSeconds = totalSeconds;
+        this.etaSeconds = etaSeconds;
+        this.startedAt = startedAt;
+        this.lastOutputAt = lastOutputAt;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public double getPercent() {
+        return percent;
+    }
+
+    public double getProcessedSeconds() {
+        return processedSeconds;
+    }
+
+    public double getTotalSeconds() {
+        return totalSeconds;
+    }
+
+    public Long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public Date getStartedAt() {
+        return startedAt;
+    }
+
+    public Date getLastOutputAt() {
+        return lastOutputAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessingProgress {" +
+                "correlationId='" + correlationId + '\'' +
+                ", status='" + status + '\'' +
+                ", percent=" + percent +
+                ", etaSeconds=" + etaSeconds +
+                '}';
+    }
+}
@@ -1,10 +1,12 @@
 package com.audiosource.backend.entities;
 
+import com.audiosource.backend.enums.DeliveryMode;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
+import java.util.Map;
 
 @Document(collection = "file_metadata")
 public class FileMetadata {
@@ -15,7 +17,18 @@ public class FileMetadata {
     private String userEmail;
     private String originalKeyName;
     private String downloadUrl;
+    private DeliveryMode deliveryMode;
+    private Map<String, String> stemDownloadUrls; // Stem name to pre-signed URL, in the STEMS delivery mode
     private String notificationStatus;
+    private String cacheKey;
+    private String resultKeyName;
+    private String processingStatus;
+    private Double processingProgress;
+    private Date progressUpdatedAt;
+    private String audioFormat;
+    private Double durationSeconds;
+    private Integer sampleRate;
+    private Integer channels;
     @CreatedDate
     private Date createdAt;
 
@@ -62,6 +75,22 @@ public class FileMetadata {
         this.downloadUrl = downloadUrl;
     }
 
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    public void setDeliveryMode(DeliveryMode deliveryMode) {
+        this.deliveryMode = deliveryMode;
+    }
+
+    public Map<String, String> getStemDownloadUrls() {
+        return stemDownloadUrls;
+    }
+
+    public void setStemDownloadUrls(Map<String, String> stemDownloadUrls) {
+        this.stemDownloadUrls = stemDownloadUrls;
+    }
+
     public String getNotificationStatus() {
         return notificationStatus;
     }
@@ -70,6 +99,78 @@ public class FileMetadata {
         this.notificationStatus = notificationStatus;
     }
 
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getResultKeyName() {
+        return resultKeyName;
+    }
+
+    public void setResultKeyName(String resultKeyName) {
+        this.resultKeyName = resultKeyName;
+    }
+
+    public String getProcessingStatus() {
+        return processingStatus;
+    }
+
+    public void setProcessingStatus(String processingStatus) {
+        this.processingStatus = processingStatus;
+    }
+
+    public Double getProcessingProgress() {
+        return processingProgress;
+    }
+
+    public void setProcessingProgress(Double processingProgress) {
+        this.processingProgress = processingProgress;
+    }
+
+    public Date getProgressUpdatedAt() {
+        return progressUpdatedAt;
+    }
+
+    public void setProgressUpdatedAt(Date progressUpdatedAt) {
+        this.progressUpdatedAt = progressUpdatedAt;
+    }
+
+    public String getAudioFormat() {
+        return audioFormat;
+    }
+
+    public void setAudioFormat(String audioFormat) {
+        this.audioFormat = audioFormat;
+    }
+
+    public Double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(Double durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public Integer getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(Integer sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public Integer getChannels() {
+        return channels;
+    }
+
+    public void setChannels(Integer channels) {
+        this.channels = channels;
+    }
+
     public Date getCreatedAt() {
         return createdAt;
     }
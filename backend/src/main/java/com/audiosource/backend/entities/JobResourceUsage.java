@@ -0,0 +1,133 @@
+package com.audiosource.backend.entities;
+
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/* Resources used by one Demucs process, recorded by the DemucsProcessWatchdog for capacity planning. */
+@Document(collection = "job_resource_usage")
+public class JobResourceUsage {
+    public static final String OUTCOME_COMPLETED = "COMPLETED";
+    public static final String OUTCOME_FAILED = "FAILED";
+    public static final String OUTCOME_TIMED_OUT = "TIMED_OUT";
+    public static final String OUTCOME_STALLED = "STALLED";
+
+    @Id
+    private String id;
+    private String correlationId;
+    private String inputFileName;
+    private long inputSizeBytes;
+    private double audioDurationSeconds;
+    private int threads;
+    private long wallTimeMillis;
+    private long cpuTimeMillis;
+    private long peakRssBytes;
+    private String outcome;
+    @CreatedDate
+    private Date createdAt;
+
+    public JobResourceUsage() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public void setCorrelationId(String correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    public String getInputFileName() {
+        return inputFileName;
+    }
+
+    public void setInputFileName(String inputFileName) {
+        this.inputFileName = inputFileName;
+    }
+
+    public long getInputSizeBytes() {
+        return inputSizeBytes;
+    }
+
+    public void setInputSizeBytes(long inputSizeBytes) {
+        this.inputSizeBytes = inputSizeBytes;
+    }
+
+    public double getAudioDurationSeconds() {
+        return audioDurationSeconds;
+    }
+
+    public void setAudioDurationSeconds(double audioDurationSeconds) {
+        this.audioDurationSeconds = audioDurationSeconds;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public void setWallTimeMillis(long wallTimeMillis) {
+        this.wallTimeMillis = wallTimeMillis;
+    }
+
+    public long getCpuTimeMillis() {
+        return cpuTimeMillis;
+    }
+
+    public void setCpuTimeMillis(long cpuTimeMillis) {
+        this.cpuTimeMillis = cpuTimeMillis;
+    }
+
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public void setPeakRssBytes(long peakRssBytes) {
+        this.peakRssBytes = peakRssBytes;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(String outcome) {
+        this.outcome = outcome;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "JobResourceUsage {" +
+                "correlationId='" + correlationId + '\'' +
+                ", inputFileName='" + inputFileName + '\'' +
+                ", wallTimeMillis=" + wallTimeMillis +
+                ", cpuTimeMillis=" + cpuTimeMillis +
+                ", peakRssBytes=" + peakRssBytes +
+                ", outcome='" + outcome + '\'' +
+                '}';
+    }
+}
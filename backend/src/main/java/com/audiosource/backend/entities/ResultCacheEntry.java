@@ -0,0 +1,112 @@
+package com.audiosource.backend.entities;
+
+import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.SeparationType;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/* Index entry of the separation result cache, keyed by the SHA-256 of the input plus the separation options. */
+@Document(collection = "result_cache")
+public class ResultCacheEntry {
+
+    @Id
+    private String id;
+    @Indexed(unique = true)
+    private String cacheKey;
+    private String contentHash;
+    private SeparationType separationType;
+    private OutputFormat outputFormat;
+    private String localPath;
+    private long localSizeBytes;
+    private String resultKeyName;
+    private Date lastAccessedAt;
+    @CreatedDate
+    private Date createdAt;
+
+    public ResultCacheEntry() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public SeparationType getSeparationType() {
+        return separationType;
+    }
+
+    public void setSeparationType(SeparationType separationType) {
+        this.separationType = separationType;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    public void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    public void setLocalPath(String localPath) {
+        this.localPath = localPath;
+    }
+
+    public long getLocalSizeBytes() {
+        return localSizeBytes;
+    }
+
+    public void setLocalSizeBytes(long localSizeBytes) {
+        this.localSizeBytes = localSizeBytes;
+    }
+
+    public String getResultKeyName() {
+        return resultKeyName;
+    }
+
+    public void setResultKeyName(String resultKeyName) {
+        this.resultKeyName = resultKeyName;
+    }
+
+    public Date getLastAccessedAt() {
+        return lastAccessedAt;
+    }
+
+    public void setLastAccessedAt(Date lastAccessedAt) {
+        this.lastAccessedAt = lastAccessedAt;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,12 @@
+package com.audiosource.backend.enums;
+
+/* How the separated stems are delivered: ZIP uploads them as one archive with one download URL, STEMS uploads every
+ * stem as its own S3 object with its own pre-signed URL, so that clients download only the stems they need. */
+public enum DeliveryMode {
+    ZIP,
+    STEMS;
+
+    public static DeliveryMode orDefault(DeliveryMode deliveryMode) {
+        return deliveryMode != null ? deliveryMode : ZIP;
+    }
+}
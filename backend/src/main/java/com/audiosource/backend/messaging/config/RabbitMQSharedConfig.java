@@ -1,5 +1,7 @@
 package com.audiosource.backend.messaging.config;
 
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
@@ -10,6 +12,7 @@ import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.retry.interceptor.RetryOperationsInterceptor;
 
 @Configuration
 public class RabbitMQSharedConfig {
@@ -63,4 +66,51 @@ public class RabbitMQSharedConfig {
         return factory;
     }
 
+    /* For listeners returning a CompletableFuture : the message is acknowledged when the future completes instead of
+     * when the listener returns, so that a message whose processing is still running is redelivered if the backend
+     * stops. The prefetch count caps the unacknowledged messages, i.e. the messages processed at the same time.
+     * These listeners turn their own errors into completed futures; a listener that still throws, e.g. on a message
+     * that cannot be converted, is retried and then rejected. */
+    @Bean
+    public RabbitListenerContainerFactory<?> asyncAckListenerContainerFactory(ConnectionFactory connectionFactory,
+            @Value("${processedFiles.queue.maxInFlightUploads:4}") int maxInFlightUploads) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(new Jackson2JsonMessageConverter());
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(maxInFlightUploads);
+        factory.setAdviceChain(retryThenReject());
+        return factory;
+    }
+
+    /* Same acknowledgement for the AudioFilesQueue, whose listener hands the jobs to the AudioFilePrefetcher: every
+     * job waiting for its download or its separation keeps its message unacknowledged, plus the one the listener is
+     * blocked on. */
+    @Bean
+    public RabbitListenerContainerFactory<?> audioFilesListenerContainerFactory(ConnectionFactory connectionFactory,
+            @Value("${audioFiles.prefetch.depth:2}") int prefetchDepth,
+            @Value("${audioFiles.prefetch.separationThreads:1}") int separationThreads) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(new Jackson2JsonMessageConverter());
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(prefetchDepth + separationThreads + 1);
+        factory.setAdviceChain(retryThenReject());
+        return factory;
+    }
+
+    /* Same retry policy as the default factory. With MANUAL acknowledgement the container neither acks nor nacks a
+     * message whose listener threw, so once the retries are exhausted the message is rejected explicitly, to the
+     * dead-letter exchange of its queue when it has one. */
+    private static RetryOperationsInterceptor retryThenReject() {
+        return RetryInterceptorBuilder
+                .stateless()
+                .maxAttempts(5)
+                .backOffOptions(1000, 2.0, 10000)
+                .recoverer((message, cause) -> {
+                    throw new AmqpRejectAndDontRequeueException("Retry Policy Exhausted", true, cause);
+                })
+                .build();
+    }
+
 }
@@ -0,0 +1,251 @@
+package com.audiosource.backend.messaging.consumer;
+
+import com.audiosource.backend.dto.AudioFileMessage;
+import com.audiosource.backend.dto.ProcessingContext;
+import com.audiosource.backend.service.s3.S3DownloadService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Downloads the originals of upcoming jobs while the current ones are separated, so that the network and the CPU
+ * work at the same time. Up to `depth` jobs are downloaded ahead of the separation threads, as long as their sizes
+ * fit in the disk budget; the listener thread blocks beyond that, which leaves the next messages in RabbitMQ.
+ * Jobs are handed to the separation threads in the order they were received, whatever order their downloads end in.
+ * A job leaves the prefetch stage (and frees its slot) when its separation starts. The disk budget is charged with the
+ * real size of the original, from the input cache or from the HEAD request its download reuses, not with the size
+ * reported by the client.
+ */
+@Component
+public class AudioFilePrefetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AudioFilePrefetcher.class);
+
+    private final S3DownloadService s3DownloadService;
+
+    @Value("${audioFiles.prefetch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audioFiles.prefetch.depth:2}")
+    private int depth;
+
+    @Value("${audioFiles.prefetch.maxBytes:2147483648}")
+    private long maxBytes;
+
+    @Value("${audioFiles.prefetch.separationThreads:1}")
+    private int separationThreads;
+
+    private final BlockingQueue<PrefetchedJob> prefetchedJobs = new LinkedBlockingQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private int pendingJobs;
+    private long reservedBytes;
+
+    private ExecutorService downloadExecutor;
+    private ExecutorService separationExecutor;
+    private volatile boolean shuttingDown;
+
+    @Autowired
+    public AudioFilePrefetcher(S3DownloadService s3DownloadService) {
+        this.s3DownloadService = s3DownloadService;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            LOGGER.info("Audio file prefetching is disabled, every job is downloaded when its separation starts.");
+            return;
+        }
+        downloadExecutor = Executors.newFixedThreadPool(depth, namedThreads("Prefetch-"));
+        separationExecutor = Executors.newFixedThreadPool(separationThreads, namedThreads("Separation-"));
+        for (int i = 0; i < separationThreads; i++) {
+            separationExecutor.execute(this::separateInOrder);
+        }
+        LOGGER.info("Prefetching up to {} jobs ({} bytes) ahead of {} separation threads", depth, maxBytes, separationThreads);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts downloading the original of the job and queues it for separation. Blocks while `depth` jobs are already
+     * waiting for a separation thread or while their sizes use the disk budget; a single job larger than the budget
+     * is accepted once no other job is pending.
+     *
+     * @param audioFileMessage The job received from the AudioFilesQueue.
+     * @param processor Separates the downloaded file, called on a separation thread.
+     * @return Completes when the job is done with: once the processor returned or the download failed. It completes
+     *         exceptionally when the job is dropped on shutdown, so that its message goes back to the queue.
+     * @throws InterruptedException If the listener thread is interrupted while waiting for a slot.
+     */
+    public CompletableFuture<Void> submit(AudioFileMessage audioFileMessage, Consumer<ProcessingContext> processor) throws InterruptedException {
+        return submit(audioFileMessage, s3DownloadService.inspectObject(audioFileMessage), processor, failedMessage -> { });
+    }
+
+    /* Same as submit(AudioFileMessage, Consumer) for an original the caller already inspected, with a callback run on
+     * the separation thread instead of the processor when the download fails, e.g. to free the resources held for the job. */
+    public CompletableFuture<Void> submit(AudioFileMessage audioFileMessage, S3DownloadService.ObjectInfo objectInfo,
+                                          Consumer<ProcessingContext> processor, Consumer<AudioFileMessage> onDownloadFailure) throws InterruptedException {
+        long sizeBytes = Math.max(0, objectInfo.getSizeBytes());
+        lock.lockInterruptibly();
+        try {
+            while (pendingJobs >= depth || (pendingJobs > 0 && reservedBytes + sizeBytes > maxBytes)) {
+                slotFreed.await();
+            }
+            pendingJobs++;
+            reservedBytes += sizeBytes;
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture<Optional<String>> download = CompletableFuture.supplyAsync(
+                () -> s3DownloadService.getObjectFromBucket(audioFileMessage, objectInfo), downloadExecutor);
+        PrefetchedJob job = new PrefetchedJob(audioFileMessage, sizeBytes, download, processor, onDownloadFailure);
+        prefetchedJobs.put(job);
+        if (shuttingDown && prefetchedJobs.remove(job)) {
+            drop(job);
+        }
+        return job.completion;
+    }
+
+    // Separation threads take the jobs in order and wait for their download if it is still running
+    private void separateInOrder() {
+        while (!shuttingDown) {
+            PrefetchedJob job;
+            try {
+                job = prefetchedJobs.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                separate(job);
+            } finally {
+                job.completion.complete(null);
+            }
+        }
+    }
+
+    private void separate(PrefetchedJob job) {
+        Optional<String> downloadedFilePath;
+        try {
+            downloadedFilePath = job.download.join();
+        } catch (RuntimeException e) {
+            LOGGER.error("Download of correlation ID {} failed: {}", job.audioFileMessage.getCorrelationId(), e.getMessage(), e);
+            downloadedFilePath = Optional.empty();
+        } finally {
+            release(job.sizeBytes);
+        }
+
+        // A download interrupted by the shutdown did not fail, the job is requeued
+        if (downloadedFilePath.isEmpty() && shuttingDown) {
+            drop(job);
+            return;
+        }
+        if (downloadedFilePath.isEmpty()) {
+            LOGGER.error("Failed to download file for correlation ID {}", job.audioFileMessage.getCorrelationId());
+            try {
+                job.onDownloadFailure.accept(job.audioFileMessage);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Cleanup after the failed download of correlation ID {} failed: {}", job.audioFileMessage.getCorrelationId(), e.getMessage(), e);
+            }
+            return;
+        }
+        try {
+            job.processor.accept(new ProcessingContext(downloadedFilePath.get(), job.audioFileMessage));
+        } catch (RuntimeException e) {
+            LOGGER.error("Processing of correlation ID {} failed: {}", job.audioFileMessage.getCorrelationId(), e.getMessage(), e);
+        }
+    }
+
+    private void release(long sizeBytes) {
+        lock.lock();
+        try {
+            pendingJobs--;
+            reservedBytes -= sizeBytes;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPendingJobs() {
+        lock.lock();
+        try {
+            return pendingJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getReservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* The messages of the jobs still queued here are not acknowledged yet, they go back to the queue. */
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        shuttingDown = true;
+        List<PrefetchedJob> droppedJobs = new ArrayList<>();
+        prefetchedJobs.drainTo(droppedJobs);
+        droppedJobs.forEach(this::drop);
+        separationExecutor.shutdownNow();
+        downloadExecutor.shutdownNow();
+    }
+
+    private void drop(PrefetchedJob job) {
+        LOGGER.warn("Dropping prefetched job {} on shutdown, its message is requeued", job.audioFileMessage);
+        job.completion.completeExceptionally(new IllegalStateException(
+                "Prefetched job " + job.audioFileMessage.getCorrelationId() + " was dropped on shutdown"));
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger threadIds = new AtomicInteger();
+        return runnable -> new Thread(runnable, prefix + threadIds.incrementAndGet());
+    }
+
+    private static class PrefetchedJob {
+        private final AudioFileMessage audioFileMessage;
+        private final long sizeBytes;
+        private final CompletableFuture<Optional<String>> download;
+        private final Consumer<ProcessingContext> processor;
+        private final Consumer<AudioFileMessage> onDownloadFailure;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        private PrefetchedJob(AudioFileMessage audioFileMessage, long sizeBytes, CompletableFuture<Optional<String>> download,
+                              Consumer<ProcessingContext> processor, Consumer<AudioFileMessage> onDownloadFailure) {
+            this.audioFileMessage = audioFileMessage;
+            this.sizeBytes = sizeBytes;
+            this.download = download;
+            this.processor = processor;
+            this.onDownloadFailure = onDownloadFailure;
+        }
+    }
+}
@@ -5,20 +5,33 @@ import com.audiosource.backend.dto.ErrorProcessingMessage;
 import com.audiosource.backend.dto.ProcessedFileMessage;
 import com.audiosource.backend.dto.ProcessingContext;
 import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.enums.DeliveryMode;
+import com.audiosource.backend.enums.ProcessingProfile;
+import com.audiosource.backend.enums.SeparationType;
 import com.audiosource.backend.exception.DemucsProcessingException;
 import com.audiosource.backend.messaging.producer.ProcessedFilesProducerService;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.cache.ResultCacheService;
 import com.audiosource.backend.service.demucs.DemucsProcessingService;
+import com.audiosource.backend.service.demucs.DemucsProgressTracker;
 import com.audiosource.backend.service.metadata.FileMetadataService;
 import com.audiosource.backend.service.s3.S3DownloadService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
+import com.audiosource.backend.util.AudioProbe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class AudioFilesConsumerService {
@@ -26,34 +39,93 @@ public class AudioFilesConsumerService {
     private final FileMetadataService fileMetadataService;
     private final DemucsProcessingService demucsProcessingService;
     private final ProcessedFilesProducerService processedFilesProducerService;
+    private final ResultCacheService resultCacheService;
+    private final DemucsProgressTracker demucsProgressTracker;
+    private final InputCacheService inputCacheService;
+    private final AudioFilePrefetcher audioFilePrefetcher;
+    private final ScratchSpaceManager scratchSpaceManager;
     private static final Logger LOGGER = LoggerFactory.getLogger(AudioFilesConsumerService.class);
 
     @Autowired
-    public AudioFilesConsumerService(S3DownloadService s3DownloadService, FileMetadataService fileMetadataService, DemucsProcessingService demucsProcessingService, ProcessedFilesProducerService processedFilesProducerService) {
+    public AudioFilesConsumerService(S3DownloadService s3DownloadService, FileMetadataService fileMetadataService, DemucsProcessingService demucsProcessingService, ProcessedFilesProducerService processedFilesProducerService, ResultCacheService resultCacheService, DemucsProgressTracker demucsProgressTracker, InputCacheService inputCacheService, AudioFilePrefetcher audioFilePrefetcher, ScratchSpaceManager scratchSpaceManager) {
         this.s3DownloadService = s3DownloadService;
         this.fileMetadataService = fileMetadataService;
         this.demucsProcessingService = demucsProcessingService;
         this.processedFilesProducerService = processedFilesProducerService;
+        this.resultCacheService = resultCacheService;
+        this.demucsProgressTracker = demucsProgressTracker;
+        this.inputCacheService = inputCacheService;
+        this.audioFilePrefetcher = audioFilePrefetcher;
+        this.scratchSpaceManager = scratchSpaceManager;
     }
 
     /* Consumes the AudioFileMessage from RabbitMQ (`audioFilesQueue`) and initiates the audio processing workflow which:
      * 1. Downloads the audio file from S3 bucket using S3DownloadService
      * 2. Processes the audio file using DemucsProcessingService
+     * The message is acknowledged when the returned future completes, i.e. once the job is done with, so that the jobs
+     * still waiting in the AudioFilePrefetcher are redelivered if the backend stops. Any other error rejects the
+     * message without requeueing it, as the container would leave a failed MANUAL listener unacknowledged.
      * @param audioFileMessage: Message dto containing all the necessary metadata for downloading and processing the audio file
     * */
-    @RabbitListener(queues = "${audioFiles.queue.name}")
-    public void consumeAudioFileMessage(AudioFileMessage audioFileMessage) {
+    @RabbitListener(queues = "${audioFiles.queue.name}", concurrency = "${audioFiles.queue.concurrency:1}",
+            containerFactory = "audioFilesListenerContainerFactory")
+    public CompletableFuture<Void> consumeAudioFileMessage(AudioFileMessage audioFileMessage) {
         LOGGER.info("Received message from AudioFilesQueue: {}", audioFileMessage);
+        try {
+            return handleAudioFileMessage(audioFileMessage);
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to handle the message for correlation ID {}: {}", audioFileMessage.getCorrelationId(), e.getMessage(), e);
+            return CompletableFuture.failedFuture(new AmqpRejectAndDontRequeueException(
+                    "Failed to handle the message for correlation ID " + audioFileMessage.getCorrelationId(), e));
+        }
+    }
+
+    // The listener thread is only interrupted when the container stops, the message is then requeued like a dropped job
+    private CompletableFuture<Void> handleAudioFileMessage(AudioFileMessage audioFileMessage) {
 
         // Retrieves metadata for the audio file using FileMetadataService
         Optional<FileMetadata> fileMetadataOpt = fileMetadataService.findByCorrelationId(audioFileMessage.getCorrelationId());
         if (fileMetadataOpt.isEmpty()) {
             LOGGER.error("No file metadata found for correlationId: {}", audioFileMessage.getCorrelationId());
-            return;
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /* Blocks while the workspaces of the jobs in progress use the whole scratch disk budget. The reservation is sized
+         * from the real size of the original, the size reported by the client is not trusted. */
+        String correlationId = audioFileMessage.getCorrelationId();
+        S3DownloadService.ObjectInfo objectInfo = s3DownloadService.inspectObject(audioFileMessage);
+        try {
+            scratchSpaceManager.allocate(correlationId, objectInfo.getSizeBytes());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new IllegalStateException("Interrupted while waiting for scratch space for correlation ID " + correlationId, e));
+        }
+
+        /* With prefetching, the download starts now and the separation threads of the AudioFilePrefetcher process the
+         * file in turn, while this listener thread goes on with the next messages. Blocks while the prefetch stage is full. */
+        if (audioFilePrefetcher.isEnabled()) {
+            try {
+                return audioFilePrefetcher.submit(audioFileMessage, objectInfo, this::processFileAsync,
+                        failedMessage -> scratchSpaceManager.release(failedMessage.getCorrelationId()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scratchSpaceManager.release(correlationId);
+                return CompletableFuture.failedFuture(new IllegalStateException("Interrupted while waiting for a prefetch slot for correlation ID "
+                        + audioFileMessage.getCorrelationId(), e));
+            } catch (RuntimeException e) {
+                scratchSpaceManager.release(correlationId);
+                throw e;
+            }
         }
 
         // Downloads the audio file from S3 bucket using S3DownloadService
-        Optional<String> downloadedFilePath = s3DownloadService.getObjectFromBucket(audioFileMessage);
+        Optional<String> downloadedFilePath;
+        try {
+            downloadedFilePath = s3DownloadService.getObjectFromBucket(audioFileMessage, objectInfo);
+        } catch (RuntimeException e) {
+            scratchSpaceManager.release(correlationId);
+            throw e;
+        }
         if (downloadedFilePath.isPresent()) {
             String originalAudioFilePath = downloadedFilePath.get();
             /* After downloading, a new ProcessingContext object containing the metadata needed by Demucs is passed
@@ -62,7 +134,9 @@ public class AudioFilesConsumerService {
             processFileAsync(context);  // Asynchronous processing
         } else {
             LOGGER.error("Failed to download file for correlation ID {}", audioFileMessage.getCorrelationId());
+            scratchSpaceManager.release(correlationId);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     /* The DemucsProcessingService processes the file asynchronously using the path and metadata/
@@ -72,24 +146,70 @@ public class AudioFilesConsumerService {
     public void processFileAsync(ProcessingContext context) {
         String originalAudioFilePath = context.getOriginalAudioFilePath();
         AudioFileMessage audioFileMessage = context.getAudioFileMessage();
+        ProcessingProfile profile = ProcessingProfile.orDefault(audioFileMessage.getProfile());
+        // Once the result is published, the workspace is released by the ProcessedFilesConsumerService after its upload
+        boolean handedOff = false;
 
         try {
             LOGGER.info("Processing file for correlation ID {}", audioFileMessage.getCorrelationId());
 
-            // Get the processed audio file path after successful processing
-            String processedAudioFilePath = demucsProcessingService.processRetrievedAudioFile(
-                    originalAudioFilePath,
-                    audioFileMessage.getSeparationType(),
-                    audioFileMessage.getOutputFormat());
+            /* Demucs names its output directory after the input file, so the input is linked into the workspace
+             * under a name unique to the job, and the output is deleted with the workspace. */
+            String inputAudioFilePath = scratchSpaceManager.stageInput(audioFileMessage.getCorrelationId(), originalAudioFilePath);
+
+            // Reject corrupt or unsupported inputs from their headers, before hashing or separating them
+            AudioProbe.AudioInfo audioInfo = demucsProcessingService.probeAudioFile(inputAudioFilePath);
+            fileMetadataService.updateAudioProperties(audioFileMessage.getCorrelationId(), audioInfo.getFormat(),
+                    audioInfo.getDurationSeconds(), audioInfo.getSampleRate(), audioInfo.getChannels());
+
+            // Skip the separation when the same input was already processed with the same options
+            String contentHash = computeContentHash(inputAudioFilePath);
+            String cacheKey = null;
+            if (contentHash != null) {
+                cacheKey = resultCacheService.buildCacheKey(contentHash, audioFileMessage.getSeparationType(), audioFileMessage.getOutputFormat(), profile);
+                fileMetadataService.updateCacheKey(audioFileMessage.getCorrelationId(), cacheKey);
+            }
+            Path expectedProcessedPath = Paths.get(demucsProcessingService.constructProcessedFilePath(inputAudioFilePath, profile));
+            scratchSpaceManager.registerForCleanup(audioFileMessage.getCorrelationId(), expectedProcessedPath);
+            // The cached S3 result is a ZIP, a job delivered as stems can only reuse a local copy of the stems
+            Optional<ProcessedFileMessage> cachedResult = resultCacheService.findCachedResult(audioFileMessage.getCorrelationId(), cacheKey,
+                    expectedProcessedPath, !isStemsDelivery(audioFileMessage.getCorrelationId()));
+            // A vocal remover result can be mixed from the 4 stems of a previous split of the same track
+            if (cachedResult.isEmpty() && audioFileMessage.getSeparationType() == SeparationType.VOCAL_REMOVER) {
+                cachedResult = resultCacheService.deriveVocalRemoverResult(audioFileMessage.getCorrelationId(), contentHash,
+                        audioFileMessage.getOutputFormat(), profile, expectedProcessedPath);
+            }
+            if (cachedResult.isPresent()) {
+                processedFilesProducerService.publishProcessedFileNotification(cachedResult.get());
+                handedOff = true;
+                return;
+            }
+
+            // Get the processed audio file path after successful processing, following the Demucs progress meanwhile
+            demucsProgressTracker.startJob(audioFileMessage.getCorrelationId(), inputAudioFilePath);
+            String processedAudioFilePath = null;
+            try {
+                processedAudioFilePath = demucsProcessingService.processRetrievedAudioFile(
+                        inputAudioFilePath,
+                        audioFileMessage.getSeparationType(),
+                        audioFileMessage.getOutputFormat(),
+                        profile);
+            } finally {
+                demucsProgressTracker.completeJob(audioFileMessage.getCorrelationId(), processedAudioFilePath != null);
+            }
 
             LOGGER.info("File processing completed for correlation ID {}", audioFileMessage.getCorrelationId());
 
+            resultCacheService.storeLocalResult(cacheKey, contentHash, audioFileMessage.getSeparationType(),
+                    audioFileMessage.getOutputFormat(), Paths.get(processedAudioFilePath));
+
             // Publish success message to ProcessedFilesQueue using ProcessedFilesProducerService
             ProcessedFileMessage processedFileMessage = new ProcessedFileMessage(
                     audioFileMessage.getCorrelationId(),
                     processedAudioFilePath);
 
             processedFilesProducerService.publishProcessedFileNotification(processedFileMessage);
+            handedOff = true;
 
         } catch (DemucsProcessingException e) {
             LOGGER.error("Failed to process file for correlation ID {}", audioFileMessage.getCorrelationId());
@@ -103,6 +223,31 @@ public class AudioFilesConsumerService {
                     context
             );
             processedFilesProducerService.publishErrorProcessingNotification(errorProcessingMessage);
+        } finally {
+            // The original stays in the input cache for later jobs, it can be evicted from now on
+            inputCacheService.release(originalAudioFilePath);
+            if (!handedOff) {
+                scratchSpaceManager.release(audioFileMessage.getCorrelationId());
+            }
+        }
+    }
+
+    private boolean isStemsDelivery(String correlationId) {
+        return fileMetadataService.findByCorrelationId(correlationId)
+                .map(fileMetadata -> DeliveryMode.orDefault(fileMetadata.getDeliveryMode()) == DeliveryMode.STEMS)
+                .orElse(false);
+    }
+
+    // Hash the downloaded input for the result cache; a failure only disables the cache for this job
+    private String computeContentHash(String originalAudioFilePath) {
+        if (!resultCacheService.isEnabled()) {
+            return null;
+        }
+        try {
+            return resultCacheService.computeContentHash(Paths.get(originalAudioFilePath));
+        } catch (IOException e) {
+            LOGGER.warn("Could not hash {} for the result cache: {}", originalAudioFilePath, e.getMessage());
+            return null;
         }
     }
 }
@@ -49,8 +49,10 @@ public class NotificationConsumerService {
 
             String userEmail = optionalUserEmail.get();
 
-            // Send email to the User with the downloadUrl
-            boolean isNotificationSent = notificationService.sendEmailToUser(userEmail, downloadUrl);
+            // Send email to the User with the downloadUrl, or with the URL of every stem
+            boolean isNotificationSent = hasStemDownloadUrls(notificationMessage)
+                    ? notificationService.sendStemsEmailToUser(userEmail, notificationMessage.getStemDownloadUrls())
+                    : notificationService.sendEmailToUser(userEmail, downloadUrl);
 
             if (isNotificationSent) {
                 LOGGER.info("Email sent successfully to the User for correlationId: {}", correlationId);
@@ -76,6 +78,11 @@ public class NotificationConsumerService {
 
     // Checks if the NotificationMessage is valid
     private boolean isValidMessage(NotificationMessage notificationMessage) {
-        return notificationMessage != null && notificationMessage.getDownloadUrl() != null && !notificationMessage.getDownloadUrl().isEmpty();
+        return notificationMessage != null && ((notificationMessage.getDownloadUrl() != null && !notificationMessage.getDownloadUrl().isEmpty())
+                || hasStemDownloadUrls(notificationMessage));
+    }
+
+    private boolean hasStemDownloadUrls(NotificationMessage notificationMessage) {
+        return notificationMessage.getStemDownloadUrls() != null && !notificationMessage.getStemDownloadUrls().isEmpty();
     }
 }
@@ -3,16 +3,26 @@ package com.audiosource.backend.messaging.consumer;
 import com.audiosource.backend.dto.NotificationMessage;
 import com.audiosource.backend.dto.ProcessedFileMessage;
 import com.audiosource.backend.exception.S3UploadException;
+import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.enums.DeliveryMode;
 import com.audiosource.backend.messaging.producer.NotificationProducerService;
+import com.audiosource.backend.service.cache.ResultCacheService;
 import com.audiosource.backend.service.metadata.FileMetadataService;
 import com.audiosource.backend.service.s3.S3UploadService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 @Service
 public class ProcessedFilesConsumerService {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessedFilesConsumerService.class);
@@ -20,56 +30,126 @@ public class ProcessedFilesConsumerService {
     private final S3UploadService s3UploadService;
     private final NotificationProducerService notificationProducerService;
     private final FileMetadataService fileMetadataService;
+    private final ResultCacheService resultCacheService;
+    private final Executor resultUploadExecutor;
+    private final ScratchSpaceManager scratchSpaceManager;
 
     @Value("${aws.s3.bucketName}")
     private String bucketName;
 
     @Autowired
-    public ProcessedFilesConsumerService(S3UploadService s3UploadService, NotificationProducerService notificationProducerService, FileMetadataService fileMetadataService) {
+    public ProcessedFilesConsumerService(S3UploadService s3UploadService, NotificationProducerService notificationProducerService, FileMetadataService fileMetadataService, ResultCacheService resultCacheService,
+                                         @Qualifier("resultUploadExecutor") Executor resultUploadExecutor, ScratchSpaceManager scratchSpaceManager) {
         this.s3UploadService = s3UploadService;
         this.notificationProducerService = notificationProducerService;
         this.fileMetadataService = fileMetadataService;
+        this.resultCacheService = resultCacheService;
+        this.resultUploadExecutor = resultUploadExecutor;
+        this.scratchSpaceManager = scratchSpaceManager;
     }
 
-    @RabbitListener(queues = "${processedFiles.queue.name}")
-    public void consumeProcessedFileMessage(ProcessedFileMessage processedFileMessage) {
+    /* Returns as soon as the upload is started, so that this listener thread does not wait for the transfer. The message
+     * is acknowledged when the returned future completes: once the user is notified, or once a failure is logged.
+     * Either way the workspace of the job is released, as the result has left the local disk or never will. */
+    @RabbitListener(queues = "${processedFiles.queue.name}", containerFactory = "asyncAckListenerContainerFactory")
+    public CompletableFuture<Void> consumeProcessedFileMessage(ProcessedFileMessage processedFileMessage) {
         LOGGER.info("Received message from ProcessedFilesQueue: {}", processedFileMessage);
 
         String correlationId = processedFileMessage.getCorrelationId();
         String processedAudioFilePath = processedFileMessage.getProcessedAudioFilePath();
+        String resultKeyName = processedFileMessage.getResultKeyName();
 
-        if (processedAudioFilePath == null || processedAudioFilePath.isEmpty()) {
-            LOGGER.error("No processedAudioFilePath found for correlationId: {}", correlationId);
-            return;
+        CompletableFuture<Void> processing;
+        try {
+            if (resultKeyName == null && (processedAudioFilePath == null || processedAudioFilePath.isEmpty())) {
+                LOGGER.error("No processedAudioFilePath found for correlationId: {}", correlationId);
+                processing = CompletableFuture.completedFuture(null);
+            } else if (resultKeyName != null) {
+                LOGGER.info("Reusing cached S3 result {} for correlationId: {}", resultKeyName, correlationId);
+                processing = CompletableFuture.completedFuture(resultKeyName)
+                        .thenAccept(cachedKeyName -> publishDownloadUrl(correlationId, cachedKeyName));
+            } else if (isStemsDelivery(correlationId)) {
+                processing = CompletableFuture.runAsync(() -> {
+                    try {
+                        deliverStems(correlationId, processedAudioFilePath);
+                    } catch (S3UploadException e) {
+                        throw new CompletionException(e);
+                    }
+                }, resultUploadExecutor);
+            } else {
+                // Upload the processed audio file to S3 and remember its key for later duplicates
+                processing = s3UploadService.uploadDirectoryAsZipAsync(processedAudioFilePath, bucketName)
+                        .thenAcceptAsync(uploadedKeyName -> {
+                            LOGGER.info("Processed file uploaded successfully to S3 for correlationId: {}", correlationId);
+                            fileMetadataService.findByCorrelationId(correlationId)
+                                    .map(FileMetadata::getCacheKey)
+                                    .ifPresent(cacheKey -> resultCacheService.recordResultKey(cacheKey, uploadedKeyName));
+                            publishDownloadUrl(correlationId, uploadedKeyName);
+                        }, resultUploadExecutor);
+            }
+        } catch (RuntimeException e) {
+            processing = CompletableFuture.failedFuture(e);
         }
 
-        try {
-            // Upload the processed audio file to S3
-            String preSignedUrl = s3UploadService.uploadDirectoryAsZipToS3(processedAudioFilePath, bucketName);
+        return processing.whenComplete((result, e) -> scratchSpaceManager.release(correlationId)).exceptionally(e -> {
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof S3UploadException) {
+                LOGGER.error("Error uploading file for correlationId {}: {}", correlationId, cause.getMessage());
+            } else {
+                LOGGER.error("Error generating the download URL for correlationId {}: {}", correlationId, cause.getMessage());
+            }
+            return null;
+        });
+    }
 
-            if (preSignedUrl != null) {
-                LOGGER.info("Processed file uploaded successfully to S3 for correlationId: {}", correlationId);
+    // Saves the pre-signed URL of the uploaded result and publishes the notification message to the NotificationQueue
+    private void publishDownloadUrl(String correlationId, String resultKeyName) {
+        String preSignedUrl = s3UploadService.createPresignedGetRequest(bucketName, resultKeyName);
 
-                String downloadUrl = preSignedUrl;
+        if (preSignedUrl != null) {
+            String downloadUrl = preSignedUrl;
 
-                // Save the downloadUrl and update the given fileMetadata collection in MongoDB
-                boolean isUpdated = fileMetadataService.updateDownloadUrl(correlationId, downloadUrl);
+            // Save the downloadUrl and update the given fileMetadata collection in MongoDB
+            boolean isUpdated = fileMetadataService.updateDownloadUrl(correlationId, downloadUrl, resultKeyName);
 
-                if (isUpdated) {
-                    LOGGER.info("FileMetadata Collection updated successfully with downloadUrl for correlationId: {}", correlationId);
+            if (isUpdated) {
+                LOGGER.info("FileMetadata Collection updated successfully with downloadUrl for correlationId: {}", correlationId);
 
-                    // Publish the notification message to the NotificationQueue
-                    NotificationMessage notificationMessage = new NotificationMessage(correlationId, downloadUrl);
-                    notificationProducerService.publishUploadToS3Notification(notificationMessage);
-                } else {
-                    LOGGER.warn("FileMetadata not found for correlationId: {}. Could not update downloadUrl.", correlationId);
-                }
+                // Publish the notification message to the NotificationQueue
+                NotificationMessage notificationMessage = new NotificationMessage(correlationId, downloadUrl);
+                notificationProducerService.publishUploadToS3Notification(notificationMessage);
             } else {
-                LOGGER.error("Failed to get pre-signed URL after upload for correlationId: {}", processedFileMessage.getCorrelationId());
-                throw new S3UploadException("Pre-signed URL is null after upload.");
+                LOGGER.warn("FileMetadata not found for correlationId: {}. Could not update downloadUrl.", correlationId);
             }
-        } catch (S3UploadException e) {
-            LOGGER.error("Error uploading file for correlationId {}: {}", processedFileMessage.getCorrelationId(), e.getMessage());
+        } else {
+            LOGGER.error("Failed to get pre-signed URL after upload for correlationId: {}", correlationId);
+            throw new CompletionException(new S3UploadException("Pre-signed URL is null after upload."));
+        }
+    }
+
+    /* Results served from S3 by the cache are ZIPs, so the jobs delivered as stems never get one, only local stems. */
+    private boolean isStemsDelivery(String correlationId) {
+        return fileMetadataService.findByCorrelationId(correlationId)
+                .map(fileMetadata -> DeliveryMode.orDefault(fileMetadata.getDeliveryMode()) == DeliveryMode.STEMS)
+                .orElse(false);
+    }
+
+    // Uploads every stem as its own object and notifies the user with one pre-signed URL per stem
+    private void deliverStems(String correlationId, String processedAudioFilePath) throws S3UploadException {
+        Map<String, String> stemKeys = s3UploadService.uploadStemsToS3(processedAudioFilePath, bucketName);
+        LOGGER.info("{} stems uploaded successfully to S3 for correlationId: {}", stemKeys.size(), correlationId);
+
+        Map<String, String> stemDownloadUrls = s3UploadService.createPresignedGetRequests(bucketName, stemKeys);
+        boolean isUpdated = fileMetadataService.updateStemDownloadUrls(correlationId, stemDownloadUrls,
+                s3UploadService.getStemsKeyPrefix(stemKeys));
+
+        if (isUpdated) {
+            LOGGER.info("FileMetadata Collection updated successfully with stemDownloadUrls for correlationId: {}", correlationId);
+            NotificationMessage notificationMessage = new NotificationMessage(correlationId, null);
+            notificationMessage.setStemDownloadUrls(stemDownloadUrls);
+            notificationProducerService.publishUploadToS3Notification(notificationMessage);
+        } else {
+            LOGGER.warn("FileMetadata not found for correlationId: {}. Could not update stemDownloadUrls.", correlationId);
         }
     }
 }
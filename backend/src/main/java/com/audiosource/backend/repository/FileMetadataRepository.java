@@ -1,9 +1,12 @@
 package com.audiosource.backend.repository;
 
 import com.audiosource.backend.entities.FileMetadata;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -16,4 +19,8 @@ public interface FileMetadataRepository extends MongoRepository<FileMetadata, St
     Optional<FileMetadata> findByOriginalKeyName(String originalKeyName);
 
     Optional<FileMetadata> findByNotificationStatus(String notificationStatus);
+
+    List<FileMetadata> findByResultKeyNameNotNullAndCreatedAtBefore(Date createdAt, Pageable pageable);
+
+    boolean existsByResultKeyNameAndCreatedAtGreaterThanEqual(String resultKeyName, Date createdAt);
 }
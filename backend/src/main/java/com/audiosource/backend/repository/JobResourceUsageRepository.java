@@ -0,0 +1,13 @@
+package com.audiosource.backend.repository;
+
+import com.audiosource.backend.entities.JobResourceUsage;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface JobResourceUsageRepository extends MongoRepository<JobResourceUsage, String> {
+
+    List<JobResourceUsage> findByCorrelationId(String correlationId);
+}
@@ -0,0 +1,19 @@
+package com.audiosource.backend.repository;
+
+import com.audiosource.backend.entities.ResultCacheEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ResultCacheRepository extends MongoRepository<ResultCacheEntry, String> {
+
+    Optional<ResultCacheEntry> findFirstByCacheKey(String cacheKey);
+
+    List<ResultCacheEntry> findByLocalPathNotNullOrderByLastAccessedAtAsc();
+
+    List<ResultCacheEntry> findByResultKeyNameIn(Collection<String> resultKeyNames);
+}
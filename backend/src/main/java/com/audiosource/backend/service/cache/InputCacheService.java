@@ -0,0 +1,261 @@
+package com.audiosource.backend.service.cache;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Node-local cache of the originals downloaded from S3, keyed by S3 key and ETag, so that processing the same upload
+ * again with other options reads it from disk instead of downloading it. Files are evicted by least recent use once
+ * the cache exceeds its byte budget, except while a job holds them: acquire and store pin the file until release.
+ * The index lives in memory, the files left by a previous run are deleted on startup.
+ */
+@Service
+public class InputCacheService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InputCacheService.class);
+    private static final Pattern ENTRY_DIRECTORY_NAME = Pattern.compile("[0-9a-f]{32}");
+
+    @Value("${demucs.inputCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${demucs.inputCache.directory}")
+    private String cacheDirectory;
+
+    @Value("${demucs.inputCache.maxBytes:5368709120}")
+    private long maxBytes;
+
+    /* When false, a cached file is reused without checking the ETag of the object, i.e. without any S3 request */
+    @Value("${demucs.inputCache.revalidate:true}")
+    private boolean revalidate;
+
+    // Entries by S3 key and ETag in access order, the eldest is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Latest entry of every S3 key, used when the ETag is not revalidated
+    private final Map<String, Entry> latestByKeyName = new HashMap<>();
+    private final Map<String, Entry> entriesByPath = new HashMap<>();
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path directory = Files.createDirectories(Paths.get(cacheDirectory));
+        // Only the entry directories are deleted, in case the cache shares its directory with other files
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : children.filter(child -> ENTRY_DIRECTORY_NAME.matcher(child.getFileName().toString()).matches()).toList()) {
+                FileSystemUtils.deleteRecursively(child);
+                LOGGER.info("Deleted the cached original {} left by a previous run", child);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isRevalidating() {
+        return revalidate;
+    }
+
+    /**
+     * Looks for the cached original of an S3 object and pins it until {@link #release(String)} is called.
+     *
+     * @param keyName The S3 key of the original.
+     * @param eTag The current ETag of the object, or null to accept the latest cached version of the key.
+     * @return The path of the cached file, or empty on a miss.
+     */
+    public synchronized Optional<String> acquire(String keyName, String eTag) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Entry entry = eTag != null ? entries.get(entryKey(keyName, eTag)) : latestByKeyName.get(keyName);
+        if (entry == null || !Files.isRegularFile(entry.path)) {
+            if (entry != null) {
+                remove(entry);
+            }
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        entries.get(entry.key); // Marks the entry as the most recently used
+        entry.pins++;
+        hits.incrementAndGet();
+        LOGGER.info("Input cache hit for {}: reusing {}", keyName, entry.path);
+        return Optional.of(entry.path.toString());
+    }
+
+    /* The size of the latest cached version of an S3 object, without pinning it nor counting a hit */
+    public synchronized OptionalLong findSize(String keyName) {
+        Entry entry = enabled ? latestByKeyName.get(keyName) : null;
+        return entry != null && Files.isRegularFile(entry.path) ? OptionalLong.of(entry.sizeBytes) : OptionalLong.empty();
+    }
+
+    /**
+     * Moves a freshly downloaded original into the cache, pins it and evicts the least recently used files over
+     * budget. When the file cannot be cached it is left where it is.
+     *
+     * @param keyName The S3 key of the original.
+     * @param eTag The ETag of the downloaded object.
+     * @param downloadedFile The downloaded file, moved by this call.
+     * @return The path to process the file from.
+     */
+    public synchronized String store(String keyName, String eTag, Path downloadedFile) {
+        if (!enabled || eTag == null) {
+            return downloadedFile.toString();
+        }
+        String key = entryKey(keyName, eTag);
+        Entry previous = entries.get(key);
+        if (previous != null && previous.pins > 0) {
+            return downloadedFile.toString(); // The cached copy is in use, keep this download out of the cache
+        }
+        if (previous != null) {
+            remove(previous);
+        }
+
+        try {
+            Path target = Paths.get(cacheDirectory, key, downloadedFile.getFileName().toString());
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(downloadedFile, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(downloadedFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Entry entry = new Entry(key, keyName, target, Files.size(target));
+            entry.pins = 1;
+            entries.put(key, entry);
+            latestByKeyName.put(keyName, entry);
+            entriesByPath.put(target.toString(), entry);
+            usedBytes += entry.sizeBytes;
+            evict();
+            return target.toString();
+        } catch (IOException e) {
+            LOGGER.warn("Could not cache the original {}: {}", downloadedFile, e.getMessage());
+            return downloadedFile.toString();
+        }
+    }
+
+    /* Unpins a file returned by acquire or store once its job no longer reads it. Paths that are not cached are ignored. */
+    public synchronized void release(String path) {
+        Entry entry = entriesByPath.get(path);
+        if (entry == null || entry.pins == 0) {
+            return;
+        }
+        entry.pins--;
+        if (entry.pins == 0) {
+            evict();
+        }
+    }
+
+    // Delete the least recently used unpinned files until the cache fits in its budget
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.pins > 0) {
+                continue;
+            }
+            iterator.remove();
+            forget(entry);
+            deleteFile(entry);
+            evictions.incrementAndGet();
+            LOGGER.info("Evicted cached original {} ({} bytes)", entry.path, entry.sizeBytes);
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        forget(entry);
+        deleteFile(entry);
+    }
+
+    private void forget(Entry entry) {
+        latestByKeyName.remove(entry.keyName, entry);
+        entriesByPath.remove(entry.path.toString());
+        usedBytes -= entry.sizeBytes;
+    }
+
+    private static void deleteFile(Entry entry) {
+        try {
+            FileSystemUtils.deleteRecursively(entry.path.getParent());
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete cached original {}: {}", entry.path, e.getMessage());
+        }
+    }
+
+    // The key and the ETag may contain any character, the directory of an entry is named after their hash
+    static String entryKey(String keyName, String eTag) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest((keyName + "\n" + eTag).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final String key;
+        private final String keyName;
+        private final Path path;
+        private final long sizeBytes;
+        private int pins;
+
+        private Entry(String key, String keyName, Path path, long sizeBytes) {
+            this.key = key;
+            this.keyName = keyName;
+            this.path = path;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.audiosource.backend.service.cache;
+
+import com.audiosource.backend.dto.ProcessedFileMessage;
+import com.audiosource.backend.entities.ResultCacheEntry;
+import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
+import com.audiosource.backend.enums.SeparationType;
+import com.audiosource.backend.repository.ResultCacheRepository;
+import com.audiosource.backend.util.WavUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of separation results. Results are keyed by the SHA-256 of the input audio plus the
+ * separation options, so a track uploaded again can reuse the zip already stored in S3 or the local copy of its
+ * stems instead of running Demucs. Local copies are evicted by least recent use once they exceed the byte budget.
+ */
+@Service
+public class ResultCacheService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCacheService.class);
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+    private static final List<String> ACCOMPANIMENT_STEMS = List.of("drums.wav", "bass.wav", "other.wav");
+    private static final String VOCALS_STEM = "vocals.wav";
+    private static final String NO_VOCALS_STEM = "no_vocals.wav";
+
+    private final ResultCacheRepository resultCacheRepository;
+    private final S3Client s3Client;
+
+    @Value("${demucs.resultCache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${demucs.resultCache.directory}")
+    private String cacheDirectory;
+
+    @Value("${demucs.resultCache.maxLocalBytes:10737418240}")
+    private long maxLocalBytes;
+
+    @Value("${aws.s3.bucketName}")
+    private String bucketName;
+
+    @Autowired
+    public ResultCacheService(ResultCacheRepository resultCacheRepository, S3Client s3Client) {
+        this.resultCacheRepository = resultCacheRepository;
+        this.s3Client = s3Client;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /* Computes the SHA-256 of the file with a single streaming pass over a direct buffer. */
+    public String computeContentHash(Path inputFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public String buildCacheKey(String contentHash, SeparationType separationType, OutputFormat outputFormat) {
+        return contentHash + "-" + separationType.name().toLowerCase() + "-" + outputFormat.name().toLowerCase();
+    }
+
+    // BALANCED keeps the keys of the results cached before processing profiles existed
+    public String buildCacheKey(String contentHash, SeparationType separationType, OutputFormat outputFormat, ProcessingProfile profile) {
+        String cacheKey = buildCacheKey(contentHash, separationType, outputFormat);
+        return profile == ProcessingProfile.BALANCED ? cacheKey : cacheKey + "-" + profile.name().toLowerCase();
+    }
+
+    public Optional<ProcessedFileMessage> findCachedResult(String correlationId, String cacheKey, Path processedDirectory) {
+        return findCachedResult(correlationId, cacheKey, processedDirectory, true);
+    }
+
+    /**
+     * Looks for a cached result of the same input and options.
+     *
+     * @param correlationId The correlation ID of the job that is looking for a result.
+     * @param cacheKey The cache key of the job input and options.
+     * @param processedDirectory The directory where the stems are expected when restoring a local copy.
+     * @param zipResultAccepted False for the jobs delivered as stems, which can only reuse a local copy as the S3
+     *                          result is a ZIP.
+     * @return A ProcessedFileMessage pointing either to the existing S3 result or to the restored stems, or empty on a miss.
+     */
+    public Optional<ProcessedFileMessage> findCachedResult(String correlationId, String cacheKey, Path processedDirectory, boolean zipResultAccepted) {
+        if (!enabled || cacheKey == null) {
+            return Optional.empty();
+        }
+
+        Optional<ResultCacheEntry> entryOpt = resultCacheRepository.findFirstByCacheKey(cacheKey);
+        if (entryOpt.isEmpty()) {
+            return Optional.empty();
+        }
+        ResultCacheEntry entry = entryOpt.get();
+
+        if (entry.getResultKeyName() != null && zipResultAccepted) {
+            ResultObjectState resultObjectState = checkResultObject(entry.getResultKeyName());
+            if (resultObjectState == ResultObjectState.EXISTS) {
+                touch(entry);
+                LOGGER.info("Result cache hit for correlationId {}: reusing S3 result {}", correlationId, entry.getResultKeyName());
+                return Optional.of(new ProcessedFileMessage(correlationId, null, entry.getResultKeyName()));
+            }
+            if (resultObjectState == ResultObjectState.MISSING) {
+                entry.setResultKeyName(null);
+            }
+        }
+
+        if (entry.getLocalPath() != null && Files.isDirectory(Paths.get(entry.getLocalPath()))) {
+            try {
+                linkOrCopyDirectory(Paths.get(entry.getLocalPath()), processedDirectory);
+                touch(entry);
+                LOGGER.info("Result cache hit for correlationId {}: restored local stems from {}", correlationId, entry.getLocalPath());
+                return Optional.of(new ProcessedFileMessage(correlationId, processedDirectory.toString()));
+            } catch (IOException e) {
+                LOGGER.warn("Could not restore cached stems from {}: {}", entry.getLocalPath(), e.getMessage());
+            }
+            entry.setLocalPath(null);
+            entry.setLocalSizeBytes(0);
+        }
+
+        if (entry.getResultKeyName() != null) {
+            // S3 could not be checked or the job needs stems, this job misses but the entry is kept for the next ones
+            resultCacheRepository.save(entry);
+            return Optional.empty();
+        }
+
+        // The entry no longer points to any usable result
+        resultCacheRepository.delete(entry);
+        return Optional.empty();
+    }
+
+    /**
+     * Builds a vocal remover result from the cached 4-stem result of the same input: vocals.wav is reused as is and
+     * no_vocals.wav is the sum of drums, bass and other, which takes seconds instead of a Demucs run. Only WAV
+     * results can be derived, MP3 stems would have to be decoded first.
+     *
+     * @param correlationId The correlation ID of the vocal remover job.
+     * @param contentHash The hash of the job input.
+     * @param outputFormat The output format of the job.
+     * @param profile The processing profile of the job, the 4-stem result must come from the same profile.
+     * @param processedDirectory The directory where the two stems are expected.
+     * @return A ProcessedFileMessage pointing to the derived stems, or empty when no usable 4-stem result is cached.
+     */
+    public Optional<ProcessedFileMessage> deriveVocalRemoverResult(String correlationId, String contentHash, OutputFormat outputFormat,
+                                                                   ProcessingProfile profile, Path processedDirectory) {
+        if (!enabled || contentHash == null || outputFormat != OutputFormat.WAV) {
+            return Optional.empty();
+        }
+
+        Optional<ResultCacheEntry> stemsEntryOpt = resultCacheRepository.findFirstByCacheKey(
+                buildCacheKey(contentHash, SeparationType.STEMS_SPLITTER, OutputFormat.WAV, profile));
+        if (stemsEntryOpt.isEmpty() || stemsEntryOpt.get().getLocalPath() == null) {
+            return Optional.empty();
+        }
+        Path stemsDirectory = Paths.get(stemsEntryOpt.get().getLocalPath());
+        List<Path> accompanimentStems = ACCOMPANIMENT_STEMS.stream().map(stemsDirectory::resolve).toList();
+        Path vocalsStem = stemsDirectory.resolve(VOCALS_STEM);
+        if (!Files.isRegularFile(vocalsStem) || !accompanimentStems.stream().allMatch(Files::isRegularFile)) {
+            return Optional.empty();
+        }
+
+        try {
+            long startedAt = System.currentTimeMillis();
+            Files.createDirectories(processedDirectory);
+            long clippedSamples = WavUtils.mixStems(accompanimentStems, processedDirectory.resolve(NO_VOCALS_STEM));
+            linkOrCopyFile(vocalsStem, processedDirectory.resolve(VOCALS_STEM));
+            touch(stemsEntryOpt.get());
+            LOGGER.info("Derived the vocal remover result of correlationId {} from cached stems {} in {} ms ({} clipped samples)",
+                    correlationId, stemsDirectory, System.currentTimeMillis() - startedAt, clippedSamples);
+        } catch (IOException e) {
+            LOGGER.warn("Could not derive the vocal remover result from {}: {}", stemsDirectory, e.getMessage());
+            try {
+                FileSystemUtils.deleteRecursively(processedDirectory);
+            } catch (IOException cleanupException) {
+                LOGGER.warn("Could not delete the partial result {}: {}", processedDirectory, cleanupException.getMessage());
+            }
+            return Optional.empty();
+        }
+
+        storeLocalResult(buildCacheKey(contentHash, SeparationType.VOCAL_REMOVER, OutputFormat.WAV, profile), contentHash,
+                SeparationType.VOCAL_REMOVER, OutputFormat.WAV, processedDirectory);
+        return Optional.of(new ProcessedFileMessage(correlationId, processedDirectory.toString()));
+    }
+
+    /* Keeps a local copy of freshly separated stems (hard links when possible) and evicts old copies over budget. */
+    public void storeLocalResult(String cacheKey, String contentHash, SeparationType separationType, OutputFormat outputFormat, Path processedDirectory) {
+        if (!enabled || cacheKey == null) {
+            return;
+        }
+
+        Path cachedDirectory = Paths.get(cacheDirectory, cacheKey);
+        try {
+            FileSystemUtils.deleteRecursively(cachedDirectory);
+            long sizeBytes = linkOrCopyDirectory(processedDirectory, cachedDirectory);
+
+            ResultCacheEntry entry = resultCacheRepository.findFirstByCacheKey(cacheKey).orElseGet(ResultCacheEntry::new);
+            entry.setCacheKey(cacheKey);
+            entry.setContentHash(contentHash);
+            entry.setSeparationType(separationType);
+            entry.setOutputFormat(outputFormat);
+            entry.setLocalPath(cachedDirectory.toString());
+            entry.setLocalSizeBytes(sizeBytes);
+            entry.setLastAccessedAt(new Date());
+            resultCacheRepository.save(entry);
+
+            evictLocalCopies();
+        } catch (IOException e) {
+            LOGGER.warn("Could not cache the stems of {} under {}: {}", processedDirectory, cachedDirectory, e.getMessage());
+        }
+    }
+
+    /* Remembers the S3 key of the uploaded result so that later duplicates can skip the upload as well. */
+    public void recordResultKey(String cacheKey, String resultKeyName) {
+        if (!enabled || cacheKey == null) {
+            return;
+        }
+        ResultCacheEntry entry = resultCacheRepository.findFirstByCacheKey(cacheKey).orElseGet(ResultCacheEntry::new);
+        entry.setCacheKey(cacheKey);
+        entry.setResultKeyName(resultKeyName);
+        entry.setLastAccessedAt(new Date());
+        resultCacheRepository.save(entry);
+    }
+
+    /* Forgets the S3 results deleted by the expiry of old results, the entries with a local copy keep it. */
+    public void forgetResultKeys(Collection<String> resultKeyNames) {
+        if (!enabled || resultKeyNames.isEmpty()) {
+            return;
+        }
+        for (ResultCacheEntry entry : resultCacheRepository.findByResultKeyNameIn(resultKeyNames)) {
+            if (entry.getLocalPath() != null) {
+                entry.setResultKeyName(null);
+                resultCacheRepository.save(entry);
+            } else {
+                resultCacheRepository.delete(entry);
+            }
+        }
+    }
+
+    // Delete the least recently used local copies until the total size fits in the byte budget
+    synchronized void evictLocalCopies() {
+        List<ResultCacheEntry> localEntries = resultCacheRepository.findByLocalPathNotNullOrderByLastAccessedAtAsc();
+        long totalBytes = localEntries.stream().mapToLong(ResultCacheEntry::getLocalSizeBytes).sum();
+
+        for (ResultCacheEntry entry : localEntries) {
+            if (totalBytes <= maxLocalBytes) {
+                break;
+            }
+            try {
+                FileSystemUtils.deleteRecursively(Paths.get(entry.getLocalPath()));
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete cached stems {}: {}", entry.getLocalPath(), e.getMessage());
+                continue;
+            }
+            totalBytes -= entry.getLocalSizeBytes();
+            LOGGER.info("Evicted cached stems {} ({} bytes)", entry.getLocalPath(), entry.getLocalSizeBytes());
+
+            if (entry.getResultKeyName() != null) {
+                entry.setLocalPath(null);
+                entry.setLocalSizeBytes(0);
+                resultCacheRepository.save(entry);
+            } else {
+                resultCacheRepository.delete(entry);
+            }
+        }
+    }
+
+    // Only a 404 proves that the result is gone, HEAD responses have no body so S3 may not report it as NoSuchKey
+    private ResultObjectState checkResultObject(String resultKeyName) {
+        try {
+            s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(resultKeyName).build());
+            return ResultObjectState.EXISTS;
+        } catch (NoSuchKeyException e) {
+            return ResultObjectState.MISSING;
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return ResultObjectState.MISSING;
+            }
+            LOGGER.warn("Could not check cached S3 result {}: {}", resultKeyName, e.getMessage());
+            return ResultObjectState.UNKNOWN;
+        } catch (Exception e) {
+            LOGGER.warn("Could not check cached S3 result {}: {}", resultKeyName, e.getMessage());
+            return ResultObjectState.UNKNOWN;
+        }
+    }
+
+    private void touch(ResultCacheEntry entry) {
+        entry.setLastAccessedAt(new Date());
+        resultCacheRepository.save(entry);
+    }
+
+    // Hard links are free and survive renaming or deleting the source; copying is the fallback across file systems
+    private long linkOrCopyDirectory(Path sourceDirectory, Path targetDirectory) throws IOException {
+        Files.createDirectories(targetDirectory);
+        long totalBytes = 0;
+        try (Stream<Path> files = Files.list(sourceDirectory)) {
+            for (Path source : files.filter(Files::isRegularFile).toList()) {
+                Path target = targetDirectory.resolve(source.getFileName().toString());
+                linkOrCopyFile(source, target);
+                totalBytes += Files.size(target);
+            }
+        }
+        return totalBytes;
+    }
+
+    private static void linkOrCopyFile(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private enum ResultObjectState {
+        EXISTS,
+        MISSING,
+        UNKNOWN
+    }
+}
@@ -0,0 +1,140 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.entities.JobResourceUsage;
+import com.audiosource.backend.exception.DemucsProcessingException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs the real Demucs model. The job first waits until its predicted memory fits (DemucsMemoryAdmissionController)
+ * and for a slot of the DemucsCpuScheduler, then runs on a warm worker from the DemucsWorkerPool when available,
+ * otherwise a one-shot `python -m demucs` process limited to the slot's thread count is started under the
+ * DemucsProcessWatchdog.
+ */
+@Component
+@ConditionalOnProperty(name = "separation.engine", havingValue = "demucs", matchIfMissing = true)
+public class DemucsCliSeparationEngine implements SeparationEngine {
+    private static final long OUTPUT_DRAIN_TIMEOUT_MS = 5000;
+    private static final int OUTPUT_TAIL_LINES = 20;
+
+    private final DemucsWorkerPool demucsWorkerPool;
+    private final DemucsCpuScheduler demucsCpuScheduler;
+    private final DemucsMemoryAdmissionController demucsMemoryAdmissionController;
+    private final DemucsProcessWatchdog demucsProcessWatchdog;
+
+    @Value("${demucs.outputDirectory}")
+    private String demucsOutputDirectory;
+
+    @Value("${python.env.path}")
+    private String pythonEnvPath;
+
+    @Autowired
+    public DemucsCliSeparationEngine(DemucsWorkerPool demucsWorkerPool, DemucsCpuScheduler demucsCpuScheduler,
+                                     DemucsMemoryAdmissionController demucsMemoryAdmissionController,
+                                     DemucsProcessWatchdog demucsProcessWatchdog) {
+        this.demucsWorkerPool = demucsWorkerPool;
+        this.demucsCpuScheduler = demucsCpuScheduler;
+        this.demucsMemoryAdmissionController = demucsMemoryAdmissionController;
+        this.demucsProcessWatchdog = demucsProcessWatchdog;
+    }
+
+    /* The input files are the last arguments. Demucs separates them one after the other, so the memory of the job is
+     * estimated from its largest input while the timeout covers the duration of all of them. */
+    @Override
+    public void separate(String[] demucsArgs, Consumer<String> outputListener) throws IOException, InterruptedException {
+        List<Path> inputFiles = new ArrayList<>();
+        for (int i = demucsArgs.length - 1; i >= 0 && (inputFiles.isEmpty() || Files.isRegularFile(Paths.get(demucsArgs[i]))); i--) {
+            inputFiles.add(0, Paths.get(demucsArgs[i]));
+        }
+        DemucsMemoryAdmissionController.MemoryEstimate memoryEstimate = null;
+        double totalDurationSeconds = 0;
+        for (Path inputFile : inputFiles) {
+            DemucsMemoryAdmissionController.MemoryEstimate inputEstimate = demucsMemoryAdmissionController.estimate(inputFile);
+            totalDurationSeconds += inputEstimate.getDurationSeconds();
+            if (memoryEstimate == null || inputEstimate.getEstimatedBytes() > memoryEstimate.getEstimatedBytes()) {
+                memoryEstimate = inputEstimate;
+            }
+        }
+
+        try (DemucsMemoryAdmissionController.MemoryReservation reservation = demucsMemoryAdmissionController.admit(memoryEstimate);
+             DemucsCpuScheduler.CpuSlot slot = demucsCpuScheduler.acquire()) {
+            // A job that crashed its worker is recorded as failed before falling back to a one-shot process
+            DemucsProcessWatchdog.WatchedWorkerJob workerJob = demucsProcessWatchdog.watchWorkerJob(inputFiles.get(0),
+                    totalDurationSeconds, demucsCpuScheduler.getThreadsPerJob());
+            String workerOutcome = JobResourceUsage.OUTCOME_FAILED;
+            try {
+                if (demucsWorkerPool.execute(demucsArgs, outputListener, demucsProcessWatchdog.computeWorkerTimeoutMillis(totalDurationSeconds),
+                        workerJob::start)) {
+                    workerOutcome = JobResourceUsage.OUTCOME_COMPLETED;
+                    return;
+                }
+            } catch (DemucsProcessingException e) {
+                workerOutcome = JobResourceUsage.OUTCOME_TIMED_OUT;
+                throw e;
+            } finally {
+                JobResourceUsage workerUsage = workerJob.finish(workerOutcome);
+                if (workerUsage != null && JobResourceUsage.OUTCOME_COMPLETED.equals(workerOutcome)) {
+                    demucsMemoryAdmissionController.recordObservedPeak(memoryEstimate, workerUsage.getPeakRssBytes());
+                }
+            }
+
+            List<String> command = new ArrayList<>(List.of(pythonEnvPath, "-m", "demucs"));
+            command.addAll(Arrays.asList(demucsArgs));
+
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.directory(new File(demucsOutputDirectory));
+            processBuilder.environment().putAll(demucsCpuScheduler.getThreadEnvironment());
+            /* Python block-buffers stdout on a pipe, which would deliver the "Separating track" lines of a batch after
+             * the progress bars written to stderr */
+            processBuilder.environment().put("PYTHONUNBUFFERED", "1");
+            processBuilder.redirectErrorStream(true);
+
+            // Keep the last lines of output to explain a failure
+            Deque<String> outputTail = new ArrayDeque<>();
+            Process process = processBuilder.start();
+            DemucsProcessWatchdog.WatchedProcess watchedProcess = demucsProcessWatchdog.watch(process, inputFiles.get(0),
+                    totalDurationSeconds, demucsCpuScheduler.getThreadsPerJob());
+            Thread outputReader = DemucsOutputReader.start(process.getInputStream(), "Demucs-" + process.pid() + "-output", line -> {
+                watchedProcess.recordOutput();
+                synchronized (outputTail) {
+                    if (outputTail.size() == OUTPUT_TAIL_LINES) {
+                        outputTail.removeFirst();
+                    }
+                    outputTail.addLast(line);
+                }
+                outputListener.accept(line);
+            });
+
+            JobResourceUsage resourceUsage = watchedProcess.awaitCompletion();
+            int exitCode = process.exitValue();
+            outputReader.join(OUTPUT_DRAIN_TIMEOUT_MS);
+
+            if (exitCode != 0) {
+                synchronized (outputTail) {
+                    throw new IOException("Demucs processing failed for command: " + String.join(" ", command)
+                            + System.lineSeparator() + String.join(System.lineSeparator(), outputTail));
+                }
+            }
+            demucsMemoryAdmissionController.recordObservedPeak(memoryEstimate, resourceUsage.getPeakRssBytes());
+        }
+    }
+
+    @Override
+    public boolean isSelfContained() {
+        return false;
+    }
+}
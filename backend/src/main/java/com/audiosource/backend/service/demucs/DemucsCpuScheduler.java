@@ -0,0 +1,101 @@
+package com.audiosource.backend.service.demucs;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admits Demucs jobs against a core budget. Every job runs with a fixed number of PyTorch threads, set through
+ * OMP_NUM_THREADS and MKL_NUM_THREADS, so the budget gives a number of slots; jobs beyond that wait in FIFO order
+ * instead of thrashing the cores of the jobs already running.
+ */
+@Component
+public class DemucsCpuScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsCpuScheduler.class);
+
+    /* 0 means all the cores available to the JVM */
+    @Value("${demucs.scheduler.coreBudget:0}")
+    private int coreBudget;
+
+    @Value("${demucs.scheduler.threadsPerJob:2}")
+    private int threadsPerJob;
+
+    private Semaphore slots;
+    private int totalSlots;
+
+    @PostConstruct
+    public void init() {
+        if (coreBudget <= 0) {
+            coreBudget = Runtime.getRuntime().availableProcessors();
+        }
+        threadsPerJob = Math.max(1, Math.min(threadsPerJob, coreBudget));
+        totalSlots = Math.max(1, coreBudget / threadsPerJob);
+        slots = new Semaphore(totalSlots, true);
+        LOGGER.info("Demucs CPU scheduler admits {} concurrent jobs of {} threads ({} cores budgeted)", totalSlots, threadsPerJob, coreBudget);
+    }
+
+    /**
+     * Blocks until a slot is free. The returned slot must be closed once the Demucs process has finished.
+     *
+     * @return The slot held by the job.
+     * @throws InterruptedException If the thread is interrupted while queued.
+     */
+    public CpuSlot acquire() throws InterruptedException {
+        if (!slots.tryAcquire()) {
+            LOGGER.info("All {} Demucs slots are busy, job queued behind {} others", totalSlots, slots.getQueueLength());
+            slots.acquire();
+        }
+        return new CpuSlot();
+    }
+
+    /* Environment variables that cap the number of threads of a Demucs process to its share of the budget. */
+    public Map<String, String> getThreadEnvironment() {
+        Map<String, String> environment = new LinkedHashMap<>();
+        environment.put("OMP_NUM_THREADS", String.valueOf(threadsPerJob));
+        environment.put("MKL_NUM_THREADS", String.valueOf(threadsPerJob));
+        return environment;
+    }
+
+    public int getCoreBudget() {
+        return coreBudget;
+    }
+
+    public int getThreadsPerJob() {
+        return threadsPerJob;
+    }
+
+    public int getTotalSlots() {
+        return totalSlots;
+    }
+
+    public int getSlotsInUse() {
+        return totalSlots - slots.availablePermits();
+    }
+
+    public int getQueuedJobs() {
+        return slots.getQueueLength();
+    }
+
+    /* A slot held by a running job; closing it more than once has no effect. */
+    public class CpuSlot implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public int getThreads() {
+            return threadsPerJob;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+}
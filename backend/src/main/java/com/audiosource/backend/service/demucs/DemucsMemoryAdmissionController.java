@@ -0,0 +1,234 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.util.AudioProbe;
+import com.audiosource.backend.util.ProcFsUtils;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits Demucs jobs only when their predicted peak memory fits in the memory left by the jobs already running.
+ * The prediction is a fixed model overhead plus a per-second cost of audio, and the per-second cost is calibrated
+ * with the peaks observed on finished jobs. Jobs that don't fit wait in a priority queue where smaller jobs go
+ * first, while the larger ones age so that they are not starved.
+ */
+@Component
+public class DemucsMemoryAdmissionController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsMemoryAdmissionController.class);
+    private static final long ASSUMED_COMPRESSED_BYTES_PER_SECOND = 16_000; // 128 kbps, used when the input cannot be probed
+    private static final double CALIBRATION_WEIGHT = 0.2;
+    private static final double MIN_CALIBRATION_SECONDS = 30.0;
+    private static final long BYTES_PER_GB = 1024L * 1024L * 1024L;
+
+    @Value("${demucs.memory.enabled:true}")
+    private boolean enabled;
+
+    /* 0 means a fraction of the physical memory read from /proc/meminfo */
+    @Value("${demucs.memory.budgetBytes:0}")
+    private long budgetBytes;
+
+    @Value("${demucs.memory.budgetFraction:0.8}")
+    private double budgetFraction;
+
+    @Value("${demucs.memory.baseBytes:1610612736}")
+    private long baseBytes;
+
+    @Value("${demucs.memory.bytesPerSecond:8388608}")
+    private long initialBytesPerSecond;
+
+    @Value("${demucs.memory.safetyMargin:0.1}")
+    private double safetyMargin;
+
+    @Value("${demucs.memory.agingMsPerGb:60000}")
+    private long agingMsPerGb;
+
+    @Value("${demucs.memory.pollIntervalMs:1000}")
+    private long pollIntervalMs;
+
+    private final PriorityQueue<PendingJob> pendingJobs = new PriorityQueue<>(
+            Comparator.comparingLong((PendingJob job) -> job.virtualDeadline).thenComparingLong(job -> job.sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile double bytesPerSecond;
+    private long reservedBytes;
+    private int runningJobs;
+
+    @PostConstruct
+    public void init() {
+        bytesPerSecond = initialBytesPerSecond;
+        if (budgetBytes <= 0) {
+            long memTotalBytes = ProcFsUtils.readMemTotalBytes();
+            budgetBytes = memTotalBytes > 0 ? (long) (memTotalBytes * budgetFraction) : Runtime.getRuntime().maxMemory();
+        }
+        LOGGER.info("Demucs memory admission {} with a budget of {} MB", enabled ? "enabled" : "disabled", budgetBytes / (1024 * 1024));
+    }
+
+    /* Predicts the peak RSS of a Demucs process for the given input from its size and audio duration. */
+    public MemoryEstimate estimate(Path inputFile) {
+        double durationSeconds = readDurationSeconds(inputFile);
+        long predictedBytes = baseBytes + (long) (bytesPerSecond * durationSeconds);
+        long estimatedBytes = (long) (predictedBytes * (1 + safetyMargin));
+        return new MemoryEstimate(inputFile, durationSeconds, estimatedBytes);
+    }
+
+    /**
+     * Blocks until the estimated memory of the job fits in the budget and in the memory currently available.
+     * A job larger than the whole budget is admitted alone once nothing else is running.
+     *
+     * @param estimate The estimate returned by estimate(Path).
+     * @return The reservation held by the job, to be closed once the Demucs process has finished.
+     * @throws InterruptedException If the thread is interrupted while queued.
+     */
+    public MemoryReservation admit(MemoryEstimate estimate) throws InterruptedException {
+        if (!enabled) {
+            return new MemoryReservation(0, false);
+        }
+
+        long estimatedBytes = estimate.getEstimatedBytes();
+        long virtualDeadline = System.currentTimeMillis() + estimatedBytes * agingMsPerGb / BYTES_PER_GB;
+        PendingJob job = new PendingJob(virtualDeadline, sequence.incrementAndGet());
+
+        synchronized (this) {
+            pendingJobs.add(job);
+            try {
+                boolean logged = false;
+                while (pendingJobs.peek() != job || !fits(estimatedBytes)) {
+                    if (!logged) {
+                        LOGGER.info("Demucs job for {} needs ~{} MB and waits for memory ({} MB reserved, {} jobs queued)",
+                                estimate.getInputFile().getFileName(), estimatedBytes / (1024 * 1024), reservedBytes / (1024 * 1024), pendingJobs.size());
+                        logged = true;
+                    }
+                    wait(pollIntervalMs); // MemAvailable also changes outside of this JVM, so re-check periodically
+                }
+                reservedBytes += estimatedBytes;
+                runningJobs++;
+                return new MemoryReservation(estimatedBytes, true);
+            } finally {
+                pendingJobs.remove(job);
+                notifyAll();
+            }
+        }
+    }
+
+    /* Calibrates the per-second cost with the peak RSS observed for a finished job. */
+    public void recordObservedPeak(MemoryEstimate estimate, long observedPeakBytes) {
+        if (observedPeakBytes <= 0 || estimate.getDurationSeconds() < MIN_CALIBRATION_SECONDS) {
+            return;
+        }
+        double observedBytesPerSecond = Math.max(0, observedPeakBytes - baseBytes) / estimate.getDurationSeconds();
+        bytesPerSecond = (1 - CALIBRATION_WEIGHT) * bytesPerSecond + CALIBRATION_WEIGHT * observedBytesPerSecond;
+        LOGGER.debug("Observed peak of {} MB for {}s of audio, memory cost is now {} KB per second",
+                observedPeakBytes / (1024 * 1024), (long) estimate.getDurationSeconds(), (long) bytesPerSecond / 1024);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized int getQueuedJobs() {
+        return pendingJobs.size();
+    }
+
+    public long getBytesPerSecond() {
+        return (long) bytesPerSecond;
+    }
+
+    private boolean fits(long estimatedBytes) {
+        if (runningJobs == 0) {
+            return true;
+        }
+        long availableBytes = budgetBytes - reservedBytes;
+        long memAvailableBytes = ProcFsUtils.readMemAvailableBytes();
+        if (memAvailableBytes >= 0) {
+            availableBytes = Math.min(availableBytes, memAvailableBytes);
+        }
+        return estimatedBytes <= availableBytes;
+    }
+
+    private synchronized void release(long estimatedBytes) {
+        reservedBytes -= estimatedBytes;
+        runningJobs--;
+        notifyAll();
+    }
+
+    // The duration is read from the WAV header or the MP3 frames, formats the probe does not know are estimated from their size
+    private double readDurationSeconds(Path inputFile) {
+        try {
+            return AudioProbe.probe(inputFile).getDurationSeconds();
+        } catch (IOException e) {
+            LOGGER.debug("Could not probe the duration of {}: {}", inputFile, e.getMessage());
+        }
+        try {
+            return (double) Files.size(inputFile) / ASSUMED_COMPRESSED_BYTES_PER_SECOND;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the duration of {}, estimating its memory from the model overhead only: {}", inputFile, e.getMessage());
+            return 0;
+        }
+    }
+
+    private static class PendingJob {
+        private final long virtualDeadline;
+        private final long sequence;
+
+        private PendingJob(long virtualDeadline, long sequence) {
+            this.virtualDeadline = virtualDeadline;
+            this.sequence = sequence;
+        }
+    }
+
+    public static class MemoryEstimate {
+        private final Path inputFile;
+        private final double durationSeconds;
+        private final long estimatedBytes;
+
+        public MemoryEstimate(Path inputFile, double durationSeconds, long estimatedBytes) {
+            this.inputFile = inputFile;
+            this.durationSeconds = durationSeconds;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public Path getInputFile() {
+            return inputFile;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+    }
+
+    /* Memory reserved by a running job; closing it more than once has no effect. */
+    public class MemoryReservation implements AutoCloseable {
+        private final long reservedBytes;
+        private final boolean tracked;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private MemoryReservation(long reservedBytes, boolean tracked) {
+            this.reservedBytes = reservedBytes;
+            this.tracked = tracked;
+        }
+
+        @Override
+        public void close() {
+            if (tracked && released.compareAndSet(false, true)) {
+                release(reservedBytes);
+            }
+        }
+    }
+}
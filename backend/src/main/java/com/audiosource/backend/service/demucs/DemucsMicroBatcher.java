@@ -0,0 +1,208 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.util.AudioProbe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Groups short tracks that are separated with the same Demucs options into a single Demucs invocation, so that
+ * the model is loaded once per batch instead of once per clip. The first job of a batch waits for up to
+ * waitWindowMs (or until maxBatchSize jobs joined) and then runs the whole batch; Demucs writes one output
+ * directory per track, so every job finds its stems where a single invocation would have put them.
+ * Batches only form when several jobs are processed concurrently, see audioFiles.queue.concurrency.
+ */
+@Component
+public class DemucsMicroBatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsMicroBatcher.class);
+    private static final int DEMUCS_MODULE_ARGS_LENGTH = 3; // pythonEnvPath, "-m", "demucs"
+    private static final String TRACK_START_PREFIX = "Separating track ";
+
+    private final SeparationEngine separationEngine;
+    private final DemucsProgressTracker demucsProgressTracker;
+
+    @Value("${demucs.batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${demucs.batching.maxBatchSize:4}")
+    private int maxBatchSize;
+
+    @Value("${demucs.batching.waitWindowMs:2000}")
+    private long waitWindowMs;
+
+    @Value("${demucs.batching.maxTrackSeconds:120}")
+    private double maxTrackSeconds;
+
+    // Open batches by Demucs options (the command without its input file)
+    private final Map<List<String>, Batch> openBatches = new HashMap<>();
+
+    @Autowired
+    public DemucsMicroBatcher(SeparationEngine separationEngine, DemucsProgressTracker demucsProgressTracker) {
+        this.separationEngine = separationEngine;
+        this.demucsProgressTracker = demucsProgressTracker;
+    }
+
+    /* Only short tracks are worth batching: long ones already amortize the model loading. */
+    public boolean isEligible(String inputFilePath) {
+        if (!enabled || maxBatchSize < 2) {
+            return false;
+        }
+        try {
+            return AudioProbe.probe(Paths.get(inputFilePath)).getDurationSeconds() <= maxTrackSeconds;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Separates the input of the command (its last argument) as part of a batch of compatible jobs and returns
+     * once the stems of this input are written. When the batch fails, every job retries its own input alone so
+     * that one bad track does not fail the others.
+     *
+     * @param commandArgs The full Demucs command of the job, as built by DemucsProcessingService.
+     */
+    public void separate(String[] commandArgs) throws IOException, InterruptedException {
+        String inputFilePath = commandArgs[commandArgs.length - 1];
+        List<String> options = List.of(Arrays.copyOfRange(commandArgs, 0, commandArgs.length - 1));
+
+        Batch batch;
+        boolean leader = false;
+        CompletableFuture<Void> result;
+        synchronized (this) {
+            batch = openBatches.get(options);
+            // Demucs names the output directories after the tracks, so two tracks with the same name cannot share a batch
+            if (batch == null || batch.containsTrackName(inputFilePath)) {
+                batch = new Batch(options, System.currentTimeMillis() + waitWindowMs);
+                openBatches.put(options, batch);
+                leader = true;
+            }
+            result = batch.add(inputFilePath);
+            if (batch.size() >= maxBatchSize) {
+                openBatches.remove(options, batch);
+                notifyAll();
+            }
+        }
+
+        if (leader) {
+            awaitBatchClosed(batch);
+            run(batch);
+        }
+
+        try {
+            result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (leader && cause instanceof InterruptedException interruptedException) {
+                Thread.interrupted(); // Cleared by the throw, as for any InterruptedException
+                throw interruptedException;
+            }
+            if (batch.size() == 1) {
+                throw cause instanceof IOException ioException ? ioException : new IOException(cause.getMessage(), cause);
+            }
+            LOGGER.warn("Batch of {} tracks failed, separating {} alone: {}", batch.size(), inputFilePath, cause.getMessage());
+            String[] demucsArgs = Arrays.copyOfRange(commandArgs, DEMUCS_MODULE_ARGS_LENGTH, commandArgs.length);
+            separationEngine.separate(demucsArgs, demucsProgressTracker.outputListener(inputFilePath));
+        }
+    }
+
+    // The leader waits until the batch is full, replaced or its window elapsed; an interrupt only closes the batch early
+    private void awaitBatchClosed(Batch batch) {
+        boolean interrupted = false;
+        synchronized (this) {
+            long remainingMs;
+            while (openBatches.get(batch.options) == batch && (remainingMs = batch.deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(remainingMs);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    break;
+                }
+            }
+            openBatches.remove(batch.options, batch);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(Batch batch) {
+        List<String> demucsArgs = new ArrayList<>(batch.options.subList(DEMUCS_MODULE_ARGS_LENGTH, batch.options.size()));
+        demucsArgs.addAll(batch.results.keySet());
+        if (batch.size() > 1) {
+            LOGGER.info("Separating a batch of {} tracks in one Demucs invocation", batch.size());
+        }
+
+        try {
+            separationEngine.separate(demucsArgs.toArray(new String[0]), trackRoutingListener(batch));
+            batch.results.values().forEach(result -> result.complete(null));
+        } catch (IOException | RuntimeException e) {
+            batch.results.values().forEach(result -> result.completeExceptionally(e));
+        } catch (InterruptedException e) {
+            batch.results.values().forEach(result -> result.completeExceptionally(e));
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Demucs separates the tracks one after the other and announces each of them, which routes the progress lines
+    private Consumer<String> trackRoutingListener(Batch batch) {
+        Map<String, Consumer<String>> listeners = new HashMap<>();
+        batch.results.keySet().forEach(inputFilePath -> listeners.put(inputFilePath, demucsProgressTracker.outputListener(inputFilePath)));
+        AtomicReference<Consumer<String>> current = new AtomicReference<>(listeners.get(batch.results.keySet().iterator().next()));
+
+        return line -> {
+            if (line.startsWith(TRACK_START_PREFIX)) {
+                Consumer<String> trackListener = listeners.get(line.substring(TRACK_START_PREFIX.length()).trim());
+                if (trackListener != null) {
+                    current.set(trackListener);
+                }
+            }
+            current.get().accept(line);
+        };
+    }
+
+    private static class Batch {
+        private final List<String> options;
+        private final long deadline;
+        private final Map<String, CompletableFuture<Void>> results = new LinkedHashMap<>();
+
+        private Batch(List<String> options, long deadline) {
+            this.options = options;
+            this.deadline = deadline;
+        }
+
+        private CompletableFuture<Void> add(String inputFilePath) {
+            return results.computeIfAbsent(inputFilePath, key -> new CompletableFuture<>());
+        }
+
+        private int size() {
+            return results.size();
+        }
+
+        private boolean containsTrackName(String inputFilePath) {
+            String trackName = trackName(inputFilePath);
+            return results.keySet().stream().anyMatch(candidate -> trackName(candidate).equals(trackName));
+        }
+
+        private static String trackName(String inputFilePath) {
+            String fileName = Path.of(inputFilePath).getFileName().toString();
+            int extensionIndex = fileName.lastIndexOf('.');
+            return extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.audiosource.backend.service.demucs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/* Drains the output of a Demucs process on its own daemon thread, so that the job thread never blocks on the pipe.
+ * tqdm redraws its progress bar with carriage returns, hence lines are split on both '\r' and '\n'. */
+class DemucsOutputReader implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsOutputReader.class);
+
+    private final InputStream outputStream;
+    private final Consumer<String> lineConsumer;
+
+    private DemucsOutputReader(InputStream outputStream, Consumer<String> lineConsumer) {
+        this.outputStream = outputStream;
+        this.lineConsumer = lineConsumer;
+    }
+
+    static Thread start(InputStream outputStream, String threadName, Consumer<String> lineConsumer) {
+        Thread thread = new Thread(new DemucsOutputReader(outputStream, lineConsumer), threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[4096];
+        try (Reader reader = new InputStreamReader(outputStream, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    if (c == '\r' || c == '\n') {
+                        emit(line);
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+            emit(line);
+        } catch (IOException e) {
+            // The stream is closed when the process is destroyed
+            LOGGER.debug("Stopped reading Demucs output: {}", e.getMessage());
+        }
+    }
+
+    private void emit(StringBuilder line) {
+        if (line.length() == 0) {
+            return;
+        }
+        try {
+            lineConsumer.accept(line.toString());
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to handle Demucs output line: {}", e.getMessage());
+        }
+        line.setLength(0);
+    }
+}
@@ -0,0 +1,308 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.entities.JobResourceUsage;
+import com.audiosource.backend.repository.JobResourceUsageRepository;
+import com.audiosource.backend.util.ProcFsUtils;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches one-shot Demucs processes: the process tree is killed when the job exceeds a timeout scaled to the
+ * audio duration, or when it stalls without output nor CPU activity. CPU time and peak RSS are sampled from /proc
+ * while the job runs and the resources used by every job are recorded in the job_resource_usage collection.
+ * Jobs run on a warm worker of the DemucsWorkerPool are sampled the same way, the pool enforcing their deadline.
+ */
+@Component
+public class DemucsProcessWatchdog {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsProcessWatchdog.class);
+    private static final long KILL_GRACE_PERIOD_MS = 5000;
+
+    private final JobResourceUsageRepository jobResourceUsageRepository;
+    private final DemucsProgressTracker demucsProgressTracker;
+    private final ScheduledExecutorService workerJobSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DemucsWorkerJobSampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${demucs.watchdog.enabled:true}")
+    private boolean enabled;
+
+    @Value("${demucs.watchdog.baseTimeoutSeconds:600}")
+    private long baseTimeoutSeconds;
+
+    @Value("${demucs.watchdog.timeoutPerAudioSecond:3.0}")
+    private double timeoutPerAudioSecond;
+
+    @Value("${demucs.watchdog.stallTimeoutSeconds:300}")
+    private long stallTimeoutSeconds;
+
+    @Value("${demucs.watchdog.sampleIntervalMs:1000}")
+    private long sampleIntervalMs;
+
+    @Autowired
+    public DemucsProcessWatchdog(JobResourceUsageRepository jobResourceUsageRepository, DemucsProgressTracker demucsProgressTracker) {
+        this.jobResourceUsageRepository = jobResourceUsageRepository;
+        this.demucsProgressTracker = demucsProgressTracker;
+    }
+
+    /**
+     * Starts watching a Demucs process. The returned handle must be told about every output line of the process
+     * and awaited by the job thread.
+     *
+     * @param process The started Demucs process.
+     * @param inputFile The audio file separated by the process.
+     * @param audioDurationSeconds The duration of the input, used to scale the timeout.
+     * @param threads The number of threads the process was allowed to use.
+     */
+    public WatchedProcess watch(Process process, Path inputFile, double audioDurationSeconds, int threads) {
+        return new WatchedProcess(process, inputFile, audioDurationSeconds, threads, computeTimeoutMillis(audioDurationSeconds));
+    }
+
+    /**
+     * Prepares the sampling of a job run on a warm worker. The sampling starts once the pool hands the job to a
+     * worker, and the resources used are recorded when the job is finished.
+     *
+     * @param inputFile The audio file separated by the job.
+     * @param audioDurationSeconds The duration of the input.
+     * @param threads The number of threads the worker was allowed to use.
+     */
+    public WatchedWorkerJob watchWorkerJob(Path inputFile, double audioDurationSeconds, int threads) {
+        return new WatchedWorkerJob(inputFile, audioDurationSeconds, threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workerJobSampler.shutdownNow();
+    }
+
+    /* The deadline of a job run on a warm worker of the DemucsWorkerPool, 0 when the watchdog is disabled. */
+    long computeWorkerTimeoutMillis(double audioDurationSeconds) {
+        return enabled ? computeTimeoutMillis(audioDurationSeconds) : 0;
+    }
+
+    long computeTimeoutMillis(double audioDurationSeconds) {
+        return TimeUnit.SECONDS.toMillis(baseTimeoutSeconds) + (long) (audioDurationSeconds * timeoutPerAudioSecond * 1000);
+    }
+
+    // Kill the children first, so that they cannot outlive a parent that is already gone
+    static void killProcessTree(Process process) {
+        List<ProcessHandle> descendants = process.descendants().toList();
+        descendants.forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        try {
+            process.waitFor(KILL_GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // CPU time comes from ProcessHandle, which reads /proc/<pid>/stat with the right clock tick
+    private static TreeSample sampleTree(ProcessHandle root) {
+        List<ProcessHandle> tree = new ArrayList<>();
+        tree.add(root);
+        root.descendants().forEach(tree::add);
+
+        long treeCpuMillis = 0;
+        long treeRssBytes = 0;
+        for (ProcessHandle handle : tree) {
+            treeCpuMillis += handle.info().totalCpuDuration().map(Duration::toMillis).orElse(0L);
+            treeRssBytes += Math.max(0, ProcFsUtils.readRssBytes(handle.pid()));
+        }
+        return new TreeSample(treeCpuMillis, treeRssBytes);
+    }
+
+    private JobResourceUsage buildUsage(Path inputFile, double audioDurationSeconds, int threads, long startedAt,
+                                        long cpuTimeMillis, long peakRssBytes, String outcome) {
+        JobResourceUsage usage = new JobResourceUsage();
+        usage.setCorrelationId(demucsProgressTracker.findCorrelationId(inputFile.toString()).orElse(null));
+        usage.setInputFileName(inputFile.getFileName().toString());
+        try {
+            usage.setInputSizeBytes(Files.size(inputFile));
+        } catch (IOException e) {
+            usage.setInputSizeBytes(-1);
+        }
+        usage.setAudioDurationSeconds(audioDurationSeconds);
+        usage.setThreads(threads);
+        usage.setWallTimeMillis(System.currentTimeMillis() - startedAt);
+        usage.setCpuTimeMillis(cpuTimeMillis);
+        usage.setPeakRssBytes(peakRssBytes);
+        usage.setOutcome(outcome);
+        return usage;
+    }
+
+    private void record(JobResourceUsage usage) {
+        LOGGER.info("Demucs resources for {}: {} ms wall, {} ms CPU, {} MB peak RSS ({})", usage.getInputFileName(),
+                usage.getWallTimeMillis(), usage.getCpuTimeMillis(), usage.getPeakRssBytes() / (1024 * 1024), usage.getOutcome());
+        try {
+            jobResourceUsageRepository.save(usage);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not record the resource usage of {}: {}", usage.getInputFileName(), e.getMessage());
+        }
+    }
+
+    /* A Demucs process under watch, sampled by the job thread while it waits for the process to exit. */
+    public class WatchedProcess {
+        private final Process process;
+        private final Path inputFile;
+        private final double audioDurationSeconds;
+        private final int threads;
+        private final long timeoutMillis;
+        private final long startedAt = System.currentTimeMillis();
+        private volatile long lastActivityAt = startedAt;
+        private long cpuTimeMillis;
+        private long peakRssBytes = -1;
+
+        private WatchedProcess(Process process, Path inputFile, double audioDurationSeconds, int threads, long timeoutMillis) {
+            this.process = process;
+            this.inputFile = inputFile;
+            this.audioDurationSeconds = audioDurationSeconds;
+            this.threads = threads;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public void recordOutput() {
+            lastActivityAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Waits for the process to exit, killing its whole tree on timeout or stall.
+         *
+         * @return The resources used by the process, already recorded.
+         * @throws IOException If the process was killed by the watchdog.
+         * @throws InterruptedException If the job thread is interrupted, in which case the process is killed as well.
+         */
+        public JobResourceUsage awaitCompletion() throws IOException, InterruptedException {
+            String outcome = JobResourceUsage.OUTCOME_FAILED;
+            JobResourceUsage usage = null;
+            try {
+                while (!process.waitFor(sampleIntervalMs, TimeUnit.MILLISECONDS)) {
+                    sample();
+                    long now = System.currentTimeMillis();
+                    if (!enabled) {
+                        continue;
+                    }
+                    if (now - startedAt > timeoutMillis) {
+                        outcome = JobResourceUsage.OUTCOME_TIMED_OUT;
+                        killProcessTree(process);
+                        throw new IOException("Demucs process for " + inputFile + " timed out after " + timeoutMillis / 1000 + " s");
+                    }
+                    if (now - lastActivityAt > TimeUnit.SECONDS.toMillis(stallTimeoutSeconds)) {
+                        outcome = JobResourceUsage.OUTCOME_STALLED;
+                        killProcessTree(process);
+                        throw new IOException("Demucs process for " + inputFile + " stalled without output nor CPU activity for "
+                                + stallTimeoutSeconds + " s");
+                    }
+                }
+                outcome = process.exitValue() == 0 ? JobResourceUsage.OUTCOME_COMPLETED : JobResourceUsage.OUTCOME_FAILED;
+                usage = buildUsage(outcome);
+                return usage;
+            } catch (InterruptedException e) {
+                killProcessTree(process);
+                throw e;
+            } finally {
+                record(usage != null ? usage : buildUsage(outcome));
+            }
+        }
+
+        private void sample() {
+            TreeSample treeSample = sampleTree(process.toHandle());
+            if (treeSample.cpuMillis > cpuTimeMillis) {
+                cpuTimeMillis = treeSample.cpuMillis;
+                lastActivityAt = System.currentTimeMillis();
+            }
+            peakRssBytes = Math.max(peakRssBytes, Math.max(treeSample.rssBytes, ProcFsUtils.readPeakRssBytes(process.pid())));
+        }
+
+        private JobResourceUsage buildUsage(String outcome) {
+            return DemucsProcessWatchdog.this.buildUsage(inputFile, audioDurationSeconds, threads, startedAt, cpuTimeMillis, peakRssBytes, outcome);
+        }
+    }
+
+    /* A job run on a warm worker, sampled on the watchdog's own thread while the job thread waits for the pool. The
+     * worker outlives its jobs: the CPU time is counted from the start of the job and the peak RSS only comes from
+     * the samples, as the high-water mark of the worker covers its previous jobs too. */
+    public class WatchedWorkerJob {
+        private final Path inputFile;
+        private final double audioDurationSeconds;
+        private final int threads;
+        private ProcessHandle worker;
+        private ScheduledFuture<?> sampling;
+        private long startedAt;
+        private long baseCpuMillis;
+        private long cpuTimeMillis;
+        private long peakRssBytes = -1;
+
+        private WatchedWorkerJob(Path inputFile, double audioDurationSeconds, int threads) {
+            this.inputFile = inputFile;
+            this.audioDurationSeconds = audioDurationSeconds;
+            this.threads = threads;
+        }
+
+        /**
+         * Starts sampling the worker the job was handed to.
+         *
+         * @param worker The process of the worker running the job.
+         */
+        public synchronized void start(ProcessHandle worker) {
+            this.worker = worker;
+            this.startedAt = System.currentTimeMillis();
+            this.baseCpuMillis = sampleTree(worker).cpuMillis;
+            this.sampling = workerJobSampler.scheduleWithFixedDelay(this::sample, sampleIntervalMs, sampleIntervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Stops sampling and records the resources used by the job.
+         *
+         * @param outcome One of the JobResourceUsage outcomes.
+         * @return The resources used by the job, or null if it never reached a worker.
+         */
+        public synchronized JobResourceUsage finish(String outcome) {
+            if (worker == null) {
+                return null;
+            }
+            sampling.cancel(false);
+            if (worker.isAlive()) {
+                sample();
+            }
+            JobResourceUsage usage = buildUsage(inputFile, audioDurationSeconds, threads, startedAt, cpuTimeMillis, peakRssBytes, outcome);
+            worker = null;
+            record(usage);
+            return usage;
+        }
+
+        private synchronized void sample() {
+            if (worker == null) {
+                return;
+            }
+            TreeSample treeSample = sampleTree(worker);
+            cpuTimeMillis = Math.max(cpuTimeMillis, treeSample.cpuMillis - baseCpuMillis);
+            peakRssBytes = Math.max(peakRssBytes, treeSample.rssBytes);
+        }
+    }
+
+    private static class TreeSample {
+        private final long cpuMillis;
+        private final long rssBytes;
+
+        private TreeSample(long cpuMillis, long rssBytes) {
+            this.cpuMillis = cpuMillis;
+            this.rssBytes = rssBytes;
+        }
+    }
+}
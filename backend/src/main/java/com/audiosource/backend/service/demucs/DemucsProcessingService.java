@@ -1,20 +1,42 @@
 package com.audiosource.backend.service.demucs;
 
 import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
 import com.audiosource.backend.enums.SeparationType;
 import com.audiosource.backend.exception.DemucsProcessingException;
+import com.audiosource.backend.util.AudioProbe;
+import com.audiosource.backend.util.WavUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
 
 @Service
 public class DemucsProcessingService {
     private static final Logger LOGGER = LoggerFactory.getLogger(DemucsProcessingService.class);
+    private static final int DEMUCS_MODULE_ARGS_LENGTH = 3; // pythonEnvPath, "-m", "demucs"
+
+    private final SeparationEngine separationEngine;
+    private final DemucsProgressTracker demucsProgressTracker;
+    private final DemucsMicroBatcher demucsMicroBatcher;
+    private final Executor segmentExecutor;
 
     @Value("${demucs.outputDirectory}")
     private String demucsOutputDirectory;
@@ -22,6 +44,30 @@ public class DemucsProcessingService {
     @Value("${python.env.path}")
     private String pythonEnvPath;
 
+    @Value("${demucs.validation.maxDurationSeconds:0}")
+    private int maxDurationSeconds;
+
+    @Value("${demucs.segmentation.enabled:false}")
+    private boolean segmentationEnabled;
+
+    @Value("${demucs.segmentation.thresholdSeconds:600}")
+    private int segmentationThresholdSeconds;
+
+    @Value("${demucs.segmentation.segmentSeconds:120}")
+    private int segmentSeconds;
+
+    @Value("${demucs.segmentation.overlapSeconds:5}")
+    private int segmentOverlapSeconds;
+
+    @Autowired
+    public DemucsProcessingService(SeparationEngine separationEngine, DemucsProgressTracker demucsProgressTracker,
+                                   DemucsMicroBatcher demucsMicroBatcher, @Qualifier("segmentExecutor") Executor segmentExecutor) {
+        this.separationEngine = separationEngine;
+        this.demucsProgressTracker = demucsProgressTracker;
+        this.demucsMicroBatcher = demucsMicroBatcher;
+        this.segmentExecutor = segmentExecutor;
+    }
+
     /**
      * Processes the downloaded audio file using the Demucs AI model for music source separation.
      *
@@ -31,6 +77,20 @@ public class DemucsProcessingService {
      * @throws DemucsProcessingException If an I/O error occurs or the process fails.
      */
     public String processRetrievedAudioFile(String originalAudioFilePath, SeparationType separationType, OutputFormat outputFormat) throws DemucsProcessingException {
+        return processRetrievedAudioFile(originalAudioFilePath, separationType, outputFormat, ProcessingProfile.BALANCED);
+    }
+
+    /**
+     * Processes the downloaded audio file with the model and inference settings of the given processing profile.
+     *
+     * @param originalAudioFilePath The absolute path of the audio file to process.
+     * @param separationType The type of separation to perform (vocal remover or stems splitter).
+     * @param outputFormat The format of the output audio files (mp3 or wav).
+     * @param profile The quality/speed tier of the separation.
+     * @throws DemucsProcessingException If an I/O error occurs or the process fails.
+     */
+    public String processRetrievedAudioFile(String originalAudioFilePath, SeparationType separationType, OutputFormat outputFormat,
+                                            ProcessingProfile profile) throws DemucsProcessingException {
         // Ensure the service is ready for processing
         if (!isReadyForProcessing()) {
             throw new DemucsProcessingException("Service is not ready for processing. Check environment and output directory.");
@@ -39,12 +99,18 @@ public class DemucsProcessingService {
         validateAudioFile(originalAudioFilePath);
 
         // Construct the Demucs processing command arguments
-        String[] commandArgs = constructCommandArgs(separationType, outputFormat, originalAudioFilePath);
+        String[] commandArgs = constructCommandArgs(separationType, outputFormat, profile, originalAudioFilePath);
 
         try {
-            executeCommand(commandArgs);
+            if (shouldProcessInSegments(originalAudioFilePath, outputFormat)) {
+                processInSegments(originalAudioFilePath, separationType, outputFormat, profile);
+            } else if (demucsMicroBatcher.isEligible(originalAudioFilePath)) {
+                demucsMicroBatcher.separate(commandArgs);
+            } else {
+                executeCommand(commandArgs);
+            }
 
-            String processedAudioFilePath = constructProcessedFilePath(originalAudioFilePath);
+            String processedAudioFilePath = constructProcessedFilePath(originalAudioFilePath, profile);
 
             LOGGER.info("Successfully processed audio file by DemucsProcessingService {}", processedAudioFilePath);
 
@@ -55,15 +121,137 @@ public class DemucsProcessingService {
     }
 
     // Construct the processed file path based on the original audio file path
-    String constructProcessedFilePath(String originalAudioFilePath) {
+    public String constructProcessedFilePath(String originalAudioFilePath) {
+        return constructProcessedFilePath(originalAudioFilePath, ProcessingProfile.BALANCED);
+    }
+
+    // Demucs writes the stems in a directory named after the model, which depends on the profile
+    public String constructProcessedFilePath(String originalAudioFilePath, ProcessingProfile profile) {
         File originalFile = new File(originalAudioFilePath);
         String originalFileName = originalFile.getName();
         String originalFileNameWithoutExtension = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
 
-        Path outputDirectoryPath = Paths.get(demucsOutputDirectory, "separated", "htdemucs", originalFileNameWithoutExtension);
+        Path outputDirectoryPath = Paths.get(demucsOutputDirectory, "separated", profile.getModel(), originalFileNameWithoutExtension);
         return outputDirectoryPath.toString();
     }
 
+    /* Long WAV inputs can be split into overlapping segments that are separated concurrently.
+     * Only WAV output is supported, since the stems have to be decoded again to crossfade them. */
+    boolean shouldProcessInSegments(String originalAudioFilePath, OutputFormat outputFormat) {
+        if (!segmentationEnabled || outputFormat != OutputFormat.WAV || !originalAudioFilePath.toLowerCase().endsWith(".wav")) {
+            return false;
+        }
+        try {
+            return WavUtils.readHeader(Paths.get(originalAudioFilePath)).getDurationSeconds() > segmentationThresholdSeconds;
+        } catch (IOException e) {
+            LOGGER.warn("Could not read WAV header of {}, processing it in a single pass: {}", originalAudioFilePath, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Splits the input WAV into overlapping segments, separates them concurrently on the segment executor and
+     * stitches every stem back together with a crossfade over the overlap. The stitched stems are written to the
+     * same directory a single Demucs invocation would have produced (see constructProcessedFilePath).
+     *
+     * @param originalAudioFilePath The absolute path of the WAV file to process.
+     * @param separationType The type of separation to perform (vocal remover or stems splitter).
+     * @param outputFormat The format of the output audio files.
+     * @param profile The quality/speed tier of the separation of every segment.
+     * @throws IOException If splitting, separating or stitching one of the segments fails.
+     */
+    void processInSegments(String originalAudioFilePath, SeparationType separationType, OutputFormat outputFormat,
+                           ProcessingProfile profile) throws IOException {
+        Path originalFile = Paths.get(originalAudioFilePath);
+        WavUtils.WavHeader header = WavUtils.readHeader(originalFile);
+        long segmentFrames = (long) segmentSeconds * header.getSampleRate();
+        long stepFrames = segmentFrames - (long) segmentOverlapSeconds * header.getSampleRate();
+        if (stepFrames <= 0) {
+            throw new IllegalStateException("demucs.segmentation.overlapSeconds must be smaller than demucs.segmentation.segmentSeconds");
+        }
+
+        String baseName = removeExtension(originalFile.getFileName().toString());
+        Path segmentsDirectory = Files.createTempDirectory(originalFile.getParent(), baseName + "-segments");
+        List<Path> segmentFiles = new ArrayList<>();
+
+        try {
+            for (long startFrame = 0; ; startFrame += stepFrames) {
+                Path segmentFile = segmentsDirectory.resolve(String.format("%s__part%03d.wav", baseName, segmentFiles.size()));
+                WavUtils.writeSegment(originalFile, header, startFrame, segmentFrames, segmentFile);
+                segmentFiles.add(segmentFile);
+                if (startFrame + segmentFrames >= header.getFrameCount()) {
+                    break;
+                }
+            }
+            LOGGER.info("Separating {} in {} segments of {}s", originalAudioFilePath, segmentFiles.size(), segmentSeconds);
+            demucsProgressTracker.addSegments(originalAudioFilePath, segmentFiles);
+
+            separateSegments(segmentFiles, separationType, outputFormat, profile);
+            stitchSegmentStems(segmentFiles, profile, Paths.get(constructProcessedFilePath(originalAudioFilePath, profile)));
+        } finally {
+            for (Path segmentFile : segmentFiles) {
+                FileSystemUtils.deleteRecursively(Paths.get(constructProcessedFilePath(segmentFile.toString(), profile)));
+            }
+            FileSystemUtils.deleteRecursively(segmentsDirectory);
+        }
+    }
+
+    private void separateSegments(List<Path> segmentFiles, SeparationType separationType, OutputFormat outputFormat,
+                                  ProcessingProfile profile) throws IOException {
+        List<CompletableFuture<Void>> separations = new ArrayList<>();
+        try {
+            for (Path segmentFile : segmentFiles) {
+                separations.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        executeCommand(constructCommandArgs(separationType, outputFormat, profile, segmentFile.toString()));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }, segmentExecutor));
+            }
+        } catch (RejectedExecutionException e) {
+            // The segments already submitted keep running, wait for them before their files are deleted
+            CompletableFuture.allOf(separations.toArray(new CompletableFuture[0])).exceptionally(failure -> null).join();
+            throw new IOException("The segment executor rejected a segment: " + e.getMessage(), e);
+        }
+
+        try {
+            CompletableFuture.allOf(separations.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            separations.forEach(separation -> separation.cancel(true));
+            throw new IOException("Failed to separate one of the segments: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Stitch each stem file found in the first segment output (e.g. vocals.wav, drums.wav) across all the segments
+    private void stitchSegmentStems(List<Path> segmentFiles, ProcessingProfile profile, Path processedDirectory) throws IOException {
+        List<Path> segmentOutputDirectories = segmentFiles.stream()
+                .map(segmentFile -> Paths.get(constructProcessedFilePath(segmentFile.toString(), profile)))
+                .toList();
+
+        List<String> stemFileNames;
+        try (Stream<Path> stems = Files.list(segmentOutputDirectories.get(0))) {
+            stemFileNames = stems.map(stem -> stem.getFileName().toString())
+                    .filter(stemFileName -> stemFileName.endsWith(".wav"))
+                    .toList();
+        }
+
+        Files.createDirectories(processedDirectory);
+        for (String stemFileName : stemFileNames) {
+            List<Path> stemSegments = segmentOutputDirectories.stream().map(directory -> directory.resolve(stemFileName)).toList();
+            long overlapFrames = (long) segmentOverlapSeconds * WavUtils.readHeader(stemSegments.get(0)).getSampleRate();
+            WavUtils.stitchSegments(stemSegments, overlapFrames, processedDirectory.resolve(stemFileName));
+        }
+    }
+
+    private static String removeExtension(String fileName) {
+        int extensionIndex = fileName.lastIndexOf('.');
+        return extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName;
+    }
+
     // Validate the existence of the audio file to be processed
     public void validateAudioFile(String originalAudioFilePath) {
         File originalAudioFile = new File(originalAudioFilePath);
@@ -72,6 +260,30 @@ public class DemucsProcessingService {
         }
     }
 
+    /**
+     * Reads the format, duration, sample rate and channels of the downloaded audio file from its headers, so that
+     * corrupt, unsupported or too long inputs are rejected before any Demucs process is started.
+     *
+     * @param originalAudioFilePath The absolute path of the audio file to probe.
+     * @return The properties of the audio file.
+     * @throws DemucsProcessingException If the file is not a valid WAV or MP3 file or exceeds the maximum duration.
+     */
+    public AudioProbe.AudioInfo probeAudioFile(String originalAudioFilePath) throws DemucsProcessingException {
+        validateAudioFile(originalAudioFilePath);
+
+        AudioProbe.AudioInfo audioInfo;
+        try {
+            audioInfo = AudioProbe.probe(Paths.get(originalAudioFilePath));
+        } catch (IOException e) {
+            throw new DemucsProcessingException("Invalid audio file: " + e.getMessage(), e);
+        }
+        if (maxDurationSeconds > 0 && audioInfo.getDurationSeconds() > maxDurationSeconds) {
+            throw new DemucsProcessingException(String.format("Audio file %s lasts %.0f s, more than the maximum of %d s",
+                    originalAudioFilePath, audioInfo.getDurationSeconds(), maxDurationSeconds));
+        }
+        return audioInfo;
+    }
+
     // Construct the command arguments based on the separation type and output format arguments
     public String[] constructCommandArgs(SeparationType separationType, OutputFormat outputFormat, String originalAudioFilePath) {
         if (separationType == SeparationType.VOCAL_REMOVER && outputFormat == OutputFormat.MP3) {
@@ -85,6 +297,19 @@ public class DemucsProcessingService {
         }
     }
 
+    // Insert the model and inference arguments of the profile before the input file, which must stay the last argument
+    public String[] constructCommandArgs(SeparationType separationType, OutputFormat outputFormat, ProcessingProfile profile, String originalAudioFilePath) {
+        String[] commandArgs = constructCommandArgs(separationType, outputFormat, originalAudioFilePath);
+        List<String> profileArgs = profile.toDemucsArgs();
+        if (profileArgs.isEmpty()) {
+            return commandArgs;
+        }
+        List<String> args = new ArrayList<>(Arrays.asList(commandArgs).subList(0, commandArgs.length - 1));
+        args.addAll(profileArgs);
+        args.add(originalAudioFilePath);
+        return args.toArray(new String[0]);
+    }
+
     // Command arguments for the default Demucs processing (4-stems splitter and WAV output format)
     public String[] constructDefaultCommandArgs(String originalAudioFilePath) {
         return new String[]{ pythonEnvPath, "-m", "demucs", "-d", "cpu", originalAudioFilePath };
@@ -105,18 +330,13 @@ public class DemucsProcessingService {
         return new String[]{ pythonEnvPath, "-m", "demucs", "--two-stems=vocals", "--mp3", "cpu", originalAudioFilePath };
     }
 
-    // Execute the command to process the retrieved audio file using Demucs
+    /* Execute the command to process the retrieved audio file with the configured SeparationEngine. The input file
+     * is always the last argument of the command, and the output of the engine is handed to the DemucsProgressTracker
+     * under that path. */
     public void executeCommand(String[] commandArgs) throws IOException, InterruptedException {
-        ProcessBuilder processBuilder = new ProcessBuilder(commandArgs);
-        processBuilder.directory(new File(demucsOutputDirectory));
-        processBuilder.inheritIO();
-
-        Process process = processBuilder.start();
-        int exitCode = process.waitFor();
-
-        if(exitCode != 0) {
-            throw new IOException("Demucs processing failed for command: " + String.join(" ", commandArgs));
-        }
+        String inputFilePath = commandArgs[commandArgs.length - 1];
+        String[] demucsArgs = Arrays.copyOfRange(commandArgs, DEMUCS_MODULE_ARGS_LENGTH, commandArgs.length);
+        separationEngine.separate(demucsArgs, demucsProgressTracker.outputListener(inputFilePath));
     }
 
     /**
@@ -126,9 +346,9 @@ public class DemucsProcessingService {
      * @return boolean indicating if the service is ready.
      */
     public boolean isReadyForProcessing() {
-        // Check if the Python environment for Demucs exists and is executable
+        // Check if the Python environment for Demucs exists and is executable, unless the engine does not need it
         File pythonEnv = new File(pythonEnvPath);
-        if (!pythonEnv.exists() || !pythonEnv.canExecute()) {
+        if (!separationEngine.isSelfContained() && (!pythonEnv.exists() || !pythonEnv.canExecute())) {
             LOGGER.error("Python environment for Demucs is not available or executable.");
             return false;
         }
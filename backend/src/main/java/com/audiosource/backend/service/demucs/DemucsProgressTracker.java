@@ -0,0 +1,222 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.dto.ProcessingProgress;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Follows the progress of the Demucs jobs from their tqdm output, e.g.
+ * {@code  45%|████▌     | 81.9/175.5 [00:30<00:35,  2.67seconds/s]}.
+ * The latest snapshot of every job is kept in memory for the status endpoint and is published at a throttled
+ * rate to the FileMetadata collection, so that stalled jobs and ETAs can be read without polling the file system.
+ */
+@Component
+public class DemucsProgressTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsProgressTracker.class);
+    private static final Pattern PERCENT_PATTERN = Pattern.compile("^\\s*(\\d{1,3})%\\|");
+    private static final Pattern COUNTER_PATTERN = Pattern.compile("\\|\\s*([\\d.]+)/([\\d.]+)\\s*\\[");
+    private static final Pattern REMAINING_PATTERN = Pattern.compile("<(\\d+(?::\\d+)+)");
+
+    private final FileMetadataService fileMetadataService;
+
+    @Value("${demucs.progress.publishIntervalMs:1000}")
+    private long publishIntervalMs;
+
+    @Value("${demucs.progress.persistIntervalMs:5000}")
+    private long persistIntervalMs;
+
+    @Value("${demucs.progress.retentionMs:3600000}")
+    private long retentionMs;
+
+    private final Map<String, JobProgress> jobsByCorrelationId = new ConcurrentHashMap<>();
+    private final Map<String, JobProgress> jobsByInputFile = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DemucsProgressTracker(FileMetadataService fileMetadataService) {
+        this.fileMetadataService = fileMetadataService;
+    }
+
+    /* Starts following the job of the given correlationId, whose Demucs processes will receive inputFilePath. */
+    public void startJob(String correlationId, String inputFilePath) {
+        JobProgress job = new JobProgress(correlationId);
+        job.tasks.put(inputFilePath, new TaskProgress());
+        jobsByCorrelationId.put(correlationId, job);
+        jobsByInputFile.put(inputFilePath, job);
+        publish(job, true);
+    }
+
+    /* The input is separated in segments: each segment becomes a task of the original job with the same weight. */
+    public void addSegments(String inputFilePath, List<Path> segmentFiles) {
+        JobProgress job = jobsByInputFile.get(inputFilePath);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            job.tasks.remove(inputFilePath);
+            for (Path segmentFile : segmentFiles) {
+                job.tasks.put(segmentFile.toString(), new TaskProgress());
+                jobsByInputFile.put(segmentFile.toString(), job);
+            }
+        }
+    }
+
+    /* Returns the consumer of the output lines of the Demucs process that separates inputFilePath. */
+    public Consumer<String> outputListener(String inputFilePath) {
+        return line -> onOutputLine(inputFilePath, line);
+    }
+
+    public void completeJob(String correlationId, boolean successful) {
+        JobProgress job = jobsByCorrelationId.get(correlationId);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            job.status = successful ? ProcessingProgress.STATUS_COMPLETED : ProcessingProgress.STATUS_FAILED;
+            job.finishedAt = System.currentTimeMillis();
+            if (successful) {
+                job.tasks.values().forEach(task -> task.percent = 100);
+            }
+            jobsByInputFile.values().removeIf(candidate -> candidate == job);
+        }
+        publish(job, true);
+    }
+
+    /* The correlationId of the running job that separates inputFilePath, directly or as one of its segments. */
+    public Optional<String> findCorrelationId(String inputFilePath) {
+        return Optional.ofNullable(jobsByInputFile.get(inputFilePath)).map(job -> job.correlationId);
+    }
+
+    public Optional<ProcessingProgress> getProgress(String correlationId) {
+        return Optional.ofNullable(jobsByCorrelationId.get(correlationId)).map(job -> job.snapshot);
+    }
+
+    /* Forgets the jobs that finished longer than the retention period ago. */
+    @Scheduled(fixedDelayString = "${demucs.progress.cleanupIntervalMs:60000}")
+    public void removeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        jobsByCorrelationId.values().removeIf(job -> job.finishedAt > 0 && now - job.finishedAt >= retentionMs);
+    }
+
+    void onOutputLine(String inputFilePath, String line) {
+        Matcher percentMatcher = PERCENT_PATTERN.matcher(line);
+        if (!percentMatcher.find()) {
+            LOGGER.info("[demucs] {}", line);
+            return;
+        }
+        LOGGER.debug("[demucs] {}", line);
+
+        JobProgress job = jobsByInputFile.get(inputFilePath);
+        if (job == null) {
+            return;
+        }
+        synchronized (job) {
+            TaskProgress task = job.tasks.computeIfAbsent(inputFilePath, key -> new TaskProgress());
+            task.percent = Math.min(100, Integer.parseInt(percentMatcher.group(1)));
+
+            Matcher counterMatcher = COUNTER_PATTERN.matcher(line);
+            if (counterMatcher.find()) {
+                task.processedSeconds = Double.parseDouble(counterMatcher.group(1));
+                task.totalSeconds = Double.parseDouble(counterMatcher.group(2));
+            }
+            Matcher remainingMatcher = REMAINING_PATTERN.matcher(line);
+            task.remainingSeconds = remainingMatcher.find() ? parseDuration(remainingMatcher.group(1)) : null;
+            job.lastOutputAt = System.currentTimeMillis();
+        }
+        publish(job, false);
+    }
+
+    // Refresh the snapshot at most every publishIntervalMs and persist it at most every persistIntervalMs
+    private void publish(JobProgress job, boolean force) {
+        long now = System.currentTimeMillis();
+        ProcessingProgress snapshot;
+        boolean persist;
+        synchronized (job) {
+            if (!force && now - job.lastPublishedAt < publishIntervalMs) {
+                return;
+            }
+            snapshot = job.buildSnapshot(now);
+            job.snapshot = snapshot;
+            job.lastPublishedAt = now;
+            persist = force || now - job.lastPersistedAt >= persistIntervalMs;
+            if (persist) {
+                job.lastPersistedAt = now;
+            }
+        }
+
+        if (persist) {
+            try {
+                fileMetadataService.updateProcessingProgress(snapshot.getCorrelationId(), snapshot.getStatus(), snapshot.getPercent());
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not persist the progress of correlationId {}: {}", snapshot.getCorrelationId(), e.getMessage());
+            }
+        }
+    }
+
+    // tqdm prints durations as mm:ss or hh:mm:ss
+    private static Long parseDuration(String duration) {
+        long seconds = 0;
+        for (String part : duration.split(":")) {
+            seconds = seconds * 60 + Long.parseLong(part);
+        }
+        return seconds;
+    }
+
+    private static class TaskProgress {
+        private double percent;
+        private double processedSeconds;
+        private double totalSeconds;
+        private Long remainingSeconds;
+    }
+
+    private static class JobProgress {
+        private final String correlationId;
+        private final long startedAt = System.currentTimeMillis();
+        private final Map<String, TaskProgress> tasks = new LinkedHashMap<>();
+        private String status = ProcessingProgress.STATUS_RUNNING;
+        private long lastOutputAt = startedAt;
+        private long lastPublishedAt;
+        private long lastPersistedAt;
+        private volatile long finishedAt;
+        private volatile ProcessingProgress snapshot;
+
+        private JobProgress(String correlationId) {
+            this.correlationId = correlationId;
+        }
+
+        private ProcessingProgress buildSnapshot(long now) {
+            double percent = tasks.values().stream().mapToDouble(task -> task.percent).average().orElse(0);
+            double processedSeconds = tasks.values().stream().mapToDouble(task -> task.processedSeconds).sum();
+            double totalSeconds = tasks.values().stream().mapToDouble(task -> task.totalSeconds).sum();
+
+            Long etaSeconds = null;
+            if (ProcessingProgress.STATUS_RUNNING.equals(status)) {
+                if (tasks.size() == 1) {
+                    etaSeconds = tasks.values().iterator().next().remainingSeconds;
+                } else if (percent > 0) {
+                    // Segments run concurrently, so extrapolate from the elapsed time of the whole job
+                    etaSeconds = (long) ((now - startedAt) / 1000.0 * (100 - percent) / percent);
+                }
+            } else {
+                etaSeconds = 0L;
+            }
+            return new ProcessingProgress(correlationId, status, percent, processedSeconds, totalSeconds, etaSeconds,
+                    new Date(startedAt), new Date(lastOutputAt));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.audiosource.backend.service.demucs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/* A single long-lived Python process running `demucs_worker.py`, which keeps the Demucs model loaded in memory
+ * and receives separation jobs as JSON lines on its stdin. Instances are owned and recycled by DemucsWorkerPool. */
+class DemucsWorker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsWorker.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final int workerId;
+    private final Process process;
+    private final BufferedWriter requestWriter;
+    private final BufferedReader responseReader;
+    private volatile boolean destroyed;
+    private volatile Consumer<String> outputListener;
+
+    private DemucsWorker(int workerId, Process process) {
+        this.workerId = workerId;
+        this.process = process;
+        this.requestWriter = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.responseReader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    // Start the worker process; the model is loaded in the background until awaitReady() returns
+    static DemucsWorker start(int workerId, List<String> command, File workingDirectory, Map<String, String> environment) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.directory(workingDirectory);
+        processBuilder.environment().putAll(environment);
+        DemucsWorker worker = new DemucsWorker(workerId, processBuilder.start());
+        // Demucs logs and progress bars go to stderr, they are routed to the listener of the running job
+        DemucsOutputReader.start(worker.process.getErrorStream(), "DemucsWorker-" + workerId + "-output", worker::onOutputLine);
+        return worker;
+    }
+
+    // Block until the worker reports that the default model is loaded
+    void awaitReady() throws IOException {
+        JsonNode response = readResponse();
+        if (!"ready".equals(response.path("status").asText())) {
+            throw new IOException("Demucs worker " + workerId + " did not report ready: " + response);
+        }
+    }
+
+    // Round-trip a ping request to make sure the worker is still responsive
+    void ping() throws IOException {
+        String requestId = UUID.randomUUID().toString();
+        sendRequest(requestId, "ping", null);
+        JsonNode response = readResponse();
+        if (!"pong".equals(response.path("status").asText()) || !requestId.equals(response.path("id").asText())) {
+            throw new IOException("Unexpected health check response from Demucs worker " + workerId + ": " + response);
+        }
+    }
+
+    /**
+     * Runs one separation job on this worker.
+     *
+     * @param demucsArgs The arguments that would follow `python -m demucs` on the command line.
+     * @param jobOutputListener Receives the output lines of Demucs while the job runs.
+     * @throws DemucsJobFailedException If Demucs reported an error for this job while the worker stayed healthy.
+     * @throws IOException If the worker could not be reached or died while processing the job.
+     */
+    void separate(String[] demucsArgs, Consumer<String> jobOutputListener) throws IOException {
+        String requestId = UUID.randomUUID().toString();
+        JsonNode response;
+        outputListener = jobOutputListener;
+        try {
+            sendRequest(requestId, "separate", demucsArgs);
+            response = readResponse();
+        } finally {
+            outputListener = null;
+        }
+
+        if (!requestId.equals(response.path("id").asText())) {
+            throw new IOException("Demucs worker " + workerId + " answered out of order: " + response);
+        }
+        if (!"ok".equals(response.path("status").asText())) {
+            throw new DemucsJobFailedException(response.path("message").asText("Unknown Demucs error"));
+        }
+    }
+
+    boolean isAlive() {
+        return !destroyed && process.isAlive();
+    }
+
+    int getWorkerId() {
+        return workerId;
+    }
+
+    long getPid() {
+        return process.pid();
+    }
+
+    ProcessHandle toHandle() {
+        return process.toHandle();
+    }
+
+    void destroy() {
+        destroyed = true;
+        process.destroy();
+    }
+
+    // A hung worker may not react to SIGTERM, and the processes Demucs forked would keep the pipes open
+    void kill() {
+        destroyed = true;
+        DemucsProcessWatchdog.killProcessTree(process);
+    }
+
+    private void onOutputLine(String line) {
+        Consumer<String> listener = outputListener;
+        if (listener != null) {
+            listener.accept(line);
+        } else {
+            LOGGER.debug("[demucs worker {}] {}", workerId, line);
+        }
+    }
+
+    private void sendRequest(String requestId, String command, String[] args) throws IOException {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("id", requestId);
+        request.put("cmd", command);
+        if (args != null) {
+            request.put("args", args);
+        }
+        requestWriter.write(OBJECT_MAPPER.writeValueAsString(request));
+        requestWriter.newLine();
+        requestWriter.flush();
+    }
+
+    private JsonNode readResponse() throws IOException {
+        String line = responseReader.readLine();
+        if (line == null) {
+            throw new IOException("Demucs worker " + workerId + " closed its output stream");
+        }
+        return OBJECT_MAPPER.readTree(line);
+    }
+
+    /* Demucs itself failed on the job (bad input, unknown model...), the worker process is still usable. */
+    static class DemucsJobFailedException extends IOException {
+        DemucsJobFailedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.exception.DemucsProcessingException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a pool of long-lived Demucs worker processes so that each job skips the Python interpreter startup
+ * and the model loading. Workers are health-checked periodically and replaced when they crash.
+ * When the pool is disabled or no worker is available in time, callers fall back to the one-shot command.
+ */
+@Component
+public class DemucsWorkerPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DemucsWorkerPool.class);
+    private static final String WORKER_SCRIPT = "demucs/demucs_worker.py";
+
+    private final DemucsCpuScheduler demucsCpuScheduler;
+
+    @Value("${demucs.workerPool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${demucs.workerPool.size:2}")
+    private int poolSize;
+
+    @Value("${demucs.workerPool.model:htdemucs}")
+    private String preloadedModel;
+
+    @Value("${demucs.workerPool.acquireTimeoutMs:60000}")
+    private long acquireTimeoutMs;
+
+    @Value("${demucs.workerPool.healthCheckTimeoutMs:5000}")
+    private long healthCheckTimeoutMs;
+
+    @Value("${demucs.outputDirectory}")
+    private String demucsOutputDirectory;
+
+    @Value("${python.env.path}")
+    private String pythonEnvPath;
+
+    private final BlockingQueue<DemucsWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final Map<DemucsWorker, BusyWorker> busyWorkers = new ConcurrentHashMap<>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicInteger workerIds = new AtomicInteger();
+    private final ExecutorService workerLifecycleExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "DemucsWorkerPool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Path workerScriptPath;
+    private volatile boolean shuttingDown;
+
+    @Autowired
+    public DemucsWorkerPool(DemucsCpuScheduler demucsCpuScheduler) {
+        this.demucsCpuScheduler = demucsCpuScheduler;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            LOGGER.info("Demucs worker pool is disabled, every job will start its own Demucs process.");
+            return;
+        }
+        try {
+            workerScriptPath = extractWorkerScript();
+        } catch (IOException e) {
+            LOGGER.error("Could not extract the Demucs worker script, the worker pool stays disabled: {}", e.getMessage(), e);
+            enabled = false;
+            return;
+        }
+        LOGGER.info("Starting Demucs worker pool with {} workers (model '{}')", poolSize, preloadedModel);
+        replenishWorkers();
+    }
+
+    /**
+     * Runs a Demucs job on a warm worker. A job still running at its deadline gets the worker killed with its whole
+     * process tree, as the DemucsProcessWatchdog does for one-shot processes, and the worker is replaced.
+     *
+     * @param demucsArgs The arguments that would follow `python -m demucs` on the command line.
+     * @param outputListener Receives the output lines of Demucs for this job.
+     * @param timeoutMillis The time the job may take, 0 for no deadline.
+     * @return true if a worker processed the job, false if the caller should fall back to a one-shot process.
+     * @throws IOException If Demucs reported a failure for the job itself.
+     * @throws DemucsProcessingException If the job exceeded its deadline.
+     * @throws InterruptedException If the thread is interrupted while waiting for a free worker or for the job.
+     */
+    public boolean execute(String[] demucsArgs, Consumer<String> outputListener, long timeoutMillis) throws IOException, InterruptedException {
+        return execute(demucsArgs, outputListener, timeoutMillis, workerProcess -> { });
+    }
+
+    /* Same as execute(String[], Consumer, long), telling onWorkerAssigned which worker process runs the job before it
+     * starts, e.g. to sample its resources. */
+    public boolean execute(String[] demucsArgs, Consumer<String> outputListener, long timeoutMillis,
+                           Consumer<ProcessHandle> onWorkerAssigned) throws IOException, InterruptedException {
+        if (!enabled || shuttingDown) {
+            return false;
+        }
+
+        DemucsWorker worker = idleWorkers.poll(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        if (worker == null) {
+            LOGGER.warn("No Demucs worker became available within {} ms, falling back to a one-shot process.", acquireTimeoutMs);
+            return false;
+        }
+
+        // The response is read on a lifecycle thread, so that the job thread can give up on a worker that hangs
+        BusyWorker busyWorker = new BusyWorker(worker, timeoutMillis);
+        busyWorkers.put(worker, busyWorker);
+        onWorkerAssigned.accept(worker.toHandle());
+        CompletableFuture.runAsync(() -> {
+            try {
+                worker.separate(demucsArgs, outputListener);
+                busyWorker.job.complete(null);
+            } catch (IOException e) {
+                busyWorker.job.completeExceptionally(e);
+            }
+        }, workerLifecycleExecutor);
+
+        try {
+            if (timeoutMillis > 0) {
+                busyWorker.job.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                busyWorker.job.get();
+            }
+            return true;
+        } catch (TimeoutException e) {
+            LOGGER.error("Demucs worker {} did not finish its job within {} s and will be replaced.", worker.getWorkerId(), timeoutMillis / 1000);
+            busyWorker.recycle(true, null);
+            throw new DemucsProcessingException("Demucs worker " + worker.getWorkerId() + " timed out after " + timeoutMillis / 1000 + " s");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DemucsWorker.DemucsJobFailedException) {
+                throw new IOException("Demucs worker " + worker.getWorkerId() + " failed to process job: " + e.getCause().getMessage(), e.getCause());
+            }
+            if (busyWorker.timedOut) {
+                throw new DemucsProcessingException("Demucs worker " + worker.getWorkerId() + " timed out after " + timeoutMillis / 1000 + " s");
+            }
+            LOGGER.error("Demucs worker {} crashed while processing a job: {}", worker.getWorkerId(), e.getCause().getMessage());
+            worker.kill();
+            return false;
+        } catch (InterruptedException e) {
+            worker.kill();
+            throw e;
+        } finally {
+            busyWorkers.remove(worker);
+            releaseWorker(worker);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getIdleWorkerCount() {
+        return idleWorkers.size();
+    }
+
+    public int getWorkerCount() {
+        return workerCount.get();
+    }
+
+    /* Pings every idle worker, discards the ones that are dead or unresponsive and restarts missing workers. Busy
+     * workers that died or went past the deadline of their job are killed, their job thread then replaces them. */
+    @Scheduled(fixedDelayString = "${demucs.workerPool.healthCheckIntervalMs:30000}")
+    public void checkWorkersHealth() {
+        if (!enabled || shuttingDown) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (BusyWorker busyWorker : busyWorkers.values()) {
+            DemucsWorker worker = busyWorker.worker;
+            if (!worker.isAlive()) {
+                LOGGER.warn("Demucs worker {} died while processing a job and will be replaced.", worker.getWorkerId());
+                busyWorker.recycle(false, new IOException("Demucs worker " + worker.getWorkerId() + " died while processing a job"));
+            } else if (busyWorker.isOverdue(now)) {
+                LOGGER.warn("Demucs worker {} has been running a job for {} s, past its deadline, and will be replaced.",
+                        worker.getWorkerId(), (now - busyWorker.startedAt) / 1000);
+                busyWorker.recycle(true, new IOException("Demucs worker " + worker.getWorkerId() + " went past the deadline of its job"));
+            }
+        }
+
+        List<DemucsWorker> workersToCheck = new ArrayList<>();
+        idleWorkers.drainTo(workersToCheck);
+
+        for (DemucsWorker worker : workersToCheck) {
+            if (isHealthy(worker)) {
+                idleWorkers.offer(worker);
+            } else {
+                LOGGER.warn("Demucs worker {} failed its health check and will be replaced.", worker.getWorkerId());
+                discardWorker(worker);
+            }
+        }
+        replenishWorkers();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        List<DemucsWorker> workers = new ArrayList<>();
+        idleWorkers.drainTo(workers);
+        workers.forEach(DemucsWorker::destroy);
+        busyWorkers.values().forEach(busyWorker -> busyWorker.recycle(false, new IOException("The Demucs worker pool is shutting down")));
+        workerLifecycleExecutor.shutdownNow();
+        LOGGER.info("Demucs worker pool stopped.");
+    }
+
+    private boolean isHealthy(DemucsWorker worker) {
+        if (!worker.isAlive()) {
+            return false;
+        }
+        CompletableFuture<Void> ping = CompletableFuture.runAsync(() -> {
+            try {
+                worker.ping();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, workerLifecycleExecutor);
+
+        try {
+            ping.get(healthCheckTimeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void releaseWorker(DemucsWorker worker) {
+        if (worker.isAlive() && !shuttingDown) {
+            idleWorkers.offer(worker);
+        } else {
+            discardWorker(worker);
+            replenishWorkers();
+        }
+    }
+
+    private void discardWorker(DemucsWorker worker) {
+        worker.destroy();
+        workerCount.decrementAndGet();
+    }
+
+    // Start as many workers as needed to get back to the configured pool size
+    private void replenishWorkers() {
+        while (!shuttingDown) {
+            int current = workerCount.get();
+            if (current >= poolSize) {
+                return;
+            }
+            if (workerCount.compareAndSet(current, current + 1)) {
+                workerLifecycleExecutor.execute(this::startWorker);
+            }
+        }
+    }
+
+    private void startWorker() {
+        int workerId = workerIds.incrementAndGet();
+        List<String> command = List.of(pythonEnvPath, workerScriptPath.toString(), preloadedModel);
+        DemucsWorker worker = null;
+        try {
+            // Workers only run jobs admitted by the CPU scheduler, so they get the same thread cap as one-shot processes
+            worker = DemucsWorker.start(workerId, command, new File(demucsOutputDirectory), demucsCpuScheduler.getThreadEnvironment());
+            worker.awaitReady();
+            idleWorkers.offer(worker);
+            LOGGER.info("Demucs worker {} is ready (pid {})", workerId, worker.getPid());
+        } catch (IOException e) {
+            if (worker != null) {
+                worker.destroy();
+            }
+            workerCount.decrementAndGet();
+            LOGGER.error("Failed to start Demucs worker {}: {}", workerId, e.getMessage(), e);
+        }
+    }
+
+    // The script lives inside the application jar, so it is copied to a temporary file the interpreter can run
+    private Path extractWorkerScript() throws IOException {
+        Path scriptPath = Files.createTempFile("demucs_worker", ".py");
+        scriptPath.toFile().deleteOnExit();
+        try (InputStream scriptStream = new ClassPathResource(WORKER_SCRIPT).getInputStream()) {
+            Files.copy(scriptStream, scriptPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return scriptPath;
+    }
+
+    /* A worker running a job, with the job's deadline, so that the health check can recycle it. */
+    private static class BusyWorker {
+        private final DemucsWorker worker;
+        private final long timeoutMillis;
+        private final long startedAt = System.currentTimeMillis();
+        private final CompletableFuture<Void> job = new CompletableFuture<>();
+        private volatile boolean timedOut;
+
+        private BusyWorker(DemucsWorker worker, long timeoutMillis) {
+            this.worker = worker;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        private boolean isOverdue(long now) {
+            return timeoutMillis > 0 && now - startedAt > timeoutMillis;
+        }
+
+        // Kill the process tree and wake up the job thread, even when a forked process keeps the pipes open
+        private void recycle(boolean deadlineExceeded, IOException cause) {
+            timedOut |= deadlineExceeded;
+            worker.kill();
+            if (cause != null) {
+                job.completeExceptionally(cause);
+            }
+        }
+    }
+}
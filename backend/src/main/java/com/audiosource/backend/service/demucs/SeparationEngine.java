@@ -0,0 +1,26 @@
+package com.audiosource.backend.service.demucs;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Runs the source separation of the DemucsProcessingService. Jobs are described with the arguments of the Demucs
+ * command line (everything after `python -m demucs`) and every engine writes its stems where the Demucs CLI would,
+ * i.e. under `<demucs.outputDirectory>/separated/<model>/<track name>`, so that the rest of the pipeline does not
+ * depend on the engine. The engine is selected with the `separation.engine` property.
+ */
+public interface SeparationEngine {
+
+    /**
+     * Separates the tracks given in the Demucs arguments.
+     *
+     * @param demucsArgs The arguments that would follow `python -m demucs` on the command line.
+     * @param outputListener Receives the output lines of the separation (Demucs logs and tqdm progress bars).
+     * @throws IOException If the separation fails.
+     * @throws InterruptedException If the thread is interrupted while the separation runs.
+     */
+    void separate(String[] demucsArgs, Consumer<String> outputListener) throws IOException, InterruptedException;
+
+    /* true when the engine runs without the Python environment, which is then not required to be ready. */
+    boolean isSelfContained();
+}
@@ -0,0 +1,176 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.util.AudioProbe;
+import com.audiosource.backend.util.WavUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Benchmark engine that emulates the Demucs CLI without Python nor inference: after a configurable processing time
+ * it writes stems with the layout, names, format and duration Demucs would produce, filled with low level noise so
+ * that they compress like real audio. It makes it possible to load test the queues, S3 transfers and zip pipeline
+ * on ordinary machines. Enabled with `separation.engine=synthetic`.
+ */
+@Component
+@ConditionalOnProperty(name = "separation.engine", havingValue = "synthetic")
+public class SyntheticSeparationEngine implements SeparationEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticSeparationEngine.class);
+    private static final String DEFAULT_MODEL = "htdemucs";
+    private static final List<String> FOUR_STEMS = List.of("drums", "bass", "other", "vocals");
+    private static final Set<String> OPTIONS_WITH_VALUE = Set.of("-n", "--name", "-d", "--device", "-o", "--out", "--repo",
+            "--filename", "--shifts", "--overlap", "--segment", "-j", "--jobs", "--mp3-bitrate", "--mp3-preset", "--clip-mode");
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int PROGRESS_STEPS = 10;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // One MPEG-1 Layer III frame at 128 kbps, 44.1 kHz, stereo: a 4 byte header and zeroed side info/data decode as silence
+    private static final byte[] MP3_SILENT_FRAME = new byte[417];
+    private static final int MP3_SAMPLES_PER_FRAME = 1152;
+
+    static {
+        MP3_SILENT_FRAME[0] = (byte) 0xFF;
+        MP3_SILENT_FRAME[1] = (byte) 0xFB;
+        MP3_SILENT_FRAME[2] = (byte) 0x90;
+        MP3_SILENT_FRAME[3] = (byte) 0x00;
+    }
+
+    @Value("${demucs.outputDirectory}")
+    private String demucsOutputDirectory;
+
+    @Value("${separation.synthetic.fixedMillis:2000}")
+    private long fixedMillis;
+
+    /* Processing time per second of audio, e.g. 0.5 emulates a model running twice as fast as real time */
+    @Value("${separation.synthetic.realTimeFactor:0.0}")
+    private double realTimeFactor;
+
+    @Override
+    public void separate(String[] demucsArgs, Consumer<String> outputListener) throws IOException, InterruptedException {
+        String model = DEFAULT_MODEL;
+        List<String> stems = FOUR_STEMS;
+        boolean mp3 = false;
+        List<Path> tracks = new ArrayList<>();
+
+        for (int i = 0; i < demucsArgs.length; i++) {
+            String arg = demucsArgs[i];
+            if (arg.equals("-n") || arg.equals("--name")) {
+                model = demucsArgs[++i];
+            } else if (arg.startsWith("--name=")) {
+                model = arg.substring("--name=".length());
+            } else if (arg.startsWith("--two-stems=")) {
+                String stem = arg.substring("--two-stems=".length());
+                stems = List.of(stem, "no_" + stem);
+            } else if (arg.equals("--mp3")) {
+                mp3 = true;
+            } else if (OPTIONS_WITH_VALUE.contains(arg)) {
+                i++;
+            } else if (!arg.startsWith("-") && Files.isRegularFile(Paths.get(arg))) {
+                tracks.add(Paths.get(arg));
+            }
+        }
+        if (tracks.isEmpty()) {
+            throw new IOException("No input track found in the Demucs arguments: " + String.join(" ", demucsArgs));
+        }
+
+        for (Path track : tracks) {
+            double durationSeconds = AudioProbe.probe(track).getDurationSeconds();
+            outputListener.accept("Separating track " + track);
+            emulateProcessing(durationSeconds, outputListener);
+            writeStems(track, model, stems, mp3, durationSeconds);
+        }
+    }
+
+    @Override
+    public boolean isSelfContained() {
+        return true;
+    }
+
+    // Sleep for the configured processing time while printing tqdm-like progress lines
+    private void emulateProcessing(double durationSeconds, Consumer<String> outputListener) throws InterruptedException {
+        long processingMillis = fixedMillis + (long) (durationSeconds * realTimeFactor * 1000);
+        for (int step = 1; step <= PROGRESS_STEPS; step++) {
+            Thread.sleep(processingMillis / PROGRESS_STEPS);
+            long remainingSeconds = processingMillis * (PROGRESS_STEPS - step) / PROGRESS_STEPS / 1000;
+            outputListener.accept(String.format("%3d%%|          | %.1f/%.1f [00:00<%02d:%02d,  1.00seconds/s]",
+                    step * 100 / PROGRESS_STEPS, durationSeconds * step / PROGRESS_STEPS, durationSeconds,
+                    remainingSeconds / 60, remainingSeconds % 60));
+        }
+    }
+
+    private void writeStems(Path track, String model, List<String> stems, boolean mp3, double durationSeconds) throws IOException {
+        String trackName = track.getFileName().toString();
+        int extensionIndex = trackName.lastIndexOf('.');
+        if (extensionIndex > 0) {
+            trackName = trackName.substring(0, extensionIndex);
+        }
+        Path trackDirectory = Files.createDirectories(Paths.get(demucsOutputDirectory, "separated", model, trackName));
+        long frames = (long) (durationSeconds * SAMPLE_RATE);
+
+        for (int i = 0; i < stems.size(); i++) {
+            if (mp3) {
+                writeSilentMp3(trackDirectory.resolve(stems.get(i) + ".mp3"), frames);
+            } else {
+                writeNoiseWav(trackDirectory.resolve(stems.get(i) + ".wav"), frames, i + 1);
+            }
+        }
+        LOGGER.debug("Synthetic separation of {} written to {}", track, trackDirectory);
+    }
+
+    // 16-bit stereo PCM at 44.1 kHz like Demucs, with xorshift noise at about -40 dBFS
+    private static void writeNoiseWav(Path target, long frames, long seed) throws IOException {
+        WavUtils.WavHeader format = new WavUtils.WavHeader(WavUtils.FORMAT_PCM, CHANNELS, SAMPLE_RATE, 16, 44, 0);
+        long dataSize = frames * format.getBlockAlign();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long state = 0x9E3779B97F4A7C15L * seed;
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            WavUtils.writeCanonicalHeader(channel, format, dataSize);
+            long remainingSamples = frames * CHANNELS;
+            while (remainingSamples > 0) {
+                buffer.clear();
+                while (buffer.remaining() >= 2 && remainingSamples > 0) {
+                    state ^= state << 13;
+                    state ^= state >>> 7;
+                    state ^= state << 17;
+                    buffer.putShort((short) (state >> 57)); // 7 significant bits, +/-64
+                    remainingSamples--;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private static void writeSilentMp3(Path target, long frames) throws IOException {
+        long mp3Frames = (frames + MP3_SAMPLES_PER_FRAME - 1) / MP3_SAMPLES_PER_FRAME;
+        ByteBuffer frame = ByteBuffer.wrap(MP3_SILENT_FRAME);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (long i = 0; i < mp3Frames; i++) {
+                frame.rewind();
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        }
+    }
+
+}
@@ -1,10 +1,16 @@
 package com.audiosource.backend.service.metadata;
 
 import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.enums.DeliveryMode;
 import com.audiosource.backend.repository.FileMetadataRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /* Handles interactions with FileMetadata collection from MongoDB. */
@@ -19,6 +25,12 @@ public class FileMetadataService {
 
     /* Saves the initial metadata for the FileMetadata collection. */
     public FileMetadata saveInitialMetadata(String correlationId, String userEmail, String originalKeyName, String notificationStatus) {
+        return saveInitialMetadata(correlationId, userEmail, originalKeyName, notificationStatus, null);
+    }
+
+    /* Saves the initial metadata with the delivery mode of the result, ZIP when null. */
+    public FileMetadata saveInitialMetadata(String correlationId, String userEmail, String originalKeyName, String notificationStatus,
+                                            DeliveryMode deliveryMode) {
 
         if (correlationId == null || userEmail == null || originalKeyName == null || notificationStatus == null) {
             throw new IllegalArgumentException("Parameters cannot be null");
@@ -33,6 +45,7 @@ public class FileMetadataService {
         fileMetadata.setUserEmail(userEmail);
         fileMetadata.setOriginalKeyName(originalKeyName);
         fileMetadata.setNotificationStatus(notificationStatus);
+        fileMetadata.setDeliveryMode(DeliveryMode.orDefault(deliveryMode));
 
         return fileMetadataRepository.save(fileMetadata);
     }
@@ -47,6 +60,63 @@ public class FileMetadataService {
                 }).orElse(false);
     }
 
+    /* Updates the downloadUrl together with the S3 key of the result it points to. */
+    public boolean updateDownloadUrl(String correlationId, String downloadUrl, String resultKeyName) {
+        return fileMetadataRepository.findByCorrelationId(correlationId)
+                .map(fileMetadata -> {
+                    fileMetadata.setDownloadUrl(downloadUrl);
+                    fileMetadata.setResultKeyName(resultKeyName);
+                    fileMetadataRepository.save(fileMetadata);
+                    return true;
+                }).orElse(false);
+    }
+
+    /* Updates the pre-signed URLs of the stems uploaded one by one, with the S3 prefix of their keys. */
+    public boolean updateStemDownloadUrls(String correlationId, Map<String, String> stemDownloadUrls, String resultKeyName) {
+        return fileMetadataRepository.findByCorrelationId(correlationId)
+                .map(fileMetadata -> {
+                    fileMetadata.setStemDownloadUrls(stemDownloadUrls);
+                    fileMetadata.setResultKeyName(resultKeyName);
+                    fileMetadataRepository.save(fileMetadata);
+                    return true;
+                }).orElse(false);
+    }
+
+    // Update the result cache key (input hash and separation options) by correlation ID
+    public boolean updateCacheKey(String correlationId, String cacheKey) {
+        return fileMetadataRepository.findByCorrelationId(correlationId)
+                .map(fileMetadata -> {
+                    fileMetadata.setCacheKey(cacheKey);
+                    fileMetadataRepository.save(fileMetadata);
+                    return true;
+                }).orElse(false);
+    }
+
+    // Update the Demucs processing status and progress percentage by correlation ID
+    public boolean updateProcessingProgress(String correlationId, String processingStatus, double processingProgress) {
+        return fileMetadataRepository.findByCorrelationId(correlationId)
+                .map(fileMetadata -> {
+                    fileMetadata.setProcessingStatus(processingStatus);
+                    fileMetadata.setProcessingProgress(processingProgress);
+                    fileMetadata.setProgressUpdatedAt(new Date());
+                    fileMetadataRepository.save(fileMetadata);
+                    return true;
+                }).orElse(false);
+    }
+
+    // Update the properties read from the audio file headers by correlation ID
+    public boolean updateAudioProperties(String correlationId, String audioFormat, double durationSeconds, int sampleRate, int channels) {
+        return fileMetadataRepository.findByCorrelationId(correlationId)
+                .map(fileMetadata -> {
+                    fileMetadata.setAudioFormat(audioFormat);
+                    fileMetadata.setDurationSeconds(durationSeconds);
+                    fileMetadata.setSampleRate(sampleRate);
+                    fileMetadata.setChannels(channels);
+                    fileMetadataRepository.save(fileMetadata);
+                    return true;
+                }).orElse(false);
+    }
+
     // Retrieve User email by correlation ID
     public Optional<String> findUserEmailByCorrelationId(String correlationId) {
         return fileMetadataRepository.findByCorrelationId(correlationId)
@@ -63,6 +133,26 @@ public class FileMetadataService {
                 }).orElse(false);
     }
 
+    // Retrieve the oldest documents created before the cutoff that still point to a result in S3
+    public List<FileMetadata> findExpiredResults(Date cutoff, int limit) {
+        return fileMetadataRepository.findByResultKeyNameNotNullAndCreatedAtBefore(cutoff, PageRequest.of(0, limit, Sort.by("createdAt")));
+    }
+
+    // Whether a job created since the cutoff was served the same result, e.g. through the result cache
+    public boolean isResultReferencedSince(String resultKeyName, Date cutoff) {
+        return fileMetadataRepository.existsByResultKeyNameAndCreatedAtGreaterThanEqual(resultKeyName, cutoff);
+    }
+
+    /* Removes the S3 key and the download URLs of results deleted from S3. */
+    public void clearResults(List<FileMetadata> fileMetadataList) {
+        fileMetadataList.forEach(fileMetadata -> {
+            fileMetadata.setResultKeyName(null);
+            fileMetadata.setDownloadUrl(null);
+            fileMetadata.setStemDownloadUrls(null);
+        });
+        fileMetadataRepository.saveAll(fileMetadataList);
+    }
+
     // Retrieve FileMetadata collection by correlation ID
     public Optional<FileMetadata> findByCorrelationId(String correlationId) {
         return fileMetadataRepository.findByCorrelationId(correlationId);
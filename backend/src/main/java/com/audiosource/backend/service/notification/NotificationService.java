@@ -8,6 +8,8 @@ import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.Map;
+
 @Service
 public class NotificationService {
     private static final String EMAIL_SENDER = "audiosource.project@gmail.com";
@@ -28,7 +30,21 @@ public class NotificationService {
             return false;  // If the URL is null or empty, return false immediately.
         }
 
-        SimpleMailMessage message = createSimpleMessage(userEmail, downloadUrl);
+        return send(userEmail, createSimpleMessage(userEmail, downloadUrl));
+    }
+
+    // Email the user with one download URL per stem
+    public boolean sendStemsEmailToUser(String userEmail, Map<String, String> stemDownloadUrls) {
+
+        if (stemDownloadUrls == null || stemDownloadUrls.isEmpty()) {
+            LOGGER.error("Stem download URLs are null or empty for recipient: {}", userEmail);
+            return false;
+        }
+
+        return send(userEmail, createStemsMessage(userEmail, stemDownloadUrls));
+    }
+
+    private boolean send(String userEmail, SimpleMailMessage message) {
         if (message == null) {
             LOGGER.error("Failed to create email message for recipient: {}", userEmail);
             return false;
@@ -55,4 +71,19 @@ public class NotificationService {
 
         return message;
     }
+
+    // Create a simple mail message listing the download URL of every stem, one per line
+    public SimpleMailMessage createStemsMessage(String to, Map<String, String> stemDownloadUrls) {
+
+        StringBuilder text = new StringBuilder("You can download your separated stems at:");
+        stemDownloadUrls.forEach((stemName, downloadUrl) -> text.append("\n").append(stemName).append(": ").append(downloadUrl));
+
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(EMAIL_SENDER);
+        message.setTo(to);
+        message.setSubject(EMAIL_SUBJECT);
+        message.setText(text.toString());
+
+        return message;
+    }
 }
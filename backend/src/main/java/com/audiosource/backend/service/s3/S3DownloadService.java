@@ -1,32 +1,53 @@
 package com.audiosource.backend.service.s3;
 
 import com.audiosource.backend.dto.AudioFileMessage;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
 import software.amazon.awssdk.transfer.s3.model.FileDownload;
-import software.amazon.awssdk.transfer.s3.progress.LoggingTransferListener;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class S3DownloadService {
     private final S3Client s3Client;
     private final S3TransferManager s3TransferManager;
+    private final Executor s3DownloadExecutor;
+    private final InputCacheService inputCacheService;
+    private final ScratchSpaceManager scratchSpaceManager;
+    private final S3ThroughputEstimator throughputEstimator = new S3ThroughputEstimator();
     private static final Logger LOGGER = org.slf4j.LoggerFactory.getLogger(S3DownloadService.class);
+    private static final long LARGE_FILE_THRESHOLD = 100 * 1024 * 1024; // 100MB
 
     @Value("${aws.s3.bucketName}")
     private String bucketName;
@@ -34,28 +55,77 @@ public class S3DownloadService {
     @Value("${demucs.inputDirectory}")
     private String originalDirectoryPath;
 
+    /* Size of the buffer used to stream small objects to disk, the heap used per download does not depend on the object size */
+    @Value("${aws.s3.download.chunkSize:262144}")
+    private int downloadChunkSize;
+
+    /* Number of ranged GETs of one object in flight, also the size of the s3DownloadExecutor pool */
+    @Value("${aws.s3.download.parallelism:8}")
+    private int downloadParallelism;
+
+    @Value("${aws.s3.download.minPartSize:1048576}")
+    private long minPartSize;
+
+    @Value("${aws.s3.download.maxPartSize:33554432}")
+    private long maxPartSize;
+
     @Autowired
-    public S3DownloadService(S3Client s3Client, S3TransferManager s3TransferManager) {
+    public S3DownloadService(S3Client s3Client, S3TransferManager s3TransferManager, @Qualifier("s3DownloadExecutor") Executor s3DownloadExecutor,
+                             InputCacheService inputCacheService, ScratchSpaceManager scratchSpaceManager) {
         this.s3Client = s3Client;
         this.s3TransferManager = s3TransferManager;
+        this.s3DownloadExecutor = s3DownloadExecutor;
+        this.inputCacheService = inputCacheService;
+        this.scratchSpaceManager = scratchSpaceManager;
     }
 
-    /* Download a file from the specified S3 bucket and keyName to the Local file system. */
+    /* Download a file from the specified S3 bucket and keyName to the Local file system. The size reported by the
+     * client is not trusted: a HEAD request gives the real size, which selects a single stream, parallel ranged GETs
+     * or the S3TransferManager. Originals are downloaded to the workspace of the job when it has one, then kept in the
+     * InputCacheService, the returned file is pinned there until the job releases it. */
     public Optional<String> getObjectFromBucket(AudioFileMessage message) {
-        long fileSize = message.getFileSize();
+        return getObjectFromBucket(message, null);
+    }
+
+    /* Same as getObjectFromBucket(AudioFileMessage), reusing the HEAD response of inspectObject when it made one. */
+    public Optional<String> getObjectFromBucket(AudioFileMessage message, ObjectInfo objectInfo) {
         String keyName = message.getKeyName();
 
-        final long LARGE_FILE_THRESHOLD = 100 * 1024 * 1024; // 100MB
         try {
+            if (!inputCacheService.isRevalidating()) {
+                Optional<String> cachedFilePath = inputCacheService.acquire(keyName, null);
+                if (cachedFilePath.isPresent()) {
+                    return cachedFilePath;
+                }
+            }
+
             String fileName = keyName.substring(keyName.lastIndexOf("/") + 1);
-            String originalFilePath = originalDirectoryPath + fileName;
+            String originalFilePath = scratchSpaceManager.find(message.getCorrelationId())
+                    .map(workspace -> workspace.getDirectory().resolve(fileName).toString())
+                    .orElse(originalDirectoryPath + fileName);
             File originalAudioFile = new File(originalFilePath);
 
+            HeadObjectResponse headObjectResponse = objectInfo != null && objectInfo.headObjectResponse != null
+                    ? objectInfo.headObjectResponse
+                    : headObject(keyName);
+            String eTag = headObjectResponse.eTag();
+            if (inputCacheService.isRevalidating()) {
+                Optional<String> cachedFilePath = inputCacheService.acquire(keyName, eTag);
+                if (cachedFilePath.isPresent()) {
+                    return cachedFilePath;
+                }
+            }
+            long fileSize = headObjectResponse.contentLength();
+            if (fileSize != message.getFileSize()) {
+                LOGGER.warn("Object {} is {} bytes, the client reported {} bytes", keyName, fileSize, message.getFileSize());
+            }
+            long partSize = throughputEstimator.partSizeBytes(minPartSize, maxPartSize);
+
             if (fileSize > LARGE_FILE_THRESHOLD) {
                 /* If the file is larger than 100MB, then we use S3TransferManager for retrieving it */
                 DownloadFileRequest downloadFileRequest = DownloadFileRequest.builder()
-                        .getObjectRequest(b -> b.bucket(bucketName).key(keyName))
-                        .addTransferListener(LoggingTransferListener.create())  // Add listener.
+                        .getObjectRequest(b -> b.bucket(bucketName).key(keyName).ifMatch(eTag))
+                        .addTransferListener(new TransferMetricsListener("download", keyName))
                         .destination(originalAudioFile.toPath())
                         .build();
 
@@ -64,24 +134,28 @@ public class S3DownloadService {
 
                 LOGGER.info("Content length [{}]", downloadResult.response().contentLength());
                 LOGGER.info("Downloaded large file {} to {}", keyName, originalFilePath);
+            } else if (fileSize >= throughputEstimator.parallelCutoffBytes(downloadParallelism, partSize)) {
+                downloadInParts(keyName, fileSize, eTag, partSize, originalAudioFile.toPath());
+                LOGGER.info("Downloaded file {} ({} bytes) in parts of {} bytes to {}", keyName, fileSize, partSize, originalFilePath);
             } else {
                 // Otherwise, we use GetObjectRequest for smaller files
                 GetObjectRequest getObjectRequest = GetObjectRequest
                         .builder()
                         .bucket(bucketName)
                         .key(keyName)
+                        .ifMatch(eTag)
                         .build();
 
-                ResponseBytes<GetObjectResponse> objectBytes = s3Client.getObjectAsBytes(getObjectRequest);
-                byte[] data = objectBytes.asByteArray();
-
-                // Write the data to a local file
-                try (OutputStream outputStream = new FileOutputStream(originalAudioFile)) {
-                    outputStream.write(data);
+                // Stream the object to the local file instead of buffering it in memory
+                long startedAt = System.nanoTime();
+                try (ResponseInputStream<GetObjectResponse> objectStream = s3Client.getObject(getObjectRequest)) {
+                    long firstByteNanos = System.nanoTime() - startedAt;
+                    long bytesWritten = writeToFile(objectStream, objectStream.response().contentLength(), originalAudioFile.toPath());
+                    throughputEstimator.record(bytesWritten, firstByteNanos, System.nanoTime() - startedAt);
+                    LOGGER.info("Downloaded small file {} ({} bytes) to {}", keyName, bytesWritten, originalFilePath);
                 }
-                LOGGER.info("Downloaded small file {} to {}", keyName, originalFilePath);
             }
-            return Optional.of(originalFilePath);
+            return Optional.of(inputCacheService.store(keyName, eTag, originalAudioFile.toPath()));
         } catch(IOException e) {
             LOGGER.error("IO error while getting object from bucket '{}': {}", bucketName, e.getMessage(), e);
             return Optional.empty();
@@ -91,8 +165,148 @@ public class S3DownloadService {
         } catch (Exception e) {
             LOGGER.error("Error downloading object from S3 bucket '{}': {}", bucketName, e.getMessage(), e);
             return Optional.empty();
-        } finally {
-            s3TransferManager.close();
+        }
+    }
+
+    /* The real size of the original, for the admission of the job before its download: from the input cache when it
+     * is not revalidated, otherwise from a HEAD request that the download reuses. The size reported by the client is
+     * only used when S3 cannot be reached, the download then reports the error. */
+    public ObjectInfo inspectObject(AudioFileMessage message) {
+        String keyName = message.getKeyName();
+        if (!inputCacheService.isRevalidating()) {
+            OptionalLong cachedSize = inputCacheService.findSize(keyName);
+            if (cachedSize.isPresent()) {
+                return new ObjectInfo(cachedSize.getAsLong(), null);
+            }
+        }
+        try {
+            HeadObjectResponse headObjectResponse = headObject(keyName);
+            return new ObjectInfo(headObjectResponse.contentLength(), headObjectResponse);
+        } catch (SdkException e) {
+            LOGGER.warn("Could not get the size of {}, using the size reported by the client: {}", keyName, e.getMessage());
+            return new ObjectInfo(Math.max(0, message.getFileSize()), null);
+        }
+    }
+
+    private HeadObjectResponse headObject(String keyName) {
+        return s3Client.headObject(HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(keyName)
+                .build());
+    }
+
+    /**
+     * Downloads the object with ranged GETs of partSize bytes run concurrently on the s3DownloadExecutor, each one
+     * writing at its own offset of the preallocated target file. Every range is requested with the ETag of the HEAD
+     * response, so an object replaced during the download fails it instead of mixing two versions. The parts still
+     * waiting for a thread are skipped as soon as one part failed.
+     *
+     * @throws IOException If one of the parts fails, in which case the partial file is deleted.
+     */
+    void downloadInParts(String keyName, long objectSize, String eTag, long partSize, Path target) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            file.setLength(objectSize);
+            FileChannel channel = file.getChannel();
+
+            // Once a part failed the download is lost, so the parts that did not start yet are skipped
+            AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+            List<CompletableFuture<Void>> parts = new ArrayList<>();
+            for (long start = 0; start < objectSize; start += partSize) {
+                long end = Math.min(start + partSize, objectSize) - 1;
+                long partStart = start;
+                parts.add(CompletableFuture.runAsync(() -> {
+                    if (firstFailure.get() != null) {
+                        return;
+                    }
+                    try {
+                        downloadPart(keyName, eTag, partStart, end, channel);
+                    } catch (IOException | RuntimeException e) {
+                        firstFailure.compareAndSet(null, e);
+                        throw new CompletionException(e);
+                    }
+                }, s3DownloadExecutor));
+            }
+
+            try {
+                CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                Throwable cause = firstFailure.get() != null ? firstFailure.get() : e.getCause();
+                throw cause instanceof IOException ioException ? ioException : new IOException("Failed to download one of the parts: " + cause.getMessage(), cause);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private void downloadPart(String keyName, String eTag, long start, long end, FileChannel channel) throws IOException {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(keyName)
+                .range("bytes=" + start + "-" + end)
+                .ifMatch(eTag)
+                .build();
+
+        long startedAt = System.nanoTime();
+        try (ResponseInputStream<GetObjectResponse> objectStream = s3Client.getObject(getObjectRequest)) {
+            long firstByteNanos = System.nanoTime() - startedAt;
+            byte[] chunk = new byte[downloadChunkSize];
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long position = start;
+            int bytesRead;
+            while (position <= end && (bytesRead = objectStream.read(chunk)) != -1) {
+                buffer.clear().limit((int) Math.min(bytesRead, end + 1 - position));
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (position != end + 1) {
+                objectStream.abort();
+                throw new IOException(String.format("Part %d-%d of %s truncated: %d bytes received", start, end, keyName, position - start));
+            }
+            throughputEstimator.record(end + 1 - start, firstByteNanos, System.nanoTime() - startedAt);
+        }
+    }
+
+    /* Copies the object stream to the target file in fixed-size chunks. A partial file is deleted on failure, so
+     * that a truncated download is never mistaken for a complete one. */
+    private long writeToFile(ResponseInputStream<GetObjectResponse> objectStream, Long expectedLength, Path target) throws IOException {
+        byte[] chunk = new byte[downloadChunkSize];
+        ByteBuffer buffer = ByteBuffer.wrap(chunk);
+        long bytesWritten = 0;
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            int bytesRead;
+            while ((bytesRead = objectStream.read(chunk)) != -1) {
+                buffer.clear().limit(bytesRead);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                bytesWritten += bytesRead;
+            }
+            if (expectedLength != null && bytesWritten != expectedLength) {
+                throw new IOException(String.format("Download of %s truncated: %d of %d bytes received", target, bytesWritten, expectedLength));
+            }
+        } catch (IOException | RuntimeException e) {
+            objectStream.abort();
+            Files.deleteIfExists(target);
+            throw e;
+        }
+        return bytesWritten;
+    }
+
+    /* The size of an original known before its download, with the HEAD response it was read from when S3 was asked */
+    public static class ObjectInfo {
+        private final long sizeBytes;
+        private final HeadObjectResponse headObjectResponse;
+
+        public ObjectInfo(long sizeBytes, HeadObjectResponse headObjectResponse) {
+            this.sizeBytes = sizeBytes;
+            this.headObjectResponse = headObjectResponse;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
         }
     }
 }
@@ -0,0 +1,224 @@
+package com.audiosource.backend.service.s3;
+
+import com.audiosource.backend.dto.MultipartUploadInitiation;
+import com.audiosource.backend.dto.MultipartUploadRequest;
+import com.audiosource.backend.exception.S3UploadException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets clients upload large originals straight to S3 as a multipart upload: the backend starts the upload, picks the
+ * part size from the declared file size and pre-signs the part URLs in batches, so that the client can PUT the parts
+ * in parallel and retry only the ones that failed. The client then sends back the ETags to complete the upload, or
+ * aborts it so that S3 does not keep the parts.
+ */
+@Service
+public class S3MultipartUploadService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUploadService.class);
+    // S3 limits: at most 10000 parts of 5 MB to 5 GB each, except the last one
+    static final int MAX_PARTS = 10_000;
+    static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+    private static final long PART_SIZE_ALIGNMENT = 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+
+    @Value("${aws.s3.bucketName}")
+    private String bucketName;
+
+    @Value("${aws.s3.multipart.minPartSize:8388608}")
+    private long minPartSize;
+
+    @Value("${aws.s3.multipart.maxPresignBatch:100}")
+    private int maxPresignBatch;
+
+    @Value("${aws.s3.multipart.urlExpiryMinutes:30}")
+    private long urlExpiryMinutes;
+
+    @Autowired
+    public S3MultipartUploadService(S3Client s3Client, S3Presigner s3Presigner) {
+        this.s3Client = s3Client;
+        this.s3Presigner = s3Presigner;
+    }
+
+    /**
+     * Starts a multipart upload for a client file.
+     *
+     * @param key The key of the object to upload.
+     * @param contentType The content type of the object.
+     * @param fileSize The size of the file declared by the client, in bytes.
+     * @return The upload ID with the part size and the number of parts the client has to upload.
+     * @throws S3UploadException If S3 refuses to start the upload.
+     */
+    public MultipartUploadInitiation initiateUpload(String key, String contentType, long fileSize) throws S3UploadException {
+        requireText(key, "Key");
+        requireText(contentType, "Content-Type");
+        long partSize = choosePartSize(fileSize);
+
+        try {
+            CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
+            String uploadId = s3Client.createMultipartUpload(createMultipartUploadRequest).uploadId();
+            int partCount = (int) ((fileSize + partSize - 1) / partSize);
+
+            LOGGER.info("Started multipart upload {} of {}: {} bytes in {} parts of {} bytes", uploadId, key, fileSize, partCount, partSize);
+            return new MultipartUploadInitiation(key, uploadId, partSize, partCount);
+
+        } catch (SdkException e) {
+            LOGGER.error("Error starting the multipart upload of key [{}]: {}", key, e.getMessage(), e);
+            throw new S3UploadException("Failed to initiate multipart upload", e);
+        }
+    }
+
+    /* The smallest whole number of MB above minPartSize that keeps the file within MAX_PARTS parts. */
+    long choosePartSize(long fileSize) {
+        if (fileSize <= 0) {
+            throw new IllegalArgumentException("File size must be positive");
+        }
+        long partSize = Math.max(minPartSize, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+        partSize = (partSize + PART_SIZE_ALIGNMENT - 1) / PART_SIZE_ALIGNMENT * PART_SIZE_ALIGNMENT;
+        if (partSize > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("File size exceeds the maximum size of a multipart upload");
+        }
+        return partSize;
+    }
+
+    /**
+     * Pre-signs the PUT URLs of a batch of parts. Parts can be signed again, to retry them once their URL expired.
+     *
+     * @param key The key of the object being uploaded.
+     * @param uploadId The upload ID returned by initiateUpload.
+     * @param partNumbers The numbers of the parts to sign, from 1 to 10000, at most maxPresignBatch of them.
+     * @return The pre-signed URLs by part number, in the order requested.
+     */
+    public Map<Integer, String> presignParts(String key, String uploadId, List<Integer> partNumbers) {
+        requireText(key, "Key");
+        requireText(uploadId, "Upload ID");
+        if (partNumbers == null || partNumbers.isEmpty()) {
+            throw new IllegalArgumentException("Part numbers cannot be null or empty");
+        }
+        if (partNumbers.size() > maxPresignBatch) {
+            throw new IllegalArgumentException("At most " + maxPresignBatch + " parts can be signed at once");
+        }
+
+        Map<Integer, String> partUrls = new LinkedHashMap<>();
+        for (Integer partNumber : partNumbers) {
+            requirePartNumber(partNumber);
+            UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .build();
+            UploadPartPresignRequest uploadPartPresignRequest = UploadPartPresignRequest.builder()
+                    .signatureDuration(Duration.ofMinutes(urlExpiryMinutes))
+                    .uploadPartRequest(uploadPartRequest)
+                    .build();
+            partUrls.put(partNumber, s3Presigner.presignUploadPart(uploadPartPresignRequest).url().toExternalForm());
+        }
+
+        LOGGER.info("Pre-signed {} parts of multipart upload {} of {}", partUrls.size(), uploadId, key);
+        return partUrls;
+    }
+
+    /**
+     * Completes a multipart upload with the ETags returned by S3 for every part.
+     *
+     * @param key The key of the object being uploaded.
+     * @param uploadId The upload ID returned by initiateUpload.
+     * @param parts The number and ETag of every uploaded part, in any order.
+     * @throws S3UploadException If S3 refuses to complete the upload, e.g. because a part is missing.
+     */
+    public void completeUpload(String key, String uploadId, List<MultipartUploadRequest.Part> parts) throws S3UploadException {
+        requireText(key, "Key");
+        requireText(uploadId, "Upload ID");
+        if (parts == null || parts.isEmpty()) {
+            throw new IllegalArgumentException("Parts cannot be null or empty");
+        }
+
+        for (MultipartUploadRequest.Part part : parts) {
+            requirePartNumber(part.getPartNumber());
+            requireText(part.getEtag(), "ETag");
+        }
+        // S3 requires the parts in ascending order, whatever order the client finished them in
+        List<CompletedPart> completedParts = parts.stream()
+                .sorted(Comparator.comparingInt(MultipartUploadRequest.Part::getPartNumber))
+                .map(part -> CompletedPart.builder().partNumber(part.getPartNumber()).eTag(part.getEtag()).build())
+                .toList();
+
+        try {
+            CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build();
+            s3Client.completeMultipartUpload(completeMultipartUploadRequest);
+            LOGGER.info("Completed multipart upload {} of {} with {} parts", uploadId, key, completedParts.size());
+
+        } catch (SdkException e) {
+            LOGGER.error("Error completing multipart upload {} of key [{}]: {}", uploadId, key, e.getMessage(), e);
+            throw new S3UploadException("Failed to complete multipart upload", e);
+        }
+    }
+
+    /**
+     * Aborts a multipart upload and lets S3 delete the parts already uploaded.
+     *
+     * @param key The key of the object being uploaded.
+     * @param uploadId The upload ID returned by initiateUpload.
+     * @throws S3UploadException If S3 refuses to abort the upload.
+     */
+    public void abortUpload(String key, String uploadId) throws S3UploadException {
+        requireText(key, "Key");
+        requireText(uploadId, "Upload ID");
+
+        try {
+            AbortMultipartUploadRequest abortMultipartUploadRequest = AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build();
+            s3Client.abortMultipartUpload(abortMultipartUploadRequest);
+            LOGGER.info("Aborted multipart upload {} of {}", uploadId, key);
+
+        } catch (SdkException e) {
+            LOGGER.error("Error aborting multipart upload {} of key [{}]: {}", uploadId, key, e.getMessage(), e);
+            throw new S3UploadException("Failed to abort multipart upload", e);
+        }
+    }
+
+    private static void requireText(String value, String name) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException(name + " cannot be null or empty");
+        }
+    }
+
+    private static void requirePartNumber(Integer partNumber) {
+        if (partNumber == null || partNumber < 1 || partNumber > MAX_PARTS) {
+            throw new IllegalArgumentException("Part number must be between 1 and " + MAX_PARTS + ": " + partNumber);
+        }
+    }
+}
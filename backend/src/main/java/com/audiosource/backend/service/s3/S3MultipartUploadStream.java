@@ -0,0 +1,226 @@
+package com.audiosource.backend.service.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/* OutputStream that uploads what is written to it as an S3 multipart upload: every `partSize` bytes become a part,
+ * uploaded on the executor while the writer goes on. At most `maxInFlightParts` parts are uploading at the same time,
+ * the writer blocks beyond that, so the memory used is bounded by (maxInFlightParts + 1) * partSize.
+ * close() uploads the last part and completes the upload; on any failure, or when abort() is called instead, the
+ * multipart upload is aborted so that S3 does not keep the parts. S3 requires parts of at least 5 MB but the last. */
+public class S3MultipartUploadStream extends OutputStream {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3MultipartUploadStream.class);
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private final S3Client s3Client;
+    private final String bucketName;
+    private final String objectKey;
+    private final int partSize;
+    private final Executor executor;
+    private final Semaphore inFlightParts;
+    private final String uploadId;
+    private final long startNanos;
+
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private byte[] buffer;
+    private int position;
+    private long bytesWritten;
+    private boolean closed;
+    private boolean aborted;
+
+    /**
+     * Starts the multipart upload of the object.
+     *
+     * @param s3Client The client the parts are uploaded with.
+     * @param bucketName The name of the S3 bucket.
+     * @param objectKey The key of the uploaded object.
+     * @param contentType The content type of the object.
+     * @param partSize The size of every part but the last.
+     * @param maxInFlightParts The number of parts uploaded at the same time.
+     * @param executor The executor the parts are uploaded on.
+     */
+    public S3MultipartUploadStream(S3Client s3Client, String bucketName, String objectKey, String contentType,
+                                   int partSize, int maxInFlightParts, Executor executor) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.partSize = partSize;
+        this.executor = executor;
+        this.inFlightParts = new Semaphore(Math.max(1, maxInFlightParts));
+        this.buffer = new byte[partSize];
+        this.startNanos = System.nanoTime();
+        CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .contentType(contentType)
+                .build();
+        this.uploadId = s3Client.createMultipartUpload(createMultipartUploadRequest).uploadId();
+        LOGGER.info("Started multipart upload {} of {}", uploadId, objectKey);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[position++] = (byte) b;
+        bytesWritten++;
+        if (position == partSize) {
+            uploadBufferedPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int copied = Math.min(length, partSize - position);
+            System.arraycopy(bytes, offset, buffer, position, copied);
+            position += copied;
+            bytesWritten += copied;
+            offset += copied;
+            length -= copied;
+            if (position == partSize) {
+                uploadBufferedPart();
+            }
+        }
+    }
+
+    // Hands the buffer to the executor, blocking while maxInFlightParts parts are uploading
+    private void uploadBufferedPart() throws IOException {
+        throwIfPartFailed();
+        byte[] part = position == buffer.length ? buffer : Arrays.copyOf(buffer, position);
+        int partNumber = parts.size() + 1;
+        try {
+            inFlightParts.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to upload part " + partNumber + " of " + objectKey);
+        }
+        try {
+            parts.add(CompletableFuture.supplyAsync(() -> uploadPart(partNumber, part), executor)
+                    .whenComplete((completedPart, e) -> inFlightParts.release()));
+        } catch (RuntimeException e) {
+            inFlightParts.release();
+            throw new IOException("Could not schedule the upload of part " + partNumber + " of " + objectKey, e);
+        }
+        buffer = new byte[partSize];
+        position = 0;
+    }
+
+    private CompletedPart uploadPart(int partNumber, byte[] part) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) part.length)
+                .build();
+        String eTag = s3Client.uploadPart(uploadPartRequest, RequestBody.fromBytes(part)).eTag();
+        return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+    }
+
+    // Fails the writer as soon as a part failed instead of zipping the rest of the directory for nothing
+    private void throwIfPartFailed() throws IOException {
+        for (CompletableFuture<CompletedPart> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                try {
+                    part.join();
+                } catch (CompletionException e) {
+                    throw new IOException("Failed to upload a part of " + objectKey, e.getCause());
+                }
+            }
+        }
+    }
+
+    /* Uploads the last part, waits for all the parts and completes the upload. Aborts the upload when it fails. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // An empty stream is still uploaded as one empty part
+            if (position > 0 || parts.isEmpty()) {
+                uploadBufferedPart();
+            }
+            List<CompletedPart> completedParts = new ArrayList<>();
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completedParts.add(part.join());
+            }
+            CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectKey)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build();
+            s3Client.completeMultipartUpload(completeMultipartUploadRequest);
+            LOGGER.info("Completed multipart upload of {}: {} bytes in {} parts, {} ms",
+                    objectKey, bytesWritten, completedParts.size(), (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (CompletionException e) {
+            abort();
+            throw new IOException("Failed to upload a part of " + objectKey, e.getCause());
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Failed to complete the upload of " + objectKey, e);
+        }
+    }
+
+    /* Drops what was written: waits for the parts being uploaded, then aborts the multipart upload. */
+    public void abort() {
+        if (aborted) {
+            return;
+        }
+        aborted = true;
+        closed = true;
+        buffer = null;
+        // Parts still uploading when the upload is aborted could be kept by S3, so they are waited for first
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).handle((result, e) -> null).join();
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(objectKey)
+                    .uploadId(uploadId)
+                    .build());
+            LOGGER.warn("Aborted multipart upload {} of {} after {} bytes", uploadId, objectKey, bytesWritten);
+        } catch (SdkException e) {
+            LOGGER.error("Failed to abort multipart upload {} of {}: {}", uploadId, objectKey, e.getMessage(), e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The upload of " + objectKey + " is " + (aborted ? "aborted" : "closed"));
+        }
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+}
@@ -0,0 +1,174 @@
+package com.audiosource.backend.service.s3;
+
+import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.service.cache.ResultCacheService;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes from S3 the results of the jobs created more than retentionDays ago, according to FileMetadata.createdAt,
+ * so that the separated/ prefix of the bucket stops growing. The jobs are swept in batches of the oldest first and
+ * their objects deleted with batched DeleteObjects requests; a result served to a more recent job through the result
+ * cache is kept. Every sweep logs its throughput, the totals are kept for monitoring. Expiry deletes data, so it is
+ * disabled by default and only runs once enabled with an explicit retentionDays.
+ */
+@Service
+public class S3ResultExpiryService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(S3ResultExpiryService.class);
+
+    private final S3UploadService s3UploadService;
+    private final FileMetadataService fileMetadataService;
+    private final ResultCacheService resultCacheService;
+
+    @Value("${aws.s3.bucketName}")
+    private String bucketName;
+
+    @Value("${aws.s3.expiry.enabled:false}")
+    private boolean enabled;
+
+    @Value("${aws.s3.expiry.retentionDays:0}")
+    private long retentionDays;
+
+    @Value("${aws.s3.expiry.batchSize:500}")
+    private int batchSize;
+
+    private final AtomicLong expiredResults = new AtomicLong();
+    private final AtomicLong deletedObjects = new AtomicLong();
+    private final AtomicLong failedObjects = new AtomicLong();
+
+    @Autowired
+    public S3ResultExpiryService(S3UploadService s3UploadService, FileMetadataService fileMetadataService, ResultCacheService resultCacheService) {
+        this.s3UploadService = s3UploadService;
+        this.fileMetadataService = fileMetadataService;
+        this.resultCacheService = resultCacheService;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled && retentionDays <= 0) {
+            LOGGER.error("S3 result expiry is enabled without aws.s3.expiry.retentionDays, it stays disabled.");
+            enabled = false;
+        }
+    }
+
+    @Scheduled(initialDelayString = "${aws.s3.expiry.initialDelayMs:60000}", fixedDelayString = "${aws.s3.expiry.sweepIntervalMs:3600000}")
+    public void expireResults() {
+        if (!enabled) {
+            return;
+        }
+        sweep(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)));
+    }
+
+    /**
+     * Deletes the results of the jobs created before the cutoff, batch after batch, until none is left or a whole
+     * batch failed. Jobs whose objects could not be deleted keep their result key and are retried by the next sweep.
+     *
+     * @param cutoff The jobs created before this date expire.
+     * @return The number of objects deleted from S3.
+     */
+    public long sweep(Date cutoff) {
+        long startNanos = System.nanoTime();
+        long sweptResults = 0;
+        long sweptObjects = 0;
+
+        List<FileMetadata> batch;
+        while (!(batch = fileMetadataService.findExpiredResults(cutoff, batchSize)).isEmpty()) {
+            BatchResult result = expireBatch(batch, cutoff);
+            sweptResults += result.expiredResults;
+            sweptObjects += result.deletedObjects;
+            if (result.expiredResults == 0) {
+                LOGGER.warn("No result of a batch of {} could be expired, the next sweep retries them", batch.size());
+                break;
+            }
+        }
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        if (sweptResults > 0) {
+            LOGGER.info("Expired {} results created before {}: {} objects deleted in {} ms ({} objects/s)",
+                    sweptResults, cutoff, sweptObjects, elapsedMillis, sweptObjects * 1000 / elapsedMillis);
+        }
+        return sweptObjects;
+    }
+
+    private BatchResult expireBatch(List<FileMetadata> batch, Date cutoff) {
+        // The objects of every result, a prefix for the results delivered as stems
+        Map<FileMetadata, List<String>> objectKeysByResult = new LinkedHashMap<>();
+        Set<String> deletedResultKeys = new LinkedHashSet<>();
+        for (FileMetadata fileMetadata : batch) {
+            String resultKeyName = fileMetadata.getResultKeyName();
+            try {
+                if (fileMetadataService.isResultReferencedSince(resultKeyName, cutoff)) {
+                    objectKeysByResult.put(fileMetadata, List.of()); // Still served to a recent job, only this job expires
+                } else if (resultKeyName.endsWith("/")) {
+                    objectKeysByResult.put(fileMetadata, s3UploadService.listObjectKeys(bucketName, resultKeyName));
+                    deletedResultKeys.add(resultKeyName);
+                } else {
+                    objectKeysByResult.put(fileMetadata, List.of(resultKeyName));
+                    deletedResultKeys.add(resultKeyName);
+                }
+            } catch (SdkException e) {
+                LOGGER.warn("Could not list the objects of result {}: {}", resultKeyName, e.getMessage());
+            }
+        }
+
+        Set<String> objectKeys = new LinkedHashSet<>();
+        objectKeysByResult.values().forEach(objectKeys::addAll);
+        Set<String> failedKeys = s3UploadService.deleteObjectsFromS3(bucketName, objectKeys);
+
+        List<FileMetadata> expired = new ArrayList<>();
+        objectKeysByResult.forEach((fileMetadata, keys) -> {
+            if (keys.stream().noneMatch(failedKeys::contains)) {
+                expired.add(fileMetadata);
+            } else {
+                deletedResultKeys.remove(fileMetadata.getResultKeyName());
+            }
+        });
+        fileMetadataService.clearResults(expired);
+        resultCacheService.forgetResultKeys(deletedResultKeys);
+
+        long deleted = objectKeys.size() - failedKeys.size();
+        expiredResults.addAndGet(expired.size());
+        deletedObjects.addAndGet(deleted);
+        failedObjects.addAndGet(failedKeys.size());
+        return new BatchResult(expired.size(), deleted);
+    }
+
+    public long getExpiredResults() {
+        return expiredResults.get();
+    }
+
+    public long getDeletedObjects() {
+        return deletedObjects.get();
+    }
+
+    public long getFailedObjects() {
+        return failedObjects.get();
+    }
+
+    private static class BatchResult {
+        private final int expiredResults;
+        private final long deletedObjects;
+
+        private BatchResult(int expiredResults, long deletedObjects) {
+            this.expiredResults = expiredResults;
+            this.deletedObjects = deletedObjects;
+        }
+    }
+}
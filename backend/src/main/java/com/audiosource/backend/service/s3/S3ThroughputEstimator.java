@@ -0,0 +1,52 @@
+package com.audiosource.backend.service.s3;
+
+/* Running estimates of the latency (time to first byte) and of the bandwidth of a single connection of S3 GETs,
+ * both exponentially weighted averages of the downloads measured so far. They decide when an object is worth
+ * downloading with parallel ranged GETs and how large the parts should be. */
+class S3ThroughputEstimator {
+    // Seeds used until the first downloads are measured
+    static final double INITIAL_LATENCY_SECONDS = 0.05;
+    static final double INITIAL_BYTES_PER_SECOND = 50.0 * 1024 * 1024;
+
+    private static final double SMOOTHING = 0.2;
+    // Transfers shorter than this are dominated by the latency and say little about the bandwidth
+    private static final long MIN_BANDWIDTH_SAMPLE_BYTES = 256 * 1024;
+    // A part should take PART_LATENCY_RATIO times the latency to transfer, so that the latency costs ~20% of it
+    private static final double PART_LATENCY_RATIO = 4.0;
+
+    private double latencySeconds = INITIAL_LATENCY_SECONDS;
+    private double bytesPerSecond = INITIAL_BYTES_PER_SECOND;
+
+    /* Records one GET of the given number of bytes, whose first byte arrived after firstByteNanos. */
+    synchronized void record(long bytes, long firstByteNanos, long totalNanos) {
+        latencySeconds += SMOOTHING * (firstByteNanos / 1e9 - latencySeconds);
+        long transferNanos = totalNanos - firstByteNanos;
+        if (bytes >= MIN_BANDWIDTH_SAMPLE_BYTES && transferNanos > 0) {
+            bytesPerSecond += SMOOTHING * (bytes * 1e9 / transferNanos - bytesPerSecond);
+        }
+    }
+
+    synchronized long partSizeBytes(long minPartSize, long maxPartSize) {
+        long partSize = (long) (PART_LATENCY_RATIO * latencySeconds * bytesPerSecond);
+        return Math.max(minPartSize, Math.min(maxPartSize, partSize));
+    }
+
+    /* A single stream takes L + S/B, N parallel parts take about L + S/(N*B) plus the latency of the extra waves of
+     * requests and the cost of coordinating them, estimated as one more latency. Parallel parts win once S/B*(1-1/N)
+     * exceeds 2L, and only when the object spans at least two parts. */
+    synchronized long parallelCutoffBytes(int parallelism, long partSize) {
+        if (parallelism < 2) {
+            return Long.MAX_VALUE;
+        }
+        long cutoff = (long) (2 * latencySeconds * bytesPerSecond * parallelism / (parallelism - 1));
+        return Math.max(cutoff, 2 * partSize);
+    }
+
+    synchronized double getLatencySeconds() {
+        return latencySeconds;
+    }
+
+    synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -1,15 +1,23 @@
 package com.audiosource.backend.service.s3;
 
 import com.audiosource.backend.exception.S3UploadException;
+import com.audiosource.backend.util.ParallelZipWriter;
 import com.audiosource.backend.util.S3Utils;
+import com.audiosource.backend.util.ZipCompressionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
@@ -22,13 +30,23 @@ import software.amazon.awssdk.transfer.s3.model.CompletedFileUpload;
 import software.amazon.awssdk.transfer.s3.model.FileUpload;
 import software.amazon.awssdk.transfer.s3.model.UploadFileRequest;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 @Service
 public class S3UploadService {
@@ -37,16 +55,50 @@ public class S3UploadService {
     private final S3TransferManager s3TransferManager;
     private final S3Client s3Client;
     private static final String SUB_BUCKET = "separated/";
+    static final int MAX_KEYS_PER_DELETE = 1000; // S3 limit of a DeleteObjects request
     private static final Logger LOGGER = LoggerFactory.getLogger(S3UploadService.class);
 
+    private final Executor s3UploadExecutor;
+    private final Executor zipExecutor;
+    private final Executor resultUploadExecutor;
+
     @Value("${aws.s3.bucketName}")
     private String bucketName;
 
+    /* When true, the ZIP is written straight into an S3 multipart upload instead of a local file uploaded afterwards */
+    @Value("${aws.s3.upload.streamZip:true}")
+    private boolean streamZip;
+
+    @Value("${aws.s3.upload.partSize:8388608}")
+    private int uploadPartSize;
+
+    @Value("${aws.s3.upload.maxInFlightParts:4}")
+    private int maxInFlightParts;
+
+    /* When true, the files of a result are compressed concurrently on the zipExecutor (see ParallelZipWriter) */
+    @Value("${aws.s3.upload.parallelZip:true}")
+    private boolean parallelZip;
+
+    /* Highest deflate level of the WAV stems, MP3 stems are stored (see ZipCompressionPolicy) */
+    @Value("${aws.s3.upload.zipCompressionLevel:6}")
+    private int zipCompressionLevel;
+
+    @Value("${aws.s3.upload.zipStoreRatio:0.97}")
+    private double zipStoreRatio;
+
+    @Value("${aws.s3.upload.zipSampleBytes:262144}")
+    private int zipSampleBytes;
+
     @Autowired
-    public S3UploadService(S3Presigner s3Presigner, S3TransferManager s3TransferManager, S3Client s3Client) {
+    public S3UploadService(S3Presigner s3Presigner, S3TransferManager s3TransferManager, S3Client s3Client,
+                           @Qualifier("s3UploadExecutor") Executor s3UploadExecutor, @Qualifier("zipExecutor") Executor zipExecutor,
+                           @Qualifier("resultUploadExecutor") Executor resultUploadExecutor) {
         this.s3Presigner = s3Presigner;
         this.s3TransferManager = s3TransferManager;
         this.s3Client = s3Client;
+        this.s3UploadExecutor = s3UploadExecutor;
+        this.zipExecutor = zipExecutor;
+        this.resultUploadExecutor = resultUploadExecutor;
     }
 
     /**
@@ -58,17 +110,51 @@ public class S3UploadService {
      * @return A pre-signed GET URL for downloading the uploaded ZIP file from S3, or null if an error occurs.
      */
     public String uploadDirectoryAsZipToS3(String processedAudioFilePath, String bucketName) throws S3UploadException {
-        
+
+        String objectKey = uploadDirectoryAsZip(processedAudioFilePath, bucketName);
+
+        try {
+            return createPresignedGetRequest(bucketName, objectKey);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unexpected error during upload of directory '{}': {}", processedAudioFilePath, e.getMessage(), e);
+            throw new S3UploadException("Failed to upload directory as zip to S3", e);
+        }
+    }
+
+    /**
+     * Uploads a zipped directory with the separated audios to an S3 bucket.
+     *
+     * @param processedAudioFilePath The local directory path of processed files to upload to S3.
+     * @param bucketName    The name of the S3 bucket.
+     * @return The S3 object key of the uploaded ZIP file.
+     */
+    public String uploadDirectoryAsZip(String processedAudioFilePath, String bucketName) throws S3UploadException {
+
         validateParameters(processedAudioFilePath, bucketName);
 
         Path sourceDirectory = Paths.get(processedAudioFilePath);
 
         try {
+            if (streamZip) {
+                Path renamedDirectory = renameDirectoryForUpload(sourceDirectory);
+                try {
+                    String objectKey = getObjectKey(renamedDirectory.resolveSibling(renamedDirectory.getFileName() + ".zip"));
+                    streamDirectoryAsZipToS3(renamedDirectory, bucketName, objectKey);
+                    return objectKey;
+                } finally {
+                    deleteLocalResult(renamedDirectory);
+                }
+            }
+
             Path zipS3DirectoryPath = prepareDirectoryForUpload(sourceDirectory);
 
-            uploadFileFromLocalToS3(zipS3DirectoryPath, bucketName);
+            try {
+                uploadFileFromLocalToS3(zipS3DirectoryPath, bucketName);
+            } finally {
+                deleteLocalResult(zippedDirectory(zipS3DirectoryPath));
+            }
 
-            return createPresignedGetRequest(bucketName, zipS3DirectoryPath);
+            return getObjectKey(zipS3DirectoryPath);
 
         } catch (IOException | CompletionException e) {
             Throwable cause = (e instanceof CompletionException) ? e.getCause() : e;
@@ -89,6 +175,193 @@ public class S3UploadService {
         }
     }
 
+    /**
+     * Non-blocking version of uploadDirectoryAsZipToS3: the directory is zipped on the resultUploadExecutor, the ZIP
+     * file is then uploaded by the transfer manager without holding a thread, and its pre-signed URL is created
+     * once the upload completes.
+     *
+     * @param processedAudioFilePath The local directory path of processed files to upload to S3.
+     * @param bucketName The name of the S3 bucket.
+     * @return A future of the pre-signed GET URL, completed exceptionally with an S3UploadException when the upload fails.
+     */
+    public CompletableFuture<String> uploadDirectoryAsZipToS3Async(String processedAudioFilePath, String bucketName) {
+        return uploadDirectoryAsZipAsync(processedAudioFilePath, bucketName)
+                .thenApply(objectKey -> createPresignedGetRequest(bucketName, objectKey))
+                .handle((presignedUrl, e) -> {
+                    if (e != null) {
+                        throw asUploadFailure(e, "Failed to upload directory as zip to S3");
+                    }
+                    return presignedUrl;
+                });
+    }
+
+    /**
+     * Non-blocking version of uploadDirectoryAsZip.
+     *
+     * @param processedAudioFilePath The local directory path of processed files to upload to S3.
+     * @param bucketName The name of the S3 bucket.
+     * @return A future of the S3 object key of the uploaded ZIP file, completed exceptionally with an
+     *         S3UploadException (or an IllegalArgumentException for invalid parameters) when the upload fails.
+     */
+    public CompletableFuture<String> uploadDirectoryAsZipAsync(String processedAudioFilePath, String bucketName) {
+        try {
+            validateParameters(processedAudioFilePath, bucketName);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Path sourceDirectory = Paths.get(processedAudioFilePath);
+        CompletableFuture<String> upload;
+        if (streamZip) {
+            // The parts are uploaded while the directory is zipped, so zipping and uploading are a single stage
+            upload = CompletableFuture.supplyAsync(() -> {
+                try {
+                    Path renamedDirectory = renameDirectoryForUpload(sourceDirectory);
+                    try {
+                        String objectKey = getObjectKey(renamedDirectory.resolveSibling(renamedDirectory.getFileName() + ".zip"));
+                        streamDirectoryAsZipToS3(renamedDirectory, bucketName, objectKey);
+                        return objectKey;
+                    } finally {
+                        deleteLocalResult(renamedDirectory);
+                    }
+                } catch (IOException | S3UploadException e) {
+                    throw new CompletionException(e);
+                }
+            }, resultUploadExecutor);
+        } else {
+            upload = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return prepareDirectoryForUpload(sourceDirectory);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, resultUploadExecutor).thenCompose(zipS3DirectoryPath -> uploadFileFromLocalToS3Async(zipS3DirectoryPath, bucketName)
+                    .whenComplete((objectKey, e) -> deleteLocalResult(zippedDirectory(zipS3DirectoryPath))));
+        }
+
+        return upload.handle((objectKey, e) -> {
+            if (e != null) {
+                CompletionException failure = asUploadFailure(e, "Failed to upload directory as zip to S3");
+                LOGGER.error("Error during upload process for directory '{}': {}", processedAudioFilePath, failure.getCause().getMessage(), failure.getCause());
+                throw failure;
+            }
+            return objectKey;
+        });
+    }
+
+    /* Deletes a renamed result directory and its ZIP file, once uploaded or once the upload failed, as the message of
+     * the result is acknowledged either way. The result cache keeps its own links to the stems. */
+    private static void deleteLocalResult(Path renamedDirectory) {
+        try {
+            FileSystemUtils.deleteRecursively(renamedDirectory);
+            Files.deleteIfExists(renamedDirectory.resolveSibling(renamedDirectory.getFileName() + ".zip"));
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete the local copy of the result '{}': {}", renamedDirectory, e.getMessage());
+        }
+    }
+
+    // "<directory>.zip" -> "<directory>"
+    private static Path zippedDirectory(Path zipS3DirectoryPath) {
+        String zipFileName = zipS3DirectoryPath.getFileName().toString();
+        return zipS3DirectoryPath.resolveSibling(zipFileName.substring(0, zipFileName.length() - ".zip".length()));
+    }
+
+    // Keeps an S3UploadException as the cause of a failed future, wrapping any other failure in one
+    private static CompletionException asUploadFailure(Throwable e, String message) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        if (cause instanceof S3UploadException || cause instanceof IllegalArgumentException) {
+            return new CompletionException(cause);
+        }
+        return new CompletionException(new S3UploadException(message, cause));
+    }
+
+    /**
+     * Uploads every file of the directory with the separated audios as its own S3 object, all of them concurrently
+     * through the transfer manager, so that clients can download only the stems they need. The stems are stored
+     * under a unique prefix, see getStemsKeyPrefix. When an upload fails, the stems already uploaded are deleted.
+     *
+     * @param processedAudioFilePath The local directory path of processed files to upload to S3.
+     * @param bucketName The name of the S3 bucket.
+     * @return The S3 keys of the stems by stem name, i.e. their path in the directory without extension.
+     * @throws S3UploadException If the directory has no files or a stem could not be uploaded.
+     */
+    public Map<String, String> uploadStemsToS3(String processedAudioFilePath, String bucketName) throws S3UploadException {
+
+        validateParameters(processedAudioFilePath, bucketName);
+
+        Map<String, CompletableFuture<CompletedFileUpload>> uploads = new LinkedHashMap<>();
+        Path stemsDirectory = null;
+        try {
+            stemsDirectory = renameDirectoryForUpload(Paths.get(processedAudioFilePath));
+            List<Path> stemFiles;
+            try (Stream<Path> paths = Files.walk(stemsDirectory)) {
+                stemFiles = paths.filter(Files::isRegularFile).sorted().toList();
+            }
+            if (stemFiles.isEmpty()) {
+                throw new S3UploadException("No stems found in " + stemsDirectory);
+            }
+
+            long startNanos = System.nanoTime();
+            Map<String, String> stemKeys = new LinkedHashMap<>();
+            for (Path stemFile : stemFiles) {
+                String relativePath = stemsDirectory.relativize(stemFile).toString().replace(File.separatorChar, '/');
+                String objectKey = SUB_BUCKET + stemsDirectory.getFileName() + "/" + relativePath;
+                stemKeys.put(stemName(relativePath), objectKey);
+
+                UploadFileRequest uploadFileRequest = UploadFileRequest.builder()
+                        .putObjectRequest(request -> request.bucket(bucketName).key(objectKey))
+                        .source(stemFile)
+                        .addTransferListener(new TransferMetricsListener("upload", objectKey))
+                        .build();
+                uploads.put(objectKey, s3TransferManager.uploadFile(uploadFileRequest).completionFuture());
+            }
+            CompletableFuture.allOf(uploads.values().toArray(new CompletableFuture[0])).join();
+
+            LOGGER.info("Uploaded {} stems of '{}' to S3 bucket {} in {} ms", stemKeys.size(), stemsDirectory, bucketName,
+                    (System.nanoTime() - startNanos) / 1_000_000);
+            return stemKeys;
+
+        } catch (IOException | RuntimeException e) {
+            Throwable cause = (e instanceof CompletionException) ? e.getCause() : e;
+            deleteUploadedStems(uploads, bucketName);
+            LOGGER.error("Error uploading the stems of directory '{}': {}", processedAudioFilePath, cause.getMessage(), cause);
+            throw new S3UploadException("Failed to upload stems to S3", cause);
+        } finally {
+            if (stemsDirectory != null) {
+                deleteLocalResult(stemsDirectory);
+            }
+        }
+    }
+
+    // Waits for the uploads still running, then deletes the stems that were uploaded so that no partial result is kept
+    private void deleteUploadedStems(Map<String, CompletableFuture<CompletedFileUpload>> uploads, String bucketName) {
+        CompletableFuture.allOf(uploads.values().toArray(new CompletableFuture[0])).handle((result, e) -> null).join();
+        List<String> uploadedKeys = uploads.entrySet().stream()
+                .filter(upload -> !upload.getValue().isCompletedExceptionally())
+                .map(Map.Entry::getKey)
+                .toList();
+        deleteObjectsFromS3(bucketName, uploadedKeys);
+    }
+
+    // "vocals.wav" -> "vocals"
+    private static String stemName(String relativePath) {
+        int dot = relativePath.lastIndexOf('.');
+        return dot > relativePath.lastIndexOf('/') + 1 ? relativePath.substring(0, dot) : relativePath;
+    }
+
+    /* The stems uploaded by uploadStemsToS3 share the prefix SUB_BUCKET + unique directory name + "/". */
+    public String getStemsKeyPrefix(Map<String, String> stemKeys) {
+        String objectKey = stemKeys.values().iterator().next();
+        return objectKey.substring(0, objectKey.indexOf('/', SUB_BUCKET.length()) + 1);
+    }
+
+    /* Creates a pre-signed GET URL for every stem, keeping the stem names. */
+    public Map<String, String> createPresignedGetRequests(String bucketName, Map<String, String> stemKeys) {
+        Map<String, String> stemDownloadUrls = new LinkedHashMap<>();
+        stemKeys.forEach((stemName, objectKey) -> stemDownloadUrls.put(stemName, createPresignedGetRequest(bucketName, objectKey)));
+        return stemDownloadUrls;
+    }
+
     /**
      * Prepares the directory with processed audio files for upload to S3, by renaming it
      * with a unique name and creating a ZIP file of the renamed directory.
@@ -99,6 +372,21 @@ public class S3UploadService {
      */
     public Path prepareDirectoryForUpload(Path processedAudioFilePath) throws IOException {
 
+        Path renamedDirectory = renameDirectoryForUpload(processedAudioFilePath);
+
+        // Create a ZIP file for the renamed directory
+        Path zipFilePath = parallelZip
+                ? new ParallelZipWriter(zipExecutor, zipCompressionPolicy()).toZipDirectory(renamedDirectory)
+                : S3Utils.toZipDirectory(renamedDirectory, zipCompressionPolicy());
+
+        LOGGER.info("Created ZIP file '{}' for directory '{}'", zipFilePath, renamedDirectory);
+
+        return zipFilePath;
+    }
+
+    /* Renames the directory with processed audio files with a unique name, which also names its ZIP file in S3. */
+    private Path renameDirectoryForUpload(Path processedAudioFilePath) throws IOException {
+
         // Generate a unique name for the directory of processed audio files
         String uniqueDirectoryName = S3Utils.generateUniqueDirectoryName();
 
@@ -110,12 +398,43 @@ public class S3UploadService {
         // Move the original directory to the new unique name (this also makes processedAudioFilePath invalid after this point)
         Files.move(processedAudioFilePath, renamedDirectory);
 
-        // Create a ZIP file for the renamed directory
-        Path zipFilePath = S3Utils.toZipDirectory(renamedDirectory);
+        return renamedDirectory;
+    }
 
-        LOGGER.info("Created ZIP file '{}' for directory '{}'", zipFilePath, renamedDirectory);
+    /**
+     * Zips a directory straight into an S3 multipart upload, without writing the archive to disk: the parts are
+     * uploaded while the next files are compressed, and at most maxInFlightParts parts are held in memory.
+     * The multipart upload is aborted when zipping or uploading fails.
+     *
+     * @param sourceDirectory The directory with the processed audio files.
+     * @param bucketName The name of the S3 bucket.
+     * @param objectKey The key of the ZIP file in S3.
+     * @throws S3UploadException If the directory could not be zipped or uploaded.
+     */
+    public void streamDirectoryAsZipToS3(Path sourceDirectory, String bucketName, String objectKey) throws S3UploadException {
+        S3MultipartUploadStream uploadStream = null;
+        try {
+            uploadStream = new S3MultipartUploadStream(s3Client, bucketName, objectKey, "application/zip",
+                    Math.max(S3MultipartUploadStream.MIN_PART_SIZE, uploadPartSize), maxInFlightParts, s3UploadExecutor);
+            if (parallelZip) {
+                new ParallelZipWriter(zipExecutor, zipCompressionPolicy()).writeZipDirectory(sourceDirectory, uploadStream);
+            } else {
+                S3Utils.writeZipDirectory(sourceDirectory, uploadStream, zipCompressionPolicy());
+            }
+            uploadStream.close(); // Completes the upload, or aborts it if the last parts fail
 
-        return zipFilePath;
+            LOGGER.info("Successfully streamed {} to S3 bucket {} as {}", sourceDirectory, bucketName, objectKey);
+        } catch (IOException | RuntimeException e) {
+            if (uploadStream != null) {
+                uploadStream.abort();
+            }
+            LOGGER.error("Error streaming directory '{}' to S3 bucket '{}': {}", sourceDirectory, bucketName, e.getMessage(), e);
+            throw new S3UploadException("Failed to stream directory as zip to S3", e);
+        }
+    }
+
+    private ZipCompressionPolicy zipCompressionPolicy() {
+        return new ZipCompressionPolicy(zipCompressionLevel, zipStoreRatio, zipSampleBytes);
     }
 
     /**
@@ -128,21 +447,7 @@ public class S3UploadService {
      */
     public void uploadFileFromLocalToS3(Path zipS3DirectoryPath, String bucketName) throws S3UploadException {
         try {
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(SUB_BUCKET + zipS3DirectoryPath.getFileName().toString())
-                    .build();
-
-            UploadFileRequest uploadFileRequest = UploadFileRequest.builder()
-                    .putObjectRequest(putObjectRequest)
-                    .source(zipS3DirectoryPath)
-                    .build();
-
-            FileUpload fileUpload = s3TransferManager.uploadFile(uploadFileRequest);
-            CompletableFuture<CompletedFileUpload> future = fileUpload.completionFuture();
-            future.join(); // Wait until the upload is complete
-
-            LOGGER.info("Successfully uploaded {} to S3 bucket {}", zipS3DirectoryPath, bucketName);
+            uploadFileFromLocalToS3Async(zipS3DirectoryPath, bucketName).join(); // Wait until the upload is complete
         } catch (CompletionException e) {
             // Unwrap and handle the actual cause
             Throwable cause = e.getCause();
@@ -151,11 +456,36 @@ public class S3UploadService {
         } catch (Exception e) {
             LOGGER.error("Error uploading file to S3 bucket '{}': {}", bucketName, e.getMessage(), e);
             throw new S3UploadException("Failed to upload file to S3", e);
-        } finally {
-            s3TransferManager.close();
         }
     }
 
+    /**
+     * Starts the upload of a local file to S3 with the TransferManager, without waiting for it.
+     *
+     * @param zipS3DirectoryPath The path to the ZIP directory to upload.
+     * @param bucketName The name of the S3 bucket.
+     * @return A future of the S3 object key, completed when the upload is complete.
+     */
+    public CompletableFuture<String> uploadFileFromLocalToS3Async(Path zipS3DirectoryPath, String bucketName) {
+        String objectKey = getObjectKey(zipS3DirectoryPath);
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(objectKey)
+                .build();
+
+        UploadFileRequest uploadFileRequest = UploadFileRequest.builder()
+                .putObjectRequest(putObjectRequest)
+                .source(zipS3DirectoryPath)
+                .addTransferListener(new TransferMetricsListener("upload", objectKey))
+                .build();
+
+        FileUpload fileUpload = s3TransferManager.uploadFile(uploadFileRequest);
+        return fileUpload.completionFuture().thenApply(completedFileUpload -> {
+            LOGGER.info("Successfully uploaded {} to S3 bucket {}", zipS3DirectoryPath, bucketName);
+            return objectKey;
+        });
+    }
+
     /**
      * Create a pre-signed URL for directly downloading (GET) an object from an S3 bucket.
      *
@@ -164,11 +494,22 @@ public class S3UploadService {
      * @return A pre-signed URL for downloading the object, valid for a limited duration.
      */
     public String createPresignedGetRequest(String bucketName, Path zipS3DirectoryPath) {
+        return createPresignedGetRequest(bucketName, getObjectKey(zipS3DirectoryPath));
+    }
+
+    /**
+     * Create a pre-signed URL for directly downloading (GET) an object from an S3 bucket.
+     *
+     * @param bucketName The name of the S3 bucket.
+     * @param objectKey  The key of the object in S3.
+     * @return A pre-signed URL for downloading the object, valid for a limited duration.
+     */
+    public String createPresignedGetRequest(String bucketName, String objectKey) {
 
         try {
             GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
                     .signatureDuration(Duration.ofMinutes(60))
-                    .getObjectRequest(req -> req.bucket(bucketName).key(SUB_BUCKET + zipS3DirectoryPath.getFileName().toString()))
+                    .getObjectRequest(req -> req.bucket(bucketName).key(objectKey))
                     .build();
 
             PresignedGetObjectRequest presignedGetObjectRequest = s3Presigner.presignGetObject(getObjectPresignRequest);
@@ -241,6 +582,11 @@ public class S3UploadService {
         }
     }
 
+    /* The results are stored under the SUB_BUCKET prefix with the name of the local ZIP file. */
+    public String getObjectKey(Path zipS3DirectoryPath) {
+        return SUB_BUCKET + zipS3DirectoryPath.getFileName().toString();
+    }
+
     /**
      * Validates input parameters.
      */
@@ -253,6 +599,56 @@ public class S3UploadService {
         }
     }
 
+    /**
+     * Deletes many objects with multi-object DeleteObjects requests of up to 1000 keys, instead of one request per key.
+     * A failed request or key is logged and does not stop the deletion of the others.
+     *
+     * @param bucketName The name of the S3 bucket.
+     * @param keys The keys of the objects to delete, duplicates are deleted once.
+     * @return The keys that could not be deleted, empty when every object was deleted or did not exist.
+     */
+    public Set<String> deleteObjectsFromS3(String bucketName, Collection<String> keys) {
+        List<String> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        Set<String> failedKeys = new LinkedHashSet<>();
+        if (distinctKeys.isEmpty()) {
+            return failedKeys;
+        }
+
+        for (int start = 0; start < distinctKeys.size(); start += MAX_KEYS_PER_DELETE) {
+            List<String> chunk = distinctKeys.subList(start, Math.min(start + MAX_KEYS_PER_DELETE, distinctKeys.size()));
+            DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
+                    .bucket(bucketName)
+                    .delete(delete -> delete
+                            .objects(chunk.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList())
+                            .quiet(true)) // Only the failed keys are returned
+                    .build();
+            try {
+                DeleteObjectsResponse response = s3Client.deleteObjects(deleteObjectsRequest);
+                response.errors().forEach(error -> {
+                    LOGGER.error("Failed to delete object [{}] from bucket [{}]: {}", error.key(), bucketName, error.message());
+                    failedKeys.add(error.key());
+                });
+            } catch (SdkException e) {
+                LOGGER.error("Failed to delete {} objects from bucket [{}]: {}", chunk.size(), bucketName, e.getMessage());
+                failedKeys.addAll(chunk);
+            }
+        }
+
+        LOGGER.info("Deleted {} of {} objects from bucket [{}]", distinctKeys.size() - failedKeys.size(), distinctKeys.size(), bucketName);
+        return failedKeys;
+    }
+
+    /* Lists the keys of every object under a prefix, e.g. the stems of a result uploaded by uploadStemsToS3. */
+    public List<String> listObjectKeys(String bucketName, String prefix) {
+        ListObjectsV2Request listObjectsRequest = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .build();
+        List<String> keys = new ArrayList<>();
+        s3Client.listObjectsV2Paginator(listObjectsRequest).contents().forEach(object -> keys.add(object.key()));
+        return keys;
+    }
+
     /* Delete a specific object (file/directory) from the S3 bucket */
     public void deleteObjectFromS3(String bucketName, String key) {
         try {
@@ -0,0 +1,80 @@
+package com.audiosource.backend.service.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
+import software.amazon.awssdk.transfer.s3.progress.TransferProgressSnapshot;
+
+/* Measures one S3TransferManager transfer: time to first byte and throughput, logged in a single line when the
+ * transfer completes or fails. A new listener must be created for every transfer. */
+public class TransferMetricsListener implements TransferListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransferMetricsListener.class);
+
+    private final String direction;
+    private final String keyName;
+
+    private long initiatedAtNanos;
+    private long firstByteNanos = -1;
+    private long transferredBytes;
+    private long totalBytes = -1;
+    private long durationNanos;
+    private boolean completed;
+
+    /**
+     * @param direction "download" or "upload", only used in the logs.
+     * @param keyName The key of the transferred object.
+     */
+    public TransferMetricsListener(String direction, String keyName) {
+        this.direction = direction;
+        this.keyName = keyName;
+    }
+
+    @Override
+    public synchronized void transferInitiated(Context.TransferInitiated context) {
+        initiatedAtNanos = System.nanoTime();
+        update(context.progressSnapshot());
+    }
+
+    @Override
+    public synchronized void bytesTransferred(Context.BytesTransferred context) {
+        if (firstByteNanos < 0 && context.progressSnapshot().transferredBytes() > 0) {
+            firstByteNanos = System.nanoTime() - initiatedAtNanos;
+        }
+        update(context.progressSnapshot());
+    }
+
+    @Override
+    public synchronized void transferComplete(Context.TransferComplete context) {
+        update(context.progressSnapshot());
+        durationNanos = System.nanoTime() - initiatedAtNanos;
+        completed = true;
+        LOGGER.info("S3 {} of {} completed: {} bytes in {} ms, {} MB/s, first byte after {} ms",
+                direction, keyName, transferredBytes, durationNanos / 1_000_000, String.format("%.1f", getBytesPerSecond() / (1024 * 1024)),
+                getTimeToFirstByteMillis());
+    }
+
+    @Override
+    public synchronized void transferFailed(Context.TransferFailed context) {
+        update(context.progressSnapshot());
+        durationNanos = System.nanoTime() - initiatedAtNanos;
+        LOGGER.warn("S3 {} of {} failed after {} ms and {} bytes: {}",
+                direction, keyName, durationNanos / 1_000_000, transferredBytes, context.exception().getMessage());
+    }
+
+    private void update(TransferProgressSnapshot snapshot) {
+        transferredBytes = Math.max(transferredBytes, snapshot.transferredBytes());
+        snapshot.totalBytes().ifPresent(total -> totalBytes = total);
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return durationNanos > 0 ? Math.min(transferredBytes, totalBytes >= 0 ? totalBytes : transferredBytes) * 1e9 / durationNanos : 0;
+    }
+
+    public synchronized long getTimeToFirstByteMillis() {
+        return firstByteNanos < 0 ? -1 : firstByteNanos / 1_000_000;
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+}
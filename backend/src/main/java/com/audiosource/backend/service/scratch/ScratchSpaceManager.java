@@ -0,0 +1,279 @@
+package com.audiosource.backend.service.scratch;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Gives every job its own workspace directory, named after its correlation ID, for the downloaded original and the
+ * input handed to Demucs, so that uploads with the same file name no longer overwrite each other. Jobs reserve an
+ * estimate of the disk they will use (their size times reservationFactor, for the decoded stems and the ZIP file) and
+ * wait while the reservations exceed the disk budget. Small jobs can get their workspace on a tmpfs root instead.
+ * The workspace, with the files registered for cleanup, is deleted and its reservation freed when the job finishes.
+ */
+@Service
+public class ScratchSpaceManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScratchSpaceManager.class);
+    private static final Pattern SAFE_DIRECTORY_NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    @Value("${demucs.scratch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${demucs.scratch.directory}")
+    private String scratchDirectory;
+
+    @Value("${demucs.scratch.maxBytes:21474836480}")
+    private long maxBytes;
+
+    @Value("${demucs.scratch.reservationFactor:12}")
+    private long reservationFactor;
+
+    /* Blank disables the tmpfs root */
+    @Value("${demucs.scratch.tmpfsDirectory:}")
+    private String tmpfsDirectory;
+
+    @Value("${demucs.scratch.tmpfsMaxJobBytes:52428800}")
+    private long tmpfsMaxJobBytes;
+
+    @Value("${demucs.scratch.tmpfsMaxBytes:536870912}")
+    private long tmpfsMaxBytes;
+
+    private final Map<String, Workspace> workspaces = new HashMap<>();
+    private long reservedBytes;
+    private long reservedTmpfsBytes;
+
+    @PostConstruct
+    void init() throws IOException {
+        if (!enabled) {
+            LOGGER.info("Scratch space is disabled, jobs share the Demucs input directory");
+            return;
+        }
+        deleteLeftoverWorkspaces(Paths.get(scratchDirectory));
+        if (isTmpfsEnabled()) {
+            deleteLeftoverWorkspaces(Paths.get(tmpfsDirectory));
+        }
+        LOGGER.info("Scratch space in {} with a budget of {} MB{}", scratchDirectory, maxBytes / (1024 * 1024),
+                isTmpfsEnabled() ? ", jobs up to " + tmpfsMaxJobBytes / (1024 * 1024) + " MB in " + tmpfsDirectory : "");
+    }
+
+    // Every directory of a scratch root is a workspace, none of them survives a restart
+    private static void deleteLeftoverWorkspaces(Path root) throws IOException {
+        Files.createDirectories(root);
+        try (Stream<Path> children = Files.list(root)) {
+            for (Path child : children.filter(Files::isDirectory).toList()) {
+                FileSystemUtils.deleteRecursively(child);
+                LOGGER.info("Deleted the workspace {} left by a previous run", child);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the workspace of a job once its reservation fits in the disk budget. A job larger than the whole
+     * budget is admitted alone once no other workspace is reserved on disk. Allocating a job twice returns its workspace.
+     *
+     * @param correlationId The correlation ID of the job, which names its workspace.
+     * @param inputBytes The size of the original, negative or 0 when unknown.
+     * @return The workspace, or empty when the scratch space is disabled or the workspace cannot be created.
+     * @throws InterruptedException If the thread is interrupted while waiting for disk space.
+     */
+    public Optional<Workspace> allocate(String correlationId, long inputBytes) throws InterruptedException {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        if (correlationId == null || !SAFE_DIRECTORY_NAME.matcher(correlationId).matches()) {
+            LOGGER.warn("Correlation ID {} cannot name a workspace, the job uses the shared directories", correlationId);
+            return Optional.empty();
+        }
+
+        long sizeBytes = Math.max(0, inputBytes);
+        long estimatedBytes = sizeBytes * reservationFactor;
+        Workspace workspace;
+        synchronized (this) {
+            Workspace existing = workspaces.get(correlationId);
+            if (existing != null) {
+                return Optional.of(existing);
+            }
+
+            boolean onTmpfs = isTmpfsEnabled() && sizeBytes > 0 && sizeBytes <= tmpfsMaxJobBytes
+                    && reservedTmpfsBytes + estimatedBytes <= tmpfsMaxBytes;
+            if (!onTmpfs) {
+                boolean logged = false;
+                while (reservedBytes > 0 && reservedBytes + estimatedBytes > maxBytes) {
+                    if (!logged) {
+                        LOGGER.info("Job {} needs ~{} MB of scratch space and waits ({} MB reserved by {} jobs)",
+                                correlationId, estimatedBytes / (1024 * 1024), reservedBytes / (1024 * 1024), workspaces.size());
+                        logged = true;
+                    }
+                    wait();
+                }
+            }
+
+            Path root = Paths.get(onTmpfs ? tmpfsDirectory : scratchDirectory);
+            workspace = new Workspace(correlationId, root.resolve(correlationId), estimatedBytes, onTmpfs);
+            workspaces.put(correlationId, workspace);
+            if (onTmpfs) {
+                reservedTmpfsBytes += estimatedBytes;
+            } else {
+                reservedBytes += estimatedBytes;
+            }
+        }
+
+        try {
+            Files.createDirectories(workspace.getDirectory());
+        } catch (IOException e) {
+            LOGGER.warn("Could not create the workspace {}: {}", workspace.getDirectory(), e.getMessage());
+            release(correlationId);
+            return Optional.empty();
+        }
+        LOGGER.info("Allocated workspace {} ({} MB reserved)", workspace.getDirectory(), estimatedBytes / (1024 * 1024));
+        return Optional.of(workspace);
+    }
+
+    public synchronized Optional<Workspace> find(String correlationId) {
+        return Optional.ofNullable(workspaces.get(correlationId));
+    }
+
+    /**
+     * Links the original of a job into its workspace under a name prefixed with the correlation ID, so that the
+     * directory Demucs names after the track is unique to the job. The file is copied when it cannot be linked,
+     * e.g. when the workspace is on tmpfs.
+     *
+     * @param correlationId The correlation ID of the job.
+     * @param originalAudioFilePath The path of the original, e.g. in the input cache.
+     * @return The path to process the original from, unchanged when the job has no workspace or the staging failed.
+     */
+    public String stageInput(String correlationId, String originalAudioFilePath) {
+        Optional<Workspace> workspace = find(correlationId);
+        if (workspace.isEmpty()) {
+            return originalAudioFilePath;
+        }
+
+        Path source = Paths.get(originalAudioFilePath);
+        String fileName = source.getFileName().toString();
+        Path target = workspace.get().getDirectory().resolve(fileName.startsWith(correlationId + "-") ? fileName : correlationId + "-" + fileName);
+        if (target.equals(source)) {
+            return originalAudioFilePath;
+        }
+
+        try {
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, source);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return target.toString();
+        } catch (IOException e) {
+            LOGGER.warn("Could not stage {} in the workspace of job {}: {}", originalAudioFilePath, correlationId, e.getMessage());
+            return originalAudioFilePath;
+        }
+    }
+
+    /* Registers a file or directory outside of the workspace, e.g. the Demucs output, to be deleted with it. */
+    public synchronized void registerForCleanup(String correlationId, Path path) {
+        Workspace workspace = workspaces.get(correlationId);
+        if (workspace != null) {
+            workspace.cleanupPaths.add(path);
+        }
+    }
+
+    /* Deletes the workspace of a finished job with the files registered for cleanup, and frees its reservation.
+     * Correlation IDs without a workspace are ignored, so a job can be released more than once. */
+    public void release(String correlationId) {
+        Workspace workspace;
+        synchronized (this) {
+            workspace = workspaces.remove(correlationId);
+            if (workspace == null) {
+                return;
+            }
+            if (workspace.isOnTmpfs()) {
+                reservedTmpfsBytes -= workspace.getReservedBytes();
+            } else {
+                reservedBytes -= workspace.getReservedBytes();
+            }
+            notifyAll();
+        }
+
+        List<Path> paths = new ArrayList<>(workspace.cleanupPaths);
+        paths.add(workspace.getDirectory());
+        for (Path path : paths) {
+            try {
+                FileSystemUtils.deleteRecursively(path);
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete {} of job {}: {}", path, correlationId, e.getMessage());
+            }
+        }
+        LOGGER.info("Released the workspace of job {}", correlationId);
+    }
+
+    private boolean isTmpfsEnabled() {
+        return tmpfsDirectory != null && !tmpfsDirectory.isBlank();
+    }
+
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized long getReservedTmpfsBytes() {
+        return reservedTmpfsBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getWorkspaceCount() {
+        return workspaces.size();
+    }
+
+    public static class Workspace {
+        private final String correlationId;
+        private final Path directory;
+        private final long reservedBytes;
+        private final boolean onTmpfs;
+        private final List<Path> cleanupPaths = new ArrayList<>();
+
+        private Workspace(String correlationId, Path directory, long reservedBytes, boolean onTmpfs) {
+            this.correlationId = correlationId;
+            this.directory = directory;
+            this.reservedBytes = reservedBytes;
+            this.onTmpfs = onTmpfs;
+        }
+
+        public String getCorrelationId() {
+            return correlationId;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public long getReservedBytes() {
+            return reservedBytes;
+        }
+
+        public boolean isOnTmpfs() {
+            return onTmpfs;
+        }
+    }
+}
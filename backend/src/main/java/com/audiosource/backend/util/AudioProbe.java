@@ -0,0 +1,220 @@
+package com.audiosource.backend.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Reads the format, duration, sample rate and channels of WAV and MP3 files without decoding them, so that corrupt
+ * or unsupported uploads are rejected before a Demucs process is started. WAV files are described by their RIFF
+ * header, MP3 files are validated by walking the chain of MPEG audio frame headers. */
+public class AudioProbe {
+    public static final String FORMAT_WAV = "wav";
+    public static final String FORMAT_MP3 = "mp3";
+
+    private static final int ID3V2_HEADER_SIZE = 10;
+    private static final int ID3V1_TAG_SIZE = 128;
+    private static final double MAX_MP3_JUNK_RATIO = 0.25;
+
+    // Bitrates in kbps indexed by [MPEG-1 ? 0 : 1][layer - 1][bitrate index]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+    // Sample rates indexed by [version bits][sample rate index], version bits 01 are reserved
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},
+            {0, 0, 0},
+            {22050, 24000, 16000},
+            {44100, 48000, 32000}
+    };
+
+    public static class AudioInfo {
+        private final String format;
+        private final double durationSeconds;
+        private final int sampleRate;
+        private final int channels;
+
+        public AudioInfo(String format, double durationSeconds, int sampleRate, int channels) {
+            this.format = format;
+            this.durationSeconds = durationSeconds;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+    }
+
+    /* Probes the file from its content, whatever its extension. Throws an IOException describing why the file is
+     * not a usable WAV or MP3 file. */
+    public static AudioInfo probe(Path audioFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(audioFile, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            if (channel.read(magic, 0) < 4) {
+                throw new IOException("Audio file is empty or truncated: " + audioFile);
+            }
+            if (magic.getInt(0) == 0x52494646) { // "RIFF"
+                return probeWav(audioFile);
+            }
+            boolean id3 = magic.get(0) == 'I' && magic.get(1) == 'D' && magic.get(2) == '3';
+            boolean frameSync = (magic.get(0) & 0xFF) == 0xFF && (magic.get(1) & 0xE0) == 0xE0;
+            if (id3 || frameSync) {
+                return probeMp3(audioFile, channel);
+            }
+            throw new IOException("Unsupported audio format, only WAV and MP3 files are accepted: " + audioFile);
+        }
+    }
+
+    private static AudioInfo probeWav(Path wavFile) throws IOException {
+        WavUtils.WavHeader header = WavUtils.readHeader(wavFile);
+        if (header.getAudioFormat() != WavUtils.FORMAT_PCM && header.getAudioFormat() != WavUtils.FORMAT_IEEE_FLOAT) {
+            throw new IOException("Unsupported WAV encoding " + header.getAudioFormat() + ", only PCM and IEEE float are accepted: " + wavFile);
+        }
+        if (header.getFrameCount() == 0) {
+            throw new IOException("WAV file contains no audio: " + wavFile);
+        }
+        return new AudioInfo(FORMAT_WAV, header.getDurationSeconds(), header.getSampleRate(), header.getChannels());
+    }
+
+    /* Walks the frames from one header to the next. A frame only counts when it is followed by another valid header
+     * (or the end of the stream), which rules out false syncs inside junk data; bytes that are not part of a frame
+     * are skipped one at a time until the sync is found again. */
+    private static AudioInfo probeMp3(Path mp3File, FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("MP3 file is too large: " + mp3File);
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        int start = skipId3v2Tag(buffer);
+        int end = (int) fileSize;
+        if (end - start >= ID3V1_TAG_SIZE && buffer.get(end - ID3V1_TAG_SIZE) == 'T'
+                && buffer.get(end - ID3V1_TAG_SIZE + 1) == 'A' && buffer.get(end - ID3V1_TAG_SIZE + 2) == 'G') {
+            end -= ID3V1_TAG_SIZE;
+        }
+
+        int sampleRate = 0;
+        int channels = 0;
+        long frames = 0;
+        long samples = 0;
+        long junkBytes = 0;
+        int position = start;
+
+        while (position + 4 <= end) {
+            int header = buffer.getInt(position);
+            int frameLength = frameLength(header);
+            boolean sameStream = frameLength > 0 && (sampleRate == 0 || sampleRate(header) == sampleRate);
+            boolean chained = sameStream && (position + frameLength == end
+                    || (position + frameLength + 4 <= end && frameLength(buffer.getInt(position + frameLength)) > 0));
+            if (!chained) {
+                if (frames > 0 && sameStream && position + frameLength > end) {
+                    break; // Truncated last frame
+                }
+                junkBytes++;
+                position++;
+                continue;
+            }
+
+            if (frames == 0) {
+                sampleRate = sampleRate(header);
+                channels = ((header >>> 6) & 0x3) == 3 ? 1 : 2;
+            }
+            // The Xing/Info frame of VBR files carries no audio
+            if (frames > 0 || !isXingFrame(buffer, position, header)) {
+                samples += samplesPerFrame(header);
+            }
+            frames++;
+            position += frameLength;
+        }
+
+        if (frames == 0 || samples == 0) {
+            throw new IOException("No MPEG audio frame found in MP3 file: " + mp3File);
+        }
+        if (junkBytes > (end - start) * MAX_MP3_JUNK_RATIO) {
+            throw new IOException(String.format("Corrupt MP3 file, %d%% of the stream is not MPEG audio: %s",
+                    junkBytes * 100 / (end - start), mp3File));
+        }
+        return new AudioInfo(FORMAT_MP3, (double) samples / sampleRate, sampleRate, channels);
+    }
+
+    // The ID3v2 size is a 28 bit "syncsafe" integer that excludes the 10 byte header and the optional footer
+    private static int skipId3v2Tag(ByteBuffer buffer) {
+        if (buffer.limit() < ID3V2_HEADER_SIZE || buffer.get(0) != 'I' || buffer.get(1) != 'D' || buffer.get(2) != '3') {
+            return 0;
+        }
+        int size = (buffer.get(6) & 0x7F) << 21 | (buffer.get(7) & 0x7F) << 14 | (buffer.get(8) & 0x7F) << 7 | (buffer.get(9) & 0x7F);
+        boolean footer = (buffer.get(5) & 0x10) != 0;
+        return (int) Math.min(buffer.limit(), (long) ID3V2_HEADER_SIZE + size + (footer ? ID3V2_HEADER_SIZE : 0));
+    }
+
+    /* Length in bytes of the frame starting with the given big endian header, or -1 if the header is not valid.
+     * Free format streams (bitrate index 0) are not supported. */
+    private static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return -1;
+        }
+        int version = (header >>> 19) & 0x3;
+        int layer = 4 - ((header >>> 17) & 0x3);
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 0x3;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+        int bitrate = BITRATES[version == 3 ? 0 : 1][layer - 1][bitrateIndex] * 1000;
+        int sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+        int padding = (header >>> 9) & 0x1;
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        int coefficient = layer == 3 && version != 3 ? 72 : 144;
+        return coefficient * bitrate / sampleRate + padding;
+    }
+
+    private static int sampleRate(int header) {
+        return SAMPLE_RATES[(header >>> 19) & 0x3][(header >>> 10) & 0x3];
+    }
+
+    private static int samplesPerFrame(int header) {
+        int version = (header >>> 19) & 0x3;
+        int layer = 4 - ((header >>> 17) & 0x3);
+        if (layer == 1) {
+            return 384;
+        }
+        return layer == 3 && version != 3 ? 576 : 1152;
+    }
+
+    // The Xing/Info tag follows the side information, whose size depends on the version and the channel mode
+    private static boolean isXingFrame(ByteBuffer buffer, int position, int header) {
+        boolean mpeg1 = ((header >>> 19) & 0x3) == 3;
+        boolean mono = ((header >>> 6) & 0x3) == 3;
+        int tagPosition = position + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        if (tagPosition + 4 > buffer.limit()) {
+            return false;
+        }
+        int tag = buffer.getInt(tagPosition);
+        return tag == 0x58696E67 || tag == 0x496E666F; // "Xing", "Info"
+    }
+}
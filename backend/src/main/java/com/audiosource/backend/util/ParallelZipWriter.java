@@ -0,0 +1,348 @@
+package com.audiosource.backend.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/* Zips a directory by compressing its files concurrently on an executor, each one into a temporary file next to the
+ * directory, then writing them in order into a standard ZIP archive: local file headers carrying the CRC and sizes
+ * (no data descriptors), the compressed data and the central directory. Entries are written as soon as they and the
+ * previous ones are compressed, so the output overlaps with the compression of the next files.
+ * The ZipCompressionPolicy chooses the method and level of every file: STORED files are not copied to a temporary
+ * file, only their CRC is computed on the executor, and their data is transferred from the original file.
+ * Archives that could need ZIP64 records are written by ZipOutputStream instead (see S3Utils). */
+public class ParallelZipWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelZipWriter.class);
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int UTF8_NAMES_FLAG = 0x0800;
+    // Leaves room for the deflate overhead of incompressible data and the headers below the 4 GB offsets of ZIP32
+    private static final long MAX_TOTAL_BYTES = 0xF0000000L;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Executor executor;
+    private final ZipCompressionPolicy compressionPolicy;
+
+    /**
+     * @param executor The executor the files are compressed on, one task per file.
+     * @param compressionPolicy Chooses the method and level of every file.
+     */
+    public ParallelZipWriter(Executor executor, ZipCompressionPolicy compressionPolicy) {
+        this.executor = executor;
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /* Deflates every file at the given level, from 1 (fastest) to 9 (smallest) or -1 for the default. */
+    public ParallelZipWriter(Executor executor, int compressionLevel) {
+        this(executor, ZipCompressionPolicy.deflateAll(compressionLevel));
+    }
+
+    /* Writes the ZIP file of the directory next to it, as S3Utils.toZipDirectory does. The entries are transferred
+     * from channel to channel, which lets the kernel copy them without going through the heap. */
+    public Path toZipDirectory(Path sourceDirectory) throws IOException {
+        Path zipDirectoryPath = Paths.get(sourceDirectory.toString() + ".zip");
+
+        try (FileChannel zipChannel = FileChannel.open(zipDirectoryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeZipDirectory(sourceDirectory, Channels.newOutputStream(zipChannel), zipChannel);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(zipDirectoryPath);
+            throw e;
+        }
+        return zipDirectoryPath;
+    }
+
+    /**
+     * Writes the files of the directory as a ZIP archive into the output stream, which is left open.
+     *
+     * @param sourceDirectory The directory to zip, the entries are named relative to it.
+     * @param outputStream The stream the archive is written to.
+     * @throws IOException If a file cannot be read or compressed, or the stream cannot be written.
+     */
+    public void writeZipDirectory(Path sourceDirectory, OutputStream outputStream) throws IOException {
+        writeZipDirectory(sourceDirectory, outputStream, Channels.newChannel(outputStream));
+    }
+
+    // The headers are written to the stream and the entries to the channel, both must write to the same target in order
+    private void writeZipDirectory(Path sourceDirectory, OutputStream outputStream, WritableByteChannel channel) throws IOException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(sourceDirectory)) {
+            files = paths.filter(path -> !Files.isDirectory(path)).toList();
+        }
+        long totalBytes = 0;
+        for (Path file : files) {
+            totalBytes += Files.size(file);
+        }
+        if (files.size() >= MAX_ENTRIES || totalBytes >= MAX_TOTAL_BYTES) {
+            LOGGER.info("Zipping {} ({} files, {} bytes) sequentially, the archive may need ZIP64", sourceDirectory, files.size(), totalBytes);
+            OutputStream bufferedOutputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+            S3Utils.writeZipDirectory(sourceDirectory, bufferedOutputStream, compressionPolicy);
+            bufferedOutputStream.flush();
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        Path tempDirectory = sourceDirectory.toAbsolutePath().getParent();
+        List<CompletableFuture<CompressedEntry>> compressedEntries = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                String entryName = sourceDirectory.relativize(file).toString().replace(File.separatorChar, '/');
+                compressedEntries.add(CompletableFuture.supplyAsync(() -> compress(file, entryName, tempDirectory), executor));
+            }
+            long archiveBytes = writeArchive(compressedEntries, outputStream, channel);
+            long storedEntries = compressedEntries.stream().filter(entry -> entry.join().method == ZipEntry.STORED).count();
+            LOGGER.info("Zipped {} files of {} ({} stored, {} bytes into {}) in {} ms", files.size(), sourceDirectory, storedEntries,
+                    totalBytes, archiveBytes, (System.nanoTime() - startNanos) / 1_000_000);
+        } finally {
+            deleteCompressedFiles(compressedEntries);
+        }
+    }
+
+    // Deflates a file into a temporary file, or only computes the CRC of a STORED one, for the headers of the entry
+    private CompressedEntry compress(Path file, String entryName, Path tempDirectory) {
+        ZipCompressionPolicy.EntryCompression compression;
+        try {
+            compression = compressionPolicy.decide(file);
+            if (compression.isStored()) {
+                long size = Files.size(file);
+                return new CompressedEntry(entryName, ZipEntry.STORED, ZipCompressionPolicy.crc32(file), size, size,
+                        dosTime(Files.getLastModifiedTime(file).toMillis()), file, false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + file, e);
+        }
+
+        Path compressedFile = null;
+        Deflater deflater = new Deflater(compression.getLevel(), true);
+        try {
+            compressedFile = Files.createTempFile(tempDirectory, ".zip-entry-", ".part");
+            CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream inputStream = Files.newInputStream(file);
+                 OutputStream outputStream = new DeflaterOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(compressedFile), BUFFER_SIZE), deflater, BUFFER_SIZE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    outputStream.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+            return new CompressedEntry(entryName, ZipEntry.DEFLATED, crc.getValue(), size, Files.size(compressedFile),
+                    dosTime(Files.getLastModifiedTime(file).toMillis()), compressedFile, true);
+        } catch (IOException e) {
+            deleteQuietly(compressedFile);
+            throw new UncheckedIOException("Failed to compress " + file, e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Writes the entries in order as they get compressed, then the central directory. Returns the archive size
+    private long writeArchive(List<CompletableFuture<CompressedEntry>> compressedEntries, OutputStream outputStream,
+                              WritableByteChannel channel) throws IOException {
+        List<CompressedEntry> writtenEntries = new ArrayList<>();
+        long offset = 0;
+        for (CompletableFuture<CompressedEntry> compressedEntry : compressedEntries) {
+            CompressedEntry entry = awaitCompression(compressedEntry);
+            entry.localHeaderOffset = offset;
+            byte[] localHeader = localHeader(entry);
+            outputStream.write(localHeader);
+            outputStream.flush();
+            transfer(entry, channel);
+            offset += localHeader.length + entry.compressedSize;
+            deleteTemporary(entry);
+            writtenEntries.add(entry);
+        }
+
+        long centralDirectoryOffset = offset;
+        for (CompressedEntry entry : writtenEntries) {
+            byte[] centralHeader = centralHeader(entry);
+            outputStream.write(centralHeader);
+            offset += centralHeader.length;
+        }
+        outputStream.write(endOfCentralDirectory(writtenEntries.size(), offset - centralDirectoryOffset, centralDirectoryOffset));
+        outputStream.flush();
+        return offset + END_OF_CENTRAL_DIRECTORY_SIZE;
+    }
+
+    private static void transfer(CompressedEntry entry, WritableByteChannel channel) throws IOException {
+        try (FileChannel dataChannel = FileChannel.open(entry.dataFile, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < entry.compressedSize) {
+                long transferred = dataChannel.transferTo(position, entry.compressedSize - position, channel);
+                if (transferred <= 0) {
+                    throw new IOException(entry.dataFile + " was truncated while it was zipped");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    private static CompressedEntry awaitCompression(CompletableFuture<CompressedEntry> compressedEntry) throws IOException {
+        try {
+            return compressedEntry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to compress a ZIP entry", e.getCause());
+        }
+    }
+
+    private static byte[] localHeader(CompressedEntry entry) {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) versionNeeded(entry.method));
+        header.putShort((short) UTF8_NAMES_FLAG);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0); // Extra field length
+        header.put(entry.name);
+        return header.array();
+    }
+
+    private static byte[] centralHeader(CompressedEntry entry) {
+        ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + entry.name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) versionNeeded(entry.method)); // Version made by
+        header.putShort((short) versionNeeded(entry.method));
+        header.putShort((short) UTF8_NAMES_FLAG);
+        header.putShort((short) entry.method);
+        header.putInt((int) entry.dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0); // Extra field length
+        header.putShort((short) 0); // Comment length
+        header.putShort((short) 0); // Disk number
+        header.putShort((short) 0); // Internal attributes
+        header.putInt(0); // External attributes
+        header.putInt((int) entry.localHeaderOffset);
+        header.put(entry.name);
+        return header.array();
+    }
+
+    private static byte[] endOfCentralDirectory(int entryCount, long centralDirectorySize, long centralDirectoryOffset) {
+        ByteBuffer record = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        record.putShort((short) 0); // Number of this disk
+        record.putShort((short) 0); // Disk of the central directory
+        record.putShort((short) entryCount);
+        record.putShort((short) entryCount);
+        record.putInt((int) centralDirectorySize);
+        record.putInt((int) centralDirectoryOffset);
+        record.putShort((short) 0); // Comment length
+        return record.array();
+    }
+
+    // Same versions as ZipOutputStream: 1.0 for stored entries, 2.0 for deflated ones
+    private static int versionNeeded(int method) {
+        return method == ZipEntry.STORED ? 10 : 20;
+    }
+
+    // MS-DOS date in the high 16 bits and time in the low 16 bits, with a 2 seconds precision
+    static long dosTime(long epochMillis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        int year = time.getYear() - 1980;
+        if (year < 0) {
+            return (1 << 21) | (1 << 16); // 1980-01-01, the earliest DOS date
+        }
+        return ((long) year << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1) & 0xFFFFFFFFL;
+    }
+
+    // Waits for the compressions still running after a failure so that none of their files is left behind
+    private static void deleteCompressedFiles(List<CompletableFuture<CompressedEntry>> compressedEntries) {
+        for (CompletableFuture<CompressedEntry> compressedEntry : compressedEntries) {
+            try {
+                deleteTemporary(compressedEntry.join());
+            } catch (CompletionException e) {
+                // The failed compression deleted its own file
+            }
+        }
+    }
+
+    private static void deleteTemporary(CompressedEntry entry) {
+        if (entry.temporary) {
+            deleteQuietly(entry.dataFile);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete the temporary ZIP entry {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static class CompressedEntry {
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long dosTime;
+        // The deflated data in a temporary file, or the original file of a STORED entry
+        private final Path dataFile;
+        private final boolean temporary;
+        private long localHeaderOffset;
+
+        private CompressedEntry(String name, int method, long crc, long size, long compressedSize, long dosTime,
+                                Path dataFile, boolean temporary) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.dosTime = dosTime;
+            this.dataFile = dataFile;
+            this.temporary = temporary;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.audiosource.backend.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/* Readers for the Linux /proc file system. Every method returns -1 when the value cannot be read,
+ * e.g. on another operating system or once the process has exited. */
+public class ProcFsUtils {
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    public static long readMemAvailableBytes() {
+        return readKilobytesField(MEMINFO, "MemAvailable:");
+    }
+
+    public static long readMemTotalBytes() {
+        return readKilobytesField(MEMINFO, "MemTotal:");
+    }
+
+    /* Peak resident set size (VmHWM) of the process since it started. */
+    public static long readPeakRssBytes(long pid) {
+        return readKilobytesField(Paths.get("/proc", String.valueOf(pid), "status"), "VmHWM:");
+    }
+
+    /* Current resident set size (VmRSS) of the process. */
+    public static long readRssBytes(long pid) {
+        return readKilobytesField(Paths.get("/proc", String.valueOf(pid), "status"), "VmRSS:");
+    }
+
+    // Lines look like "MemAvailable:   12345678 kB"
+    static long readKilobytesField(Path file, String fieldName) {
+        try {
+            List<String> lines = Files.readAllLines(file);
+            for (String line : lines) {
+                if (line.startsWith(fieldName)) {
+                    String[] parts = line.substring(fieldName.length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not available on this system or the process is gone
+        }
+        return -1;
+    }
+}
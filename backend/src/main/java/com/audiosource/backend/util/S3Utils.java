@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,6 +13,7 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.UUID;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -19,18 +21,39 @@ public class S3Utils {
     private static final Logger logger = LoggerFactory.getLogger(S3Utils.class);
 
     public static Path toZipDirectory(Path sourceDirectory) throws IOException {
+        return toZipDirectory(sourceDirectory, null);
+    }
+
+    /* Same as above, with the method and level of every entry chosen by the policy (every entry deflated when null). */
+    public static Path toZipDirectory(Path sourceDirectory, ZipCompressionPolicy compressionPolicy) throws IOException {
 
         // Compute the path for the zip file
         Path zipDirectoryPath = Paths.get(sourceDirectory.toString() + ".zip");
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(zipDirectoryPath.toFile());
-             ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream)) {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(zipDirectoryPath.toFile())) {
+            writeZipDirectory(sourceDirectory, fileOutputStream, compressionPolicy);
+        }
+        return zipDirectoryPath;
+    }
+
+    /* Writes the files of the directory as a ZIP archive into the output stream, which is left open so that the
+     * caller decides whether what was written is kept (e.g. completing or aborting an S3 multipart upload). */
+    public static void writeZipDirectory(Path sourceDirectory, OutputStream outputStream) throws IOException {
+        writeZipDirectory(sourceDirectory, outputStream, null);
+    }
+
+    /* Same as above, with the method and level of every entry chosen by the policy (every entry deflated when null). */
+    public static void writeZipDirectory(Path sourceDirectory, OutputStream outputStream, ZipCompressionPolicy compressionPolicy) throws IOException {
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
 
-            Files.walk(sourceDirectory)
-                    .filter(path -> !Files.isDirectory(path))
+        try (Stream<Path> paths = Files.walk(sourceDirectory)) {
+            paths.filter(path -> !Files.isDirectory(path))
                     .forEach(path -> {
                         ZipEntry zipEntry = new ZipEntry(sourceDirectory.relativize(path).toString());
                         try {
+                            if (compressionPolicy != null) {
+                                applyCompression(zipOutputStream, zipEntry, path, compressionPolicy.decide(path));
+                            }
                             zipOutputStream.putNextEntry(zipEntry);
                             Files.copy(path, zipOutputStream);
                             zipOutputStream.closeEntry();
@@ -39,7 +62,23 @@ public class S3Utils {
                         }
                     });
         }
-        return zipDirectoryPath;
+        zipOutputStream.finish();
+        zipOutputStream.flush();
+    }
+
+    // ZipOutputStream needs the size and CRC of STORED entries before their data
+    private static void applyCompression(ZipOutputStream zipOutputStream, ZipEntry zipEntry, Path path,
+                                         ZipCompressionPolicy.EntryCompression compression) throws IOException {
+        if (compression.isStored()) {
+            long size = Files.size(path);
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(size);
+            zipEntry.setCompressedSize(size);
+            zipEntry.setCrc(ZipCompressionPolicy.crc32(path));
+        } else {
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+            zipOutputStream.setLevel(compression.getLevel());
+        }
     }
 
     /* Generates a unique name for the output directory of processed files */
@@ -0,0 +1,403 @@
+package com.audiosource.backend.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/* Helpers to read, cut and stitch RIFF/WAVE files without decoding them through a full audio library. */
+public class WavUtils {
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    private static final int CANONICAL_HEADER_SIZE = 44;
+    private static final long MIX_WINDOW_BYTES = 64L * 1024 * 1024;
+
+    /* Describes the "fmt " chunk of a WAV file and the position of its "data" chunk. */
+    public static class WavHeader {
+        private final int audioFormat;
+        private final int channels;
+        private final int sampleRate;
+        private final int bitsPerSample;
+        private final long dataOffset;
+        private final long dataSize;
+
+        public WavHeader(int audioFormat, int channels, int sampleRate, int bitsPerSample, long dataOffset, long dataSize) {
+            this.audioFormat = audioFormat;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            this.bitsPerSample = bitsPerSample;
+            this.dataOffset = dataOffset;
+            this.dataSize = dataSize;
+        }
+
+        public int getAudioFormat() {
+            return audioFormat;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public int getBitsPerSample() {
+            return bitsPerSample;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public long getDataSize() {
+            return dataSize;
+        }
+
+        public int getBlockAlign() {
+            return channels * (bitsPerSample / 8);
+        }
+
+        public long getFrameCount() {
+            return dataSize / getBlockAlign();
+        }
+
+        public double getDurationSeconds() {
+            return (double) getFrameCount() / sampleRate;
+        }
+    }
+
+    /* Reads the WAV header by walking the RIFF chunks until both "fmt " and "data" are found. */
+    public static WavHeader readHeader(Path wavFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(wavFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, buffer, 0);
+            if (buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+                throw new IOException("Not a RIFF/WAVE file: " + wavFile);
+            }
+
+            int audioFormat = -1;
+            int channels = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            long position = 12;
+            long fileSize = channel.size();
+            ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+            while (position + 8 <= fileSize) {
+                chunkHeader.clear();
+                readFully(channel, chunkHeader, position);
+                int chunkId = chunkHeader.getInt(0);
+                long chunkSize = Integer.toUnsignedLong(chunkHeader.getInt(4));
+                long chunkBody = position + 8;
+
+                if (chunkId == 0x20746d66) { // "fmt "
+                    ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(chunkSize, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, fmt, chunkBody);
+                    audioFormat = Short.toUnsignedInt(fmt.getShort(0));
+                    channels = Short.toUnsignedInt(fmt.getShort(2));
+                    sampleRate = fmt.getInt(4);
+                    bitsPerSample = Short.toUnsignedInt(fmt.getShort(14));
+                    if (audioFormat == FORMAT_EXTENSIBLE && fmt.capacity() >= 26) {
+                        audioFormat = Short.toUnsignedInt(fmt.getShort(24)); // First bytes of the sub-format GUID
+                    }
+                } else if (chunkId == 0x61746164) { // "data"
+                    if (audioFormat < 0) {
+                        throw new IOException("WAV data chunk found before fmt chunk: " + wavFile);
+                    }
+                    long dataSize = Math.min(chunkSize, fileSize - chunkBody);
+                    if (channels <= 0 || sampleRate <= 0 || bitsPerSample <= 0 || bitsPerSample % 8 != 0) {
+                        throw new IOException("Invalid WAV format description: " + wavFile);
+                    }
+                    return new WavHeader(audioFormat, channels, sampleRate, bitsPerSample, chunkBody, dataSize);
+                }
+                position = chunkBody + chunkSize + (chunkSize & 1); // Chunks are word aligned
+            }
+            throw new IOException("No data chunk found in WAV file: " + wavFile);
+        }
+    }
+
+    /* Copies the frames [startFrame, startFrame + frameCount) of the source file into a new canonical WAV file. */
+    public static void writeSegment(Path sourceFile, WavHeader header, long startFrame, long frameCount, Path targetFile) throws IOException {
+        long availableFrames = Math.max(0, header.getFrameCount() - startFrame);
+        long framesToCopy = Math.min(frameCount, availableFrames);
+        long bytesToCopy = framesToCopy * header.getBlockAlign();
+
+        try (FileChannel source = FileChannel.open(sourceFile, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(targetFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeCanonicalHeader(target, header, bytesToCopy);
+            long sourcePosition = header.getDataOffset() + startFrame * header.getBlockAlign();
+            long copied = 0;
+            while (copied < bytesToCopy) {
+                copied += source.transferTo(sourcePosition + copied, bytesToCopy - copied, target);
+            }
+        }
+    }
+
+    /**
+     * Concatenates separated segments back into one WAV file, blending consecutive segments with a linear crossfade.
+     * All segments must share the same format; consecutive segments overlap by {@code overlapFrames} frames.
+     *
+     * @param segmentFiles The segment files in playback order.
+     * @param overlapFrames The number of frames shared by two consecutive segments.
+     * @param targetFile The stitched output file.
+     */
+    public static void stitchSegments(List<Path> segmentFiles, long overlapFrames, Path targetFile) throws IOException {
+        if (segmentFiles.isEmpty()) {
+            throw new IllegalArgumentException("No segments to stitch");
+        }
+
+        WavHeader format = readHeader(segmentFiles.get(0));
+        int blockAlign = format.getBlockAlign();
+        checkSupportedSampleFormat(format);
+
+        try (FileChannel target = FileChannel.open(targetFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeCanonicalHeader(target, format, 0);
+
+            ByteBuffer tail = ByteBuffer.allocate(0);
+            long dataWritten = 0;
+
+            for (int i = 0; i < segmentFiles.size(); i++) {
+                Path segmentFile = segmentFiles.get(i);
+                WavHeader header = readHeader(segmentFile);
+                if (header.getBlockAlign() != blockAlign || header.getAudioFormat() != format.getAudioFormat()
+                        || header.getSampleRate() != format.getSampleRate()) {
+                    throw new IOException("Segment format does not match the first segment: " + segmentFile);
+                }
+
+                long frames = header.getFrameCount();
+                long fadeInFrames = Math.min(tail.capacity() / blockAlign, frames);
+                boolean lastSegment = i == segmentFiles.size() - 1;
+                long fadeOutFrames = lastSegment ? 0 : Math.min(overlapFrames, frames - fadeInFrames);
+
+                try (FileChannel source = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+                    long position = header.getDataOffset();
+
+                    // 1. Crossfade the end of the previous segment with the start of this one
+                    if (fadeInFrames > 0) {
+                        ByteBuffer head = ByteBuffer.allocate((int) (fadeInFrames * blockAlign)).order(ByteOrder.LITTLE_ENDIAN);
+                        readFully(source, head, position);
+                        crossfade(tail, head, format, fadeInFrames);
+                        head.flip();
+                        dataWritten += writeFully(target, head);
+                        position += fadeInFrames * blockAlign;
+                    }
+
+                    // 2. Copy the part that belongs to this segment only
+                    long bodyBytes = (frames - fadeInFrames - fadeOutFrames) * blockAlign;
+                    long copied = 0;
+                    while (copied < bodyBytes) {
+                        copied += source.transferTo(position + copied, bodyBytes - copied, target);
+                    }
+                    dataWritten += bodyBytes;
+                    position += bodyBytes;
+
+                    // 3. Keep the end of this segment to blend it with the next one
+                    tail = ByteBuffer.allocate((int) (fadeOutFrames * blockAlign)).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(source, tail, position);
+                }
+            }
+            updateDataSize(target, dataWritten);
+        }
+    }
+
+    // Mixes tail (fading out) into head (fading in) in place
+    private static void crossfade(ByteBuffer tail, ByteBuffer head, WavHeader format, long frames) {
+        int channels = format.getChannels();
+        int bytesPerSample = format.getBitsPerSample() / 8;
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        for (long frame = 0; frame < frames; frame++) {
+            float fadeIn = (frame + 0.5f) / frames;
+            for (int channel = 0; channel < channels; channel++) {
+                int offset = (int) ((frame * channels + channel) * bytesPerSample);
+                float mixed = readSample(tail, offset, format) * (1f - fadeIn) + readSample(head, offset, format) * fadeIn;
+                writeSample(head, offset, mixed, format);
+            }
+        }
+    }
+
+    /**
+     * Sums stems of the same format into one WAV file, e.g. drums + bass + other into the accompaniment of a track.
+     * The sources and the target are memory mapped window by window and the sample loop does not allocate; sums
+     * that exceed the sample range are clipped to full scale.
+     *
+     * @param stemFiles The stems to sum, all with the same format.
+     * @param targetFile The mixed output file.
+     * @return The number of samples that had to be clipped.
+     */
+    public static long mixStems(List<Path> stemFiles, Path targetFile) throws IOException {
+        if (stemFiles.isEmpty()) {
+            throw new IllegalArgumentException("No stems to mix");
+        }
+
+        WavHeader format = readHeader(stemFiles.get(0));
+        checkSupportedSampleFormat(format);
+        WavHeader[] headers = new WavHeader[stemFiles.size()];
+        long frames = Long.MAX_VALUE;
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = readHeader(stemFiles.get(i));
+            if (headers[i].getBlockAlign() != format.getBlockAlign() || headers[i].getAudioFormat() != format.getAudioFormat()
+                    || headers[i].getSampleRate() != format.getSampleRate() || headers[i].getChannels() != format.getChannels()) {
+                throw new IOException("Stem format does not match the first stem: " + stemFiles.get(i));
+            }
+            frames = Math.min(frames, headers[i].getFrameCount());
+        }
+
+        int blockAlign = format.getBlockAlign();
+        long dataSize = frames * blockAlign;
+        long window = Math.max(1, MIX_WINDOW_BYTES / blockAlign) * blockAlign;
+        FileChannel[] sources = new FileChannel[stemFiles.size()];
+        ByteBuffer[] inputs = new ByteBuffer[stemFiles.size()];
+        long clippedSamples = 0;
+
+        try (FileChannel target = FileChannel.open(targetFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = FileChannel.open(stemFiles.get(i), StandardOpenOption.READ);
+            }
+            writeCanonicalHeader(target, format, dataSize);
+
+            for (long offset = 0; offset < dataSize; offset += window) {
+                int length = (int) Math.min(window, dataSize - offset);
+                for (int i = 0; i < sources.length; i++) {
+                    inputs[i] = sources[i].map(FileChannel.MapMode.READ_ONLY, headers[i].getDataOffset() + offset, length)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+                ByteBuffer output = target.map(FileChannel.MapMode.READ_WRITE, CANONICAL_HEADER_SIZE + offset, length)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                clippedSamples += format.getBitsPerSample() == 16
+                        ? mixPcm16(inputs, output, length)
+                        : mixNormalized(inputs, output, length, format);
+            }
+        } finally {
+            for (FileChannel source : sources) {
+                if (source != null) {
+                    source.close();
+                }
+            }
+        }
+        return clippedSamples;
+    }
+
+    // Demucs writes 16-bit stems by default, so that case sums integers directly
+    private static long mixPcm16(ByteBuffer[] inputs, ByteBuffer output, int length) {
+        long clippedSamples = 0;
+        for (int offset = 0; offset < length; offset += 2) {
+            int sum = 0;
+            for (ByteBuffer input : inputs) {
+                sum += input.getShort(offset);
+            }
+            if (sum > Short.MAX_VALUE) {
+                sum = Short.MAX_VALUE;
+                clippedSamples++;
+            } else if (sum < Short.MIN_VALUE) {
+                sum = Short.MIN_VALUE;
+                clippedSamples++;
+            }
+            output.putShort(offset, (short) sum);
+        }
+        return clippedSamples;
+    }
+
+    private static long mixNormalized(ByteBuffer[] inputs, ByteBuffer output, int length, WavHeader format) {
+        long clippedSamples = 0;
+        int bytesPerSample = format.getBitsPerSample() / 8;
+        for (int offset = 0; offset < length; offset += bytesPerSample) {
+            float sum = 0;
+            for (ByteBuffer input : inputs) {
+                sum += readSample(input, offset, format);
+            }
+            if (sum > 1f || sum < -1f) {
+                sum = Math.max(-1f, Math.min(1f, sum));
+                clippedSamples++;
+            }
+            writeSample(output, offset, sum, format);
+        }
+        return clippedSamples;
+    }
+
+    /* Reads one sample at the given byte offset, normalized to [-1, 1]. */
+    public static float readSample(ByteBuffer buffer, int offset, WavHeader format) {
+        switch (format.getBitsPerSample()) {
+            case 16:
+                return buffer.getShort(offset) / 32768f;
+            case 24:
+                int value = (buffer.get(offset) & 0xFF) | ((buffer.get(offset + 1) & 0xFF) << 8) | (buffer.get(offset + 2) << 16);
+                return value / 8388608f;
+            default:
+                return buffer.getFloat(offset);
+        }
+    }
+
+    /* Writes one normalized sample at the given byte offset, clipping integer formats to their range. */
+    public static void writeSample(ByteBuffer buffer, int offset, float sample, WavHeader format) {
+        switch (format.getBitsPerSample()) {
+            case 16:
+                buffer.putShort(offset, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample * 32768f))));
+                break;
+            case 24:
+                int value = Math.max(-8388608, Math.min(8388607, Math.round(sample * 8388608f)));
+                buffer.put(offset, (byte) value);
+                buffer.put(offset + 1, (byte) (value >> 8));
+                buffer.put(offset + 2, (byte) (value >> 16));
+                break;
+            default:
+                buffer.putFloat(offset, sample);
+        }
+    }
+
+    public static void checkSupportedSampleFormat(WavHeader header) throws IOException {
+        boolean pcm = header.getAudioFormat() == FORMAT_PCM && (header.getBitsPerSample() == 16 || header.getBitsPerSample() == 24);
+        boolean ieeeFloat = header.getAudioFormat() == FORMAT_IEEE_FLOAT && header.getBitsPerSample() == 32;
+        if (!pcm && !ieeeFloat) {
+            throw new IOException("Unsupported WAV sample format: format " + header.getAudioFormat() + ", " + header.getBitsPerSample() + " bits");
+        }
+    }
+
+    /* Writes a 44 byte PCM/float header for the given format at the current channel position. */
+    public static void writeCanonicalHeader(FileChannel target, WavHeader format, long dataSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CANONICAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt((int) (36 + dataSize)).putInt(0x45564157); // "RIFF", size, "WAVE"
+        header.putInt(0x20746d66).putInt(16)                                        // "fmt ", chunk size
+                .putShort((short) format.getAudioFormat())
+                .putShort((short) format.getChannels())
+                .putInt(format.getSampleRate())
+                .putInt(format.getSampleRate() * format.getBlockAlign())
+                .putShort((short) format.getBlockAlign())
+                .putShort((short) format.getBitsPerSample());
+        header.putInt(0x61746164).putInt((int) dataSize);                           // "data", size
+        header.flip();
+        writeFully(target, header);
+    }
+
+    /* Rewrites the RIFF and data sizes of a canonical header once the data length is known. */
+    public static void updateDataSize(FileChannel target, long dataSize) throws IOException {
+        ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        size.putInt(0, (int) (36 + dataSize));
+        target.write(size, 4);
+        size.clear();
+        size.putInt(0, (int) dataSize);
+        target.write(size, 40);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of WAV file");
+            }
+        }
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+}
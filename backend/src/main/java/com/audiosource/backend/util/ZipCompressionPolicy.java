@@ -0,0 +1,150 @@
+package com.audiosource.backend.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/* Chooses how every file of a result is written into its ZIP. Already compressed formats (MP3 stems among them) are
+ * STORED, since deflating them costs CPU for almost no gain. Other files, i.e. PCM WAV stems, are deflated at a level
+ * chosen by compressing their first block: STORED when even level 1 barely shrinks it, level 1 when the configured
+ * level would not save noticeably more, the configured level otherwise. */
+public class ZipCompressionPolicy {
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of("mp3", "flac", "ogg", "opus", "m4a", "aac", "zip", "gz");
+    // A higher level is only worth its CPU time when it saves at least 1% more of the sample than level 1
+    private static final double MIN_LEVEL_GAIN = 0.01;
+
+    private final int deflateLevel;
+    private final double storeRatio;
+    private final int sampleBytes;
+    private final boolean contentAware;
+
+    /**
+     * @param deflateLevel The highest Deflater level used, from 1 to 9.
+     * @param storeRatio The compressed / original size of the sample at level 1 from which a file is STORED.
+     * @param sampleBytes The size of the first block sampled, 0 to deflate every uncompressed format at deflateLevel.
+     */
+    public ZipCompressionPolicy(int deflateLevel, double storeRatio, int sampleBytes) {
+        this(deflateLevel, storeRatio, sampleBytes, true);
+    }
+
+    private ZipCompressionPolicy(int deflateLevel, double storeRatio, int sampleBytes, boolean contentAware) {
+        this.deflateLevel = deflateLevel;
+        this.storeRatio = storeRatio;
+        this.sampleBytes = sampleBytes;
+        this.contentAware = contentAware;
+    }
+
+    /* Deflates every file at the given level, as ZipOutputStream does by default. */
+    public static ZipCompressionPolicy deflateAll(int deflateLevel) {
+        return new ZipCompressionPolicy(deflateLevel, Double.MAX_VALUE, 0, false);
+    }
+
+    /**
+     * Chooses the compression of a file from its extension and, for uncompressed formats, from a sample of it.
+     *
+     * @param file The file to write into the archive.
+     * @return STORED, or DEFLATED with the level to use.
+     * @throws IOException If the sample cannot be read.
+     */
+    public EntryCompression decide(Path file) throws IOException {
+        if (!contentAware) {
+            return EntryCompression.deflated(deflateLevel);
+        }
+        if (COMPRESSED_EXTENSIONS.contains(extension(file))) {
+            return EntryCompression.stored();
+        }
+        if (sampleBytes <= 0 || deflateLevel <= Deflater.BEST_SPEED) {
+            return EntryCompression.deflated(deflateLevel);
+        }
+
+        byte[] sample;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            sample = inputStream.readNBytes(sampleBytes);
+        }
+        if (sample.length == 0) {
+            return EntryCompression.deflated(deflateLevel);
+        }
+        double fastRatio = (double) deflatedSize(sample, Deflater.BEST_SPEED) / sample.length;
+        if (fastRatio >= storeRatio) {
+            return EntryCompression.stored();
+        }
+        double ratio = (double) deflatedSize(sample, deflateLevel) / sample.length;
+        return EntryCompression.deflated(fastRatio - ratio < MIN_LEVEL_GAIN ? Deflater.BEST_SPEED : deflateLevel);
+    }
+
+    private static long deflatedSize(byte[] sample, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            long size = 0;
+            while (!deflater.finished()) {
+                size += deflater.deflate(buffer);
+            }
+            return size;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /* CRC-32 of a file, which STORED entries need in their headers before their data. */
+    public static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static String extension(Path file) {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    public static class EntryCompression {
+        private final int method;
+        private final int level;
+
+        private EntryCompression(int method, int level) {
+            this.method = method;
+            this.level = level;
+        }
+
+        public static EntryCompression stored() {
+            return new EntryCompression(ZipEntry.STORED, Deflater.NO_COMPRESSION);
+        }
+
+        public static EntryCompression deflated(int level) {
+            return new EntryCompression(ZipEntry.DEFLATED, level);
+        }
+
+        public boolean isStored() {
+            return method == ZipEntry.STORED;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        @Override
+        public String toString() {
+            return isStored() ? "STORED" : "DEFLATED(" + level + ")";
+        }
+    }
+}
@@ -0,0 +1,82 @@
+"""Long-lived Demucs worker started by the backend's DemucsWorkerPool.
+
+The worker loads the separation model once and then serves jobs over a line-based JSON protocol:
+    stdin : {"id": "...", "cmd": "ping"}
+            {"id": "...", "cmd": "separate", "args": ["--mp3", "/path/to/track.wav"]}
+    stdout: {"status": "ready"}                      (once, after the default model is loaded)
+            {"id": "...", "status": "pong"}
+            {"id": "...", "status": "ok"}
+            {"id": "...", "status": "error", "message": "..."}
+
+The "args" are exactly the arguments of `python -m demucs`, so the output layout is identical to the
+one-shot command. Anything Demucs prints while separating is redirected to stderr to keep stdout clean.
+"""
+import contextlib
+import json
+import sys
+import traceback
+
+from demucs import separate
+
+_models = {}
+_load_model = separate.get_model_from_args
+
+
+def _cached_get_model_from_args(args):
+    # The segment length is applied to the model instance by demucs, so it is part of the cache key.
+    key = (args.name, str(args.repo), args.segment)
+    model = _models.get(key)
+    if model is None:
+        model = _load_model(args)
+        _models[key] = model
+    return model
+
+
+separate.get_model_from_args = _cached_get_model_from_args
+
+
+def _reply(channel, message):
+    channel.write(json.dumps(message) + "\n")
+    channel.flush()
+
+
+def _separate(args):
+    with contextlib.redirect_stdout(sys.stderr):
+        try:
+            separate.main(args)
+        except SystemExit as e:
+            if e.code not in (None, 0):
+                raise RuntimeError("demucs exited with status %s" % e.code)
+
+
+def main():
+    channel = sys.stdout
+    default_model = sys.argv[1] if len(sys.argv) > 1 else "htdemucs"
+
+    with contextlib.redirect_stdout(sys.stderr):
+        _cached_get_model_from_args(separate.get_parser().parse_args(["-n", default_model, "preload"]))
+    _reply(channel, {"status": "ready"})
+
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        request = json.loads(line)
+        request_id = request.get("id")
+        command = request.get("cmd")
+
+        if command == "ping":
+            _reply(channel, {"id": request_id, "status": "pong"})
+        elif command == "separate":
+            try:
+                _separate(request.get("args", []))
+                _reply(channel, {"id": request_id, "status": "ok"})
+            except Exception as e:
+                traceback.print_exc(file=sys.stderr)
+                _reply(channel, {"id": request_id, "status": "error", "message": str(e)})
+        else:
+            _reply(channel, {"id": request_id, "status": "error", "message": "Unknown command: %s" % command})
+
+
+if __name__ == "__main__":
+    main()
@@ -1,6 +1,11 @@
 package com.audiosource.backend.controller;
 
+import com.audiosource.backend.dto.ProcessingProgress;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.demucs.DemucsCpuScheduler;
+import com.audiosource.backend.service.demucs.DemucsMemoryAdmissionController;
 import com.audiosource.backend.service.demucs.DemucsProcessingService;
+import com.audiosource.backend.service.demucs.DemucsProgressTracker;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -9,6 +14,10 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -18,6 +27,18 @@ public class DemucsProcessingControllerTest {
     @Mock
     private DemucsProcessingService demucsProcessingService;
 
+    @Mock
+    private DemucsCpuScheduler demucsCpuScheduler;
+
+    @Mock
+    private DemucsMemoryAdmissionController demucsMemoryAdmissionController;
+
+    @Mock
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @Mock
+    private InputCacheService inputCacheService;
+
     @InjectMocks
     private DemucsProcessingController demucsProcessingController;
 
@@ -61,4 +82,75 @@ public class DemucsProcessingControllerTest {
         assertEquals("An error occurred while checking the service status", response.getBody());
         verify(demucsProcessingService, times(1)).isReadyForProcessing();
     }
+
+    @Test
+    void getSlotUsage_ReturnsSchedulerCounters() {
+
+        when(demucsCpuScheduler.getCoreBudget()).thenReturn(8);
+        when(demucsCpuScheduler.getThreadsPerJob()).thenReturn(2);
+        when(demucsCpuScheduler.getTotalSlots()).thenReturn(4);
+        when(demucsCpuScheduler.getSlotsInUse()).thenReturn(3);
+        when(demucsCpuScheduler.getQueuedJobs()).thenReturn(1);
+
+        ResponseEntity<Map<String, Integer>> response = demucsProcessingController.getSlotUsage();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(4, response.getBody().get("totalSlots"));
+        assertEquals(3, response.getBody().get("slotsInUse"));
+        assertEquals(1, response.getBody().get("queuedJobs"));
+    }
+
+    @Test
+    void getMemoryUsage_ReturnsAdmissionCounters() {
+
+        when(demucsMemoryAdmissionController.getBudgetBytes()).thenReturn(8_000_000_000L);
+        when(demucsMemoryAdmissionController.getReservedBytes()).thenReturn(3_000_000_000L);
+        when(demucsMemoryAdmissionController.getQueuedJobs()).thenReturn(2);
+
+        ResponseEntity<Map<String, Long>> response = demucsProcessingController.getMemoryUsage();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(8_000_000_000L, response.getBody().get("budgetBytes"));
+        assertEquals(3_000_000_000L, response.getBody().get("reservedBytes"));
+        assertEquals(2L, response.getBody().get("queuedJobs"));
+    }
+
+    @Test
+    void getInputCacheStats_ReturnsCacheCounters() {
+
+        when(inputCacheService.getHits()).thenReturn(5L);
+        when(inputCacheService.getMisses()).thenReturn(3L);
+        when(inputCacheService.getEvictions()).thenReturn(1L);
+        when(inputCacheService.getUsedBytes()).thenReturn(1_000_000L);
+
+        ResponseEntity<Map<String, Long>> response = demucsProcessingController.getInputCacheStats();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(5L, response.getBody().get("hits"));
+        assertEquals(3L, response.getBody().get("misses"));
+        assertEquals(1L, response.getBody().get("evictions"));
+        assertEquals(1_000_000L, response.getBody().get("usedBytes"));
+    }
+
+    @Test
+    void getProgress_ReturnsSnapshot_WhenJobIsTracked() {
+
+        ProcessingProgress progress = new ProcessingProgress("id", ProcessingProgress.STATUS_RUNNING, 45.0, 81.9, 175.5, 35L, new Date(), new Date());
+        when(demucsProgressTracker.getProgress("id")).thenReturn(Optional.of(progress));
+
+        ResponseEntity<ProcessingProgress> response = demucsProcessingController.getProgress("id");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(progress, response.getBody());
+    }
+
+    @Test
+    void getProgress_ReturnsNotFound_WhenJobIsUnknown() {
+
+        when(demucsProgressTracker.getProgress("unknown")).thenReturn(Optional.empty());
+
+        ResponseEntity<ProcessingProgress> response = demucsProcessingController.getProgress("unknown");
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
 }
@@ -1,12 +1,15 @@
 package com.audiosource.backend.controller;
 
 import com.audiosource.backend.dto.ClientUploadRequest;
+import com.audiosource.backend.dto.MultipartUploadInitiation;
+import com.audiosource.backend.dto.MultipartUploadRequest;
 import com.audiosource.backend.entities.FileMetadata;
 import com.audiosource.backend.enums.OutputFormat;
 import com.audiosource.backend.enums.SeparationType;
 import com.audiosource.backend.exception.S3UploadException;
 import com.audiosource.backend.messaging.producer.AudioFilesProducerService;
 import com.audiosource.backend.service.metadata.FileMetadataService;
+import com.audiosource.backend.service.s3.S3MultipartUploadService;
 import com.audiosource.backend.service.s3.S3UploadService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -18,11 +21,13 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
@@ -33,6 +38,9 @@ public class S3UploadControllerTest {
     @Mock
     private S3UploadService s3UploadService;
 
+    @Mock
+    private S3MultipartUploadService s3MultipartUploadService;
+
     @Mock
     private AudioFilesProducerService audioFilesProducerService;
 
@@ -103,7 +111,7 @@ public class S3UploadControllerTest {
         mockMetadata.setOriginalKeyName("test-key");
         mockMetadata.setNotificationStatus("PENDING");
 
-        when(fileMetadataService.saveInitialMetadata(any(), any(), any(), any()))
+        when(fileMetadataService.saveInitialMetadata(any(), any(), any(), any(), any()))
                 .thenReturn(mockMetadata);
 
         doNothing().when(audioFilesProducerService).publishClientUploadNotification(any());
@@ -113,7 +121,7 @@ public class S3UploadControllerTest {
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("Notification sent successfully", response.getBody());
 
-        verify(fileMetadataService, times(1)).saveInitialMetadata(any(), any(), any(), any());
+        verify(fileMetadataService, times(1)).saveInitialMetadata(any(), any(), any(), any(), any());
         verify(audioFilesProducerService, times(1)).publishClientUploadNotification(any());
     }
 
@@ -169,4 +177,71 @@ public class S3UploadControllerTest {
         assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
         assertEquals("Upload failed: S3 upload failed", response.getBody());
     }
+
+    @Test
+    @DisplayName("Should return OK with the upload ID and part size when a multipart upload starts")
+    void initiateMultipartUpload_ValidInput_ReturnsOk() throws S3UploadException {
+
+        MultipartUploadRequest request = new MultipartUploadRequest();
+        request.setKey("test-key");
+        request.setContentType("audio/wav");
+        request.setFileSize(20_000_000L);
+        MultipartUploadInitiation initiation = new MultipartUploadInitiation("test-key", "upload-1", 8388608L, 3);
+
+        when(s3MultipartUploadService.initiateUpload("test-key", "audio/wav", 20_000_000L)).thenReturn(initiation);
+
+        ResponseEntity<?> response = s3UploadController.initiateMultipartUpload(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(initiation, response.getBody());
+    }
+
+    @Test
+    @DisplayName("Should return BadRequest when the parts to sign are invalid")
+    void presignMultipartUploadParts_InvalidInput_ReturnsBadRequest() {
+
+        MultipartUploadRequest request = new MultipartUploadRequest();
+        request.setKey("test-key");
+        request.setUploadId("upload-1");
+
+        when(s3MultipartUploadService.presignParts("test-key", "upload-1", null))
+                .thenThrow(new IllegalArgumentException("Part numbers cannot be null or empty"));
+
+        ResponseEntity<?> response = s3UploadController.presignMultipartUploadParts(request);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Invalid input: Part numbers cannot be null or empty", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Should return InternalServerError when S3 refuses to complete the multipart upload")
+    void completeMultipartUpload_S3UploadException_ReturnsInternalServerError() throws S3UploadException {
+
+        MultipartUploadRequest request = new MultipartUploadRequest();
+        request.setKey("test-key");
+        request.setUploadId("upload-1");
+        request.setParts(List.of(new MultipartUploadRequest.Part(1, "etag-1")));
+
+        doThrow(new S3UploadException("Failed to complete multipart upload"))
+                .when(s3MultipartUploadService).completeUpload("test-key", "upload-1", request.getParts());
+
+        ResponseEntity<String> response = s3UploadController.completeMultipartUpload(request);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertEquals("Failed to complete multipart upload: Failed to complete multipart upload", response.getBody());
+    }
+
+    @Test
+    @DisplayName("Should return OK when a multipart upload is aborted")
+    void abortMultipartUpload_ValidInput_ReturnsOk() throws S3UploadException {
+
+        MultipartUploadRequest request = new MultipartUploadRequest();
+        request.setKey("test-key");
+        request.setUploadId("upload-1");
+
+        ResponseEntity<String> response = s3UploadController.abortMultipartUpload(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        verify(s3MultipartUploadService).abortUpload("test-key", "upload-1");
+    }
 }
@@ -0,0 +1,243 @@
+package com.audiosource.backend.messaging.consumer;
+
+import com.audiosource.backend.dto.AudioFileMessage;
+import com.audiosource.backend.dto.ProcessingContext;
+import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.SeparationType;
+import com.audiosource.backend.service.s3.S3DownloadService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AudioFilePrefetcherTest {
+
+    @Mock
+    private S3DownloadService s3DownloadService;
+
+    private AudioFilePrefetcher audioFilePrefetcher;
+
+    @BeforeEach
+    void setUp() {
+        audioFilePrefetcher = new AudioFilePrefetcher(s3DownloadService);
+        ReflectionTestUtils.setField(audioFilePrefetcher, "enabled", true);
+        ReflectionTestUtils.setField(audioFilePrefetcher, "depth", 2);
+        ReflectionTestUtils.setField(audioFilePrefetcher, "maxBytes", 1000L);
+        ReflectionTestUtils.setField(audioFilePrefetcher, "separationThreads", 1);
+        // The size S3 reports, the tests that do not trust the client override it
+        lenient().when(s3DownloadService.inspectObject(any())).thenAnswer(invocation ->
+                new S3DownloadService.ObjectInfo(invocation.<AudioFileMessage>getArgument(0).getFileSize(), null));
+        audioFilePrefetcher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        audioFilePrefetcher.shutdown();
+    }
+
+    private AudioFileMessage message(String correlationId, long fileSize) {
+        return new AudioFileMessage(correlationId, correlationId + ".wav", fileSize, SeparationType.VOCAL_REMOVER, OutputFormat.MP3);
+    }
+
+    private void mockDownload(String correlationId, CountDownLatch release) {
+        mockDownload(correlationId, release, new CountDownLatch(1));
+    }
+
+    // Lenient, as the test may end before the last download starts. Counts down downloaded once the download is done.
+    private void mockDownload(String correlationId, CountDownLatch release, CountDownLatch downloaded) {
+        lenient().when(s3DownloadService.getObjectFromBucket(argThat(msg -> msg != null && correlationId.equals(msg.getCorrelationId())), any()))
+                .thenAnswer(invocation -> {
+                    release.await(5, TimeUnit.SECONDS);
+                    downloaded.countDown();
+                    return Optional.of("/tmp/" + correlationId + ".wav");
+                });
+    }
+
+    // Submits on another thread, as the listener thread would block there, and counts down submitted once admitted
+    private CompletableFuture<Void> submitAsync(AudioFileMessage message, Consumer<ProcessingContext> processor, CountDownLatch submitted) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                audioFilePrefetcher.submit(message, processor);
+                submitted.countDown();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Test
+    void submit_HandsFilesToSeparationInReceivedOrder_WhenDownloadsCompleteOutOfOrder() throws Exception {
+        CountDownLatch firstDownload = new CountDownLatch(1);
+        CountDownLatch secondDownloaded = new CountDownLatch(1);
+        mockDownload("first", firstDownload);
+        mockDownload("second", new CountDownLatch(0), secondDownloaded);
+        List<String> separated = new CopyOnWriteArrayList<>();
+        CountDownLatch bothSeparated = new CountDownLatch(2);
+        Consumer<ProcessingContext> processor = context -> {
+            separated.add(context.getOriginalAudioFilePath());
+            bothSeparated.countDown();
+        };
+
+        audioFilePrefetcher.submit(message("first", 100), processor);
+        audioFilePrefetcher.submit(message("second", 100), processor);
+        // The second download is done, the first one is still running
+        assertTrue(secondDownloaded.await(5, TimeUnit.SECONDS));
+        assertTrue(separated.isEmpty(), "The second file must wait for the first one");
+
+        firstDownload.countDown();
+
+        assertTrue(bothSeparated.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("/tmp/first.wav", "/tmp/second.wav"), separated);
+    }
+
+    @Test
+    void submit_BlocksListener_WhileDepthJobsArePending() throws Exception {
+        CountDownLatch downloads = new CountDownLatch(1);
+        mockDownload("first", downloads);
+        mockDownload("second", downloads);
+        mockDownload("third", downloads);
+        CountDownLatch separationStarted = new CountDownLatch(1);
+        CountDownLatch finishSeparation = new CountDownLatch(1);
+        Consumer<ProcessingContext> processor = context -> {
+            separationStarted.countDown();
+            try {
+                finishSeparation.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        audioFilePrefetcher.submit(message("first", 100), processor);
+        audioFilePrefetcher.submit(message("second", 100), processor);
+        CountDownLatch thirdSubmitted = new CountDownLatch(1);
+        CompletableFuture<Void> third = submitAsync(message("third", 100), processor, thirdSubmitted);
+
+        assertFalse(thirdSubmitted.await(200, TimeUnit.MILLISECONDS), "A third job should wait while two jobs are prefetched");
+        assertEquals(2, audioFilePrefetcher.getPendingJobs());
+
+        // The first separation starts once its download is done, which frees a prefetch slot
+        downloads.countDown();
+        assertTrue(separationStarted.await(5, TimeUnit.SECONDS));
+        third.get(5, TimeUnit.SECONDS);
+        finishSeparation.countDown();
+    }
+
+    @Test
+    void submit_BlocksListener_WhileDiskBudgetIsUsed() throws Exception {
+        CountDownLatch firstDownload = new CountDownLatch(1);
+        mockDownload("large", firstDownload);
+        mockDownload("next", new CountDownLatch(0));
+        CountDownLatch separated = new CountDownLatch(2);
+        Consumer<ProcessingContext> processor = context -> separated.countDown();
+
+        audioFilePrefetcher.submit(message("large", 800), processor);
+        CountDownLatch nextSubmitted = new CountDownLatch(1);
+        CompletableFuture<Void> next = submitAsync(message("next", 300), processor, nextSubmitted);
+
+        assertFalse(nextSubmitted.await(200, TimeUnit.MILLISECONDS), "The second file does not fit in the disk budget");
+        assertEquals(800, audioFilePrefetcher.getReservedBytes());
+
+        firstDownload.countDown();
+        next.get(5, TimeUnit.SECONDS);
+        assertTrue(separated.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void submit_SkipsJob_WhenDownloadFails() throws Exception {
+        when(s3DownloadService.getObjectFromBucket(argThat(msg -> msg != null && "failed".equals(msg.getCorrelationId())), any()))
+                .thenReturn(Optional.empty());
+        mockDownload("next", new CountDownLatch(0));
+        List<String> separated = new CopyOnWriteArrayList<>();
+        CountDownLatch nextSeparated = new CountDownLatch(1);
+
+        Consumer<ProcessingContext> processor = context -> {
+            separated.add(context.getAudioFileMessage().getCorrelationId());
+            nextSeparated.countDown();
+        };
+        audioFilePrefetcher.submit(message("failed", 100), processor);
+        audioFilePrefetcher.submit(message("next", 100), processor);
+
+        assertTrue(nextSeparated.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("next"), separated);
+    }
+
+    @Test
+    void submit_ChargesDiskBudgetWithSizeFromS3_NotSizeReportedByClient() throws Exception {
+        AudioFileMessage underReported = message("large", 100);
+        when(s3DownloadService.inspectObject(underReported)).thenReturn(new S3DownloadService.ObjectInfo(800, null));
+        CountDownLatch firstDownload = new CountDownLatch(1);
+        mockDownload("large", firstDownload);
+        mockDownload("next", new CountDownLatch(0));
+        Consumer<ProcessingContext> processor = context -> { };
+
+        audioFilePrefetcher.submit(underReported, processor);
+        CountDownLatch nextSubmitted = new CountDownLatch(1);
+        CompletableFuture<Void> next = submitAsync(message("next", 300), processor, nextSubmitted);
+
+        assertEquals(800, audioFilePrefetcher.getReservedBytes());
+        assertFalse(nextSubmitted.await(200, TimeUnit.MILLISECONDS), "The second file does not fit in the disk budget");
+
+        firstDownload.countDown();
+        next.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void submit_CompletesJob_OnceProcessorReturned() throws Exception {
+        mockDownload("first", new CountDownLatch(0));
+        CountDownLatch separationStarted = new CountDownLatch(1);
+        CountDownLatch finishSeparation = new CountDownLatch(1);
+        Consumer<ProcessingContext> processor = context -> {
+            separationStarted.countDown();
+            try {
+                finishSeparation.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        CompletableFuture<Void> job = audioFilePrefetcher.submit(message("first", 100), processor);
+
+        assertTrue(separationStarted.await(5, TimeUnit.SECONDS));
+        assertFalse(job.isDone(), "The message of a job being separated must not be acknowledged yet");
+        finishSeparation.countDown();
+        job.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void shutdown_FailsJobsNotSeparatedYet_SoTheirMessagesAreRequeued() throws Exception {
+        mockDownload("first", new CountDownLatch(1));
+        mockDownload("second", new CountDownLatch(1));
+        List<String> separated = new CopyOnWriteArrayList<>();
+        Consumer<ProcessingContext> processor = context -> separated.add(context.getAudioFileMessage().getCorrelationId());
+
+        CompletableFuture<Void> first = audioFilePrefetcher.submit(message("first", 100), processor);
+        CompletableFuture<Void> second = audioFilePrefetcher.submit(message("second", 100), processor);
+        audioFilePrefetcher.shutdown();
+
+        assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertTrue(separated.isEmpty());
+    }
+}
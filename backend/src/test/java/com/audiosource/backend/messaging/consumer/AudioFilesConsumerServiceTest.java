@@ -0,0 +1,118 @@
+package com.audiosource.backend.messaging.consumer;
+
+import com.audiosource.backend.dto.AudioFileMessage;
+import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.SeparationType;
+import com.audiosource.backend.messaging.producer.ProcessedFilesProducerService;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.cache.ResultCacheService;
+import com.audiosource.backend.service.demucs.DemucsProcessingService;
+import com.audiosource.backend.service.demucs.DemucsProgressTracker;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import com.audiosource.backend.service.s3.S3DownloadService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class AudioFilesConsumerServiceTest {
+
+    private static final String CORRELATION_ID = "test-correlation-id";
+    private static final String ORIGINAL_PATH = "/tmp/test-correlation-id-song.wav";
+
+    @Mock
+    private S3DownloadService s3DownloadService;
+
+    @Mock
+    private FileMetadataService fileMetadataService;
+
+    @Mock
+    private DemucsProcessingService demucsProcessingService;
+
+    @Mock
+    private ProcessedFilesProducerService processedFilesProducerService;
+
+    @Mock
+    private ResultCacheService resultCacheService;
+
+    @Mock
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @Mock
+    private InputCacheService inputCacheService;
+
+    @Mock
+    private AudioFilePrefetcher audioFilePrefetcher;
+
+    @Mock
+    private ScratchSpaceManager scratchSpaceManager;
+
+    private AudioFilesConsumerService audioFilesConsumerService;
+    private final AudioFileMessage audioFileMessage = new AudioFileMessage(CORRELATION_ID, "song.wav", 100,
+            SeparationType.VOCAL_REMOVER, OutputFormat.MP3);
+
+    @BeforeEach
+    void setUp() {
+        audioFilesConsumerService = new AudioFilesConsumerService(s3DownloadService, fileMetadataService, demucsProcessingService,
+                processedFilesProducerService, resultCacheService, demucsProgressTracker, inputCacheService, audioFilePrefetcher, scratchSpaceManager);
+    }
+
+    private static void assertRejectedWithoutRequeue(CompletableFuture<Void> result) {
+        ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertInstanceOf(AmqpRejectAndDontRequeueException.class, e.getCause());
+    }
+
+    @Test
+    void consumeAudioFileMessage_MetadataLookupFails_ShouldRejectMessage() {
+        when(fileMetadataService.findByCorrelationId(CORRELATION_ID)).thenThrow(new DataAccessResourceFailureException("Mongo is down"));
+
+        assertRejectedWithoutRequeue(audioFilesConsumerService.consumeAudioFileMessage(audioFileMessage));
+    }
+
+    @Test
+    void consumeAudioFileMessage_ProcessingFailsWithoutPrefetch_ShouldRejectMessageAndReleaseWorkspace() throws Exception {
+        when(fileMetadataService.findByCorrelationId(CORRELATION_ID)).thenReturn(Optional.of(new FileMetadata()));
+        S3DownloadService.ObjectInfo objectInfo = new S3DownloadService.ObjectInfo(100, null);
+        when(s3DownloadService.inspectObject(audioFileMessage)).thenReturn(objectInfo);
+        when(scratchSpaceManager.allocate(eq(CORRELATION_ID), anyLong())).thenReturn(Optional.empty());
+        when(s3DownloadService.getObjectFromBucket(audioFileMessage, objectInfo)).thenReturn(Optional.of(ORIGINAL_PATH));
+        when(scratchSpaceManager.stageInput(CORRELATION_ID, ORIGINAL_PATH)).thenReturn(ORIGINAL_PATH);
+        when(demucsProcessingService.probeAudioFile(ORIGINAL_PATH)).thenThrow(new IllegalStateException("Unexpected failure"));
+
+        assertRejectedWithoutRequeue(audioFilesConsumerService.consumeAudioFileMessage(audioFileMessage));
+        verify(scratchSpaceManager).release(CORRELATION_ID);
+        verify(inputCacheService).release(ORIGINAL_PATH);
+    }
+
+    @Test
+    void consumeAudioFileMessage_ClientReportsNoSize_ShouldReserveScratchSpaceForRealSize() throws Exception {
+        AudioFileMessage underReported = new AudioFileMessage(CORRELATION_ID, "song.wav", 0, SeparationType.VOCAL_REMOVER, OutputFormat.MP3);
+        S3DownloadService.ObjectInfo objectInfo = new S3DownloadService.ObjectInfo(5000, null);
+        when(fileMetadataService.findByCorrelationId(CORRELATION_ID)).thenReturn(Optional.of(new FileMetadata()));
+        when(s3DownloadService.inspectObject(underReported)).thenReturn(objectInfo);
+        when(audioFilePrefetcher.isEnabled()).thenReturn(true);
+        when(audioFilePrefetcher.submit(eq(underReported), eq(objectInfo), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+
+        audioFilesConsumerService.consumeAudioFileMessage(underReported).get();
+
+        verify(scratchSpaceManager).allocate(CORRELATION_ID, 5000);
+    }
+}
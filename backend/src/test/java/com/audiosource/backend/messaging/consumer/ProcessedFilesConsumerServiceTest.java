@@ -0,0 +1,105 @@
+package com.audiosource.backend.messaging.consumer;
+
+import com.audiosource.backend.dto.NotificationMessage;
+import com.audiosource.backend.dto.ProcessedFileMessage;
+import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.exception.S3UploadException;
+import com.audiosource.backend.messaging.producer.NotificationProducerService;
+import com.audiosource.backend.service.cache.ResultCacheService;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import com.audiosource.backend.service.s3.S3UploadService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ProcessedFilesConsumerServiceTest {
+
+    private static final String CORRELATION_ID = "test-correlation-id";
+    private static final String BUCKET_NAME = "test-bucket";
+
+    @Mock
+    private S3UploadService s3UploadService;
+
+    @Mock
+    private NotificationProducerService notificationProducerService;
+
+    @Mock
+    private FileMetadataService fileMetadataService;
+
+    @Mock
+    private ResultCacheService resultCacheService;
+
+    @Mock
+    private ScratchSpaceManager scratchSpaceManager;
+
+    private ProcessedFilesConsumerService processedFilesConsumerService;
+
+    @BeforeEach
+    void setUp() {
+        processedFilesConsumerService = new ProcessedFilesConsumerService(s3UploadService, notificationProducerService,
+                fileMetadataService, resultCacheService, Runnable::run, scratchSpaceManager);
+        ReflectionTestUtils.setField(processedFilesConsumerService, "bucketName", BUCKET_NAME);
+    }
+
+    @Test
+    void consumeProcessedFileMessage_ZipUpload_ShouldCompleteOnlyOnceUploadedAndNotified() {
+
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setCacheKey("cache-key");
+        when(fileMetadataService.findByCorrelationId(CORRELATION_ID)).thenReturn(Optional.of(fileMetadata));
+        CompletableFuture<String> upload = new CompletableFuture<>();
+        when(s3UploadService.uploadDirectoryAsZipAsync("/output/song", BUCKET_NAME)).thenReturn(upload);
+        when(s3UploadService.createPresignedGetRequest(BUCKET_NAME, "separated/result.zip")).thenReturn("http://download-url");
+        when(fileMetadataService.updateDownloadUrl(CORRELATION_ID, "http://download-url", "separated/result.zip")).thenReturn(true);
+
+        CompletableFuture<Void> processing = processedFilesConsumerService.consumeProcessedFileMessage(
+                new ProcessedFileMessage(CORRELATION_ID, "/output/song"));
+
+        assertFalse(processing.isDone(), "The message should not be acknowledged while the upload is running");
+        verify(notificationProducerService, never()).publishUploadToS3Notification(any());
+        verify(scratchSpaceManager, never()).release(CORRELATION_ID);
+
+        upload.complete("separated/result.zip");
+
+        assertTrue(processing.isDone() && !processing.isCompletedExceptionally());
+        verify(resultCacheService).recordResultKey("cache-key", "separated/result.zip");
+        ArgumentCaptor<NotificationMessage> captor = ArgumentCaptor.forClass(NotificationMessage.class);
+        verify(notificationProducerService).publishUploadToS3Notification(captor.capture());
+        assertEquals("http://download-url", captor.getValue().getDownloadUrl());
+        verify(scratchSpaceManager).release(CORRELATION_ID);
+    }
+
+    @Test
+    void consumeProcessedFileMessage_UploadFails_ShouldCompleteNormallyWithoutNotification() {
+
+        when(fileMetadataService.findByCorrelationId(CORRELATION_ID)).thenReturn(Optional.of(new FileMetadata()));
+        when(s3UploadService.uploadDirectoryAsZipAsync("/output/song", BUCKET_NAME)).thenReturn(
+                CompletableFuture.failedFuture(new CompletionException(new S3UploadException("Failed to upload directory as zip to S3"))));
+
+        CompletableFuture<Void> processing = processedFilesConsumerService.consumeProcessedFileMessage(
+                new ProcessedFileMessage(CORRELATION_ID, "/output/song"));
+
+        // The failure is logged and the message acknowledged, as it would fail the same way if redelivered
+        assertTrue(processing.isDone() && !processing.isCompletedExceptionally());
+        verify(notificationProducerService, never()).publishUploadToS3Notification(any());
+        verify(scratchSpaceManager).release(CORRELATION_ID);
+    }
+}
@@ -0,0 +1,115 @@
+package com.audiosource.backend.service.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InputCacheServiceTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    private InputCacheService inputCacheService;
+    private Path cacheDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cacheDirectory = tempDirectory.resolve("input-cache");
+        inputCacheService = new InputCacheService();
+        ReflectionTestUtils.setField(inputCacheService, "enabled", true);
+        ReflectionTestUtils.setField(inputCacheService, "cacheDirectory", cacheDirectory.toString());
+        ReflectionTestUtils.setField(inputCacheService, "maxBytes", 250L);
+        ReflectionTestUtils.setField(inputCacheService, "revalidate", true);
+        inputCacheService.init();
+    }
+
+    private Path download(String fileName, int sizeBytes) throws IOException {
+        Path file = tempDirectory.resolve(fileName);
+        Files.write(file, new byte[sizeBytes]);
+        return file;
+    }
+
+    @Test
+    void acquire_ReturnsStoredFile_ForSameKeyAndETag() throws IOException {
+        String cachedPath = inputCacheService.store("uploads/song.wav", "etag-1", download("song.wav", 100));
+        inputCacheService.release(cachedPath);
+
+        Optional<String> hit = inputCacheService.acquire("uploads/song.wav", "etag-1");
+        Optional<String> otherVersion = inputCacheService.acquire("uploads/song.wav", "etag-2");
+
+        assertEquals(Optional.of(cachedPath), hit);
+        assertTrue(cachedPath.endsWith("song.wav"), "The cached file should keep the name of the original");
+        assertFalse(otherVersion.isPresent(), "A new version of the object should not hit the old one");
+        assertEquals(1, inputCacheService.getHits());
+        assertEquals(1, inputCacheService.getMisses());
+    }
+
+    @Test
+    void acquire_WithoutETag_ReturnsLatestVersionOfKey() throws IOException {
+        inputCacheService.release(inputCacheService.store("uploads/song.wav", "etag-1", download("song.wav", 100)));
+
+        assertTrue(inputCacheService.acquire("uploads/song.wav", null).isPresent());
+        assertFalse(inputCacheService.acquire("uploads/other.wav", null).isPresent());
+    }
+
+    @Test
+    void findSize_ReturnsSizeOfLatestVersion_WithoutCountingHit() throws IOException {
+        inputCacheService.release(inputCacheService.store("uploads/song.wav", "etag-1", download("song.wav", 100)));
+
+        assertEquals(OptionalLong.of(100), inputCacheService.findSize("uploads/song.wav"));
+        assertEquals(OptionalLong.empty(), inputCacheService.findSize("uploads/other.wav"));
+        assertEquals(0, inputCacheService.getHits());
+    }
+
+    @Test
+    void store_EvictsLeastRecentlyUsedFiles_OverBudget() throws IOException {
+        String first = inputCacheService.store("a.wav", "etag", download("a.wav", 100));
+        inputCacheService.release(first);
+        String second = inputCacheService.store("b.wav", "etag", download("b.wav", 100));
+        inputCacheService.release(second);
+        inputCacheService.release(inputCacheService.acquire("a.wav", "etag").orElseThrow()); // b is now the eldest
+
+        inputCacheService.release(inputCacheService.store("c.wav", "etag", download("c.wav", 100)));
+
+        assertTrue(Files.exists(Path.of(first)));
+        assertFalse(Files.exists(Path.of(second)), "The least recently used file should be evicted");
+        assertEquals(1, inputCacheService.getEvictions());
+        assertEquals(200, inputCacheService.getUsedBytes());
+    }
+
+    @Test
+    void store_DoesNotEvictPinnedFiles_UntilReleased() throws IOException {
+        String pinned = inputCacheService.store("a.wav", "etag", download("a.wav", 200));
+        String second = inputCacheService.store("b.wav", "etag", download("b.wav", 200));
+
+        assertTrue(Files.exists(Path.of(pinned)) && Files.exists(Path.of(second)), "Files in use should never be evicted");
+        assertEquals(0, inputCacheService.getEvictions());
+
+        inputCacheService.release(pinned);
+
+        assertFalse(Files.exists(Path.of(pinned)), "The file should be evicted once released");
+        assertEquals(200, inputCacheService.getUsedBytes());
+    }
+
+    @Test
+    void init_DeletesEntriesOfPreviousRun_AndKeepsOtherFiles() throws IOException {
+        String cachedPath = inputCacheService.store("a.wav", "etag", download("a.wav", 100));
+        Path otherFile = Files.writeString(cacheDirectory.resolve("notes.txt"), "keep");
+
+        inputCacheService.init(); // As on the next startup
+
+        assertFalse(Files.exists(Path.of(cachedPath)));
+        assertTrue(Files.exists(otherFile));
+    }
+}
@@ -0,0 +1,305 @@
+package com.audiosource.backend.service.cache;
+
+import com.audiosource.backend.dto.ProcessedFileMessage;
+import com.audiosource.backend.entities.ResultCacheEntry;
+import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
+import com.audiosource.backend.enums.SeparationType;
+import com.audiosource.backend.repository.ResultCacheRepository;
+import com.audiosource.backend.util.WavUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ResultCacheServiceTest {
+
+    @Mock
+    private ResultCacheRepository resultCacheRepository;
+
+    @Mock
+    private S3Client s3Client;
+
+    @InjectMocks
+    private ResultCacheService resultCacheService;
+
+    @TempDir
+    Path tempDirectory;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(resultCacheService, "enabled", true);
+        ReflectionTestUtils.setField(resultCacheService, "cacheDirectory", tempDirectory.resolve("cache").toString());
+        ReflectionTestUtils.setField(resultCacheService, "maxLocalBytes", 1024L * 1024L);
+        ReflectionTestUtils.setField(resultCacheService, "bucketName", "test-bucket");
+    }
+
+    @Test
+    void computeContentHash_ReturnsSha256OfFileContent() throws IOException {
+        Path inputFile = tempDirectory.resolve("input.mp3");
+        Files.writeString(inputFile, "abc", StandardCharsets.UTF_8);
+
+        String hash = resultCacheService.computeContentHash(inputFile);
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash);
+    }
+
+    @Test
+    void buildCacheKey_IncludesSeparationOptions() {
+        String cacheKey = resultCacheService.buildCacheKey("hash", SeparationType.VOCAL_REMOVER, OutputFormat.WAV);
+
+        assertEquals("hash-vocal_remover-wav", cacheKey);
+    }
+
+    @Test
+    void buildCacheKey_IncludesProfile_OnlyWhenNotBalanced() {
+        assertEquals("hash-stems_splitter-mp3",
+                resultCacheService.buildCacheKey("hash", SeparationType.STEMS_SPLITTER, OutputFormat.MP3, ProcessingProfile.BALANCED));
+        assertEquals("hash-stems_splitter-mp3-best",
+                resultCacheService.buildCacheKey("hash", SeparationType.STEMS_SPLITTER, OutputFormat.MP3, ProcessingProfile.BEST));
+    }
+
+    @Test
+    void findCachedResult_ReturnsEmpty_WhenCacheKeyIsNull() {
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", null, tempDirectory);
+
+        assertFalse(result.isPresent());
+        verifyNoInteractions(resultCacheRepository, s3Client);
+    }
+
+    @Test
+    void findCachedResult_ReusesS3Result_WhenObjectStillExists() {
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setResultKeyName("separated/result.zip");
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(HeadObjectResponse.builder().build());
+
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", "key", tempDirectory);
+
+        assertTrue(result.isPresent());
+        assertEquals("id", result.get().getCorrelationId());
+        assertEquals("separated/result.zip", result.get().getResultKeyName());
+        assertNull(result.get().getProcessedAudioFilePath());
+        verify(resultCacheRepository).save(entry);
+    }
+
+    @Test
+    void findCachedResult_RestoresLocalStems_WhenS3ResultIsGone() throws IOException {
+        Path cachedDirectory = Files.createDirectories(tempDirectory.resolve("cache").resolve("key"));
+        Files.writeString(cachedDirectory.resolve("vocals.mp3"), "vocals");
+
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setResultKeyName("separated/expired.zip");
+        entry.setLocalPath(cachedDirectory.toString());
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.builder().build());
+
+        Path processedDirectory = tempDirectory.resolve("separated").resolve("htdemucs").resolve("song");
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", "key", processedDirectory);
+
+        assertTrue(result.isPresent());
+        assertEquals(processedDirectory.toString(), result.get().getProcessedAudioFilePath());
+        assertNull(result.get().getResultKeyName());
+        assertEquals("vocals", Files.readString(processedDirectory.resolve("vocals.mp3")));
+        assertNull(entry.getResultKeyName());
+    }
+
+    @Test
+    void findCachedResult_SkipsS3ZipResult_WhenJobIsDeliveredAsStems() throws IOException {
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setResultKeyName("separated/result.zip");
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+
+        Optional<ProcessedFileMessage> withoutLocalCopy = resultCacheService.findCachedResult("id", "key", tempDirectory, false);
+
+        assertFalse(withoutLocalCopy.isPresent());
+        assertEquals("separated/result.zip", entry.getResultKeyName());
+        verify(resultCacheRepository, never()).delete(entry);
+        verifyNoInteractions(s3Client);
+
+        Path cachedDirectory = Files.createDirectories(tempDirectory.resolve("cache").resolve("key"));
+        Files.writeString(cachedDirectory.resolve("vocals.mp3"), "vocals");
+        entry.setLocalPath(cachedDirectory.toString());
+        Path processedDirectory = tempDirectory.resolve("separated").resolve("htdemucs").resolve("song");
+
+        Optional<ProcessedFileMessage> withLocalCopy = resultCacheService.findCachedResult("id", "key", processedDirectory, false);
+
+        assertTrue(withLocalCopy.isPresent());
+        assertEquals(processedDirectory.toString(), withLocalCopy.get().getProcessedAudioFilePath());
+        assertNull(withLocalCopy.get().getResultKeyName());
+    }
+
+    @Test
+    void findCachedResult_ClearsS3Result_WhenHeadObjectReturns404() {
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setResultKeyName("separated/expired.zip");
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(S3Exception.builder().statusCode(404).build());
+
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", "key", tempDirectory);
+
+        assertFalse(result.isPresent());
+        verify(resultCacheRepository).delete(entry);
+    }
+
+    @Test
+    void findCachedResult_KeepsEntry_WhenS3CannotBeChecked() {
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setResultKeyName("separated/result.zip");
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+        when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(S3Exception.builder().statusCode(503).build());
+
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", "key", tempDirectory);
+
+        assertFalse(result.isPresent());
+        assertEquals("separated/result.zip", entry.getResultKeyName());
+        verify(resultCacheRepository, never()).delete(entry);
+    }
+
+    @Test
+    void findCachedResult_DeletesEntry_WhenNothingIsUsable() {
+        ResultCacheEntry entry = new ResultCacheEntry();
+        entry.setCacheKey("key");
+        entry.setLocalPath(tempDirectory.resolve("missing").toString());
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.of(entry));
+
+        Optional<ProcessedFileMessage> result = resultCacheService.findCachedResult("id", "key", tempDirectory);
+
+        assertFalse(result.isPresent());
+        verify(resultCacheRepository).delete(entry);
+    }
+
+    @Test
+    void storeLocalResult_CopiesStemsAndSavesEntry() throws IOException {
+        Path processedDirectory = Files.createDirectories(tempDirectory.resolve("song"));
+        Files.writeString(processedDirectory.resolve("vocals.wav"), "vocals");
+        Files.writeString(processedDirectory.resolve("no_vocals.wav"), "accompaniment");
+        when(resultCacheRepository.findFirstByCacheKey("key")).thenReturn(Optional.empty());
+        when(resultCacheRepository.findByLocalPathNotNullOrderByLastAccessedAtAsc()).thenReturn(List.of());
+
+        resultCacheService.storeLocalResult("key", "hash", SeparationType.VOCAL_REMOVER, OutputFormat.WAV, processedDirectory);
+
+        ArgumentCaptor<ResultCacheEntry> entryCaptor = ArgumentCaptor.forClass(ResultCacheEntry.class);
+        verify(resultCacheRepository).save(entryCaptor.capture());
+        ResultCacheEntry savedEntry = entryCaptor.getValue();
+
+        Path cachedDirectory = tempDirectory.resolve("cache").resolve("key");
+        assertEquals(cachedDirectory.toString(), savedEntry.getLocalPath());
+        assertEquals("hash", savedEntry.getContentHash());
+        assertEquals("vocals".length() + "accompaniment".length(), savedEntry.getLocalSizeBytes());
+        assertEquals("vocals", Files.readString(cachedDirectory.resolve("vocals.wav")));
+    }
+
+    @Test
+    void evictLocalCopies_RemovesLeastRecentlyUsedCopies_OverBudget() throws IOException {
+        ReflectionTestUtils.setField(resultCacheService, "maxLocalBytes", 100L);
+
+        Path oldDirectory = Files.createDirectories(tempDirectory.resolve("old"));
+        Path recentDirectory = Files.createDirectories(tempDirectory.resolve("recent"));
+
+        ResultCacheEntry oldEntry = new ResultCacheEntry();
+        oldEntry.setLocalPath(oldDirectory.toString());
+        oldEntry.setLocalSizeBytes(80);
+        oldEntry.setResultKeyName("separated/old.zip");
+
+        ResultCacheEntry recentEntry = new ResultCacheEntry();
+        recentEntry.setLocalPath(recentDirectory.toString());
+        recentEntry.setLocalSizeBytes(80);
+
+        when(resultCacheRepository.findByLocalPathNotNullOrderByLastAccessedAtAsc()).thenReturn(List.of(oldEntry, recentEntry));
+
+        resultCacheService.evictLocalCopies();
+
+        assertFalse(Files.exists(oldDirectory));
+        assertTrue(Files.exists(recentDirectory));
+        assertNull(oldEntry.getLocalPath());
+        verify(resultCacheRepository).save(oldEntry);
+        verify(resultCacheRepository, never()).delete(any(ResultCacheEntry.class));
+    }
+
+    @Test
+    void deriveVocalRemoverResult_MixesCachedStems_WithClipping() throws IOException {
+        Path stemsDirectory = Files.createDirectories(tempDirectory.resolve("stems"));
+        writePcm16Wav(stemsDirectory.resolve("drums.wav"), (short) 1000, (short) 30000);
+        writePcm16Wav(stemsDirectory.resolve("bass.wav"), (short) 2000, (short) 30000);
+        writePcm16Wav(stemsDirectory.resolve("other.wav"), (short) -500, (short) -1000);
+        writePcm16Wav(stemsDirectory.resolve("vocals.wav"), (short) 42, (short) 42);
+
+        ResultCacheEntry stemsEntry = new ResultCacheEntry();
+        stemsEntry.setLocalPath(stemsDirectory.toString());
+        when(resultCacheRepository.findFirstByCacheKey("hash-stems_splitter-wav")).thenReturn(Optional.of(stemsEntry));
+        when(resultCacheRepository.findFirstByCacheKey("hash-vocal_remover-wav")).thenReturn(Optional.empty());
+        when(resultCacheRepository.findByLocalPathNotNullOrderByLastAccessedAtAsc()).thenReturn(List.of());
+
+        Path processedDirectory = tempDirectory.resolve("separated").resolve("song");
+        Optional<ProcessedFileMessage> result = resultCacheService.deriveVocalRemoverResult("correlation-id", "hash", OutputFormat.WAV,
+                ProcessingProfile.BALANCED, processedDirectory);
+
+        assertTrue(result.isPresent());
+        assertEquals(processedDirectory.toString(), result.get().getProcessedAudioFilePath());
+        ByteBuffer noVocals = ByteBuffer.wrap(Files.readAllBytes(processedDirectory.resolve("no_vocals.wav"))).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(2500, noVocals.getShort(44), "The accompaniment should be the sum of the stems.");
+        assertEquals(Short.MAX_VALUE, noVocals.getShort(46), "Sums over full scale should be clipped.");
+        assertEquals(Files.size(stemsDirectory.resolve("vocals.wav")), Files.size(processedDirectory.resolve("vocals.wav")));
+    }
+
+    @Test
+    void deriveVocalRemoverResult_ReturnsEmpty_ForMp3Output() {
+        Optional<ProcessedFileMessage> result = resultCacheService.deriveVocalRemoverResult("correlation-id", "hash", OutputFormat.MP3,
+                ProcessingProfile.BALANCED, tempDirectory);
+
+        assertFalse(result.isPresent());
+        verifyNoInteractions(resultCacheRepository);
+    }
+
+    // Write a mono 16-bit WAV with one sample per value
+    private void writePcm16Wav(Path wavFile, short... samples) throws IOException {
+        WavUtils.WavHeader format = new WavUtils.WavHeader(WavUtils.FORMAT_PCM, 1, 8000, 16, 44, samples.length * 2L);
+        ByteBuffer data = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : samples) {
+            data.putShort(sample);
+        }
+        data.flip();
+        try (FileChannel channel = FileChannel.open(wavFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            WavUtils.writeCanonicalHeader(channel, format, format.getDataSize());
+            channel.write(data);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.entities.JobResourceUsage;
+import com.audiosource.backend.exception.DemucsProcessingException;
+import com.audiosource.backend.repository.JobResourceUsageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DemucsCliSeparationEngineTest {
+
+    private static final String FAKE_DEMUCS = """
+            import sys, time
+            for track in sys.argv[3:]:
+                print("Separating track " + track)
+                for percent in (50, 100):
+                    time.sleep(0.1)
+                    sys.stderr.write("%d%%|%s\\n" % (percent, track))
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private DemucsWorkerPool demucsWorkerPool;
+
+    @Mock
+    private DemucsCpuScheduler demucsCpuScheduler;
+
+    @Mock
+    private DemucsMemoryAdmissionController demucsMemoryAdmissionController;
+
+    @Mock
+    private DemucsProcessWatchdog demucsProcessWatchdog;
+
+    @Mock
+    private DemucsProcessWatchdog.WatchedWorkerJob workerJob;
+
+    @InjectMocks
+    private DemucsCliSeparationEngine demucsCliSeparationEngine;
+
+    private String[] demucsArgs;
+    private final Consumer<String> outputListener = line -> { };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Path demucsOutputDirectory = Files.createDirectory(tempDir.resolve("demucsOutput"));
+        Path pythonEnvPath = Files.createFile(tempDir.resolve("pythonEnv"));
+        String testAudioFilePath = Files.createFile(tempDir.resolve("audioFile.wav")).toString();
+        demucsArgs = new String[]{"-d", "cpu", testAudioFilePath};
+
+        ReflectionTestUtils.setField(demucsCliSeparationEngine, "demucsOutputDirectory", demucsOutputDirectory.toString());
+        ReflectionTestUtils.setField(demucsCliSeparationEngine, "pythonEnvPath", pythonEnvPath.toString());
+        lenient().when(demucsMemoryAdmissionController.estimate(any(Path.class)))
+                .thenAnswer(invocation -> new DemucsMemoryAdmissionController.MemoryEstimate(invocation.getArgument(0), 10, 1024));
+        lenient().when(demucsProcessWatchdog.watchWorkerJob(any(Path.class), anyDouble(), anyInt())).thenReturn(workerJob);
+    }
+
+    @Test
+    void separate_UsesWorkerPool_WhenWorkerIsAvailable() throws Exception {
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenReturn(true);
+
+        // The python env is an empty file, so reaching the one-shot ProcessBuilder fallback would fail here
+        assertDoesNotThrow(() -> demucsCliSeparationEngine.separate(demucsArgs, outputListener));
+
+        verify(demucsWorkerPool, times(1)).execute(eq(demucsArgs), eq(outputListener), anyLong(), any());
+    }
+
+    @Test
+    void separate_RecordsWorkerUsageAndCalibratesMemory_WhenWorkerCompletesJob() throws Exception {
+        JobResourceUsage usage = new JobResourceUsage();
+        usage.setPeakRssBytes(5000);
+        when(workerJob.finish(JobResourceUsage.OUTCOME_COMPLETED)).thenReturn(usage);
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenAnswer(invocation -> {
+            invocation.<Consumer<ProcessHandle>>getArgument(3).accept(ProcessHandle.current());
+            return true;
+        });
+
+        demucsCliSeparationEngine.separate(demucsArgs, outputListener);
+
+        verify(workerJob).start(ProcessHandle.current());
+        verify(demucsMemoryAdmissionController).recordObservedPeak(any(), eq(5000L));
+    }
+
+    @Test
+    void separate_RecordsWorkerJobAsTimedOut_WhenWorkerPassesDeadline() throws Exception {
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenThrow(new DemucsProcessingException("timed out"));
+
+        assertThrows(DemucsProcessingException.class, () -> demucsCliSeparationEngine.separate(demucsArgs, outputListener));
+
+        verify(workerJob).finish(JobResourceUsage.OUTCOME_TIMED_OUT);
+        verify(demucsMemoryAdmissionController, never()).recordObservedPeak(any(), anyLong());
+    }
+
+    @Test
+    void separate_ReleasesCpuSlot_WhenJobFinishes() throws Exception {
+        DemucsCpuScheduler.CpuSlot slot = mock(DemucsCpuScheduler.CpuSlot.class);
+        when(demucsCpuScheduler.acquire()).thenReturn(slot);
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenReturn(true);
+
+        demucsCliSeparationEngine.separate(demucsArgs, outputListener);
+
+        verify(demucsCpuScheduler, times(1)).acquire();
+        verify(slot, times(1)).close();
+    }
+
+    @Test
+    void separate_FallsBackToOneShotProcess_WhenNoWorkerIsAvailable() throws Exception {
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenReturn(false);
+
+        // The python env is an empty, non-executable file, so the one-shot process cannot be started
+        assertThrows(IOException.class, () -> demucsCliSeparationEngine.separate(demucsArgs, outputListener));
+
+        verify(demucsWorkerPool, times(1)).execute(any(String[].class), any(), anyLong(), any());
+    }
+
+    @Test
+    void separate_EstimatesMemoryOfEveryInput_WhenTracksAreBatched() throws Exception {
+        Path secondTrack = Files.createFile(tempDir.resolve("secondTrack.wav"));
+        String[] batchArgs = {"-d", "cpu", demucsArgs[2], secondTrack.toString()};
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenReturn(true);
+
+        demucsCliSeparationEngine.separate(batchArgs, outputListener);
+
+        verify(demucsMemoryAdmissionController).estimate(Path.of(demucsArgs[2]));
+        verify(demucsMemoryAdmissionController).estimate(secondTrack);
+        verify(demucsMemoryAdmissionController, never()).estimate(Path.of("cpu"));
+    }
+
+    @Test
+    @EnabledOnOs(OS.LINUX)
+    void separate_OneShotProcess_ShouldDeliverTrackAnnouncementsBeforeTheirProgress() throws Exception {
+        assumeTrue(Files.isExecutable(Path.of("/usr/bin/python3")), "python3 is not installed");
+        // Prints like Demucs: the track announcements on stdout, the progress bars on stderr
+        Path fakeDemucs = Files.writeString(tempDir.resolve("fake_demucs.py"), FAKE_DEMUCS);
+        Path fakePython = Files.writeString(tempDir.resolve("fake_python"), "#!/bin/sh\nshift 2\nexec /usr/bin/python3 " + fakeDemucs + " \"$@\"\n");
+        assertTrue(fakePython.toFile().setExecutable(true));
+
+        DemucsProcessWatchdog watchdog = new DemucsProcessWatchdog(mock(JobResourceUsageRepository.class), mock(DemucsProgressTracker.class));
+        ReflectionTestUtils.setField(watchdog, "sampleIntervalMs", 50L);
+        DemucsCliSeparationEngine engine = new DemucsCliSeparationEngine(demucsWorkerPool, demucsCpuScheduler, demucsMemoryAdmissionController, watchdog);
+        ReflectionTestUtils.setField(engine, "demucsOutputDirectory", tempDir.resolve("demucsOutput").toString());
+        ReflectionTestUtils.setField(engine, "pythonEnvPath", fakePython.toString());
+        when(demucsWorkerPool.execute(any(String[].class), any(), anyLong(), any())).thenReturn(false);
+
+        Path secondTrack = Files.createFile(tempDir.resolve("secondTrack.wav"));
+        String[] batchArgs = {"-d", "cpu", demucsArgs[2], secondTrack.toString()};
+        List<String> lines = new CopyOnWriteArrayList<>();
+        engine.separate(batchArgs, lines::add);
+
+        assertEquals(List.of(
+                "Separating track " + demucsArgs[2], "50%|" + demucsArgs[2], "100%|" + demucsArgs[2],
+                "Separating track " + secondTrack, "50%|" + secondTrack, "100%|" + secondTrack), lines);
+    }
+
+    @Test
+    void isSelfContained_ReturnsFalse() {
+        assertFalse(demucsCliSeparationEngine.isSelfContained());
+    }
+}
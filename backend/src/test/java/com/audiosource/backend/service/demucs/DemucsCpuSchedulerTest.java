@@ -0,0 +1,68 @@
+package com.audiosource.backend.service.demucs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DemucsCpuSchedulerTest {
+
+    private DemucsCpuScheduler demucsCpuScheduler;
+
+    @BeforeEach
+    void setUp() {
+        demucsCpuScheduler = new DemucsCpuScheduler();
+        ReflectionTestUtils.setField(demucsCpuScheduler, "coreBudget", 4);
+        ReflectionTestUtils.setField(demucsCpuScheduler, "threadsPerJob", 2);
+        demucsCpuScheduler.init();
+    }
+
+    @Test
+    void init_DividesCoreBudgetInSlots() {
+        assertEquals(2, demucsCpuScheduler.getTotalSlots());
+        assertEquals(0, demucsCpuScheduler.getSlotsInUse());
+    }
+
+    @Test
+    void getThreadEnvironment_CapsTorchThreads() {
+        Map<String, String> environment = demucsCpuScheduler.getThreadEnvironment();
+
+        assertEquals("2", environment.get("OMP_NUM_THREADS"));
+        assertEquals("2", environment.get("MKL_NUM_THREADS"));
+    }
+
+    @Test
+    void acquire_QueuesJobs_WhenAllSlotsAreInUse() throws Exception {
+        DemucsCpuScheduler.CpuSlot first = demucsCpuScheduler.acquire();
+        DemucsCpuScheduler.CpuSlot second = demucsCpuScheduler.acquire();
+        assertEquals(2, demucsCpuScheduler.getSlotsInUse());
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread queuedJob = new Thread(() -> {
+            try (DemucsCpuScheduler.CpuSlot slot = demucsCpuScheduler.acquire()) {
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queuedJob.start();
+
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, demucsCpuScheduler.getQueuedJobs());
+
+        first.close();
+        first.close(); // closing twice must not free an extra slot
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        queuedJob.join();
+
+        second.close();
+        assertEquals(0, demucsCpuScheduler.getSlotsInUse());
+    }
+}
@@ -0,0 +1,103 @@
+package com.audiosource.backend.service.demucs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DemucsMemoryAdmissionControllerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @TempDir
+    Path tempDir;
+
+    private DemucsMemoryAdmissionController admissionController;
+
+    @BeforeEach
+    void setUp() {
+        admissionController = new DemucsMemoryAdmissionController();
+        ReflectionTestUtils.setField(admissionController, "enabled", true);
+        ReflectionTestUtils.setField(admissionController, "budgetBytes", Long.MAX_VALUE / 4);
+        ReflectionTestUtils.setField(admissionController, "baseBytes", 100 * MB);
+        ReflectionTestUtils.setField(admissionController, "initialBytesPerSecond", MB);
+        ReflectionTestUtils.setField(admissionController, "safetyMargin", 0.0);
+        ReflectionTestUtils.setField(admissionController, "agingMsPerGb", 60000L);
+        ReflectionTestUtils.setField(admissionController, "pollIntervalMs", 50L);
+        admissionController.init();
+    }
+
+    @Test
+    void estimate_UsesDurationDerivedFromCompressedFileSize() throws IOException {
+        Path mp3File = tempDir.resolve("song.mp3");
+        Files.write(mp3File, new byte[16_000 * 60]); // one minute at 128 kbps
+
+        DemucsMemoryAdmissionController.MemoryEstimate estimate = admissionController.estimate(mp3File);
+
+        assertEquals(60.0, estimate.getDurationSeconds(), 0.001);
+        assertEquals(100 * MB + 60 * MB, estimate.getEstimatedBytes());
+    }
+
+    @Test
+    void recordObservedPeak_CalibratesPerSecondCost() {
+        DemucsMemoryAdmissionController.MemoryEstimate estimate =
+                new DemucsMemoryAdmissionController.MemoryEstimate(tempDir.resolve("song.wav"), 100, 200 * MB);
+
+        // 100 MB over the base for 100 seconds = 1 MB per second, unchanged
+        admissionController.recordObservedPeak(estimate, 200 * MB);
+        assertEquals(MB, admissionController.getBytesPerSecond());
+
+        // 600 MB over the base = 6 MB per second, moved by the calibration weight
+        admissionController.recordObservedPeak(estimate, 700 * MB);
+        assertEquals(2.0 * MB, admissionController.getBytesPerSecond(), 1.0);
+    }
+
+    @Test
+    void admit_QueuesJobUntilEnoughMemoryIsReleased() throws Exception {
+        ReflectionTestUtils.setField(admissionController, "budgetBytes", 300 * MB);
+        DemucsMemoryAdmissionController.MemoryEstimate estimate =
+                new DemucsMemoryAdmissionController.MemoryEstimate(tempDir.resolve("song.wav"), 100, 200 * MB);
+
+        DemucsMemoryAdmissionController.MemoryReservation first = admissionController.admit(estimate);
+        assertEquals(200 * MB, admissionController.getReservedBytes());
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread queuedJob = new Thread(() -> {
+            try (DemucsMemoryAdmissionController.MemoryReservation reservation = admissionController.admit(estimate)) {
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queuedJob.start();
+
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, admissionController.getQueuedJobs());
+
+        first.close();
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        queuedJob.join();
+        assertEquals(0, admissionController.getReservedBytes());
+    }
+
+    @Test
+    void admit_AdmitsOversizedJob_WhenNothingElseIsRunning() throws Exception {
+        ReflectionTestUtils.setField(admissionController, "budgetBytes", 100 * MB);
+        DemucsMemoryAdmissionController.MemoryEstimate estimate =
+                new DemucsMemoryAdmissionController.MemoryEstimate(tempDir.resolve("song.wav"), 600, 800 * MB);
+
+        try (DemucsMemoryAdmissionController.MemoryReservation reservation = admissionController.admit(estimate)) {
+            assertEquals(800 * MB, admissionController.getReservedBytes());
+        }
+    }
+}
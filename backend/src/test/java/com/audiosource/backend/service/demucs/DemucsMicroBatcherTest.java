@@ -0,0 +1,153 @@
+package com.audiosource.backend.service.demucs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DemucsMicroBatcherTest {
+
+    @Mock
+    private SeparationEngine separationEngine;
+
+    @Mock
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @InjectMocks
+    private DemucsMicroBatcher demucsMicroBatcher;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(demucsMicroBatcher, "enabled", true);
+        ReflectionTestUtils.setField(demucsMicroBatcher, "maxBatchSize", 2);
+        ReflectionTestUtils.setField(demucsMicroBatcher, "waitWindowMs", 10_000L);
+    }
+
+    @Test
+    void separate_RunsCompatibleJobsInOneInvocation_WhenBatchIsFull() throws Exception {
+        CompletableFuture<Void> first = separateAsync(command("--mp3", "/tmp/first.mp3"));
+        CompletableFuture<Void> second = separateAsync(command("--mp3", "/tmp/second.mp3"));
+
+        // The batch is full after the second job, long before the wait window elapses
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<String[]> argsCaptor = ArgumentCaptor.forClass(String[].class);
+        verify(separationEngine, times(1)).separate(argsCaptor.capture(), any());
+        String[] demucsArgs = argsCaptor.getValue();
+        assertEquals("--mp3", demucsArgs[0]);
+        assertEquals("cpu", demucsArgs[1]);
+        assertEquals(List.of("/tmp/first.mp3", "/tmp/second.mp3"), List.of(demucsArgs[2], demucsArgs[3]).stream().sorted().toList());
+    }
+
+    @Test
+    void separate_RunsLoneJobAlone_AfterWaitWindow() throws Exception {
+        ReflectionTestUtils.setField(demucsMicroBatcher, "waitWindowMs", 50L);
+
+        demucsMicroBatcher.separate(command("--mp3", "/tmp/alone.mp3"));
+
+        verify(separationEngine, times(1)).separate(eq(new String[]{"--mp3", "cpu", "/tmp/alone.mp3"}), any());
+    }
+
+    @Test
+    void separate_DoesNotMixJobsWithDifferentOptions() throws Exception {
+        ReflectionTestUtils.setField(demucsMicroBatcher, "waitWindowMs", 200L);
+
+        CompletableFuture<Void> mp3 = separateAsync(command("--mp3", "/tmp/first.mp3"));
+        CompletableFuture<Void> vocals = separateAsync(command("--two-stems=vocals", "/tmp/second.mp3"));
+        CompletableFuture.allOf(mp3, vocals).get(5, TimeUnit.SECONDS);
+
+        verify(separationEngine, times(2)).separate(any(String[].class), any());
+    }
+
+    @Test
+    void separate_RetriesEachTrackAlone_WhenBatchFails() throws Exception {
+        doThrow(new IOException("Demucs failed")).when(separationEngine).separate(argThat(args -> args.length == 4), any());
+        doNothing().when(separationEngine).separate(argThat(args -> args.length == 3), any());
+
+        CompletableFuture<Void> first = separateAsync(command("--mp3", "/tmp/first.mp3"));
+        CompletableFuture<Void> second = separateAsync(command("--mp3", "/tmp/second.mp3"));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        verify(separationEngine, times(1)).separate(eq(new String[]{"--mp3", "cpu", "/tmp/first.mp3"}), any());
+        verify(separationEngine, times(1)).separate(eq(new String[]{"--mp3", "cpu", "/tmp/second.mp3"}), any());
+    }
+
+    @Test
+    void separate_ThrowsIOException_WhenLoneJobFails() throws Exception {
+        ReflectionTestUtils.setField(demucsMicroBatcher, "waitWindowMs", 10L);
+        doThrow(new IOException("Demucs failed")).when(separationEngine).separate(any(String[].class), any());
+
+        assertThrows(IOException.class, () -> demucsMicroBatcher.separate(command("--mp3", "/tmp/alone.mp3")));
+    }
+
+    @Test
+    void separate_RoutesOutputLinesToTheTrackBeingSeparated() throws Exception {
+        List<String> firstLines = new ArrayList<>();
+        List<String> secondLines = new ArrayList<>();
+        when(demucsProgressTracker.outputListener("/tmp/first.mp3")).thenReturn(firstLines::add);
+        when(demucsProgressTracker.outputListener("/tmp/second.mp3")).thenReturn(secondLines::add);
+        doAnswer(invocation -> {
+            Consumer<String> listener = invocation.getArgument(1);
+            listener.accept("Separating track /tmp/second.mp3");
+            listener.accept(" 50%|#####     | 5.0/10.0 [00:01<00:01,  5.00seconds/s]");
+            listener.accept("Separating track /tmp/first.mp3");
+            listener.accept(" 20%|##        | 2.0/10.0 [00:01<00:04,  2.00seconds/s]");
+            return null;
+        }).when(separationEngine).separate(any(String[].class), any());
+
+        CompletableFuture<Void> first = separateAsync(command("--mp3", "/tmp/first.mp3"));
+        CompletableFuture<Void> second = separateAsync(command("--mp3", "/tmp/second.mp3"));
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, firstLines.size());
+        assertEquals(" 20%|##        | 2.0/10.0 [00:01<00:04,  2.00seconds/s]", firstLines.get(1));
+        assertEquals(2, secondLines.size());
+        assertEquals(" 50%|#####     | 5.0/10.0 [00:01<00:01,  5.00seconds/s]", secondLines.get(1));
+    }
+
+    @Test
+    void isEligible_ReturnsFalse_WhenDisabled() {
+        ReflectionTestUtils.setField(demucsMicroBatcher, "enabled", false);
+
+        assertFalse(demucsMicroBatcher.isEligible("/tmp/first.mp3"));
+    }
+
+    private static String[] command(String option, String inputFilePath) {
+        return new String[]{"/usr/bin/python", "-m", "demucs", option, "cpu", inputFilePath};
+    }
+
+    private CompletableFuture<Void> separateAsync(String[] commandArgs) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                demucsMicroBatcher.separate(commandArgs);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,145 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.entities.JobResourceUsage;
+import com.audiosource.backend.repository.JobResourceUsageRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@EnabledOnOs(OS.LINUX)
+public class DemucsProcessWatchdogTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private JobResourceUsageRepository jobResourceUsageRepository;
+
+    @Mock
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @InjectMocks
+    private DemucsProcessWatchdog demucsProcessWatchdog;
+
+    private Path inputFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        inputFile = Files.write(tempDir.resolve("song.mp3"), new byte[1000]);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "enabled", true);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "baseTimeoutSeconds", 600L);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "timeoutPerAudioSecond", 3.0);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "stallTimeoutSeconds", 300L);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "sampleIntervalMs", 50L);
+        lenient().when(demucsProgressTracker.findCorrelationId(anyString())).thenReturn(Optional.of("id"));
+    }
+
+    @Test
+    void computeTimeoutMillis_ScalesWithAudioDuration() {
+        assertEquals(600_000 + 3 * 240_000, demucsProcessWatchdog.computeTimeoutMillis(240));
+    }
+
+    @Test
+    void awaitCompletion_RecordsUsage_WhenProcessCompletes() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "sleep 0.2").start();
+
+        JobResourceUsage usage = demucsProcessWatchdog.watch(process, inputFile, 10, 2).awaitCompletion();
+
+        assertEquals(JobResourceUsage.OUTCOME_COMPLETED, usage.getOutcome());
+        assertEquals("id", usage.getCorrelationId());
+        assertEquals(1000, usage.getInputSizeBytes());
+        assertEquals(2, usage.getThreads());
+        assertTrue(usage.getWallTimeMillis() >= 200);
+        verify(jobResourceUsageRepository).save(usage);
+    }
+
+    @Test
+    void awaitCompletion_KillsProcessTree_OnTimeout() throws Exception {
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "baseTimeoutSeconds", 0L);
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "timeoutPerAudioSecond", 0.0);
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30 & sleep 30 & wait").start();
+        Thread.sleep(200); // let the shell start its children
+        List<ProcessHandle> children = process.descendants().toList();
+
+        DemucsProcessWatchdog.WatchedProcess watchedProcess = demucsProcessWatchdog.watch(process, inputFile, 10, 2);
+        IOException exception = assertThrows(IOException.class, watchedProcess::awaitCompletion);
+
+        assertTrue(exception.getMessage().contains("timed out"));
+        assertFalse(process.isAlive());
+        assertFalse(children.isEmpty());
+        for (ProcessHandle child : children) {
+            child.onExit().get(5, TimeUnit.SECONDS); // throws if the child survived
+        }
+
+        ArgumentCaptor<JobResourceUsage> usageCaptor = ArgumentCaptor.forClass(JobResourceUsage.class);
+        verify(jobResourceUsageRepository).save(usageCaptor.capture());
+        assertEquals(JobResourceUsage.OUTCOME_TIMED_OUT, usageCaptor.getValue().getOutcome());
+    }
+
+    @Test
+    void awaitCompletion_KillsProcess_WhenStalled() throws Exception {
+        ReflectionTestUtils.setField(demucsProcessWatchdog, "stallTimeoutSeconds", 0L);
+        Process process = new ProcessBuilder("sleep", "30").start();
+
+        DemucsProcessWatchdog.WatchedProcess watchedProcess = demucsProcessWatchdog.watch(process, inputFile, 10, 2);
+        IOException exception = assertThrows(IOException.class, watchedProcess::awaitCompletion);
+
+        assertTrue(exception.getMessage().contains("stalled"));
+        assertFalse(process.isAlive());
+    }
+
+    @Test
+    void watchWorkerJob_SamplesWorkerWithoutStoppingIt() throws Exception {
+        Process worker = new ProcessBuilder("sleep", "30").start();
+        try {
+            DemucsProcessWatchdog.WatchedWorkerJob workerJob = demucsProcessWatchdog.watchWorkerJob(inputFile, 10, 2);
+            workerJob.start(worker.toHandle());
+            Thread.sleep(200);
+
+            JobResourceUsage usage = workerJob.finish(JobResourceUsage.OUTCOME_COMPLETED);
+
+            assertEquals(JobResourceUsage.OUTCOME_COMPLETED, usage.getOutcome());
+            assertEquals("id", usage.getCorrelationId());
+            assertTrue(usage.getPeakRssBytes() > 0);
+            assertTrue(usage.getWallTimeMillis() >= 200);
+            assertTrue(worker.isAlive());
+            verify(jobResourceUsageRepository).save(usage);
+        } finally {
+            worker.destroyForcibly();
+        }
+    }
+
+    @Test
+    void watchWorkerJob_RecordsNothing_WhenJobNeverReachedWorker() {
+        assertNull(demucsProcessWatchdog.watchWorkerJob(inputFile, 10, 2).finish(JobResourceUsage.OUTCOME_FAILED));
+
+        verifyNoInteractions(jobResourceUsageRepository);
+    }
+}
@@ -1,8 +1,11 @@
 package com.audiosource.backend.service.demucs;
 
 import com.audiosource.backend.enums.OutputFormat;
+import com.audiosource.backend.enums.ProcessingProfile;
 import com.audiosource.backend.enums.SeparationType;
 import com.audiosource.backend.exception.DemucsProcessingException;
+import com.audiosource.backend.util.AudioProbe;
+import com.audiosource.backend.util.WavUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -14,9 +17,20 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
@@ -25,10 +39,12 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -46,6 +62,15 @@ public class DemucsProcessingServiceTest {
     @Mock
     private Process processMock;
 
+    @Mock
+    private SeparationEngine separationEngine;
+
+    @Mock
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @Mock
+    private DemucsMicroBatcher demucsMicroBatcher;
+
     @InjectMocks
     private DemucsProcessingService demucsProcessingService;
 
@@ -79,6 +104,18 @@ public class DemucsProcessingServiceTest {
         verify(spyService, times(1)).executeCommand(any(String[].class));
     }
 
+    @Test
+    void processAudioFile_UsesMicroBatcher_ForEligibleTracks() throws Exception {
+        DemucsProcessingService spyService = spy(demucsProcessingService);
+        doReturn(true).when(spyService).isReadyForProcessing();
+        when(demucsMicroBatcher.isEligible(testAudioFilePath)).thenReturn(true);
+
+        spyService.processRetrievedAudioFile(testAudioFilePath, SeparationType.STEMS_SPLITTER, OutputFormat.WAV);
+
+        verify(demucsMicroBatcher, times(1)).separate(eq(spyService.constructCommandArgs(SeparationType.STEMS_SPLITTER, OutputFormat.WAV, testAudioFilePath)));
+        verify(spyService, never()).executeCommand(any(String[].class));
+    }
+
     @Test
     void processAudioFile_ThrowsException_WhenServiceNotReady() {
         DemucsProcessingService spyService = spy(demucsProcessingService);
@@ -113,6 +150,194 @@ public class DemucsProcessingServiceTest {
         assertTrue(exception.getCause() instanceof IOException);
     }
 
+    /* Tests of 'probeAudioFile' method */
+    @Test
+    void probeAudioFile_ReturnsWavProperties() throws IOException {
+        Path wavFile = tempDir.resolve("probe.wav");
+        writeRampWav(wavFile, 8000, 5 * 8000);
+
+        AudioProbe.AudioInfo audioInfo = demucsProcessingService.probeAudioFile(wavFile.toString());
+
+        assertEquals(AudioProbe.FORMAT_WAV, audioInfo.getFormat());
+        assertEquals(5.0, audioInfo.getDurationSeconds(), 0.001);
+        assertEquals(8000, audioInfo.getSampleRate());
+        assertEquals(1, audioInfo.getChannels());
+    }
+
+    @Test
+    void probeAudioFile_CountsMp3Frames_AfterId3Tag() throws IOException {
+        // ID3v2 tag of 100 bytes followed by 100 MPEG-1 Layer III frames at 128 kbps, 44.1 kHz, joint stereo
+        byte[] mp3 = new byte[10 + 100 + 100 * 417];
+        mp3[0] = 'I';
+        mp3[1] = 'D';
+        mp3[2] = '3';
+        mp3[3] = 3;
+        mp3[9] = 100;
+        for (int frame = 0; frame < 100; frame++) {
+            int offset = 110 + frame * 417;
+            mp3[offset] = (byte) 0xFF;
+            mp3[offset + 1] = (byte) 0xFB;
+            mp3[offset + 2] = (byte) 0x90;
+            mp3[offset + 3] = (byte) 0x40;
+        }
+        Path mp3File = Files.write(tempDir.resolve("probe.mp3"), mp3);
+
+        AudioProbe.AudioInfo audioInfo = demucsProcessingService.probeAudioFile(mp3File.toString());
+
+        assertEquals(AudioProbe.FORMAT_MP3, audioInfo.getFormat());
+        assertEquals(100 * 1152 / 44100.0, audioInfo.getDurationSeconds(), 0.001);
+        assertEquals(44100, audioInfo.getSampleRate());
+        assertEquals(2, audioInfo.getChannels());
+    }
+
+    @Test
+    void probeAudioFile_ThrowsDemucsProcessingException_WhenFileIsNotAudio() throws IOException {
+        Path textFile = Files.writeString(tempDir.resolve("notAudio.mp3"), "This is not an audio file");
+
+        DemucsProcessingException exception = assertThrows(DemucsProcessingException.class,
+                () -> demucsProcessingService.probeAudioFile(textFile.toString()));
+
+        assertTrue(exception.getMessage().startsWith("Invalid audio file"));
+    }
+
+    @Test
+    void probeAudioFile_ThrowsDemucsProcessingException_WhenWavHasNoData() {
+        // The test audio file is empty
+        assertThrows(DemucsProcessingException.class, () -> demucsProcessingService.probeAudioFile(testAudioFilePath));
+    }
+
+    @Test
+    void probeAudioFile_ThrowsDemucsProcessingException_WhenLongerThanMaxDuration() throws IOException {
+        Path wavFile = tempDir.resolve("probe.wav");
+        writeRampWav(wavFile, 8000, 5 * 8000);
+        ReflectionTestUtils.setField(demucsProcessingService, "maxDurationSeconds", 4);
+
+        assertThrows(DemucsProcessingException.class, () -> demucsProcessingService.probeAudioFile(wavFile.toString()));
+    }
+
+    /* Tests of 'processInSegments' method */
+    @Test
+    void processAudioFile_SplitsLongWavIntoSegments_AndStitchesStemsBack() throws Exception {
+        int sampleRate = 8000;
+        int durationSeconds = 25;
+        Path longAudioFile = tempDir.resolve("longAudioFile.wav");
+        writeRampWav(longAudioFile, sampleRate, durationSeconds * sampleRate);
+
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationEnabled", true);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationThresholdSeconds", 20);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentSeconds", 10);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentOverlapSeconds", 2);
+
+        DemucsProcessingService spyService = spy(demucsProcessingService);
+        doReturn(true).when(spyService).isReadyForProcessing();
+        // Simulate Demucs by copying every input segment unchanged as its "vocals" stem
+        doAnswer(invocation -> {
+            String[] commandArgs = invocation.getArgument(0);
+            Path segmentFile = Paths.get(commandArgs[commandArgs.length - 1]);
+            Path segmentOutput = Files.createDirectories(Paths.get(spyService.constructProcessedFilePath(segmentFile.toString())));
+            Files.copy(segmentFile, segmentOutput.resolve("vocals.wav"));
+            return null;
+        }).when(spyService).executeCommand(any(String[].class));
+
+        String resultPath = spyService.processRetrievedAudioFile(longAudioFile.toString(), SeparationType.STEMS_SPLITTER, OutputFormat.WAV);
+
+        Path stitchedStem = Paths.get(resultPath, "vocals.wav");
+        WavUtils.WavHeader stitchedHeader = WavUtils.readHeader(stitchedStem);
+        assertEquals(durationSeconds * sampleRate, stitchedHeader.getFrameCount(), "The stitched stem should be as long as the input.");
+        assertArrayEquals(readWavData(longAudioFile), readWavData(stitchedStem), "Crossfading identical overlaps should restore the input.");
+        verify(spyService, times(3)).executeCommand(any(String[].class));
+    }
+
+    @Test
+    void processAudioFile_ThrowsDemucsProcessingException_AndDeletesSegments_WhenSegmentExecutorIsSaturated() throws Exception {
+        Path longAudioFile = tempDir.resolve("longAudioFile.wav");
+        writeRampWav(longAudioFile, 8000, 25 * 8000);
+
+        // A single busy thread and no queue, so that every segment is rejected
+        ThreadPoolExecutor saturatedExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        CountDownLatch release = new CountDownLatch(1);
+        saturatedExecutor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentExecutor", saturatedExecutor);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationEnabled", true);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationThresholdSeconds", 20);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentSeconds", 10);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentOverlapSeconds", 2);
+
+        DemucsProcessingService spyService = spy(demucsProcessingService);
+        doReturn(true).when(spyService).isReadyForProcessing();
+
+        try {
+            assertThrows(DemucsProcessingException.class,
+                    () -> spyService.processRetrievedAudioFile(longAudioFile.toString(), SeparationType.STEMS_SPLITTER, OutputFormat.WAV));
+        } finally {
+            release.countDown();
+            saturatedExecutor.shutdown();
+        }
+
+        verify(spyService, never()).executeCommand(any(String[].class));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().contains("-segments")), "The segment files should be deleted.");
+        }
+    }
+
+    @Test
+    void shouldProcessInSegments_ReturnsFalse_ForMp3Output() throws IOException {
+        Path longAudioFile = tempDir.resolve("longAudioFile.wav");
+        writeRampWav(longAudioFile, 8000, 30 * 8000);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationEnabled", true);
+        ReflectionTestUtils.setField(demucsProcessingService, "segmentationThresholdSeconds", 20);
+
+        assertFalse(demucsProcessingService.shouldProcessInSegments(longAudioFile.toString(), OutputFormat.MP3));
+        assertTrue(demucsProcessingService.shouldProcessInSegments(longAudioFile.toString(), OutputFormat.WAV));
+    }
+
+    // Write a mono 16-bit WAV whose samples follow a repeating ramp
+    private void writeRampWav(Path wavFile, int sampleRate, int frames) throws IOException {
+        WavUtils.WavHeader format = new WavUtils.WavHeader(WavUtils.FORMAT_PCM, 1, sampleRate, 16, 44, (long) frames * 2);
+        ByteBuffer samples = ByteBuffer.allocate(frames * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            samples.putShort((short) ((i % 2000) - 1000));
+        }
+        samples.flip();
+        try (FileChannel channel = FileChannel.open(wavFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            WavUtils.writeCanonicalHeader(channel, format, format.getDataSize());
+            channel.write(samples);
+        }
+    }
+
+    private byte[] readWavData(Path wavFile) throws IOException {
+        WavUtils.WavHeader header = WavUtils.readHeader(wavFile);
+        byte[] bytes = Files.readAllBytes(wavFile);
+        return Arrays.copyOfRange(bytes, (int) header.getDataOffset(), (int) (header.getDataOffset() + header.getDataSize()));
+    }
+
+    /* Tests of 'executeCommand' method */
+    @Test
+    void executeCommand_PassesDemucsArgsToSeparationEngine() throws Exception {
+        String[] commandArgs = demucsProcessingService.constructCommandArgs(SeparationType.STEMS_SPLITTER, OutputFormat.WAV, testAudioFilePath);
+        String[] expectedEngineArgs = {"-d", "cpu", testAudioFilePath};
+
+        demucsProcessingService.executeCommand(commandArgs);
+
+        verify(separationEngine, times(1)).separate(eq(expectedEngineArgs), any());
+        verify(demucsProgressTracker, times(1)).outputListener(testAudioFilePath);
+    }
+
+    @Test
+    void executeCommand_PropagatesSeparationEngineFailure() throws Exception {
+        String[] commandArgs = demucsProcessingService.constructCommandArgs(SeparationType.STEMS_SPLITTER, OutputFormat.WAV, testAudioFilePath);
+        doThrow(new IOException("Demucs failed")).when(separationEngine).separate(any(String[].class), any());
+
+        assertThrows(IOException.class, () -> demucsProcessingService.executeCommand(commandArgs));
+    }
+
     /* Tests of 'constructProcessedFilePath' method */
     @Test
     void constructProcessedFilePath_ReturnsCorrectPath() throws IOException {
@@ -127,6 +352,16 @@ public class DemucsProcessingServiceTest {
         assertEquals(expectedPath, actualPath, "The constructed processed file path should match the expected path.");
     }
 
+    @Test
+    void constructProcessedFilePath_UsesModelOfProfile() {
+        ReflectionTestUtils.setField(demucsProcessingService, "demucsOutputDirectory", demucsOutputDirectory.toString());
+
+        String expectedPath = Paths.get(demucsOutputDirectory.toString(), "separated", "htdemucs_ft", "testAudioFile").toString();
+        String actualPath = demucsProcessingService.constructProcessedFilePath(tempDir.resolve("testAudioFile.wav").toString(), ProcessingProfile.BEST);
+
+        assertEquals(expectedPath, actualPath, "The stems of the BEST profile should be found under the fine-tuned model.");
+    }
+
     /* Tests of 'validateAudioFile' method */
     @Test
     void validateAudioFile_Succeeds_WhenFileExists() {
@@ -219,6 +454,29 @@ public class DemucsProcessingServiceTest {
         assertArrayEquals(expectedArgs, actualArgs, "Command args for stems splitter with WAV output should be correctly constructed.");
     }
 
+    @Test
+    void testConstructCommandArgs_KeepsDefaultArgs_WhenProfileIsBalanced() {
+        String[] expectedArgs = {pythonEnvPath.toString(), "-m", "demucs", "--two-stems=vocals", "cpu", testAudioFilePath};
+
+        String[] actualArgs = demucsProcessingService.constructCommandArgs(
+                SeparationType.VOCAL_REMOVER, OutputFormat.WAV, ProcessingProfile.BALANCED, testAudioFilePath);
+
+        assertArrayEquals(expectedArgs, actualArgs, "The BALANCED profile should not change the command.");
+    }
+
+    @Test
+    void testConstructCommandArgs_AddsProfileArgsBeforeInput_WhenProfileIsFastOrBest() {
+        String[] expectedFastArgs = {pythonEnvPath.toString(), "-m", "demucs", "--mp3", "cpu",
+                "--overlap", "0.1", "--segment", "7", testAudioFilePath};
+        String[] expectedBestArgs = {pythonEnvPath.toString(), "-m", "demucs", "--mp3", "cpu",
+                "-n", "htdemucs_ft", "--shifts", "2", "-j", "2", testAudioFilePath};
+
+        assertArrayEquals(expectedFastArgs, demucsProcessingService.constructCommandArgs(
+                SeparationType.STEMS_SPLITTER, OutputFormat.MP3, ProcessingProfile.FAST, testAudioFilePath));
+        assertArrayEquals(expectedBestArgs, demucsProcessingService.constructCommandArgs(
+                SeparationType.STEMS_SPLITTER, OutputFormat.MP3, ProcessingProfile.BEST, testAudioFilePath));
+    }
+
     /* Tests of 'isReadyForProcessing' method */
 
     @Test
@@ -254,6 +512,15 @@ public class DemucsProcessingServiceTest {
         assertFalse(demucsProcessingService.isReadyForProcessing(), "Service should not be ready if Python environment does not exist.");
     }
 
+    @Test
+    void testIsReadyForProcessing_WhenEngineIsSelfContained_IgnoresPythonEnv() {
+        when(separationEngine.isSelfContained()).thenReturn(true);
+        pythonEnvPath.toFile().delete();
+        demucsOutputDirectory.toFile().setWritable(true);
+
+        assertTrue(demucsProcessingService.isReadyForProcessing(), "A self-contained engine should not need the Python environment.");
+    }
+
     @Test
     void testIsReadyForProcessing_WhenOutputDirectoryDoesNotExist_ReturnFalse() {
         demucsOutputDirectory.toFile().delete();
@@ -0,0 +1,105 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.dto.ProcessingProgress;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class DemucsProgressTrackerTest {
+
+    @Mock
+    private FileMetadataService fileMetadataService;
+
+    @InjectMocks
+    private DemucsProgressTracker demucsProgressTracker;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(demucsProgressTracker, "publishIntervalMs", 0L);
+        ReflectionTestUtils.setField(demucsProgressTracker, "persistIntervalMs", 60000L);
+        ReflectionTestUtils.setField(demucsProgressTracker, "retentionMs", 0L);
+    }
+
+    @Test
+    void onOutputLine_ParsesTqdmProgressBar() {
+        demucsProgressTracker.startJob("id", "/input/song.mp3");
+
+        demucsProgressTracker.outputListener("/input/song.mp3")
+                .accept(" 45%|████▌     | 81.9/175.5 [00:30<01:05,  2.67seconds/s]");
+
+        ProcessingProgress progress = demucsProgressTracker.getProgress("id").orElseThrow();
+        assertEquals(ProcessingProgress.STATUS_RUNNING, progress.getStatus());
+        assertEquals(45.0, progress.getPercent(), 0.001);
+        assertEquals(81.9, progress.getProcessedSeconds(), 0.001);
+        assertEquals(175.5, progress.getTotalSeconds(), 0.001);
+        assertEquals(65L, progress.getEtaSeconds());
+    }
+
+    @Test
+    void onOutputLine_IgnoresLinesWithoutProgress() {
+        demucsProgressTracker.startJob("id", "/input/song.mp3");
+
+        demucsProgressTracker.outputListener("/input/song.mp3").accept("Separating track /input/song.mp3");
+
+        assertEquals(0.0, demucsProgressTracker.getProgress("id").orElseThrow().getPercent(), 0.001);
+    }
+
+    @Test
+    void addSegments_AveragesTheProgressOfEverySegment() {
+        demucsProgressTracker.startJob("id", "/input/song.wav");
+        demucsProgressTracker.addSegments("/input/song.wav", List.of(Paths.get("/input/part0.wav"), Paths.get("/input/part1.wav")));
+
+        demucsProgressTracker.outputListener("/input/part0.wav").accept("100%|██████████| 10.0/10.0 [00:05<00:00,  2.00seconds/s]");
+        demucsProgressTracker.outputListener("/input/part1.wav").accept(" 50%|█████     | 5.0/10.0 [00:05<00:05,  1.00seconds/s]");
+
+        ProcessingProgress progress = demucsProgressTracker.getProgress("id").orElseThrow();
+        assertEquals(75.0, progress.getPercent(), 0.001);
+        assertEquals(15.0, progress.getProcessedSeconds(), 0.001);
+    }
+
+    @Test
+    void completeJob_PersistsFinalStatus_AndIsRemovedAfterRetention() {
+        demucsProgressTracker.startJob("id", "/input/song.mp3");
+
+        demucsProgressTracker.completeJob("id", true);
+
+        ProcessingProgress progress = demucsProgressTracker.getProgress("id").orElseThrow();
+        assertEquals(ProcessingProgress.STATUS_COMPLETED, progress.getStatus());
+        assertEquals(100.0, progress.getPercent(), 0.001);
+        verify(fileMetadataService).updateProcessingProgress("id", ProcessingProgress.STATUS_COMPLETED, 100.0);
+        verify(fileMetadataService, times(2)).updateProcessingProgress(eq("id"), anyString(), anyDouble());
+
+        demucsProgressTracker.removeFinishedJobs();
+        assertFalse(demucsProgressTracker.getProgress("id").isPresent());
+    }
+
+    @Test
+    void onOutputLine_ThrottlesPersistence() {
+        demucsProgressTracker.startJob("id", "/input/song.mp3");
+
+        demucsProgressTracker.outputListener("/input/song.mp3").accept(" 10%|█         | 1.0/10.0 [00:01<00:09,  1.00seconds/s]");
+        demucsProgressTracker.outputListener("/input/song.mp3").accept(" 20%|██        | 2.0/10.0 [00:02<00:08,  1.00seconds/s]");
+
+        assertTrue(demucsProgressTracker.getProgress("id").isPresent());
+        // Only the initial snapshot is persisted within the persist interval
+        verify(fileMetadataService, times(1)).updateProcessingProgress(eq("id"), anyString(), anyDouble());
+    }
+}
@@ -0,0 +1,180 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.exception.DemucsProcessingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@EnabledOnOs(OS.LINUX)
+public class DemucsWorkerPoolTest {
+
+    /* Speaks the protocol of demucs_worker.py without loading any model, the arguments of a job select its behaviour */
+    private static final String FAKE_WORKER = """
+            echo '{"status":"ready"}'
+            while read -r request; do
+              id=$(echo "$request" | sed 's/.*"id":"\\([^"]*\\)".*/\\1/')
+              case "$request" in
+                *'"cmd":"ping"'*) echo "{\\"id\\":\\"$id\\",\\"status\\":\\"pong\\"}" ;;
+                *'"hang"'*) sleep 600 & echo $! > hang.pid; wait ;;
+                *'"crash"'*) exit 1 ;;
+                *'"orphan"'*) sleep 600 & echo $! > orphan.pid; exit 1 ;;
+                *) echo "{\\"id\\":\\"$id\\",\\"status\\":\\"ok\\"}" ;;
+              esac
+            done
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    private DemucsWorkerPool demucsWorkerPool;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path workerScript = Files.writeString(tempDir.resolve("fake_worker.sh"), FAKE_WORKER);
+        DemucsCpuScheduler demucsCpuScheduler = mock(DemucsCpuScheduler.class);
+        when(demucsCpuScheduler.getThreadEnvironment()).thenReturn(Map.of());
+
+        demucsWorkerPool = new DemucsWorkerPool(demucsCpuScheduler);
+        ReflectionTestUtils.setField(demucsWorkerPool, "enabled", true);
+        ReflectionTestUtils.setField(demucsWorkerPool, "poolSize", 1);
+        ReflectionTestUtils.setField(demucsWorkerPool, "preloadedModel", "htdemucs");
+        ReflectionTestUtils.setField(demucsWorkerPool, "acquireTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(demucsWorkerPool, "healthCheckTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(demucsWorkerPool, "demucsOutputDirectory", tempDir.toString());
+        ReflectionTestUtils.setField(demucsWorkerPool, "pythonEnvPath", "sh");
+        ReflectionTestUtils.setField(demucsWorkerPool, "workerScriptPath", workerScript);
+
+        // The health check starts the missing workers
+        demucsWorkerPool.checkWorkersHealth();
+        awaitIdleWorkers(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        demucsWorkerPool.shutdown();
+    }
+
+    private void awaitIdleWorkers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (demucsWorkerPool.getIdleWorkerCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + count + " idle workers");
+            Thread.sleep(20);
+        }
+    }
+
+    // Wait for the pid written by the fake worker once its job started
+    private long awaitPid(String pidFileName) throws Exception {
+        Path pidFile = tempDir.resolve(pidFileName);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(pidFile) || Files.readString(pidFile).isBlank()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + pidFileName);
+            Thread.sleep(20);
+        }
+        return Long.parseLong(Files.readString(pidFile).trim());
+    }
+
+    private CompletableFuture<Boolean> executeAsync(String argument) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return demucsWorkerPool.execute(new String[]{argument}, line -> { }, 0);
+            } catch (IOException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static void assertExits(long pid) {
+        ProcessHandle.of(pid).ifPresent(process -> assertDoesNotThrow(() -> process.onExit().get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void execute_RunsJobOnWarmWorker() throws Exception {
+        assertTrue(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+        assertTrue(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 0));
+    }
+
+    @Test
+    void execute_WorkerHangs_ShouldKillProcessTreeAndReplaceWorker() throws Exception {
+        assertThrows(DemucsProcessingException.class, () -> demucsWorkerPool.execute(new String[]{"hang"}, line -> { }, 500));
+
+        // The process forked by the hung worker is killed with it
+        assertExits(awaitPid("hang.pid"));
+
+        awaitIdleWorkers(1);
+        assertTrue(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+    }
+
+    @Test
+    void execute_PoolDisabled_ShouldFallBackToOneShotProcess() throws Exception {
+        ReflectionTestUtils.setField(demucsWorkerPool, "enabled", false);
+
+        assertFalse(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+        assertEquals(1, demucsWorkerPool.getIdleWorkerCount());
+    }
+
+    @Test
+    void execute_WorkerCrashes_ShouldFallBackAndReplaceWorker() throws Exception {
+        assertFalse(demucsWorkerPool.execute(new String[]{"crash"}, line -> { }, 5000));
+
+        awaitIdleWorkers(1);
+        assertEquals(1, demucsWorkerPool.getWorkerCount());
+        assertTrue(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+    }
+
+    @Test
+    void checkWorkersHealth_BusyWorkerDied_ShouldFallBackAndReplaceWorker() throws Exception {
+        CompletableFuture<Boolean> job = executeAsync("orphan");
+        long orphanPid = awaitPid("orphan.pid");
+
+        try {
+            // The forked process keeps the response pipe open, only the health check notices that the worker is gone
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!job.isDone()) {
+                assertTrue(System.currentTimeMillis() < deadline, "The job of the dead worker was never given up");
+                demucsWorkerPool.checkWorkersHealth();
+                Thread.sleep(50);
+            }
+            assertFalse(job.get());
+            awaitIdleWorkers(1);
+            assertTrue(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+        } finally {
+            ProcessHandle.of(orphanPid).ifPresent(ProcessHandle::destroyForcibly);
+        }
+    }
+
+    @Test
+    void shutdown_ShouldKillIdleAndBusyWorkers() throws Exception {
+        ReflectionTestUtils.setField(demucsWorkerPool, "poolSize", 2);
+        demucsWorkerPool.checkWorkersHealth();
+        awaitIdleWorkers(2);
+        CompletableFuture<Boolean> job = executeAsync("hang");
+        long forkedPid = awaitPid("hang.pid");
+
+        demucsWorkerPool.shutdown();
+
+        assertFalse(job.get(10, TimeUnit.SECONDS));
+        assertExits(forkedPid);
+        assertEquals(0, demucsWorkerPool.getIdleWorkerCount());
+        assertFalse(demucsWorkerPool.execute(new String[]{"song.wav"}, line -> { }, 5000));
+    }
+}
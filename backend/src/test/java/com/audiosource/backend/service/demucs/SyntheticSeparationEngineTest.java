@@ -0,0 +1,93 @@
+package com.audiosource.backend.service.demucs;
+
+import com.audiosource.backend.util.WavUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SyntheticSeparationEngineTest {
+
+    @TempDir
+    Path tempDir;
+
+    private SyntheticSeparationEngine syntheticSeparationEngine;
+    private Path demucsOutputDirectory;
+    private Path inputFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        demucsOutputDirectory = Files.createDirectory(tempDir.resolve("demucsOutput"));
+        inputFile = tempDir.resolve("song.wav");
+        writeSilentWav(inputFile, 3 * 44100);
+
+        syntheticSeparationEngine = new SyntheticSeparationEngine();
+        ReflectionTestUtils.setField(syntheticSeparationEngine, "demucsOutputDirectory", demucsOutputDirectory.toString());
+        ReflectionTestUtils.setField(syntheticSeparationEngine, "fixedMillis", 0L);
+        ReflectionTestUtils.setField(syntheticSeparationEngine, "realTimeFactor", 0.0);
+    }
+
+    @Test
+    void separate_WritesFourWavStems_WithTheInputDuration() throws Exception {
+        syntheticSeparationEngine.separate(new String[]{"-d", "cpu", inputFile.toString()}, line -> { });
+
+        Path trackDirectory = demucsOutputDirectory.resolve("separated/htdemucs/song");
+        for (String stem : List.of("drums", "bass", "other", "vocals")) {
+            WavUtils.WavHeader header = WavUtils.readHeader(trackDirectory.resolve(stem + ".wav"));
+            assertEquals(2, header.getChannels());
+            assertEquals(44100, header.getSampleRate());
+            assertEquals(3.0, header.getDurationSeconds(), 0.001, "Stem " + stem + " should be as long as the input.");
+        }
+    }
+
+    @Test
+    void separate_WritesTwoMp3Stems_ForVocalRemover() throws Exception {
+        syntheticSeparationEngine.separate(new String[]{"--two-stems=vocals", "--mp3", "cpu", inputFile.toString()}, line -> { });
+
+        Path trackDirectory = demucsOutputDirectory.resolve("separated/htdemucs/song");
+        try (var stems = Files.list(trackDirectory)) {
+            assertEquals(List.of("no_vocals.mp3", "vocals.mp3"), stems.map(stem -> stem.getFileName().toString()).sorted().toList());
+        }
+        byte[] vocals = Files.readAllBytes(trackDirectory.resolve("vocals.mp3"));
+        assertEquals((byte) 0xFF, vocals[0], "The stem should start with an MP3 frame sync.");
+        assertEquals(0, vocals.length % 417, "The stem should be made of whole frames.");
+    }
+
+    @Test
+    void separate_FollowsTheModelName_AndReportsProgress() throws Exception {
+        List<String> output = new ArrayList<>();
+
+        syntheticSeparationEngine.separate(new String[]{"-n", "mdx_extra", "-d", "cpu", inputFile.toString()}, output::add);
+
+        assertTrue(Files.isDirectory(demucsOutputDirectory.resolve("separated/mdx_extra/song")));
+        assertTrue(output.stream().anyMatch(line -> line.trim().startsWith("100%|")), "A final tqdm-like progress line should be printed.");
+    }
+
+    @Test
+    void separate_ThrowsIOException_WhenNoInputIsGiven() {
+        assertThrows(IOException.class, () -> syntheticSeparationEngine.separate(new String[]{"-d", "cpu"}, line -> { }));
+        assertFalse(Files.exists(demucsOutputDirectory.resolve("separated")));
+    }
+
+    private void writeSilentWav(Path wavFile, int frames) throws IOException {
+        WavUtils.WavHeader format = new WavUtils.WavHeader(WavUtils.FORMAT_PCM, 2, 44100, 16, 44, (long) frames * 4);
+        try (FileChannel channel = FileChannel.open(wavFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            WavUtils.writeCanonicalHeader(channel, format, format.getDataSize());
+            channel.write(ByteBuffer.allocate(frames * 4));
+        }
+    }
+}
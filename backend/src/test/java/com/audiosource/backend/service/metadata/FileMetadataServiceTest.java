@@ -8,11 +8,14 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -113,6 +116,56 @@ public class FileMetadataServiceTest {
         verify(fileMetadataRepository, never()).save(any(FileMetadata.class));
     }
 
+    /* Test cases for updateStemDownloadUrls() method */
+
+    @Test
+    void updateStemDownloadUrls_ShouldUpdateUrlsAndPrefix_WhenFileMetadataExists() {
+
+        Map<String, String> stemDownloadUrls = Map.of("vocals", "http://example.com/vocals.wav");
+        when(fileMetadataRepository.findByCorrelationId("test-correlation-id")).thenReturn(Optional.of(fileMetadata));
+
+        boolean result = fileMetadataService.updateStemDownloadUrls("test-correlation-id", stemDownloadUrls, "separated/stems/");
+
+        assertTrue(result);
+        assertEquals(stemDownloadUrls, fileMetadata.getStemDownloadUrls());
+        assertEquals("separated/stems/", fileMetadata.getResultKeyName());
+        verify(fileMetadataRepository).save(fileMetadata);
+    }
+
+    /* Test cases for clearResults() method */
+
+    @Test
+    void clearResults_ShouldRemoveResultKeyAndDownloadUrls() {
+
+        fileMetadata.setResultKeyName("separated/result.zip");
+        fileMetadata.setDownloadUrl("http://example.com/result.zip");
+        fileMetadata.setStemDownloadUrls(Map.of("vocals", "http://example.com/vocals.wav"));
+
+        fileMetadataService.clearResults(List.of(fileMetadata));
+
+        assertNull(fileMetadata.getResultKeyName());
+        assertNull(fileMetadata.getDownloadUrl());
+        assertNull(fileMetadata.getStemDownloadUrls());
+        verify(fileMetadataRepository).saveAll(List.of(fileMetadata));
+    }
+
+    /* Test cases for updateAudioProperties() method */
+
+    @Test
+    void updateAudioProperties_ShouldUpdateAndReturnTrue_WhenFileMetadataExists() {
+
+        when(fileMetadataRepository.findByCorrelationId("test-correlation-id")).thenReturn(Optional.of(fileMetadata));
+
+        boolean result = fileMetadataService.updateAudioProperties("test-correlation-id", "mp3", 215.5, 44100, 2);
+
+        assertTrue(result);
+        assertEquals("mp3", fileMetadata.getAudioFormat());
+        assertEquals(215.5, fileMetadata.getDurationSeconds());
+        assertEquals(44100, fileMetadata.getSampleRate());
+        assertEquals(2, fileMetadata.getChannels());
+        verify(fileMetadataRepository).save(fileMetadata);
+    }
+
     /* Test cases for findUserEmailByCorrelationId() method */
 
     @Test
@@ -10,6 +10,9 @@ import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -128,4 +131,31 @@ public class NotificationServiceTest {
 
         assertFalse(result, "The result should be false when download URL is null");
     }
+
+    @Test
+    public void testSendStemsEmailToUser_Success_ShouldListEveryStem() {
+
+        Map<String, String> stemDownloadUrls = new LinkedHashMap<>();
+        stemDownloadUrls.put("vocals", downloadUrl + "/vocals.wav");
+        stemDownloadUrls.put("drums", downloadUrl + "/drums.wav");
+
+        boolean result = notificationService.sendStemsEmailToUser(recipient, stemDownloadUrls);
+
+        ArgumentCaptor<SimpleMailMessage> messageCaptor = ArgumentCaptor.forClass(SimpleMailMessage.class);
+        verify(mailSender, times(1)).send(messageCaptor.capture());
+
+        assertEquals("You can download your separated stems at:\nvocals: " + downloadUrl + "/vocals.wav\ndrums: " + downloadUrl + "/drums.wav",
+                messageCaptor.getValue().getText(), "Email body should contain one line per stem");
+        assertTrue(result, "The result should be true when the email is sent successfully");
+    }
+
+    @Test
+    public void testSendStemsEmailToUser_EmptyStems_ShouldFailToSend() {
+
+        boolean result = notificationService.sendStemsEmailToUser(recipient, Map.of());
+
+        verify(mailSender, never()).send(any(SimpleMailMessage.class));
+
+        assertFalse(result, "The result should be false when there are no stem download URLs");
+    }
 }
@@ -3,35 +3,42 @@ package com.audiosource.backend.service.s3;
 import com.audiosource.backend.dto.AudioFileMessage;
 import com.audiosource.backend.enums.OutputFormat;
 import com.audiosource.backend.enums.SeparationType;
+import com.audiosource.backend.service.cache.InputCacheService;
+import com.audiosource.backend.service.scratch.ScratchSpaceManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockedConstruction;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
-import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 import software.amazon.awssdk.transfer.s3.model.CompletedFileDownload;
 import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
 import software.amazon.awssdk.transfer.s3.model.FileDownload;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
@@ -40,11 +47,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -62,7 +71,12 @@ public class S3DownloadServiceTest {
     @Mock
     private S3Exception s3Exception;
 
-    @InjectMocks
+    @Mock
+    private InputCacheService inputCacheService;
+
+    @Mock
+    private ScratchSpaceManager scratchSpaceManager;
+
     private S3DownloadService s3DownloadService;
 
     private final String bucketName = "test-bucket";
@@ -74,9 +88,19 @@ public class S3DownloadServiceTest {
     void setUp() throws IOException {
         tempDirectory = Files.createTempDirectory("_temp");
 
+        // Parts are downloaded on the calling thread
+        s3DownloadService = new S3DownloadService(s3Client, s3TransferManager, Runnable::run, inputCacheService, scratchSpaceManager);
+        // The input cache is checked after the HEAD request and keeps the downloaded file where it is
+        lenient().when(inputCacheService.isRevalidating()).thenReturn(true);
+        lenient().when(inputCacheService.store(any(), any(), any())).thenAnswer(invocation -> invocation.getArgument(2).toString());
+
         // Use reflection to set bucketName and originalDirectoryPath since they're injected fields
         ReflectionTestUtils.setField(s3DownloadService, "bucketName", bucketName);
         ReflectionTestUtils.setField(s3DownloadService, "originalDirectoryPath", tempDirectory.toString() + File.separator);
+        ReflectionTestUtils.setField(s3DownloadService, "downloadChunkSize", 8 * 1024);
+        ReflectionTestUtils.setField(s3DownloadService, "downloadParallelism", 4);
+        ReflectionTestUtils.setField(s3DownloadService, "minPartSize", 1024L * 1024);
+        ReflectionTestUtils.setField(s3DownloadService, "maxPartSize", 32L * 1024 * 1024);
 
         // Initialize AudioFileMessage object
         audioFileMessage = new AudioFileMessage(
@@ -107,23 +131,184 @@ public class S3DownloadServiceTest {
         }
     }
 
+    // Wrap the given content in the stream returned by S3Client.getObject, announcing the given content length
+    private ResponseInputStream<GetObjectResponse> objectStream(InputStream content, long contentLength) {
+        GetObjectResponse response = GetObjectResponse.builder().contentLength(contentLength).build();
+        return new ResponseInputStream<>(response, AbortableInputStream.create(content));
+    }
+
+    // The HEAD request returns the real size of the object
+    private void mockHeadObject(long contentLength) {
+        when(s3Client.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().contentLength(contentLength).eTag("\"etag\"").build());
+    }
+
     @Test
-    void getObjectFromBucket_ValidSmallFile_ShouldDownloadSuccessfully() {
+    void getObjectFromBucket_ValidSmallFile_ShouldDownloadSuccessfully() throws IOException {
 
-        long smallFileSizeInBytes = 50 * 1024; // 50 MB
+        long smallFileSizeInBytes = 50 * 1024 + 123; // Not a multiple of the chunk size
         byte[] fileData = new byte[(int) smallFileSizeInBytes];
         Arrays.fill(fileData, (byte) 'a'); // Fill with dummy data
 
-        // Create a ResponseBytes object with the file data
-        ResponseBytes<GetObjectResponse> responseBytes = ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), fileData);
-        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenReturn(responseBytes);
+        mockHeadObject(smallFileSizeInBytes);
+        when(s3Client.getObject(any(GetObjectRequest.class)))
+                .thenReturn(objectStream(new ByteArrayInputStream(fileData), smallFileSizeInBytes));
 
         Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
 
         assertTrue(result.isPresent(), "The result should be present");
         assertEquals(tempDirectory.toString() + File.separator + keyName, result.get(), "The file path should match");
+        assertTrue(Arrays.equals(fileData, Files.readAllBytes(Path.of(result.get()))), "The file content should match the object");
+
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+        verify(inputCacheService).store(eq(keyName), eq("\"etag\""), any(Path.class));
+    }
+
+    @Test
+    void getObjectFromBucket_JobWithWorkspace_ShouldDownloadIntoWorkspace() throws IOException {
+
+        Path workspaceDirectory = Files.createDirectory(tempDirectory.resolve("test-correlation-id"));
+        ScratchSpaceManager.Workspace workspace = mock(ScratchSpaceManager.Workspace.class);
+        when(workspace.getDirectory()).thenReturn(workspaceDirectory);
+        when(scratchSpaceManager.find("test-correlation-id")).thenReturn(Optional.of(workspace));
+        byte[] fileData = "audio".getBytes();
+        mockHeadObject(fileData.length);
+        when(s3Client.getObject(any(GetObjectRequest.class)))
+                .thenReturn(objectStream(new ByteArrayInputStream(fileData), fileData.length));
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertTrue(result.isPresent(), "The result should be present");
+        assertEquals(workspaceDirectory.resolve(keyName).toString(), result.get(), "The file should be downloaded into the workspace");
+        assertFalse(Files.exists(tempDirectory.resolve(keyName)), "Nothing should be written to the shared input directory");
+    }
+
+    @Test
+    void getObjectFromBucket_CachedOriginal_ShouldSkipDownload() {
+
+        mockHeadObject(1024);
+        when(inputCacheService.acquire(keyName, "\"etag\"")).thenReturn(Optional.of("/cache/test-file.mp3"));
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertEquals(Optional.of("/cache/test-file.mp3"), result);
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+        verify(inputCacheService, never()).store(any(), any(), any());
+    }
+
+    @Test
+    void getObjectFromBucket_CachedOriginalWithoutRevalidation_ShouldSkipHeadRequest() {
+
+        when(inputCacheService.isRevalidating()).thenReturn(false);
+        when(inputCacheService.acquire(keyName, null)).thenReturn(Optional.of("/cache/test-file.mp3"));
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertEquals(Optional.of("/cache/test-file.mp3"), result);
+        verifyNoInteractions(s3Client, s3TransferManager);
+    }
+
+    @Test
+    void inspectObject_CachedOriginalWithoutRevalidation_ShouldSkipHeadRequest() {
+
+        when(inputCacheService.isRevalidating()).thenReturn(false);
+        when(inputCacheService.findSize(keyName)).thenReturn(OptionalLong.of(1234));
+
+        assertEquals(1234, s3DownloadService.inspectObject(audioFileMessage).getSizeBytes());
+        verifyNoInteractions(s3Client, s3TransferManager);
+    }
+
+    @Test
+    void getObjectFromBucket_InspectedObject_ShouldReuseHeadRequest() {
 
-        verify(s3Client, times(1)).getObjectAsBytes(any(GetObjectRequest.class));
+        byte[] fileData = "audio".getBytes();
+        mockHeadObject(fileData.length);
+        when(s3Client.getObject(any(GetObjectRequest.class)))
+                .thenReturn(objectStream(new ByteArrayInputStream(fileData), fileData.length));
+
+        S3DownloadService.ObjectInfo objectInfo = s3DownloadService.inspectObject(audioFileMessage);
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage, objectInfo);
+
+        assertTrue(result.isPresent(), "The result should be present");
+        assertEquals(fileData.length, objectInfo.getSizeBytes(), "The size should come from S3, not from the client");
+        verify(s3Client, times(1)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    void getObjectFromBucket_TruncatedSmallFile_ShouldReturnEmptyOptionalAndDeletePartialFile() {
+
+        byte[] fileData = new byte[10 * 1024];
+        mockHeadObject(20 * 1024);
+        when(s3Client.getObject(any(GetObjectRequest.class)))
+                .thenReturn(objectStream(new ByteArrayInputStream(fileData), 20 * 1024));
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertFalse(result.isPresent(), "Result should be empty when fewer bytes than the content length are received");
+        assertFalse(Files.exists(tempDirectory.resolve(keyName)), "The partial file should be deleted");
+    }
+
+    // Serve the ranged GETs of the parallel download from the given content
+    private void mockRangedGets(byte[] content, int truncatedPart) {
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            String[] range = request.range().substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Integer.parseInt(range[1]);
+            int length = start / (1024 * 1024) == truncatedPart ? (end - start + 1) / 2 : end - start + 1;
+            return objectStream(new ByteArrayInputStream(content, start, length), end - start + 1);
+        });
+    }
+
+    @Test
+    void getObjectFromBucket_MidSizeFile_ShouldDownloadWithParallelRangedGets() throws IOException {
+
+        byte[] fileData = new byte[7 * 1024 * 1024 + 5];
+        new Random(42).nextBytes(fileData);
+        ReflectionTestUtils.setField(s3DownloadService, "maxPartSize", 1024L * 1024);
+        mockHeadObject(fileData.length);
+        mockRangedGets(fileData, -1);
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertTrue(result.isPresent(), "The result should be present");
+        assertTrue(Arrays.equals(fileData, Files.readAllBytes(Path.of(result.get()))), "The parts should be written at their offsets");
+
+        ArgumentCaptor<GetObjectRequest> requestCaptor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3Client, times(8)).getObject(requestCaptor.capture());
+        assertEquals("bytes=7340032-7340036", requestCaptor.getAllValues().get(7).range(), "The last part should end with the object");
+        assertTrue(requestCaptor.getAllValues().stream().allMatch(request -> "\"etag\"".equals(request.ifMatch())),
+                "Every part should be bound to the ETag of the HEAD response");
+    }
+
+    @Test
+    void getObjectFromBucket_TruncatedPart_ShouldReturnEmptyOptionalAndDeletePartialFile() {
+
+        byte[] fileData = new byte[7 * 1024 * 1024];
+        ReflectionTestUtils.setField(s3DownloadService, "maxPartSize", 1024L * 1024);
+        mockHeadObject(fileData.length);
+        mockRangedGets(fileData, 3);
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertFalse(result.isPresent(), "Result should be empty when one of the parts is truncated");
+        assertFalse(Files.exists(tempDirectory.resolve(keyName)), "The partial file should be deleted");
+    }
+
+    @Test
+    void getObjectFromBucket_FailedPart_ShouldSkipPartsNotStartedYet() {
+
+        byte[] fileData = new byte[7 * 1024 * 1024];
+        ReflectionTestUtils.setField(s3DownloadService, "maxPartSize", 1024L * 1024);
+        mockHeadObject(fileData.length);
+        mockRangedGets(fileData, 0);
+
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+
+        assertFalse(result.isPresent(), "Result should be empty when the first part fails");
+        // Parts run on the calling thread, so every part after the failed one is submitted once the download is lost
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+        assertFalse(Files.exists(tempDirectory.resolve(keyName)), "The partial file should be deleted");
     }
 
     @Test
@@ -152,6 +337,7 @@ public class S3DownloadServiceTest {
 
         CompletableFuture<CompletedFileDownload> future = CompletableFuture.completedFuture(completedFileDownload);
 
+        mockHeadObject(largeFileSizeInBytes);
         when(s3TransferManager.downloadFile(any(DownloadFileRequest.class))).thenReturn(fileDownload);
         when(fileDownload.completionFuture()).thenReturn(future);
 
@@ -170,32 +356,33 @@ public class S3DownloadServiceTest {
         assertAll("downloadFileRequest",
                 () -> assertEquals(bucketName, capturedRequest.getObjectRequest().bucket(), "Bucket name should match"),
                 () -> assertEquals(keyName, capturedRequest.getObjectRequest().key(), "Key name should match"),
-                () -> assertEquals(expectedFilePath, capturedRequest.destination().toString(), "Destination directory should match")
+                () -> assertEquals(expectedFilePath, capturedRequest.destination().toString(), "Destination directory should match"),
+                () -> assertTrue(capturedRequest.transferListeners().stream().anyMatch(TransferMetricsListener.class::isInstance),
+                        "The download should be measured")
         );
+        verify(s3TransferManager, never()).close();
     }
 
     @Test
     void getObjectFromBucket_IOExceptionDuringSmallFileDownload_ShouldReturnEmptyOptional() {
 
-        byte[] fileData = new byte[(int) audioFileMessage.getFileSize()];
-        Arrays.fill(fileData, (byte) 'a');
-        ResponseBytes<GetObjectResponse> responseBytes = ResponseBytes.fromByteArray(GetObjectResponse.builder().build(), fileData);
-
-        // Mock the S3 client to return the ResponseBytes
-        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenReturn(responseBytes);
-
-        // Simulate IOException when writing to the output stream
-        try (MockedConstruction<FileOutputStream> mocked = mockConstruction(FileOutputStream.class,
-                (mock, context) -> {
-                    doThrow(new IOException("Simulated IOException during file writing")).when(mock).write(any(byte[].class));
-                })) {
+        // The connection drops after the first 16 KB of the object
+        InputStream failingStream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Simulated IOException during download");
+            }
+        };
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(new byte[16 * 1024]), failingStream);
+        mockHeadObject(1024 * 1024);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(objectStream(content, 1024 * 1024));
 
-            Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
+        Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
 
-            assertFalse(result.isPresent(), "Result should be empty due to IOException during download");
+        assertFalse(result.isPresent(), "Result should be empty due to IOException during download");
+        assertFalse(Files.exists(tempDirectory.resolve(keyName)), "The partial file should be deleted");
 
-            verify(s3Client, times(1)).getObjectAsBytes(any(GetObjectRequest.class));
-        }
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
     }
 
     @Test
@@ -217,6 +404,7 @@ public class S3DownloadServiceTest {
         CompletableFuture<CompletedFileDownload> failedFuture = new CompletableFuture<>();
         failedFuture.completeExceptionally(new IOException("Simulated IOException during large file download"));
 
+        mockHeadObject(largeFileSizeInBytes);
         when(s3TransferManager.downloadFile(any(DownloadFileRequest.class))).thenReturn(fileDownload);
         when(fileDownload.completionFuture()).thenReturn(failedFuture);
 
@@ -233,26 +421,28 @@ public class S3DownloadServiceTest {
         when(awsErrorDetails.errorMessage()).thenReturn("An S3 error occurred");
         when(s3Exception.awsErrorDetails()).thenReturn(awsErrorDetails);
 
-        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenThrow(s3Exception);
+        mockHeadObject(1024);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(s3Exception);
 
         Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
 
         assertFalse(result.isPresent());
 
-        verify(s3Client, times(1)).getObjectAsBytes(any(GetObjectRequest.class));
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
     }
 
     @Test
     void getObjectFromBucket_GeneralException_ShouldReturnEmptyOptional() {
 
         // Mock a general exception during the small file download process
-        when(s3Client.getObjectAsBytes(any(GetObjectRequest.class))).thenThrow(new RuntimeException("Simulated general exception"));
+        mockHeadObject(1024);
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(new RuntimeException("Simulated general exception"));
 
         Optional<String> result = s3DownloadService.getObjectFromBucket(audioFileMessage);
 
         assertFalse(result.isPresent(), "Result should be empty due to general exception");
 
-        verify(s3Client, times(1)).getObjectAsBytes(any(GetObjectRequest.class));
+        verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
     }
 
     @Test
@@ -275,6 +465,7 @@ public class S3DownloadServiceTest {
         CompletableFuture<CompletedFileDownload> failedFuture = new CompletableFuture<>();
         failedFuture.completeExceptionally(new RuntimeException("Simulated general exception during large file download"));
 
+        mockHeadObject(largeFileSizeInBytes);
         when(s3TransferManager.downloadFile(any(DownloadFileRequest.class))).thenReturn(fileDownload);
         when(fileDownload.completionFuture()).thenReturn(failedFuture);
 
@@ -0,0 +1,189 @@
+package com.audiosource.backend.service.s3;
+
+import com.audiosource.backend.dto.MultipartUploadInitiation;
+import com.audiosource.backend.dto.MultipartUploadRequest;
+import com.audiosource.backend.exception.S3UploadException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class S3MultipartUploadServiceTest {
+
+    private static final long MB = 1024 * 1024;
+    private final String bucketName = "test-bucket";
+    private final String key = "uploads/song.wav";
+    private final String uploadId = "upload-1";
+
+    @Mock
+    private S3Client s3Client;
+
+    @Mock
+    private S3Presigner s3Presigner;
+
+    private S3MultipartUploadService s3MultipartUploadService;
+
+    @BeforeEach
+    void setUp() {
+        s3MultipartUploadService = new S3MultipartUploadService(s3Client, s3Presigner);
+        ReflectionTestUtils.setField(s3MultipartUploadService, "bucketName", bucketName);
+        ReflectionTestUtils.setField(s3MultipartUploadService, "minPartSize", 8 * MB);
+        ReflectionTestUtils.setField(s3MultipartUploadService, "maxPresignBatch", 3);
+        ReflectionTestUtils.setField(s3MultipartUploadService, "urlExpiryMinutes", 30L);
+    }
+
+    @Test
+    void initiateUpload_ValidInput_ShouldReturnUploadIdAndParts() throws S3UploadException {
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId(uploadId).build());
+
+        MultipartUploadInitiation initiation = s3MultipartUploadService.initiateUpload(key, "audio/wav", 20 * MB);
+
+        assertEquals(uploadId, initiation.getUploadId());
+        assertEquals(8 * MB, initiation.getPartSize());
+        assertEquals(3, initiation.getPartCount());
+        ArgumentCaptor<CreateMultipartUploadRequest> captor = ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(s3Client).createMultipartUpload(captor.capture());
+        assertEquals(bucketName, captor.getValue().bucket());
+        assertEquals(key, captor.getValue().key());
+        assertEquals("audio/wav", captor.getValue().contentType());
+    }
+
+    @Test
+    void initiateUpload_SdkException_ShouldThrowS3UploadException() {
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenThrow(SdkException.builder().message("Access denied").build());
+
+        S3UploadException exception = assertThrows(S3UploadException.class, () ->
+                s3MultipartUploadService.initiateUpload(key, "audio/wav", 20 * MB));
+
+        assertEquals("Failed to initiate multipart upload", exception.getMessage());
+    }
+
+    @Test
+    void initiateUpload_InvalidFileSize_ShouldThrowIllegalArgumentException() {
+
+        assertThrows(IllegalArgumentException.class, () -> s3MultipartUploadService.initiateUpload(key, "audio/wav", 0));
+        verifyNoInteractions(s3Client);
+    }
+
+    @Test
+    void choosePartSize_LargeFile_ShouldKeepPartsWithinLimit() {
+
+        long fileSize = 200_000 * MB; // Would need 25000 parts of 8MB
+
+        long partSize = s3MultipartUploadService.choosePartSize(fileSize);
+
+        assertEquals(20 * MB, partSize);
+        assertEquals(0, partSize % MB, "The part size should be a whole number of MB");
+        assertThrows(IllegalArgumentException.class, () ->
+                s3MultipartUploadService.choosePartSize(S3MultipartUploadService.MAX_PART_SIZE * S3MultipartUploadService.MAX_PARTS + 1));
+    }
+
+    @Test
+    void presignParts_ValidInput_ShouldReturnUrlByPartNumber() throws MalformedURLException {
+
+        PresignedUploadPartRequest presignedRequest = mock(PresignedUploadPartRequest.class);
+        when(presignedRequest.url()).thenReturn(URI.create("https://test-bucket.s3.amazonaws.com/part").toURL());
+        when(s3Presigner.presignUploadPart(any(UploadPartPresignRequest.class))).thenReturn(presignedRequest);
+
+        Map<Integer, String> partUrls = s3MultipartUploadService.presignParts(key, uploadId, List.of(3, 1));
+
+        assertEquals(List.of(3, 1), List.copyOf(partUrls.keySet()));
+        ArgumentCaptor<UploadPartPresignRequest> captor = ArgumentCaptor.forClass(UploadPartPresignRequest.class);
+        verify(s3Presigner, times(2)).presignUploadPart(captor.capture());
+        assertEquals(uploadId, captor.getAllValues().get(0).uploadPartRequest().uploadId());
+        assertEquals(3, captor.getAllValues().get(0).uploadPartRequest().partNumber());
+    }
+
+    @Test
+    void presignParts_InvalidBatch_ShouldThrowIllegalArgumentException() {
+
+        assertThrows(IllegalArgumentException.class, () ->
+                s3MultipartUploadService.presignParts(key, uploadId, List.of(1, 2, 3, 4)));
+        assertThrows(IllegalArgumentException.class, () ->
+                s3MultipartUploadService.presignParts(key, uploadId, List.of(0)));
+        assertThrows(IllegalArgumentException.class, () ->
+                s3MultipartUploadService.presignParts(key, uploadId, Collections.emptyList()));
+        verifyNoInteractions(s3Presigner);
+    }
+
+    @Test
+    void completeUpload_PartsOutOfOrder_ShouldCompleteWithSortedParts() throws S3UploadException {
+
+        List<MultipartUploadRequest.Part> parts = List.of(
+                new MultipartUploadRequest.Part(2, "etag-2"),
+                new MultipartUploadRequest.Part(1, "etag-1"));
+
+        s3MultipartUploadService.completeUpload(key, uploadId, parts);
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(captor.capture());
+        assertEquals(uploadId, captor.getValue().uploadId());
+        assertEquals(List.of(1, 2), captor.getValue().multipartUpload().parts().stream().map(CompletedPart::partNumber).toList());
+        assertEquals("etag-1", captor.getValue().multipartUpload().parts().get(0).eTag());
+    }
+
+    @Test
+    void completeUpload_SdkException_ShouldThrowS3UploadException() {
+
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenThrow(SdkException.builder().message("Invalid part").build());
+
+        S3UploadException exception = assertThrows(S3UploadException.class, () ->
+                s3MultipartUploadService.completeUpload(key, uploadId, List.of(new MultipartUploadRequest.Part(1, "etag-1"))));
+
+        assertEquals("Failed to complete multipart upload", exception.getMessage());
+    }
+
+    @Test
+    void completeUpload_MissingETag_ShouldThrowIllegalArgumentException() {
+
+        assertThrows(IllegalArgumentException.class, () ->
+                s3MultipartUploadService.completeUpload(key, uploadId, List.of(new MultipartUploadRequest.Part(1, null))));
+        verifyNoInteractions(s3Client);
+    }
+
+    @Test
+    void abortUpload_ValidInput_ShouldAbortMultipartUpload() throws S3UploadException {
+
+        s3MultipartUploadService.abortUpload(key, uploadId);
+
+        ArgumentCaptor<AbortMultipartUploadRequest> captor = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3Client).abortMultipartUpload(captor.capture());
+        assertEquals(bucketName, captor.getValue().bucket());
+        assertEquals(key, captor.getValue().key());
+        assertEquals(uploadId, captor.getValue().uploadId());
+    }
+}
@@ -0,0 +1,176 @@
+package com.audiosource.backend.service.s3;
+
+import com.audiosource.backend.util.S3Utils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class S3MultipartUploadStreamTest {
+
+    private static final String BUCKET_NAME = "test-bucket";
+    private static final String OBJECT_KEY = "separated/result.zip";
+
+    @Mock
+    private S3Client s3Client;
+
+    @TempDir
+    Path tempDirectory;
+
+    // Parts received by the mocked client, by part number
+    private final Map<Integer, byte[]> uploadedParts = new TreeMap<>();
+
+    private void mockCreateMultipartUpload() {
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-id").build());
+    }
+
+    private void mockUploadPart() {
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream content = body.contentStreamProvider().newStream()) {
+                synchronized (uploadedParts) {
+                    uploadedParts.put(request.partNumber(), content.readAllBytes());
+                }
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+    }
+
+    private byte[] uploadedObject() throws IOException {
+        ByteArrayOutputStream object = new ByteArrayOutputStream();
+        for (byte[] part : uploadedParts.values()) {
+            object.write(part);
+        }
+        return object.toByteArray();
+    }
+
+    @Test
+    void close_CompletesUploadWithPartsInOrder() throws IOException {
+        mockCreateMultipartUpload();
+        mockUploadPart();
+        byte[] content = new byte[2500];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        S3MultipartUploadStream uploadStream = new S3MultipartUploadStream(s3Client, BUCKET_NAME, OBJECT_KEY, "application/zip", 1000, 2, Runnable::run);
+        uploadStream.write(content, 0, 1500);
+        uploadStream.write(content, 1500, 1000);
+        uploadStream.close();
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(captor.capture());
+        assertEquals("upload-id", captor.getValue().uploadId());
+        assertEquals(3, captor.getValue().multipartUpload().parts().size());
+        assertEquals(3, captor.getValue().multipartUpload().parts().get(2).partNumber());
+        assertEquals("etag-3", captor.getValue().multipartUpload().parts().get(2).eTag());
+        assertEquals(500, uploadedParts.get(3).length, "The last part holds the rest of the stream");
+        assertArrayEquals(content, uploadedObject());
+        verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    void writeZipDirectory_StreamsReadableArchive() throws IOException {
+        mockCreateMultipartUpload();
+        mockUploadPart();
+        Path stems = Files.createDirectory(tempDirectory.resolve("stems"));
+        byte[] vocals = new byte[5000];
+        new Random(42).nextBytes(vocals);
+        Files.write(stems.resolve("vocals.mp3"), vocals);
+        Files.writeString(stems.resolve("no_vocals.mp3"), "instrumental");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (S3MultipartUploadStream uploadStream = new S3MultipartUploadStream(s3Client, BUCKET_NAME, OBJECT_KEY, "application/zip", 1024, 2, executor)) {
+            S3Utils.writeZipDirectory(stems, uploadStream);
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(uploadedObject()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), zipInputStream.readAllBytes());
+            }
+        }
+        assertTrue(uploadedParts.size() > 1, "The archive should be uploaded in several parts");
+        assertArrayEquals(vocals, entries.get("vocals.mp3"));
+        assertEquals("instrumental", new String(entries.get("no_vocals.mp3")));
+    }
+
+    @Test
+    void write_FailsAndCloseAbortsUpload_WhenPartUploadFails() {
+        mockCreateMultipartUpload();
+        AtomicInteger attempts = new AtomicInteger();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            attempts.incrementAndGet();
+            throw SdkClientException.create("Connection reset");
+        });
+
+        S3MultipartUploadStream uploadStream = new S3MultipartUploadStream(s3Client, BUCKET_NAME, OBJECT_KEY, "application/zip", 100, 2, Runnable::run);
+
+        IOException exception = assertThrows(IOException.class, () -> uploadStream.write(new byte[500]));
+
+        assertEquals(1, attempts.get(), "No part should be uploaded after a failed one");
+        assertTrue(exception.getCause() instanceof SdkClientException);
+        assertThrows(IOException.class, uploadStream::close);
+        ArgumentCaptor<AbortMultipartUploadRequest> captor = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3Client).abortMultipartUpload(captor.capture());
+        assertEquals("upload-id", captor.getValue().uploadId());
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void abort_AbortsUploadWithoutCompletingIt() throws IOException {
+        mockCreateMultipartUpload();
+        mockUploadPart();
+
+        S3MultipartUploadStream uploadStream = new S3MultipartUploadStream(s3Client, BUCKET_NAME, OBJECT_KEY, "application/zip", 100, 2, Runnable::run);
+        uploadStream.write(new byte[250]);
+        uploadStream.abort();
+        uploadStream.close();
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        assertThrows(IOException.class, () -> uploadStream.write(1));
+    }
+}
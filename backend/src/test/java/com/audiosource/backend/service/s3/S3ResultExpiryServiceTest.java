@@ -0,0 +1,112 @@
+package com.audiosource.backend.service.s3;
+
+import com.audiosource.backend.entities.FileMetadata;
+import com.audiosource.backend.service.cache.ResultCacheService;
+import com.audiosource.backend.service.metadata.FileMetadataService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class S3ResultExpiryServiceTest {
+
+    private static final String BUCKET_NAME = "test-bucket";
+
+    @Mock
+    private S3UploadService s3UploadService;
+
+    @Mock
+    private FileMetadataService fileMetadataService;
+
+    @Mock
+    private ResultCacheService resultCacheService;
+
+    private S3ResultExpiryService s3ResultExpiryService;
+    private final Date cutoff = new Date();
+
+    @BeforeEach
+    void setUp() {
+        s3ResultExpiryService = new S3ResultExpiryService(s3UploadService, fileMetadataService, resultCacheService);
+        ReflectionTestUtils.setField(s3ResultExpiryService, "bucketName", BUCKET_NAME);
+        ReflectionTestUtils.setField(s3ResultExpiryService, "enabled", true);
+        ReflectionTestUtils.setField(s3ResultExpiryService, "retentionDays", 7L);
+        ReflectionTestUtils.setField(s3ResultExpiryService, "batchSize", 100);
+    }
+
+    private static FileMetadata result(String resultKeyName) {
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setResultKeyName(resultKeyName);
+        return fileMetadata;
+    }
+
+    @Test
+    void sweep_ExpiredResults_ShouldDeleteZipsAndStemsInOneBatch() {
+
+        FileMetadata zipResult = result("separated/result.zip");
+        FileMetadata stemsResult = result("separated/stems/");
+        FileMetadata sharedResult = result("separated/shared.zip");
+        when(fileMetadataService.findExpiredResults(cutoff, 100))
+                .thenReturn(List.of(zipResult, stemsResult, sharedResult), Collections.emptyList());
+        when(fileMetadataService.isResultReferencedSince(any(), eq(cutoff))).thenAnswer(invocation ->
+                invocation.getArgument(0).equals("separated/shared.zip"));
+        when(s3UploadService.listObjectKeys(BUCKET_NAME, "separated/stems/"))
+                .thenReturn(List.of("separated/stems/vocals.wav", "separated/stems/drums.wav"));
+        when(s3UploadService.deleteObjectsFromS3(eq(BUCKET_NAME), any())).thenReturn(Collections.emptySet());
+
+        long deletedObjects = s3ResultExpiryService.sweep(cutoff);
+
+        assertEquals(3, deletedObjects);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<String>> keysCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(s3UploadService).deleteObjectsFromS3(eq(BUCKET_NAME), keysCaptor.capture());
+        assertEquals(Set.of("separated/result.zip", "separated/stems/vocals.wav", "separated/stems/drums.wav"), Set.copyOf(keysCaptor.getValue()));
+        // The shared result is still served to a recent job, only the old job forgets it
+        verify(fileMetadataService).clearResults(List.of(zipResult, stemsResult, sharedResult));
+        verify(resultCacheService).forgetResultKeys(Set.of("separated/result.zip", "separated/stems/"));
+        assertEquals(3, s3ResultExpiryService.getExpiredResults());
+    }
+
+    @Test
+    void sweep_DeleteFails_ShouldKeepResultKeyForNextSweep() {
+
+        FileMetadata zipResult = result("separated/result.zip");
+        when(fileMetadataService.findExpiredResults(any(Date.class), anyInt())).thenReturn(List.of(zipResult));
+        when(s3UploadService.deleteObjectsFromS3(eq(BUCKET_NAME), any())).thenReturn(Set.of("separated/result.zip"));
+
+        long deletedObjects = s3ResultExpiryService.sweep(cutoff);
+
+        assertEquals(0, deletedObjects);
+        verify(fileMetadataService).clearResults(Collections.emptyList());
+        verify(resultCacheService, never()).forgetResultKeys(Set.of("separated/result.zip"));
+        assertEquals(1, s3ResultExpiryService.getFailedObjects());
+    }
+
+    @Test
+    void expireResults_EnabledWithoutRetention_ShouldNotDeleteAnything() {
+        ReflectionTestUtils.setField(s3ResultExpiryService, "retentionDays", 0L);
+
+        s3ResultExpiryService.start();
+        s3ResultExpiryService.expireResults();
+
+        verifyNoInteractions(fileMetadataService, s3UploadService);
+    }
+}
@@ -0,0 +1,54 @@
+package com.audiosource.backend.service.s3;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class S3ThroughputEstimatorTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void partSizeBytes_IsClampedToConfiguredBounds() {
+        S3ThroughputEstimator estimator = new S3ThroughputEstimator();
+
+        // 4 x 50 ms x 50 MB/s = 10 MB with the initial estimates
+        assertEquals(10 * MB, estimator.partSizeBytes(MB, 32 * MB));
+        assertEquals(4 * MB, estimator.partSizeBytes(MB, 4 * MB));
+        assertEquals(16 * MB, estimator.partSizeBytes(16 * MB, 32 * MB));
+    }
+
+    @Test
+    void parallelCutoffBytes_NeverParallel_WithSingleConnection() {
+        S3ThroughputEstimator estimator = new S3ThroughputEstimator();
+
+        assertEquals(Long.MAX_VALUE, estimator.parallelCutoffBytes(1, MB));
+    }
+
+    @Test
+    void record_SlowerLinkLowersCutoffAndPartSize() {
+        S3ThroughputEstimator estimator = new S3ThroughputEstimator();
+        long initialCutoff = estimator.parallelCutoffBytes(8, MB);
+        long initialPartSize = estimator.partSizeBytes(MB, 64 * MB);
+
+        // 8 MB GETs at 5 MB/s after 50 ms to the first byte
+        for (int i = 0; i < 40; i++) {
+            estimator.record(8 * MB, 50_000_000L, 50_000_000L + 1_600_000_000L);
+        }
+
+        assertEquals(5.0 * MB, estimator.getBytesPerSecond(), 0.1 * MB);
+        assertTrue(estimator.parallelCutoffBytes(8, MB) < initialCutoff, "A slower link should be parallelized sooner");
+        assertTrue(estimator.partSizeBytes(MB, 64 * MB) < initialPartSize, "A slower link should use smaller parts");
+    }
+
+    @Test
+    void record_SmallTransfersOnlyUpdateLatency() {
+        S3ThroughputEstimator estimator = new S3ThroughputEstimator();
+
+        estimator.record(1024, 150_000_000L, 151_000_000L);
+
+        assertEquals(S3ThroughputEstimator.INITIAL_BYTES_PER_SECOND, estimator.getBytesPerSecond());
+        assertEquals(0.07, estimator.getLatencySeconds(), 1e-9);
+    }
+}
@@ -2,6 +2,7 @@ package com.audiosource.backend.service.s3;
 
 import com.audiosource.backend.exception.S3UploadException;
 import com.audiosource.backend.util.S3Utils;
+import com.audiosource.backend.util.ZipCompressionPolicy;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,12 +16,22 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.http.SdkHttpMethod;
 import software.amazon.awssdk.http.SdkHttpRequest;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
@@ -38,7 +49,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
@@ -51,8 +66,10 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -141,7 +158,7 @@ public class S3UploadServiceTest {
         FileUpload fileUpload = mock(FileUpload.class);
 
         mockedS3Utils = mockStatic(S3Utils.class);
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any())).thenReturn(zipFilePath);
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(), any())).thenReturn(zipFilePath);
         mockedS3Utils.when(S3Utils::generateUniqueDirectoryName).thenReturn("renamedChildDirectory");
 
         CompletedFileUpload completedFileUpload = CompletedFileUpload.builder()
@@ -169,7 +186,7 @@ public class S3UploadServiceTest {
         assertEquals(expectedPresignedUrl, presignedUrl);
 
         mockedS3Utils.verify(() -> S3Utils.generateUniqueDirectoryName(), times(1));
-        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(any()), times(1));
+        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(any(), any()), times(1));
 
         verify(s3TransferManager).uploadFile(any(UploadFileRequest.class));
 
@@ -217,7 +234,7 @@ public class S3UploadServiceTest {
         mockedS3Utils = mockStatic(S3Utils.class);
         mockedS3Utils.when(S3Utils::generateUniqueDirectoryName).thenReturn("renamedChildDirectory");
         // Mocking S3Utils.toZipDirectory to throw an IOException
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any())).thenThrow(new IOException("Mocked IOException"));
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(), any())).thenThrow(new IOException("Mocked IOException"));
 
         S3UploadException exception = assertThrows(S3UploadException.class, () -> {
             s3UploadService.uploadDirectoryAsZipToS3(sourceDirectory.toString(), "test-bucket");
@@ -244,7 +261,7 @@ public class S3UploadServiceTest {
 
         mockedS3Utils = mockStatic(S3Utils.class);
         mockedS3Utils.when(() -> S3Utils.generateUniqueDirectoryName()).thenReturn(newDirectoryName);
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any())).thenReturn(renamedDirectory);
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(), any())).thenReturn(renamedDirectory);
 
         // Mocking the file upload process to throw a CompletionException
         FileUpload fileUpload = mock(FileUpload.class);
@@ -279,7 +296,7 @@ public class S3UploadServiceTest {
 
         mockedS3Utils = mockStatic(S3Utils.class);
         mockedS3Utils.when(() -> S3Utils.generateUniqueDirectoryName()).thenReturn(newDirectoryName);
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any())).thenReturn(renamedDirectory);
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(), any())).thenReturn(renamedDirectory);
 
         // Mocking a general exception during the upload process
         when(s3TransferManager.uploadFile(any(UploadFileRequest.class))).thenThrow(new RuntimeException("Mocked General Exception"));
@@ -307,14 +324,14 @@ public class S3UploadServiceTest {
         Path zipPath = renamedDirectory.resolveSibling("renamedDir.zip");
 
         mockedS3Utils = mockStatic(S3Utils.class);
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(Path.class))).thenReturn(zipPath);
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(Path.class), any())).thenReturn(zipPath);
         mockedS3Utils.when(S3Utils::generateUniqueDirectoryName).thenReturn("renamedDir");
 
         Path result = s3UploadService.prepareDirectoryForUpload(originalDirectory);
 
         assertEquals(zipPath, result);
         mockedS3Utils.verify(S3Utils::generateUniqueDirectoryName);
-        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(renamedDirectory));
+        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(eq(renamedDirectory), any(ZipCompressionPolicy.class)));
 
         assertFalse(Files.exists(originalDirectory), "The original directory should be renamed.");
         assertTrue(Files.exists(renamedDirectory), "The renamed directory should exist.");
@@ -331,7 +348,7 @@ public class S3UploadServiceTest {
 
         mockedS3Utils = mockStatic(S3Utils.class);
         mockedS3Utils.when(() -> S3Utils.generateUniqueDirectoryName()).thenReturn("renamedDir");
-        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(Path.class))).thenReturn(zipPath);
+        mockedS3Utils.when(() -> S3Utils.toZipDirectory(any(Path.class), any())).thenReturn(zipPath);
 
         // Use Mockito to spy on the S3Service to intercept the Files.move call
         S3UploadService spyS3UploadService = spy(s3UploadService);
@@ -377,11 +394,187 @@ public class S3UploadServiceTest {
         assertFalse(Files.exists(zipPath), "The zip file should not exist.");
 
         mockedS3Utils.verify(S3Utils::generateUniqueDirectoryName);
-        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(renamedDirectory));
+        mockedS3Utils.verify(() -> S3Utils.toZipDirectory(eq(renamedDirectory), any(ZipCompressionPolicy.class)));
 
         verifyNoInteractions(s3Client, s3Presigner, s3TransferManager);
     }
 
+    private S3UploadService streamingUploadService() {
+        S3UploadService streamingUploadService = new S3UploadService(s3Presigner, s3TransferManager, s3Client, Runnable::run, Runnable::run, Runnable::run);
+        ReflectionTestUtils.setField(streamingUploadService, "streamZip", true);
+        ReflectionTestUtils.setField(streamingUploadService, "uploadPartSize", S3MultipartUploadStream.MIN_PART_SIZE);
+        ReflectionTestUtils.setField(streamingUploadService, "maxInFlightParts", 2);
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-id").build());
+        return streamingUploadService;
+    }
+
+    @Test
+    void uploadDirectoryAsZip_StreamZip_ShouldUploadMultipartWithoutLocalZip() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("vocals.mp3"), "vocals");
+        S3UploadService streamingUploadService = streamingUploadService();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag-1").build());
+
+        String objectKey = streamingUploadService.uploadDirectoryAsZip(sourceDirectory.toString(), bucketName);
+
+        assertTrue(objectKey.startsWith(SUB_BUCKET) && objectKey.endsWith(".zip"), "The key should name the ZIP under the SUB_BUCKET");
+        ArgumentCaptor<CompleteMultipartUploadRequest> captor = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(captor.capture());
+        assertEquals(objectKey, captor.getValue().key());
+        assertEquals(1, captor.getValue().multipartUpload().parts().size());
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".zip")), "No ZIP file should be written to disk");
+        }
+        verifyNoInteractions(s3TransferManager);
+    }
+
+    @Test
+    void uploadDirectoryAsZip_StreamZipPartFails_ShouldAbortUploadAndThrowS3UploadException() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("vocals.mp3"), "vocals");
+        S3UploadService streamingUploadService = streamingUploadService();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(SdkException.builder().message("Connection reset").build());
+
+        S3UploadException exception = assertThrows(S3UploadException.class, () ->
+                streamingUploadService.uploadDirectoryAsZip(sourceDirectory.toString(), bucketName));
+
+        assertEquals("Failed to stream directory as zip to S3", exception.getMessage());
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void uploadDirectoryAsZipToS3Async_ValidInput_ShouldCompleteWithPresignedUrlOnceUploaded() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("vocals.mp3"), "vocals");
+        S3UploadService asyncUploadService = new S3UploadService(s3Presigner, s3TransferManager, s3Client, Runnable::run, Runnable::run, Runnable::run);
+        FileUpload fileUpload = mock(FileUpload.class);
+        CompletableFuture<CompletedFileUpload> transfer = new CompletableFuture<>();
+        when(s3TransferManager.uploadFile(any(UploadFileRequest.class))).thenReturn(fileUpload);
+        when(fileUpload.completionFuture()).thenReturn(transfer);
+        PresignedGetObjectRequest presignedGetObjectRequest = mock(PresignedGetObjectRequest.class);
+        when(presignedGetObjectRequest.url()).thenReturn(URI.create(expectedPresignedUrl).toURL());
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenReturn(presignedGetObjectRequest);
+
+        CompletableFuture<String> presignedUrl = asyncUploadService.uploadDirectoryAsZipToS3Async(sourceDirectory.toString(), bucketName);
+
+        assertFalse(presignedUrl.isDone(), "The future should not complete before the transfer");
+        verifyNoInteractions(s3Presigner);
+
+        transfer.complete(CompletedFileUpload.builder().response(PutObjectResponse.builder().build()).build());
+
+        assertEquals(expectedPresignedUrl, presignedUrl.join());
+        try (Stream<Path> leftovers = Files.list(tempDirectory)) {
+            assertEquals(0, leftovers.count(), "The renamed directory and its ZIP file should be deleted once uploaded");
+        }
+    }
+
+    @Test
+    void uploadDirectoryAsZipAsync_TransferFails_ShouldCompleteExceptionallyWithS3UploadException() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("vocals.mp3"), "vocals");
+        S3UploadService asyncUploadService = new S3UploadService(s3Presigner, s3TransferManager, s3Client, Runnable::run, Runnable::run, Runnable::run);
+        FileUpload fileUpload = mock(FileUpload.class);
+        when(s3TransferManager.uploadFile(any(UploadFileRequest.class))).thenReturn(fileUpload);
+        when(fileUpload.completionFuture()).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Connection reset")));
+
+        CompletionException exception = assertThrows(CompletionException.class, () ->
+                asyncUploadService.uploadDirectoryAsZipAsync(sourceDirectory.toString(), bucketName).join());
+
+        assertTrue(exception.getCause() instanceof S3UploadException, "The cause should be an S3UploadException");
+        assertEquals("Failed to upload directory as zip to S3", exception.getCause().getMessage());
+        assertEquals("Connection reset", exception.getCause().getCause().getMessage());
+    }
+
+    @Test
+    void uploadDirectoryAsZipAsync_InvalidDirectoryPath_ShouldReturnFailedFuture() {
+
+        CompletableFuture<String> objectKey = s3UploadService.uploadDirectoryAsZipAsync(null, bucketName);
+
+        assertTrue(objectKey.isCompletedExceptionally());
+        verifyNoInteractions(s3TransferManager);
+    }
+
+    @Test
+    void uploadStemsToS3_ValidInput_ShouldUploadEveryStemUnderOnePrefix() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("vocals.wav"), "vocals");
+        Files.writeString(sourceDirectory.resolve("drums.wav"), "drums");
+        FileUpload fileUpload = mock(FileUpload.class);
+        when(s3TransferManager.uploadFile(any(UploadFileRequest.class))).thenReturn(fileUpload);
+        when(fileUpload.completionFuture()).thenReturn(CompletableFuture.completedFuture(
+                CompletedFileUpload.builder().response(PutObjectResponse.builder().build()).build()));
+
+        Map<String, String> stemKeys = s3UploadService.uploadStemsToS3(sourceDirectory.toString(), bucketName);
+
+        String prefix = s3UploadService.getStemsKeyPrefix(stemKeys);
+        assertEquals(List.of("drums", "vocals"), List.copyOf(stemKeys.keySet()));
+        assertTrue(prefix.startsWith(SUB_BUCKET) && prefix.endsWith("/"), "The stems should share a prefix under the SUB_BUCKET");
+        assertEquals(prefix + "vocals.wav", stemKeys.get("vocals"));
+        verify(s3TransferManager, times(2)).uploadFile(any(UploadFileRequest.class));
+        verify(s3Client, never()).deleteObjects(any(DeleteObjectsRequest.class));
+        try (Stream<Path> leftovers = Files.list(tempDirectory)) {
+            assertEquals(0, leftovers.count(), "The renamed stems directory should be deleted once uploaded");
+        }
+    }
+
+    @Test
+    void uploadStemsToS3_StemUploadFails_ShouldDeleteUploadedStemsAndThrowS3UploadException() throws Exception {
+
+        Path sourceDirectory = Files.createDirectory(tempDirectory.resolve("sourceDirectory"));
+        Files.writeString(sourceDirectory.resolve("bass.wav"), "bass");
+        Files.writeString(sourceDirectory.resolve("vocals.wav"), "vocals");
+        FileUpload completedUpload = mock(FileUpload.class);
+        FileUpload failedUpload = mock(FileUpload.class);
+        when(s3TransferManager.uploadFile(any(UploadFileRequest.class))).thenReturn(completedUpload, failedUpload);
+        when(completedUpload.completionFuture()).thenReturn(CompletableFuture.completedFuture(
+                CompletedFileUpload.builder().response(PutObjectResponse.builder().build()).build()));
+        when(failedUpload.completionFuture()).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Connection reset")));
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        S3UploadException exception = assertThrows(S3UploadException.class, () ->
+                s3UploadService.uploadStemsToS3(sourceDirectory.toString(), bucketName));
+
+        assertEquals("Failed to upload stems to S3", exception.getMessage());
+        assertEquals("Connection reset", exception.getCause().getMessage());
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client).deleteObjects(captor.capture());
+        List<ObjectIdentifier> deletedObjects = captor.getValue().delete().objects();
+        assertEquals(1, deletedObjects.size());
+        assertTrue(deletedObjects.get(0).key().endsWith("/bass.wav"), "Only the stem that was uploaded should be deleted");
+    }
+
+    @Test
+    void deleteObjectsFromS3_ManyKeys_ShouldDeleteInChunksAndReturnFailedKeys() {
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            keys.add(SUB_BUCKET + "result-" + i + ".zip");
+        }
+        keys.add(SUB_BUCKET + "result-0.zip"); // Duplicates are deleted once
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(
+                DeleteObjectsResponse.builder().build(),
+                DeleteObjectsResponse.builder().errors(error -> error.key(SUB_BUCKET + "result-1500.zip").message("Access Denied")).build(),
+                DeleteObjectsResponse.builder().build());
+
+        Set<String> failedKeys = s3UploadService.deleteObjectsFromS3(bucketName, keys);
+
+        assertEquals(Set.of(SUB_BUCKET + "result-1500.zip"), failedKeys);
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3Client, times(3)).deleteObjects(captor.capture());
+        assertEquals(List.of(1000, 1000, 500), captor.getAllValues().stream().map(request -> request.delete().objects().size()).toList());
+        assertTrue(captor.getAllValues().get(0).delete().quiet(), "Only the failed keys should be returned");
+        assertEquals(bucketName, captor.getValue().bucket());
+    }
+
     @Test
     void uploadFileFromLocalToS3_ValidInput_ShouldUploadSuccessfully() throws Exception {
 
@@ -408,10 +601,12 @@ public class S3UploadServiceTest {
                 () -> assertEquals(bucketName, capturedUploadFileRequest.putObjectRequest().bucket(), "The bucket name should match the provided bucketName"),
                 () -> assertEquals(SUB_BUCKET + zipS3File.getFileName().toString(),
                         capturedUploadFileRequest.putObjectRequest().key(),
-                        "The key should match the SUB_BUCKET plus the file name")
+                        "The key should match the SUB_BUCKET plus the file name"),
+                () -> assertTrue(capturedUploadFileRequest.transferListeners().stream().anyMatch(TransferMetricsListener.class::isInstance),
+                        "The upload should be measured")
         );
 
-        verify(s3TransferManager, times(1)).close();
+        verify(s3TransferManager, never()).close(); // The transfer manager is shared and closed with the context
         verifyNoMoreInteractions(s3TransferManager);
     }
 
@@ -438,7 +633,7 @@ public class S3UploadServiceTest {
         assertTrue(cause instanceof RuntimeException, "Cause should be a RuntimeException");
         assertEquals("Simulated S3 Transfer Exception", cause.getMessage(), "Cause message should match");
 
-        verify(s3TransferManager, times(1)).close();
+        verify(s3TransferManager, never()).close(); // The transfer manager is shared and closed with the context
         verifyNoMoreInteractions(s3TransferManager);
     }
 
@@ -0,0 +1,51 @@
+package com.audiosource.backend.service.s3;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.transfer.s3.progress.TransferListener;
+import software.amazon.awssdk.transfer.s3.progress.TransferProgressSnapshot;
+
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TransferMetricsListenerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private TransferProgressSnapshot snapshot(long transferredBytes, long totalBytes) {
+        TransferProgressSnapshot snapshot = mock(TransferProgressSnapshot.class);
+        when(snapshot.transferredBytes()).thenReturn(transferredBytes);
+        when(snapshot.totalBytes()).thenReturn(OptionalLong.of(totalBytes));
+        return snapshot;
+    }
+
+    private void transfer(TransferMetricsListener listener, long totalBytes, long... progress) throws InterruptedException {
+        TransferListener.Context.TransferInitiated initiated = mock(TransferListener.Context.TransferInitiated.class);
+        when(initiated.progressSnapshot()).thenReturn(snapshot(0, totalBytes));
+        listener.transferInitiated(initiated);
+        Thread.sleep(5);
+
+        for (long transferredBytes : progress) {
+            TransferListener.Context.BytesTransferred bytesTransferred = mock(TransferListener.Context.BytesTransferred.class);
+            when(bytesTransferred.progressSnapshot()).thenReturn(snapshot(transferredBytes, totalBytes));
+            listener.bytesTransferred(bytesTransferred);
+        }
+
+        TransferListener.Context.TransferComplete complete = mock(TransferListener.Context.TransferComplete.class);
+        when(complete.progressSnapshot()).thenReturn(snapshot(progress[progress.length - 1], totalBytes));
+        listener.transferComplete(complete);
+    }
+
+    @Test
+    void transferComplete_RecordsThroughputAndTimeToFirstByte() throws InterruptedException {
+        TransferMetricsListener listener = new TransferMetricsListener("download", "key");
+
+        transfer(listener, 32 * MB, 8 * MB, 16 * MB, 32 * MB);
+
+        assertTrue(listener.isCompleted());
+        assertTrue(listener.getTimeToFirstByteMillis() >= 5, "The first byte arrived after the initiation");
+        assertTrue(listener.getBytesPerSecond() > 0);
+    }
+}
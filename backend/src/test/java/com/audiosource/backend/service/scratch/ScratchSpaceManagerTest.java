@@ -0,0 +1,120 @@
+package com.audiosource.backend.service.scratch;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ScratchSpaceManagerTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    private ScratchSpaceManager scratchSpaceManager;
+    private Path scratchDirectory;
+    private Path tmpfsDirectory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        scratchDirectory = tempDirectory.resolve("scratch");
+        tmpfsDirectory = tempDirectory.resolve("tmpfs");
+        scratchSpaceManager = new ScratchSpaceManager();
+        ReflectionTestUtils.setField(scratchSpaceManager, "enabled", true);
+        ReflectionTestUtils.setField(scratchSpaceManager, "scratchDirectory", scratchDirectory.toString());
+        ReflectionTestUtils.setField(scratchSpaceManager, "maxBytes", 1000L);
+        ReflectionTestUtils.setField(scratchSpaceManager, "reservationFactor", 10L);
+        ReflectionTestUtils.setField(scratchSpaceManager, "tmpfsDirectory", "");
+        ReflectionTestUtils.setField(scratchSpaceManager, "tmpfsMaxJobBytes", 10L);
+        ReflectionTestUtils.setField(scratchSpaceManager, "tmpfsMaxBytes", 200L);
+        scratchSpaceManager.init();
+    }
+
+    @Test
+    void allocate_QueuesJobUntilScratchSpaceIsReleased() throws Exception {
+        scratchSpaceManager.allocate("job-1", 60);
+        assertEquals(600, scratchSpaceManager.getReservedBytes());
+
+        CountDownLatch allocated = new CountDownLatch(1);
+        Thread queuedJob = new Thread(() -> {
+            try {
+                scratchSpaceManager.allocate("job-2", 60);
+                allocated.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queuedJob.start();
+
+        assertFalse(allocated.await(200, TimeUnit.MILLISECONDS));
+
+        scratchSpaceManager.release("job-1");
+        assertTrue(allocated.await(5, TimeUnit.SECONDS));
+        queuedJob.join();
+        assertEquals(600, scratchSpaceManager.getReservedBytes());
+        assertTrue(Files.isDirectory(scratchDirectory.resolve("job-2")));
+    }
+
+    @Test
+    void allocate_AdmitsOversizedJob_WhenNothingElseIsReserved() throws Exception {
+        ScratchSpaceManager.Workspace workspace = scratchSpaceManager.allocate("job-1", 500).orElseThrow();
+
+        assertEquals(5000, workspace.getReservedBytes());
+        assertEquals(scratchDirectory.resolve("job-1"), workspace.getDirectory());
+    }
+
+    @Test
+    void allocate_SmallJob_ShouldUseTmpfsRoot() throws Exception {
+        ReflectionTestUtils.setField(scratchSpaceManager, "tmpfsDirectory", tmpfsDirectory.toString());
+
+        ScratchSpaceManager.Workspace small = scratchSpaceManager.allocate("small", 10).orElseThrow();
+        ScratchSpaceManager.Workspace large = scratchSpaceManager.allocate("large", 11).orElseThrow();
+
+        assertTrue(small.isOnTmpfs());
+        assertEquals(tmpfsDirectory.resolve("small"), small.getDirectory());
+        assertFalse(large.isOnTmpfs(), "Jobs over tmpfsMaxJobBytes should use the disk root");
+        assertEquals(100, scratchSpaceManager.getReservedTmpfsBytes());
+        assertEquals(110, scratchSpaceManager.getReservedBytes());
+    }
+
+    @Test
+    void release_DeletesWorkspaceAndRegisteredPaths() throws Exception {
+        Path original = Files.write(tempDirectory.resolve("song.wav"), new byte[16]);
+        Path processedDirectory = Files.createDirectories(tempDirectory.resolve("separated/htdemucs/job-1-song"));
+        Files.write(processedDirectory.resolve("vocals.wav"), new byte[16]);
+        ScratchSpaceManager.Workspace workspace = scratchSpaceManager.allocate("job-1", 16).orElseThrow();
+
+        String stagedPath = scratchSpaceManager.stageInput("job-1", original.toString());
+        scratchSpaceManager.registerForCleanup("job-1", processedDirectory);
+        assertEquals(workspace.getDirectory().resolve("job-1-song.wav").toString(), stagedPath);
+        assertTrue(Files.exists(Path.of(stagedPath)));
+
+        scratchSpaceManager.release("job-1");
+        scratchSpaceManager.release("job-1");
+
+        assertFalse(Files.exists(workspace.getDirectory()));
+        assertFalse(Files.exists(processedDirectory));
+        assertTrue(Files.exists(original), "The original should stay where it was, e.g. in the input cache");
+        assertEquals(0, scratchSpaceManager.getReservedBytes());
+        assertEquals(0, scratchSpaceManager.getWorkspaceCount());
+    }
+
+    @Test
+    void init_DeletesWorkspacesLeftByPreviousRun() throws IOException {
+        Path leftover = Files.createDirectories(scratchDirectory.resolve("old-job"));
+        Files.write(leftover.resolve("song.wav"), new byte[16]);
+
+        scratchSpaceManager.init();
+
+        assertFalse(Files.exists(leftover));
+    }
+}
@@ -0,0 +1,247 @@
+package com.audiosource.backend.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ParallelZipWriterTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelZipWriterTest.class);
+
+    @TempDir
+    Path tempDirectory;
+
+    private ExecutorService executor;
+    private ParallelZipWriter parallelZipWriter;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        parallelZipWriter = new ParallelZipWriter(executor, 6);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // 16-bit PCM-like content: a tone with some noise, compressible like real stems
+    private static byte[] audioLikeBytes(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i + 1 < length; i += 2) {
+            short sample = (short) (Math.sin(i / 40.0) * 8000 + random.nextInt(512));
+            bytes[i] = (byte) sample;
+            bytes[i + 1] = (byte) (sample >> 8);
+        }
+        return bytes;
+    }
+
+    private Path stemsDirectory(int stemBytes) throws IOException {
+        Path stems = Files.createDirectories(tempDirectory.resolve("stems").resolve("htdemucs"));
+        String[] names = {"vocals.wav", "drums.wav", "bass.wav", "other.wav"};
+        for (int i = 0; i < names.length; i++) {
+            Files.write(stems.resolve(names[i]), audioLikeBytes(stemBytes, i));
+        }
+        Files.write(stems.resolve("empty.txt"), new byte[0]);
+        return tempDirectory.resolve("stems");
+    }
+
+    private static Map<String, byte[]> readWithZipFile(Path zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            for (ZipEntry entry : zipFile.stream().toList()) {
+                try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                    entries.put(entry.getName(), inputStream.readAllBytes());
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, byte[]> readWithZipInputStream(byte[] zip) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                entries.put(entry.getName(), zipInputStream.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    // Runs an external ZIP reader on the archive, the test is skipped when the tool is not installed
+    private static void assertAcceptedBy(String... command) throws IOException, InterruptedException {
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            assumeTrue(false, command[0] + " is not installed");
+            return;
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(process.waitFor(60, TimeUnit.SECONDS), command[0] + " did not finish");
+        assertEquals(0, process.exitValue(), String.join(" ", command) + " rejected the archive:" + System.lineSeparator() + output);
+    }
+
+    private static void assertSameEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((name, content) -> assertArrayEquals(content, actual.get(name), name));
+    }
+
+    @Test
+    void toZipDirectory_WritesSameEntriesAsSequentialZip() throws IOException {
+        Path stems = stemsDirectory(300_000);
+        Path sequentialZip = Files.move(S3Utils.toZipDirectory(stems), tempDirectory.resolve("sequential.zip"));
+
+        Path parallelZip = parallelZipWriter.toZipDirectory(stems);
+
+        assertEquals(stems.resolveSibling("stems.zip"), parallelZip);
+        assertSameEntries(readWithZipFile(sequentialZip), readWithZipFile(parallelZip));
+        assertSameEntries(readWithZipFile(sequentialZip), readWithZipInputStream(Files.readAllBytes(parallelZip)));
+    }
+
+    @Test
+    void toZipDirectory_PassesUnzipIntegrityTest() throws Exception {
+        Path parallelZip = parallelZipWriter.toZipDirectory(stemsDirectory(300_000));
+
+        assertAcceptedBy("unzip", "-t", "-q", parallelZip.toString());
+    }
+
+    @Test
+    void toZipDirectory_PassesPythonZipfileIntegrityTest() throws Exception {
+        Path parallelZip = parallelZipWriter.toZipDirectory(stemsDirectory(300_000));
+
+        // testzip() returns the name of the first corrupt entry, or None
+        assertAcceptedBy("python3", "-c", "import sys, zipfile; sys.exit(zipfile.ZipFile(sys.argv[1]).testzip() is not None)",
+                parallelZip.toString());
+    }
+
+    @Test
+    void writeZipDirectory_KeepsWalkOrderAndLeavesNoTemporaryFiles() throws IOException {
+        Path stems = stemsDirectory(100_000);
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        S3Utils.writeZipDirectory(stems, sequential);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+
+        parallelZipWriter.writeZipDirectory(stems, parallel);
+
+        assertEquals(readWithZipInputStream(sequential.toByteArray()).keySet().stream().toList(),
+                readWithZipInputStream(parallel.toByteArray()).keySet().stream().toList());
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            assertFalse(files.anyMatch(path -> path.getFileName().toString().endsWith(".part")), "Temporary entries should be deleted");
+        }
+    }
+
+    @Test
+    void writeZipDirectory_StoresMp3Entries_AndDeflatesWavEntries() throws IOException {
+        Path stems = Files.createDirectories(tempDirectory.resolve("mp3-stems"));
+        byte[] mp3 = audioLikeBytes(200_000, 1);
+        byte[] wav = audioLikeBytes(200_000, 2);
+        Files.write(stems.resolve("vocals.mp3"), mp3);
+        Files.write(stems.resolve("drums.wav"), wav);
+        ParallelZipWriter policyZipWriter = new ParallelZipWriter(executor, new ZipCompressionPolicy(6, 0.97, 64 * 1024));
+
+        Path zip = policyZipWriter.toZipDirectory(stems);
+
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            zipFile.stream().forEach(entry -> methods.put(entry.getName(), entry.getMethod()));
+        }
+        assertEquals(ZipEntry.STORED, methods.get("vocals.mp3"));
+        assertEquals(ZipEntry.DEFLATED, methods.get("drums.wav"));
+        Map<String, byte[]> entries = readWithZipInputStream(Files.readAllBytes(zip));
+        assertArrayEquals(mp3, entries.get("vocals.mp3"));
+        assertArrayEquals(wav, entries.get("drums.wav"));
+        assertTrue(Files.exists(stems.resolve("vocals.mp3")), "Stored entries are read from the original file, which is kept");
+    }
+
+    @Test
+    void sequentialToZipDirectory_StoresMp3Entries_WithCompressionPolicy() throws IOException {
+        Path stems = Files.createDirectories(tempDirectory.resolve("mp3-stems"));
+        byte[] mp3 = audioLikeBytes(200_000, 1);
+        Files.write(stems.resolve("vocals.mp3"), mp3);
+
+        Path zip = S3Utils.toZipDirectory(stems, new ZipCompressionPolicy(6, 0.97, 64 * 1024));
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("vocals.mp3").getMethod());
+        }
+        assertArrayEquals(mp3, readWithZipInputStream(Files.readAllBytes(zip)).get("vocals.mp3"));
+    }
+
+    @Test
+    void toZipDirectory_FailsAndDeletesArchive_WhenFileCannotBeRead() throws IOException {
+        Path stems = stemsDirectory(10_000);
+        Path unreadable = stems.resolve("htdemucs").resolve("drums.wav");
+        assumeTrue(unreadable.toFile().setReadable(false) && !Files.isReadable(unreadable), "Requires a user that permissions apply to");
+        try {
+            assertThrows(IOException.class, () -> parallelZipWriter.toZipDirectory(stems));
+        } finally {
+            Files.setPosixFilePermissions(unreadable, Set.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        }
+
+        assertFalse(Files.exists(stems.resolveSibling("stems.zip")));
+        try (Stream<Path> files = Files.list(tempDirectory)) {
+            assertFalse(files.anyMatch(path -> path.getFileName().toString().endsWith(".part")), "Temporary entries should be deleted");
+        }
+    }
+
+    // Run with -Dzip.benchmark=true, e.g. mvn test -Dtest=ParallelZipWriterTest -Dzip.benchmark=true
+    @Test
+    @EnabledIfSystemProperty(named = "zip.benchmark", matches = "true")
+    void benchmark_ParallelAgainstSequentialZip() throws IOException {
+        Path stems = stemsDirectory(64 * 1024 * 1024);
+        int runs = 3;
+        long sequentialNanos = Long.MAX_VALUE;
+        long parallelNanos = Long.MAX_VALUE;
+
+        for (int run = 0; run <= runs; run++) { // The first run warms up both implementations
+            long start = System.nanoTime();
+            Files.delete(S3Utils.toZipDirectory(stems));
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Files.delete(parallelZipWriter.toZipDirectory(stems));
+            long parallel = System.nanoTime() - start;
+
+            if (run > 0) {
+                sequentialNanos = Math.min(sequentialNanos, sequential);
+                parallelNanos = Math.min(parallelNanos, parallel);
+            }
+        }
+
+        LOGGER.info("Zipping 4 x 64 MB stems: sequential {} ms, parallel {} ms (x{})", sequentialNanos / 1_000_000,
+                parallelNanos / 1_000_000, String.format("%.2f", (double) sequentialNanos / parallelNanos));
+    }
+}
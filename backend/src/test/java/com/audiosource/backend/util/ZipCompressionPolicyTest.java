@@ -0,0 +1,82 @@
+package com.audiosource.backend.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZipCompressionPolicyTest {
+
+    @TempDir
+    Path tempDirectory;
+
+    private final ZipCompressionPolicy zipCompressionPolicy = new ZipCompressionPolicy(6, 0.97, 64 * 1024);
+
+    private Path write(String fileName, byte[] content) throws IOException {
+        return Files.write(tempDirectory.resolve(fileName), content);
+    }
+
+    private static byte[] noise(int length) {
+        byte[] bytes = new byte[length];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void decide_StoresCompressedFormats_WithoutSampling() throws IOException {
+        // Even highly compressible content is stored for an MP3, its extension is enough
+        ZipCompressionPolicy.EntryCompression compression = zipCompressionPolicy.decide(write("vocals.MP3", new byte[100_000]));
+
+        assertTrue(compression.isStored());
+    }
+
+    @Test
+    void decide_StoresWav_WhenSampleDoesNotShrink() throws IOException {
+        assertTrue(zipCompressionPolicy.decide(write("noise.wav", noise(200_000))).isStored());
+    }
+
+    @Test
+    void decide_DeflatesWav_AtLevelWorthItsCost() throws IOException {
+        byte[] silence = new byte[200_000];
+        byte[] repeatedPattern = new byte[200_000];
+        byte[] noise = noise(1000);
+        for (int i = 0; i < repeatedPattern.length; i++) {
+            repeatedPattern[i] = noise[(i * 7) % 997];
+        }
+
+        ZipCompressionPolicy.EntryCompression silent = zipCompressionPolicy.decide(write("silence.wav", silence));
+        ZipCompressionPolicy.EntryCompression patterned = zipCompressionPolicy.decide(write("pattern.wav", repeatedPattern));
+
+        // Level 1 already shrinks silence to almost nothing, level 6 would not save 1% more
+        assertFalse(silent.isStored());
+        assertEquals(Deflater.BEST_SPEED, silent.getLevel());
+        assertFalse(patterned.isStored());
+        assertTrue(patterned.getLevel() == Deflater.BEST_SPEED || patterned.getLevel() == 6);
+    }
+
+    @Test
+    void deflateAll_DeflatesEveryFileAtLevel() throws IOException {
+        ZipCompressionPolicy.EntryCompression compression = ZipCompressionPolicy.deflateAll(9).decide(write("vocals.mp3", noise(1000)));
+
+        assertFalse(compression.isStored());
+        assertEquals(9, compression.getLevel());
+    }
+
+    @Test
+    void crc32_MatchesCrcOfContent() throws IOException {
+        byte[] content = noise(300_000);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        assertEquals(crc.getValue(), ZipCompressionPolicy.crc32(write("vocals.mp3", content)));
+    }
+}